@@ -0,0 +1,159 @@
+package jwmtool;
+
+import java.io.IOException;
+
+import jwmtool.lib.ComparisonWriter;
+import jwmtool.lib.FrameBuffer;
+import jwmtool.lib.YUVConverter;
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * Command line (non-interactive) client for JWMTool, which writes a
+ * comparison videostream of a source videostream and its watermarked
+ * version side by side (see {@link jwmtool.lib.ComparisonWriter
+ * ComparisonWriter}), e.g. to be reviewed or attached to reports with no
+ * need to run the user interface.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class JWMCompare {
+
+	/**
+	 * Command line usage description.
+	 */
+	public static final String USAGE =
+		"USAGE: JWMTool -compare [-difference Y|U|V|ALL] [-amplification N]\n" +
+		"                        [-threads N] SOURCE WATERMARKED OUTPUT";
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a JWMCompare from command line arguments.
+	 *
+	 * @param args Command line arguments (first one, <code>-compare</code>,
+	 *             excluded).
+	 * @throws IllegalArgumentException If arguments are not valid.
+	 */
+	public JWMCompare(String[] args) {
+		int i = 0;
+		while ((i < args.length) && args[i].startsWith("-")) {
+			String option = args[i++];
+			if (i == args.length) { // every option needs a value
+				throw new IllegalArgumentException(option);
+			}
+			else if (option.equals("-difference")) {
+				_difference = parsePlane(args[i++]);
+			}
+			else if (option.equals("-amplification")) {
+				_amplification = Integer.parseInt(args[i++]);
+			}
+			else if (option.equals("-threads")) {
+				_threads = Integer.parseInt(args[i++]);
+			}
+			else {
+				throw new IllegalArgumentException(option);
+			}
+		}
+		if (args.length - i != 3) {
+			throw new IllegalArgumentException();
+		}
+		_source      = args[i++];
+		_watermarked = args[i++];
+		_output      = args[i++];
+	}
+
+	/**
+	 * Writes the comparison videostream.
+	 *
+	 * @throws WatermarkingException
+	 * @throws IOException
+	 */
+	public void run() throws WatermarkingException, IOException {
+		ComparisonWriter writer = new ComparisonWriter(_source, _watermarked);
+		try {
+			writer.setDifference(_difference, _amplification);
+			if (_threads > 0) {
+				writer.setThreads(_threads);
+			}
+			writer.write(_output);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Runs comparison mode, reporting any error on standard error output.
+	 *
+	 * @param args Command line arguments (first one, <code>-compare</code>,
+	 *             excluded).
+	 * @return Process exit status.
+	 */
+	public static int main(String[] args) {
+		try {
+			new JWMCompare(args).run();
+			return 0;
+		} catch (IllegalArgumentException e) {
+			System.err.println(USAGE);
+		} catch (WatermarkingException e) {
+			System.err.println(e.getMessage());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return 1;
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Parses a <code>-difference</code> argument.
+	 *
+	 * @param plane Argument to be parsed.
+	 * @return Plane whose differences are shown.
+	 */
+	private static int parsePlane(String plane) {
+		plane = plane.toUpperCase();
+		if (plane.equals("Y")) {
+			return FrameBuffer.PLANE_Y;
+		}
+		else if (plane.equals("U")) {
+			return FrameBuffer.PLANE_U;
+		}
+		else if (plane.equals("V")) {
+			return FrameBuffer.PLANE_V;
+		}
+		else if (plane.equals("ALL")) {
+			return YUVConverter.ALL_PLANES;
+		}
+		throw new IllegalArgumentException(plane);
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Source videostream name.
+	 */
+	private String _source = null;
+	/**
+	 * Watermarked videostream (or delta) name.
+	 */
+	private String _watermarked = null;
+	/**
+	 * Comparison videostream name.
+	 */
+	private String _output = null;
+	/**
+	 * Plane whose differences are shown (or none).
+	 */
+	private int _difference = ComparisonWriter.DIFFERENCE_NONE;
+	/**
+	 * Factor differences are multiplied by.
+	 */
+	private int _amplification = 1;
+	/**
+	 * Number of worker threads (0 for one per processor).
+	 */
+	private int _threads = 0;
+
+}
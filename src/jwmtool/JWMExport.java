@@ -0,0 +1,189 @@
+package jwmtool;
+
+import java.io.IOException;
+
+import jwmtool.lib.FrameExporter;
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * Command line (non-interactive) client for JWMTool, which exports frames
+ * of a source videostream and its watermarked version as PNG images (see
+ * {@link jwmtool.lib.FrameExporter FrameExporter}), reporting progress on
+ * standard error output.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class JWMExport {
+
+	/**
+	 * Command line usage description.
+	 */
+	public static final String USAGE =
+		"USAGE: JWMTool -export [-range FIRST:LAST] [-step N] [-threads N]\n" +
+		"                       [-source | -watermarked] SOURCE WATERMARKED DIRECTORY\n" +
+		"       Every frame of both videostreams is exported by default.";
+
+	/**
+	 * Time (in milliseconds) between progress reports.
+	 */
+	public static final int PROGRESS_INTERVAL = 1000;
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a JWMExport from command line arguments.
+	 *
+	 * @param args Command line arguments (first one, <code>-export</code>,
+	 *             excluded).
+	 * @throws IllegalArgumentException If arguments are not valid.
+	 */
+	public JWMExport(String[] args) {
+		int i = 0;
+		while ((i < args.length) && args[i].startsWith("-")) {
+			String option = args[i++];
+			if (option.equals("-source")) {
+				_wmarked = false;
+			}
+			else if (option.equals("-watermarked")) {
+				_source = false;
+			}
+			else if (i == args.length) { // every other option needs a value
+				throw new IllegalArgumentException(option);
+			}
+			else if (option.equals("-range")) {
+				String range = args[i++];
+				int colon = range.indexOf(':');
+				if (colon == -1) {
+					throw new IllegalArgumentException(range);
+				}
+				_first = Long.parseLong(range.substring(0, colon));
+				_last  = Long.parseLong(range.substring(colon + 1));
+			}
+			else if (option.equals("-step")) {
+				_step = Long.parseLong(args[i++]);
+			}
+			else if (option.equals("-threads")) {
+				_threads = Integer.parseInt(args[i++]);
+			}
+			else {
+				throw new IllegalArgumentException(option);
+			}
+		}
+		if (!_source && !_wmarked) {
+			throw new IllegalArgumentException();
+		}
+		if (args.length - i != 3) {
+			throw new IllegalArgumentException();
+		}
+		_input     = args[i++];
+		_output    = args[i++];
+		_directory = args[i++];
+	}
+
+	/**
+	 * Exports frames, reporting progress on standard error output.
+	 *
+	 * @throws WatermarkingException
+	 * @throws IOException
+	 */
+	public void run() throws WatermarkingException, IOException {
+		FrameExporter exporter = new FrameExporter(_input, _output);
+		try {
+			exporter.setStreams(_source, _wmarked);
+			if (_threads > 0) {
+				exporter.setThreads(_threads);
+			}
+			Thread reporter = new ProgressReporter(exporter);
+			reporter.setDaemon(true);
+			reporter.start();
+			long exported = exporter.export(_first, _last, _step, _directory);
+			reporter.interrupt();
+			System.err.println(exported + " frames exported");
+		} finally {
+			exporter.close();
+		}
+	}
+
+	/**
+	 * Runs export mode, reporting any error on standard error output.
+	 *
+	 * @param args Command line arguments (first one, <code>-export</code>,
+	 *             excluded).
+	 * @return Process exit status.
+	 */
+	public static int main(String[] args) {
+		try {
+			new JWMExport(args).run();
+			return 0;
+		} catch (IllegalArgumentException e) {
+			System.err.println(USAGE);
+		} catch (WatermarkingException e) {
+			System.err.println(e.getMessage());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return 1;
+	}
+
+	// ----- ----- ----- WORKING THREAD ----- ----- -----
+
+	private static class ProgressReporter extends Thread {
+		public ProgressReporter(FrameExporter exporter) {
+			_exporter = exporter;
+		}
+		public void run() {
+			try {
+				while (true) {
+					Thread.sleep(PROGRESS_INTERVAL);
+					System.err.println(_exporter.getExportedFrames() + "/" + _exporter.getTotalFrames() + " frames exported");
+				}
+			} catch (InterruptedException e) {
+				// export finished
+			}
+		}
+		private FrameExporter _exporter;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Source videostream name.
+	 */
+	private String _input = null;
+	/**
+	 * Watermarked videostream (or delta) name.
+	 */
+	private String _output = null;
+	/**
+	 * Directory images are written to.
+	 */
+	private String _directory = null;
+	/**
+	 * First frame to be exported.
+	 */
+	private long _first = 0;
+	/**
+	 * Last frame to be exported (up to the end of the videostreams, by
+	 * default).
+	 */
+	private long _last = Long.MAX_VALUE;
+	/**
+	 * Number of frames from each exported frame to the next one.
+	 */
+	private long _step = 1;
+	/**
+	 * Whether source frames are exported.
+	 */
+	private boolean _source = true;
+	/**
+	 * Whether watermarked frames are exported.
+	 */
+	private boolean _wmarked = true;
+	/**
+	 * Number of worker threads (0 for one per processor).
+	 */
+	private int _threads = 0;
+
+}
@@ -0,0 +1,209 @@
+package jwmtool;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import jwmtool.lib.Watermarking;
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * Command line (non-interactive) client for JWMTool, which watermarks a
+ * YUV4MPEG2 videostream read from standard input (or a file) and writes the
+ * watermarked videostream to standard output (or a file), so that JWMTool
+ * can be placed in a pipeline, e.g.
+ * <code>ffmpeg ... -f yuv4mpegpipe - | jwmtool -pipe ... | ffmpeg ...</code>
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class JWMPipe {
+
+	/**
+	 * Command line usage description.
+	 */
+	public static final String USAGE =
+		"USAGE: JWMTool -pipe [-range FIRST:LAST] [-absolute | -percentage]\n" +
+		"                     [-uniform VALUE | -incremental LOW:HIGH]\n" +
+		"                     [-components YUV] [-strips] [INPUT [OUTPUT]]\n" +
+		"       INPUT and OUTPUT default to standard input and output (-).";
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a JWMPipe from command line arguments.
+	 *
+	 * @param args Command line arguments (first one, <code>-pipe</code>,
+	 *             excluded).
+	 * @throws IllegalArgumentException If arguments are not valid.
+	 */
+	public JWMPipe(String[] args) {
+		int i = 0;
+		while ((i < args.length) && args[i].startsWith("-") && !args[i].equals("-")) {
+			String option = args[i++];
+			if (option.equals("-strips")) {
+				_stripMode = true;
+			}
+			else if (option.equals("-absolute")) {
+				_modificationType = Watermarking.MODIFICATION_TYPE_ABSOLUTE;
+			}
+			else if (option.equals("-percentage")) {
+				_modificationType = Watermarking.MODIFICATION_TYPE_PERCENTAGE;
+			}
+			else if (i == args.length) { // every other option needs a value
+				throw new IllegalArgumentException(option);
+			}
+			else if (option.equals("-range")) {
+				int[] range = parseRange(args[i++]);
+				_rangeInit = range[0];
+				_rangeEnd  = range[1];
+			}
+			else if (option.equals("-uniform")) {
+				_modificationStep  = Watermarking.MODIFICATION_STEP_UNIFORM;
+				_modificationValue = Integer.parseInt(args[i++]);
+			}
+			else if (option.equals("-incremental")) {
+				int[] range = parseRange(args[i++]);
+				_modificationStep = Watermarking.MODIFICATION_STEP_INCREMENTAL;
+				_lowLimit   = range[0];
+				_upperLimit = range[1];
+			}
+			else if (option.equals("-components")) {
+				String components = args[i++].toUpperCase();
+				_modifyY = components.indexOf('Y') != -1;
+				_modifyU = components.indexOf('U') != -1;
+				_modifyV = components.indexOf('V') != -1;
+			}
+			else {
+				throw new IllegalArgumentException(option);
+			}
+		}
+		if (i < args.length) {
+			_input = args[i++];
+		}
+		if (i < args.length) {
+			_output = args[i++];
+		}
+		if (i < args.length) {
+			throw new IllegalArgumentException(args[i]);
+		}
+	}
+
+	/**
+	 * Watermarks input videostream into output videostream.
+	 *
+	 * @throws WatermarkingException
+	 * @throws IOException
+	 */
+	public void run() throws WatermarkingException, IOException {
+		InputStream  input  = _input.equals("-")  ? System.in  : new FileInputStream(_input);
+		OutputStream output = _output.equals("-") ? System.out : new FileOutputStream(_output);
+		try {
+			Watermarking wmtool = new Watermarking(_input, _output);
+			wmtool.setStripMode(_stripMode);
+			wmtool.watermark(input, output, _rangeInit, _rangeEnd, _modificationType, _modificationStep,
+					 _lowLimit, _upperLimit, _modificationValue, null,
+					 _modifyY, _modifyU, _modifyV);
+		} finally {
+			input.close();
+			output.close();
+		}
+	}
+
+	/**
+	 * Runs pipe mode, reporting any error on standard error output.
+	 *
+	 * @param args Command line arguments (first one, <code>-pipe</code>,
+	 *             excluded).
+	 * @return Process exit status.
+	 */
+	public static int main(String[] args) {
+		try {
+			new JWMPipe(args).run();
+			return 0;
+		} catch (IllegalArgumentException e) {
+			System.err.println(USAGE);
+		} catch (WatermarkingException e) {
+			System.err.println(e.getMessage());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return 1;
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Parses a <code>LOW:HIGH</code> argument.
+	 *
+	 * @param range Argument to be parsed.
+	 * @return Array with low and high values.
+	 */
+	private static int[] parseRange(String range) {
+		int colon = range.indexOf(':');
+		if (colon == -1) {
+			throw new IllegalArgumentException(range);
+		}
+		return new int[] { Integer.parseInt(range.substring(0, colon)),
+				   Integer.parseInt(range.substring(colon + 1)) };
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Input videostream name (<code>-</code> for standard input).
+	 */
+	private String _input  = "-";
+	/**
+	 * Output videostream name (<code>-</code> for standard output).
+	 */
+	private String _output = "-";
+	/**
+	 * Whether watermarking is performed one strip at a time or not.
+	 */
+	private boolean _stripMode = false;
+	/**
+	 * First coefficient in 1-63 zigzag sequence to be modified.
+	 */
+	private int _rangeInit = 1;
+	/**
+	 * Last coefficient in 1-63 zigzag sequence to be modified.
+	 */
+	private int _rangeEnd  = 63;
+	/**
+	 * Type of modification (absolute or percentage).
+	 */
+	private int _modificationType = Watermarking.MODIFICATION_TYPE_ABSOLUTE;
+	/**
+	 * Type of modification step (uniform or incremental).
+	 */
+	private int _modificationStep = Watermarking.MODIFICATION_STEP_UNIFORM;
+	/**
+	 * Lowest value to add to coefficients.
+	 */
+	private int _lowLimit   = 0;
+	/**
+	 * Highest value to add to coefficients.
+	 */
+	private int _upperLimit = 0;
+	/**
+	 * Constant value to add to coefficients.
+	 */
+	private int _modificationValue = 0;
+	/**
+	 * Whether luminance component is to be altered or not.
+	 */
+	private boolean _modifyY = true;
+	/**
+	 * Whether blue chrominance component is to be altered or not.
+	 */
+	private boolean _modifyU = false;
+	/**
+	 * Whether red chrominance component is to be altered or not.
+	 */
+	private boolean _modifyV = false;
+
+}
@@ -0,0 +1,128 @@
+package jwmtool;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import jwmtool.lib.ComparisonServer;
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * Command line (non-interactive) client for JWMTool, which serves a source
+ * videostream and its watermarked version over HTTP (see
+ * {@link jwmtool.lib.ComparisonServer ComparisonServer}) until it is
+ * killed, so that several reviewers can compare them at once with a web
+ * browser.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class JWMServe {
+
+	/**
+	 * Command line usage description.
+	 */
+	public static final String USAGE =
+		"USAGE: JWMTool -serve [-address ADDRESS] [-port PORT] [-cache MB]\n" +
+		"                      SOURCE WATERMARKED\n" +
+		"       Serves on localhost, port " + ComparisonServer.DEFAULT_PORT + ", by default.";
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a JWMServe from command line arguments.
+	 *
+	 * @param args Command line arguments (first one, <code>-serve</code>,
+	 *             excluded).
+	 * @throws IllegalArgumentException If arguments are not valid.
+	 */
+	public JWMServe(String[] args) {
+		int i = 0;
+		while ((i < args.length) && args[i].startsWith("-")) {
+			String option = args[i++];
+			if (i == args.length) { // every option needs a value
+				throw new IllegalArgumentException(option);
+			}
+			else if (option.equals("-address")) {
+				_address = args[i++];
+			}
+			else if (option.equals("-port")) {
+				_port = Integer.parseInt(args[i++]);
+			}
+			else if (option.equals("-cache")) {
+				_cacheMemory = Long.parseLong(args[i++]) << 20;
+			}
+			else {
+				throw new IllegalArgumentException(option);
+			}
+		}
+		if (args.length - i != 2) {
+			throw new IllegalArgumentException();
+		}
+		_input  = args[i++];
+		_output = args[i++];
+	}
+
+	/**
+	 * Serves both videostreams, until the process is killed.
+	 *
+	 * @throws WatermarkingException
+	 * @throws IOException
+	 */
+	public void run() throws WatermarkingException, IOException {
+		ComparisonServer server = new ComparisonServer(_input, _output, _cacheMemory);
+		server.start(new InetSocketAddress(_address, _port));
+		System.err.println("Serving on http://" + _address + ":" + server.getPort() + "/");
+		try {
+			server.waitForStop();
+		} catch (InterruptedException e) {
+			server.stop();
+		}
+	}
+
+	/**
+	 * Runs server mode, reporting any error on standard error output.
+	 *
+	 * @param args Command line arguments (first one, <code>-serve</code>,
+	 *             excluded).
+	 * @return Process exit status.
+	 */
+	public static int main(String[] args) {
+		try {
+			new JWMServe(args).run();
+			return 0;
+		} catch (IllegalArgumentException e) {
+			System.err.println(USAGE);
+		} catch (WatermarkingException e) {
+			System.err.println(e.getMessage());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return 1;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Source videostream name.
+	 */
+	private String _input = null;
+	/**
+	 * Watermarked videostream (or delta) name.
+	 */
+	private String _output = null;
+	/**
+	 * Address to listen on.
+	 */
+	private String _address = "localhost";
+	/**
+	 * Port to listen on.
+	 */
+	private int _port = ComparisonServer.DEFAULT_PORT;
+	/**
+	 * Memory budget of encoded images, in bytes.
+	 */
+	private long _cacheMemory = ComparisonServer.DEFAULT_CACHE_MEMORY;
+
+}
@@ -13,12 +13,42 @@ public class JWMTool {
 	 * Static main method to run the application.
 	 * Configuration file is provided to
 	 * {@link jwmtool.util.ConfigurationParametersManager ConfigurationParametersManager}
-	 * and then {@link jwmtool.ui.MainWindow MainWindow} is displayed.
+	 * and then {@link jwmtool.ui.MainWindow MainWindow} is displayed,
+	 * unless <code>-pipe</code> is given as first argument, in which case
+	 * {@link jwmtool.JWMPipe JWMPipe} watermarks standard input into
+	 * standard output instead, <code>-compare</code>, in which case
+	 * {@link jwmtool.JWMCompare JWMCompare} writes a side by side comparison
+	 * videostream, <code>-export</code>, in which case
+	 * {@link jwmtool.JWMExport JWMExport} exports frames as PNG images, and
+	 * <code>-serve</code>, in which case {@link jwmtool.JWMServe JWMServe}
+	 * serves the comparison over HTTP.
 	 *
-	 * @param args Arguments to the main function (none are expected or used).
+	 * @param args Arguments to the main function (none are expected, but
+	 *             for <code>-pipe</code>, <code>-compare</code>,
+	 *             <code>-export</code> and <code>-serve</code> modes).
 	 */
 	public static void main (final String args[]) {
 		jwmtool.util.ConfigurationParametersManager.getInstance().setConfigFile("jwmtool.conf");
+		if ((args.length > 0) && args[0].equals("-pipe")) {
+			String[] pipeArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, pipeArgs, 0, pipeArgs.length);
+			System.exit(JWMPipe.main(pipeArgs));
+		}
+		if ((args.length > 0) && args[0].equals("-compare")) {
+			String[] compareArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, compareArgs, 0, compareArgs.length);
+			System.exit(JWMCompare.main(compareArgs));
+		}
+		if ((args.length > 0) && args[0].equals("-export")) {
+			String[] exportArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, exportArgs, 0, exportArgs.length);
+			System.exit(JWMExport.main(exportArgs));
+		}
+		if ((args.length > 0) && args[0].equals("-serve")) {
+			String[] serveArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, serveArgs, 0, serveArgs.length);
+			System.exit(JWMServe.main(serveArgs));
+		}
 		jwmtool.ui.MainWindow.getInstance().setVisible(true);
 	}
 	
@@ -0,0 +1,616 @@
+package jwmtool.lib;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetSocketAddress;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * A ComparisonServer serves a source videostream and its watermarked
+ * version over HTTP, so that several reviewers can look at the same
+ * (possibly huge) files at once with nothing but a web browser:
+ * <ul>
+ * <li><code>/</code> is a page playing the comparison.</li>
+ * <li><code>/stream?start=N&amp;view=V&amp;scale=S</code> streams the
+ *     comparison as MJPEG (<code>multipart/x-mixed-replace</code>), from
+ *     frame N, at the videostreams frame rate (frames are dropped if a
+ *     viewer falls behind).</li>
+ * <li><code>/frame/N.jpg?view=V&amp;scale=S</code> (or <code>.png</code>)
+ *     is frame N, as a single image.</li>
+ * </ul>
+ * Frame numbers start at 0. The view V is {@link #VIEW_BOTH both}
+ * frames side by side (source on the left, the default), the
+ * {@link #VIEW_SOURCE source} frame or the {@link #VIEW_WMARKED
+ * watermarked} frame. The scale S (greater than 0, up to 1, the default)
+ * is the factor frames are scaled down by, while converting them. <br/>
+ *
+ * Frames are read at their position in the files, and converted and
+ * encoded on a pool of worker threads. Encoded images are kept in a shared
+ * {@link jwmtool.lib.EncodedFrameCache EncodedFrameCache}, so that each
+ * image is encoded once, however many viewers ask for it; the last few
+ * frames decoded are kept too (as raw data and converted images), so that
+ * each frame is decoded once, whatever the format, view and scale it is
+ * encoded with. Only the frames a view shows are read (except when the
+ * watermarked frame is rebuilt from a delta file, which needs the source
+ * one).
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class ComparisonServer {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * Default port to listen on.
+	 */
+	public static final int DEFAULT_PORT = 8084;
+	/**
+	 * Default memory budget (in bytes) of encoded images.
+	 */
+	public static final long DEFAULT_CACHE_MEMORY = 256L << 20;
+	/**
+	 * JPEG quality (from 0 to 1).
+	 */
+	public static final float JPEG_QUALITY = 0.9f;
+	/**
+	 * Number of frames encoded ahead of each stream.
+	 */
+	public static final int READ_AHEAD = 4;
+	/**
+	 * Number of decoded frames kept, shared by every format, view and
+	 * scale.
+	 */
+	public static final int DECODED_FRAMES = 4 * READ_AHEAD;
+	/**
+	 * Both frames, side by side.
+	 */
+	public static final String VIEW_BOTH = "both";
+	/**
+	 * Source frame.
+	 */
+	public static final String VIEW_SOURCE = "source";
+	/**
+	 * Watermarked frame.
+	 */
+	public static final String VIEW_WMARKED = "watermarked";
+	/**
+	 * Boundary between frames of MJPEG streams.
+	 */
+	public static final String BOUNDARY = "jwmtoolframe";
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Opens a source videostream file and its watermarked version.
+	 *
+	 * @param filename Name of the source videostream file.
+	 * @param outputFilename Name of the watermarked videostream (or delta)
+	 *                       file.
+	 * @param cacheMemory Memory budget of encoded images, in bytes.
+	 * @throws WatermarkingException If any of the files can not be read.
+	 */
+	public ComparisonServer(String filename, String outputFilename, long cacheMemory) throws WatermarkingException {
+		_engine = WatermarkingEngine.open(filename, outputFilename);
+		_converter = _engine.createConverter(_engine.getGeometry().getWidth(), _engine.getGeometry().getHeight(),
+						     _engine.getGeometry().getYUVFormat());
+		_decoded = new LinkedHashMap<Long, DecodedFrame>(16, 0.75f, true); // access order, eldest is least recently used
+		_encoders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new WorkerFactory("JWMTool frame encoder"));
+		_cache = new EncodedFrameCache(cacheMemory, _encoders);
+	}
+
+	/**
+	 * Starts serving.
+	 *
+	 * @param address Address to listen on (port 0 for any free port).
+	 * @throws IOException If the address can not be listened on.
+	 */
+	public synchronized void start(InetSocketAddress address) throws IOException {
+		_server = HttpServer.create(address, 0);
+		_server.createContext("/", new IndexHandler());
+		_server.createContext("/frame/", new FrameHandler());
+		_server.createContext("/stream", new StreamHandler());
+		_server.setExecutor(Executors.newCachedThreadPool(new WorkerFactory("JWMTool HTTP server"))); // each stream takes a thread
+		_server.start();
+	}
+
+	/**
+	 * Stops serving, for good. Open streams are closed, and so are both
+	 * videostream files.
+	 */
+	public synchronized void stop() {
+		if (_server != null) {
+			_server.stop(0);
+			((ExecutorService) _server.getExecutor()).shutdown();
+			_server = null;
+			notifyAll();
+		}
+		_encoders.shutdown();
+		try {
+			_engine.close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Waits until the server is stopped.
+	 *
+	 * @throws InterruptedException
+	 */
+	public synchronized void waitForStop() throws InterruptedException {
+		while (_server != null) {
+			wait();
+		}
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 *
+	 * @return Port number (-1 if not serving).
+	 */
+	public synchronized int getPort() {
+		return (_server != null) ? _server.getAddress().getPort() : -1;
+	}
+
+	/**
+	 * Returns the cache of encoded images, e.g. to know how often images
+	 * are shared among viewers.
+	 *
+	 * @return Shared cache.
+	 */
+	public EncodedFrameCache getCache() {
+		return _cache;
+	}
+
+	/**
+	 * Obtains a frame, encoded, from the cache (or encodes it, if not
+	 * cached yet).
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param format Image format (<code>jpg</code> or <code>png</code>).
+	 * @param view View ({@link #VIEW_BOTH VIEW_BOTH},
+	 *             {@link #VIEW_SOURCE VIEW_SOURCE} or
+	 *             {@link #VIEW_WMARKED VIEW_WMARKED}).
+	 * @param scale Factor the frame is scaled down by (greater than 0, up
+	 *              to 1).
+	 * @return Pending result: encoded image, or <code>null</code> if the
+	 *         frame could not be read from the videostreams shown.
+	 */
+	public Future<byte[]> getFrame(long frame, String format, String view, float scale) {
+		return _cache.get(getKey(frame, format, view, scale), new FrameEncoder(frame, format, view, scale));
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Encodes a frame.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param format Image format (<code>jpg</code> or <code>png</code>).
+	 * @param view View.
+	 * @param scale Factor the frame is scaled down by.
+	 * @return Encoded image, or <code>null</code> if the frame could not be
+	 *         read from the videostreams shown.
+	 * @throws IOException If the image can not be encoded.
+	 */
+	private byte[] encode(long frame, String format, String view, float scale) throws IOException {
+		if ((frame < 0) || (frame >= _engine.getFrameCount())) {
+			return null;
+		}
+		DecodedFrame decoded = getDecodedFrame(frame);
+		int width  = Math.max(1, Math.round(_engine.getGeometry().getWidth()  * scale));
+		int height = Math.max(1, Math.round(_engine.getGeometry().getHeight() * scale));
+		BufferedImage image;
+		if (view.equals(VIEW_SOURCE)) {
+			image = (BufferedImage) decoded.getSourceFrame(width, height);
+		}
+		else if (view.equals(VIEW_WMARKED)) {
+			image = (BufferedImage) decoded.getWMarkedFrame(width, height);
+		}
+		else {
+			Image source  = decoded.getSourceFrame(width, height);
+			Image wmarked = decoded.getWMarkedFrame(width, height);
+			if ((source == null) || (wmarked == null)) {
+				return null;
+			}
+			width = source.getWidth(null);
+			image = new BufferedImage(2 * width, source.getHeight(null), BufferedImage.TYPE_INT_RGB);
+			Graphics graphics = image.getGraphics();
+			graphics.drawImage(source, 0, 0, null);
+			graphics.drawImage(wmarked, width, 0, null);
+			graphics.dispose();
+		}
+		if (image == null) {
+			return null;
+		}
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		if (format.equals("png")) {
+			ImageIO.write(image, "png", output);
+		}
+		else {
+			ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+			ImageWriteParam parameters = writer.getDefaultWriteParam();
+			parameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			parameters.setCompressionQuality(JPEG_QUALITY);
+			ImageOutputStream stream = ImageIO.createImageOutputStream(output);
+			try {
+				writer.setOutput(stream);
+				writer.write(null, new IIOImage(image, null, null), parameters);
+			} finally {
+				writer.dispose();
+				stream.close();
+			}
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Obtains a decoded frame from the ones kept (or a new one, which will
+	 * be decoded when its images are asked for), evicting least recently
+	 * used frames if there are too many.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @return Decoded frame.
+	 */
+	private DecodedFrame getDecodedFrame(long frame) {
+		synchronized (_decoded) {
+			Long key = Long.valueOf(frame);
+			DecodedFrame decoded = _decoded.get(key);
+			if (decoded == null) {
+				decoded = new DecodedFrame(frame);
+				_decoded.put(key, decoded);
+				Iterator<Long> keys = _decoded.keySet().iterator();
+				while (_decoded.size() > DECODED_FRAMES) {
+					keys.next();
+					keys.remove();
+				}
+			}
+			return decoded;
+		}
+	}
+
+	/**
+	 * Obtains an encoded frame, waiting for it to be encoded if needed.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param format Image format.
+	 * @param view View.
+	 * @param scale Factor the frame is scaled down by.
+	 * @return Encoded image, or <code>null</code> if the frame could not be
+	 *         read from the videostreams shown.
+	 * @throws IOException If the image could not be encoded.
+	 */
+	private byte[] waitForFrame(long frame, String format, String view, float scale) throws IOException {
+		try {
+			return getFrame(frame, format, view, scale).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e.toString());
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().toString());
+		}
+	}
+
+	/**
+	 * Parses the query of a request.
+	 *
+	 * @param exchange Request.
+	 * @return Query parameters, by name.
+	 */
+	private static Map<String, String> getParameters(HttpExchange exchange) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getQuery();
+		if (query != null) {
+			String[] pairs = query.split("&");
+			for (int i = 0; i < pairs.length; i++) {
+				int equals = pairs[i].indexOf('=');
+				if (equals != -1) {
+					parameters.put(pairs[i].substring(0, equals), pairs[i].substring(equals + 1));
+				}
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Returns the view asked for by a request.
+	 *
+	 * @param parameters Query parameters.
+	 * @return View, or <code>null</code> if it is not valid.
+	 */
+	private static String getView(Map<String, String> parameters) {
+		String view = parameters.containsKey("view") ? parameters.get("view") : VIEW_BOTH;
+		return (view.equals(VIEW_BOTH) || view.equals(VIEW_SOURCE) || view.equals(VIEW_WMARKED)) ? view : null;
+	}
+
+	/**
+	 * Returns the scale asked for by a request.
+	 *
+	 * @param parameters Query parameters.
+	 * @return Scale, or -1 if it is not valid.
+	 */
+	private static float getScale(Map<String, String> parameters) {
+		try {
+			float scale = parameters.containsKey("scale") ? Float.parseFloat(parameters.get("scale")) : 1;
+			return ((scale > 0) && (scale <= 1)) ? scale : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the key an encoded frame is cached by.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param format Image format.
+	 * @param view View.
+	 * @param scale Factor the frame is scaled down by.
+	 * @return Cache key.
+	 */
+	private static String getKey(long frame, String format, String view, float scale) {
+		return frame + "." + format + "/" + view + "/" + scale;
+	}
+
+	/**
+	 * Sends a whole response, and ends the exchange.
+	 *
+	 * @param exchange Request.
+	 * @param status HTTP status code.
+	 * @param type Content type.
+	 * @param body Response body.
+	 * @throws IOException
+	 */
+	private static void send(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream output = exchange.getResponseBody();
+		output.write(body);
+		output.close();
+	}
+
+	/**
+	 * Sends an error response, and ends the exchange.
+	 *
+	 * @param exchange Request.
+	 * @param status HTTP status code.
+	 * @param message Error message.
+	 * @throws IOException
+	 */
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		send(exchange, status, "text/plain; charset=US-ASCII", (message + "\n").getBytes("US-ASCII"));
+	}
+
+	// ----- ----- ----- ENCODING TASKS ----- ----- -----
+
+	private class FrameEncoder implements Callable<byte[]> {
+		public FrameEncoder(long frame, String format, String view, float scale) {
+			_frame  = frame;
+			_format = format;
+			_view   = view;
+			_scale  = scale;
+		}
+		public byte[] call() throws IOException {
+			return encode(_frame, _format, _view, _scale);
+		}
+		private long _frame;
+		private String _format, _view;
+		private float _scale;
+	}
+
+	// ----- ----- ----- DECODED FRAMES ----- ----- -----
+
+	private class DecodedFrame {
+		public DecodedFrame(long frame) {
+			_frame = frame;
+		}
+		public Image getSourceFrame(int width, int height) {
+			JWMFrame source = getSource();
+			return (source != null) ? source.getSourceFrame(width, height) : null;
+		}
+		public Image getWMarkedFrame(int width, int height) {
+			JWMFrame wmarked = getWMarked();
+			return (wmarked != null) ? wmarked.getWMarkedFrame(width, height) : null;
+		}
+		private synchronized JWMFrame getSource() {
+			if (!_sourceRead) {
+				FrameBuffer data = _engine.getSourceData(_frame);
+				_source = (data != null) ? new JWMFrame(data, null, _converter, _engine.getDecodingPool()) : null;
+				_sourceRead = true;
+			}
+			return _source;
+		}
+		private synchronized JWMFrame getWMarked() {
+			if (!_wmarkedRead) {
+				JWMFrame source = _engine.isDelta() ? getSource() : null; // watermarked frame is rebuilt from source frame
+				FrameBuffer data = _engine.getWMarkedData(_frame, (source != null) ? source.getSourceData() : null);
+				_wmarked = (data != null) ? new JWMFrame(null, data, _converter, _engine.getDecodingPool()) : null;
+				_wmarkedRead = true;
+			}
+			return _wmarked;
+		}
+		private long _frame;
+		private JWMFrame _source, _wmarked;
+		private boolean _sourceRead = false, _wmarkedRead = false;
+	}
+
+	// ----- ----- ----- REQUEST HANDLERS ----- ----- -----
+
+	private class IndexHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!exchange.getRequestURI().getPath().equals("/")) {
+					sendError(exchange, 404, "Not found");
+					return;
+				}
+				String page = "<!DOCTYPE html>\n<html><head><title>JWMTool</title></head><body>\n" +
+					      "<p>" + _engine.getFrameCount() + " frames, " + _engine.getGeometry().getWidth() + "x" + _engine.getGeometry().getHeight() +
+					      ", " + _engine.getGeometry().getFrameRate() + " fps (source on the left, watermarked on the right)</p>\n" +
+					      "<img src=\"/stream\" alt=\"comparison\">\n</body></html>\n";
+				send(exchange, 200, "text/html; charset=US-ASCII", page.getBytes("US-ASCII"));
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private class FrameHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				// path is /frame/N.jpg or /frame/N.png
+				String name = exchange.getRequestURI().getPath().substring("/frame/".length());
+				int dot = name.lastIndexOf('.');
+				String format = (dot != -1) ? name.substring(dot + 1) : "";
+				if (format.equals("jpeg")) {
+					format = "jpg";
+				}
+				Map<String, String> parameters = getParameters(exchange);
+				String view = getView(parameters);
+				float scale = getScale(parameters);
+				long frame;
+				try {
+					frame = Long.parseLong(name.substring(0, Math.max(0, dot)));
+				} catch (NumberFormatException e) {
+					frame = -1;
+				}
+				if ((frame < 0) || (view == null) || (scale < 0) || (!format.equals("jpg") && !format.equals("png"))) {
+					sendError(exchange, 400, "Bad request");
+					return;
+				}
+				byte[] image = waitForFrame(frame, format, view, scale);
+				if (image == null) {
+					sendError(exchange, 404, "No such frame");
+					return;
+				}
+				send(exchange, 200, format.equals("png") ? "image/png" : "image/jpeg", image);
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private class StreamHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				Map<String, String> parameters = getParameters(exchange);
+				String view = getView(parameters);
+				float scale = getScale(parameters);
+				long frame;
+				try {
+					frame = parameters.containsKey("start") ? Long.parseLong(parameters.get("start")) : 0;
+				} catch (NumberFormatException e) {
+					frame = -1;
+				}
+				if ((frame < 0) || (view == null) || (scale < 0)) {
+					sendError(exchange, 400, "Bad request");
+					return;
+				}
+				exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+				exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream output = exchange.getResponseBody();
+
+				// frames are sent when due, the next few ones being
+				// encoded meanwhile (prefetched, so that they are not
+				// taken for look ups of the viewer); if the viewer falls
+				// behind, due frames move on and the ones in between are
+				// dropped
+				PlaybackClock clock = null;
+				while (true) {
+					for (int i = 1; i <= READ_AHEAD; i++) {
+						_cache.prefetch(getKey(frame + i, "jpg", view, scale), new FrameEncoder(frame + i, "jpg", view, scale));
+					}
+					byte[] image = waitForFrame(frame, "jpg", view, scale);
+					if (image == null) { // end of the videostreams
+						break;
+					}
+					if (clock == null) { // playback starts once the first frame is ready
+						clock = new PlaybackClock(_engine.getGeometry().getFrameRate());
+						clock.start(frame);
+					}
+					clock.waitFor(frame);
+					output.write(("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " +
+						      image.length + "\r\n\r\n").getBytes("US-ASCII"));
+					output.write(image);
+					output.write("\r\n".getBytes("US-ASCII"));
+					output.flush();
+					frame = Math.max(frame + 1, clock.getFrame());
+				}
+				output.write(("--" + BOUNDARY + "--\r\n").getBytes("US-ASCII"));
+				output.close();
+			} catch (InterruptedException e) { // server stopped
+				Thread.currentThread().interrupt();
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private static class WorkerFactory implements ThreadFactory {
+		public WorkerFactory(String name) {
+			_name = name;
+		}
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, _name);
+			thread.setDaemon(true);
+			return thread;
+		}
+		private String _name;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Engine reading both videostreams, shared by every request handler.
+	 */
+	private WatermarkingEngine _engine = null;
+	/**
+	 * Converter to RGB of decoded frames.
+	 */
+	private YUVConverter _converter = null;
+	/**
+	 * Last frames decoded, by frame number, in access order.
+	 */
+	private LinkedHashMap<Long, DecodedFrame> _decoded = null;
+	/**
+	 * Worker threads converting and encoding frames.
+	 */
+	private ExecutorService _encoders = null;
+	/**
+	 * Encoded images, shared by every viewer.
+	 */
+	private EncodedFrameCache _cache = null;
+	/**
+	 * HTTP server (<code>null</code> if not serving).
+	 */
+	private HttpServer _server = null;
+
+}
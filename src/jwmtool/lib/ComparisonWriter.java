@@ -0,0 +1,420 @@
+package jwmtool.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * A ComparisonWriter produces, with no user interface, a comparison
+ * videostream of a source videostream and its watermarked version: a
+ * YUV4MPEG2 file whose frames are those of both videostreams side by side
+ * (source on the left), optionally followed by a panel showing their
+ * differences as a heatmap. <br/>
+ *
+ * Comparison frames are assembled in YUV space, copying rows of each plane
+ * of both videostreams (read at their position in the files), so that no
+ * frame is converted to RGB and back. Heatmap colours are converted to YUV
+ * (BT.601) once. Frames are assembled concurrently, several at a time, on
+ * worker threads, and written in order through a large output buffer.
+ * <br/>
+ *
+ * Chroma planes of both videostreams are placed side by side too, so each
+ * panel is as wide as its chroma planes stand for (which is frame width,
+ * unless it is not a multiple of chroma subsampling, in which case the
+ * rightmost columns are left out).
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class ComparisonWriter {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * No difference panel.
+	 */
+	public static final int DIFFERENCE_NONE = -1;
+	/**
+	 * Size (in bytes) of the output buffer.
+	 */
+	public static final int OUTPUT_BUFFER_SIZE = 1 << 22;
+	/**
+	 * Number of frames being assembled per worker thread at most.
+	 */
+	public static final int FRAMES_PER_WORKER = 2;
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Opens a source videostream file and its watermarked version.
+	 *
+	 * @param filename Name of the source videostream file.
+	 * @param outputFilename Name of the watermarked videostream (or delta)
+	 *                       file.
+	 * @throws WatermarkingException If any of the files can not be read.
+	 */
+	public ComparisonWriter(String filename, String outputFilename) throws WatermarkingException {
+		_engine = WatermarkingEngine.open(filename, outputFilename);
+		int shift = _engine.getGeometry().getChromaShift();
+		_width    = _engine.getGeometry().getWidth();
+		_height   = _engine.getGeometry().getHeight();
+		_uvWidth  = _width  >> shift;
+		_uvHeight = _height >> shift;
+		_shift    = shift;
+		_panelWidth = _uvWidth << shift;
+	}
+
+	/**
+	 * Sets whether a difference panel is added, and how differences are
+	 * shown in it.
+	 *
+	 * @param plane Plane whose differences are shown
+	 *              ({@link jwmtool.lib.FrameBuffer#PLANE_Y FrameBuffer.PLANE_Y},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_U FrameBuffer.PLANE_U},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_V FrameBuffer.PLANE_V} or
+	 *              {@link jwmtool.lib.YUVConverter#ALL_PLANES YUVConverter.ALL_PLANES}),
+	 *              or {@link #DIFFERENCE_NONE DIFFERENCE_NONE}.
+	 * @param amplification Factor differences are multiplied by.
+	 */
+	public void setDifference(int plane, int amplification) {
+		_difference    = plane;
+		_amplification = Math.max(1, amplification);
+	}
+
+	/**
+	 * Sets the number of worker threads assembling frames.
+	 *
+	 * @param threads Number of threads (at least 1).
+	 */
+	public void setThreads(int threads) {
+		_threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Writes the comparison videostream, up to the end of the shortest
+	 * videostream.
+	 *
+	 * @param comparisonFilename Name of the file to be written.
+	 * @return Number of frames written.
+	 * @throws IOException
+	 */
+	public long write(String comparisonFilename) throws IOException {
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(comparisonFilename), OUTPUT_BUFFER_SIZE);
+		try {
+			return write(output);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Writes the comparison videostream (see {@link #write(String)
+	 * write()}).
+	 *
+	 * @param output Where to write to.
+	 * @return Number of frames written.
+	 * @throws IOException
+	 */
+	public long write(OutputStream output) throws IOException {
+		output.write(getStreamHeader().getBytes("US-ASCII"));
+		ExecutorService workers = Executors.newFixedThreadPool(_threads, new WorkerFactory());
+		try {
+			ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+			long frameCount = _engine.getFrameCount();
+			long next = 0, written = 0;
+			while (true) {
+				while ((next < frameCount) && (pending.size() < _threads * FRAMES_PER_WORKER)) {
+					pending.add(workers.submit(new FrameAssembler(next++)));
+				}
+				if (pending.isEmpty()) {
+					break;
+				}
+				byte[] frame = pending.remove().get();
+				if (frame == null) { // end of the shortest videostream
+					break;
+				}
+				output.write(frame);
+				written++;
+			}
+			output.flush();
+			return written;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e.toString());
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().toString());
+		} finally {
+			workers.shutdownNow(); // frames still pending after a failure are not needed
+		}
+	}
+
+	/**
+	 * Closes both videostream files.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		_engine.close();
+	}
+
+	/**
+	 * Returns comparison frame width.
+	 *
+	 * @return Width, in pixels.
+	 */
+	public int getWidth() {
+		return _panelWidth * getPanels();
+	}
+
+	/**
+	 * Returns comparison frame height.
+	 *
+	 * @return Height, in pixels.
+	 */
+	public int getHeight() {
+		return _height;
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Returns the number of panels side by side in comparison frames.
+	 *
+	 * @return 2 or 3 (with a difference panel).
+	 */
+	private int getPanels() {
+		return (_difference == DIFFERENCE_NONE) ? 2 : 3;
+	}
+
+	/**
+	 * Returns comparison videostream header: source videostream header,
+	 * with comparison frame width and an explicit colour space tag.
+	 *
+	 * @return Stream header, with line end.
+	 */
+	private String getStreamHeader() {
+		StringBuilder header = new StringBuilder();
+		String[] info = _engine.getGeometry().getStreamHeader().split(" ");
+		header.append(info[0]);
+		for (int i = 1; i < info.length; i++) {
+			if (info[i].startsWith("W")) {
+				header.append(" W").append(getWidth());
+			}
+			else if (!info[i].startsWith("C") && !info[i].startsWith(ProxyWriter.SOURCE_TAG)) { // colour space tag is set below
+				header.append(' ').append(info[i]);
+			}
+		}
+		header.append(' ').append(Watermarking.getColourSpaceTag(_engine.getGeometry().getYUVFormat())).append('\n');
+		return header.toString();
+	}
+
+	/**
+	 * Assembles a comparison frame.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @return Comparison frame, with its frame header, or
+	 *         <code>null</code> if the frame could not be read from any of
+	 *         the videostreams.
+	 */
+	private byte[] assemble(long frame) {
+		FrameBuffer source = _engine.getSourceData(frame);
+		JWMFrame pair = _engine.getFrame(frame, source);
+		if (pair.isEmpty()) {
+			return null;
+		}
+		FrameBuffer wmarked = pair.getWMarkedData();
+		int panels = getPanels();
+		byte[] header = (Watermarking.FRAME_HEADER + "\n").getBytes();
+		byte[] data = new byte[header.length + panels * (_panelWidth * _height + 2 * _uvWidth * _uvHeight)];
+		System.arraycopy(header, 0, data, 0, header.length);
+
+		byte[][] difference = (panels == 3) ? getDifference(source, wmarked) : null;
+		int pos = header.length;
+		for (int plane = FrameBuffer.PLANE_Y; plane <= FrameBuffer.PLANE_V; plane++) {
+			boolean luma = (plane == FrameBuffer.PLANE_Y);
+			int stride = luma ? _width : _uvWidth;
+			int width  = luma ? _panelWidth : _uvWidth;
+			int height = luma ? _height : _uvHeight;
+			ByteBuffer left  = source.getPlane(plane).duplicate();
+			ByteBuffer right = wmarked.getPlane(plane).duplicate();
+			for (int i = 0; i < height; i++, pos += panels * width) {
+				left.position(i * stride);
+				left.get(data, pos, width);
+				right.position(i * stride);
+				right.get(data, pos + width, width);
+				if (difference != null) {
+					System.arraycopy(difference[plane], i * width, data, pos + 2 * width, width);
+				}
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Computes the difference panel of a pair of frames: each pixel has
+	 * the heatmap colour of the largest absolute difference among the
+	 * planes shown at that pixel, and each chroma sample that of the
+	 * largest one in the pixels it stands for.
+	 *
+	 * @param source Source frame.
+	 * @param wmarked Watermarked frame.
+	 * @return Y, U and V planes of the difference panel.
+	 */
+	private byte[][] getDifference(FrameBuffer source, FrameBuffer wmarked) {
+		boolean luma = (_difference == FrameBuffer.PLANE_Y) || (_difference == YUVConverter.ALL_PLANES);
+		boolean blue = (_difference == FrameBuffer.PLANE_U) || (_difference == YUVConverter.ALL_PLANES);
+		boolean red  = (_difference == FrameBuffer.PLANE_V) || (_difference == YUVConverter.ALL_PLANES);
+		ByteBuffer y0 = source.getY(), u0 = source.getU(), v0 = source.getV();
+		ByteBuffer y1 = wmarked.getY(), u1 = wmarked.getU(), v1 = wmarked.getV();
+		int[] values = new int[_panelWidth * _height];
+		int[] uvValues = new int[_uvWidth * _uvHeight];
+		for (int i = 0, pos = 0; i < _height; i++) {
+			int ci = Math.min(_uvHeight - 1, i >> _shift); // rows below the last chroma row share it
+			for (int j = 0; j < _panelWidth; j++, pos++) {
+				int spos = ci * _uvWidth + (j >> _shift);
+				int difference = 0;
+				if (luma) {
+					difference = Math.abs((y0.get(i * _width + j) & 255) - (y1.get(i * _width + j) & 255));
+				}
+				if (blue) {
+					difference = Math.max(difference, Math.abs((u0.get(spos) & 255) - (u1.get(spos) & 255)));
+				}
+				if (red) {
+					difference = Math.max(difference, Math.abs((v0.get(spos) & 255) - (v1.get(spos) & 255)));
+				}
+				values[pos] = difference;
+				uvValues[spos] = Math.max(uvValues[spos], difference);
+			}
+		}
+		byte[][] panel = { new byte[values.length], new byte[uvValues.length], new byte[uvValues.length] };
+		for (int pos = 0; pos < values.length; pos++) {
+			panel[FrameBuffer.PLANE_Y][pos] = _heatmapY[Math.min(255, values[pos] * _amplification)];
+		}
+		for (int pos = 0; pos < uvValues.length; pos++) {
+			int value = Math.min(255, uvValues[pos] * _amplification);
+			panel[FrameBuffer.PLANE_U][pos] = _heatmapU[value];
+			panel[FrameBuffer.PLANE_V][pos] = _heatmapV[value];
+		}
+		return panel;
+	}
+
+	/**
+	 * Converts heatmap colours into one YUV (BT.601) component.
+	 *
+	 * @param plane Component
+	 *              ({@link jwmtool.lib.FrameBuffer#PLANE_Y PLANE_Y},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_U PLANE_U} or
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_V PLANE_V}).
+	 * @return Component of the heatmap colour of every (amplified)
+	 *         difference from 0 to 255.
+	 */
+	private static byte[] createHeatmap(int plane) {
+		byte[] heatmap = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			int rgb = YUVConverter.getHeatmapColour(i);
+			int r = (rgb >> 16) & 255, g = (rgb >> 8) & 255, b = rgb & 255;
+			int value;
+			switch (plane) {
+				case FrameBuffer.PLANE_Y: value =  16 + (( 66 * r + 129 * g +  25 * b + 128) >> 8); break;
+				case FrameBuffer.PLANE_U: value = 128 + ((-38 * r -  74 * g + 112 * b + 128) >> 8); break;
+				default:                  value = 128 + ((112 * r -  94 * g -  18 * b + 128) >> 8); break;
+			}
+			heatmap[i] = (byte) value;
+		}
+		return heatmap;
+	}
+
+	// ----- ----- ----- WORKING THREADS ----- ----- -----
+
+	private class FrameAssembler implements Callable<byte[]> {
+		public FrameAssembler(long frame) {
+			_frame = frame;
+		}
+		public byte[] call() {
+			return assemble(_frame);
+		}
+		private long _frame;
+	}
+
+	private static class WorkerFactory implements ThreadFactory {
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "JWMTool comparison writer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Luminance of the heatmap colour of every (amplified) difference.
+	 */
+	private static final byte[] _heatmapY = createHeatmap(FrameBuffer.PLANE_Y);
+	/**
+	 * Blue chrominance of the heatmap colour of every (amplified)
+	 * difference.
+	 */
+	private static final byte[] _heatmapU = createHeatmap(FrameBuffer.PLANE_U);
+	/**
+	 * Red chrominance of the heatmap colour of every (amplified)
+	 * difference.
+	 */
+	private static final byte[] _heatmapV = createHeatmap(FrameBuffer.PLANE_V);
+
+	/**
+	 * Engine reading both videostreams.
+	 */
+	private WatermarkingEngine _engine = null;
+	/**
+	 * Frame width, in pixels.
+	 */
+	private int _width = 0;
+	/**
+	 * Frame height, in pixels.
+	 */
+	private int _height = 0;
+	/**
+	 * U and V component planes width.
+	 */
+	private int _uvWidth = 0;
+	/**
+	 * U and V component planes height.
+	 */
+	private int _uvHeight = 0;
+	/**
+	 * Chroma subsampling, as a power of 2.
+	 */
+	private int _shift = 0;
+	/**
+	 * Width of each panel of comparison frames, in pixels.
+	 */
+	private int _panelWidth = 0;
+	/**
+	 * Plane whose differences are shown in the difference panel (or
+	 * {@link #DIFFERENCE_NONE DIFFERENCE_NONE}).
+	 */
+	private int _difference = DIFFERENCE_NONE;
+	/**
+	 * Factor differences are multiplied by.
+	 */
+	private int _amplification = 1;
+	/**
+	 * Number of worker threads.
+	 */
+	private int _threads = Runtime.getRuntime().availableProcessors();
+
+}
@@ -0,0 +1,441 @@
+package jwmtool.lib;
+
+import java.awt.Rectangle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * A DeltaReader gives access to the frames of a delta file produced by a
+ * {@link jwmtool.lib.DeltaWriter DeltaWriter}: given a source frame, it
+ * applies the recorded differences to obtain the corresponding watermarked
+ * frame. Frame records are indexed when the file is opened, so any frame
+ * can be rebuilt in any order. Records appended to the file after it was
+ * opened (while it is still being written) are indexed when needed. <br/>
+ *
+ * Any number of threads can rebuild frames at the same time: records are
+ * read at their position in the file, and each thread decompresses them
+ * with decompression state of its own, taken from a pool.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class DeltaReader {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Opens a delta file, checking that it refers to the given source
+	 * videostream file and that this has not changed since the delta
+	 * file was produced.
+	 *
+	 * @param filename Name of the delta file.
+	 * @param sourceFilename Name of the source videostream file.
+	 * @throws IOException
+	 * @throws WatermarkingException If the file is not a delta file of
+	 *                               the given source videostream.
+	 */
+	public DeltaReader(String filename, String sourceFilename) throws IOException, WatermarkingException {
+		RandomAccessFile header = new RandomAccessFile(filename, "r");
+		try {
+			File source = new File(sourceFilename);
+			if (!DeltaWriter.MAGIC.equals(header.readLine())) {
+				throw new WatermarkingException("exceptions.watermarking.unknown_delta_format");
+			}
+			readHeaderLine(header); // source path, just informative
+			if ((readHeaderNumber(header) != source.length()) ||
+			    (readHeaderNumber(header) != source.lastModified())) {
+				throw new WatermarkingException("exceptions.watermarking.delta_source_changed");
+			}
+			readHeaderLine(header); // source stream header
+			_indexEnd = header.getFilePointer();
+		} finally {
+			header.close();
+		}
+		_file = new SharedFile(filename);
+		index();
+	}
+
+	/**
+	 * Returns the number of frames in the delta file.
+	 *
+	 * @return Number of frame records.
+	 */
+	public synchronized long getFrameCount() {
+		return _frames;
+	}
+
+	/**
+	 * Turns a source frame into its watermarked counterpart, applying the
+	 * differences recorded for it.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param buffer Source frame data, modified in place.
+	 * @param width Y component plane width.
+	 * @param uvWidth U and V component planes width.
+	 * @return Whether the frame was found in the delta file or not.
+	 * @throws IOException
+	 */
+	public boolean apply(long frame, FrameBuffer buffer, int width, int uvWidth) throws IOException {
+		long offset = getOffset(frame);
+		if (offset < 0) {
+			return false;
+		}
+		FrameRecord record = acquire();
+		try {
+			record.inflate(frame, offset);
+			apply(frame, record, buffer, width, uvWidth);
+		} finally {
+			release(record);
+		}
+		return true;
+	}
+
+	/**
+	 * Turns a region of a source frame into its watermarked counterpart,
+	 * applying the differences recorded for it that fall inside the
+	 * region.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param buffer Source frame region data, modified in place (each
+	 *               plane holds just the region rows).
+	 * @param width Y component plane width.
+	 * @param uvWidth U and V component planes width.
+	 * @param region Region of Y component plane (aligned to chroma
+	 *               subsampling).
+	 * @param shift Chroma subsampling, as a power of 2 (the same in both
+	 *              directions).
+	 * @return Whether the frame was found in the delta file or not.
+	 * @throws IOException
+	 */
+	public boolean apply(long frame, FrameBuffer buffer, int width, int uvWidth, Rectangle region, int shift)
+		throws IOException {
+		long offset = getOffset(frame);
+		if (offset < 0) {
+			return false;
+		}
+		FrameRecord record = acquire();
+		try {
+			record.inflate(frame, offset);
+			apply(frame, record, buffer, width, uvWidth, region, shift);
+		} finally {
+			release(record);
+		}
+		return true;
+	}
+
+	/**
+	 * Closes the delta file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		_closed = true;
+		for (FrameRecord record = _records.poll(); record != null; record = _records.poll()) {
+			record.end();
+		}
+		_file.close();
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Reads a line of the delta file header.
+	 *
+	 * @param header Delta file, positioned at the line.
+	 * @return Line read.
+	 * @throws IOException
+	 * @throws WatermarkingException If the header ends before the line.
+	 */
+	private static String readHeaderLine(RandomAccessFile header) throws IOException, WatermarkingException {
+		String line = header.readLine();
+		if (line == null) {
+			throw new WatermarkingException("exceptions.watermarking.unknown_delta_format");
+		}
+		return line;
+	}
+
+	/**
+	 * Reads a line of the delta file header holding a number.
+	 *
+	 * @param header Delta file, positioned at the line.
+	 * @return Number read.
+	 * @throws IOException
+	 * @throws WatermarkingException If the header ends before the line,
+	 *                               or it does not hold a number.
+	 */
+	private static long readHeaderNumber(RandomAccessFile header) throws IOException, WatermarkingException {
+		try {
+			return Long.parseLong(readHeaderLine(header).trim());
+		} catch (NumberFormatException e) {
+			throw new WatermarkingException("exceptions.watermarking.unknown_delta_format");
+		}
+	}
+
+	/**
+	 * Applies the differences of a frame record to a source frame.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param record Frame record, already decompressed.
+	 * @param buffer Source frame data, modified in place.
+	 * @param width Y component plane width.
+	 * @param uvWidth U and V component planes width.
+	 * @throws IOException If the record is not well formed.
+	 */
+	private static void apply(long frame, FrameRecord record, FrameBuffer buffer, int width, int uvWidth) throws IOException {
+		byte[] raw = record.getData();
+		int blockSize = Watermarking.LIMIT * Watermarking.LIMIT;
+		int pos = 0;
+		while (record.isBlock(frame, pos)) {
+			int plane = raw[pos];
+			int index = ((raw[pos+1] & 255) << 24) | ((raw[pos+2] & 255) << 16) |
+				    ((raw[pos+3] & 255) <<  8) |  (raw[pos+4] & 255);
+			pos += 5;
+			int stride  = (plane == FrameBuffer.PLANE_Y) ? width : uvWidth;
+			int wblocks = stride / Watermarking.LIMIT;
+			ByteBuffer data = buffer.getPlane(plane);
+			if ((index < 0) || (wblocks == 0) || (index / wblocks >= data.limit() / stride / Watermarking.LIMIT)) {
+				throw new IOException("Corrupt delta record of frame " + frame);
+			}
+			int base    = (index / wblocks) * Watermarking.LIMIT * stride + (index % wblocks) * Watermarking.LIMIT;
+			for (int i = 0; i < Watermarking.LIMIT; i++)
+				for (int j = 0; j < Watermarking.LIMIT; j++) {
+					int p = base + i * stride + j;
+					data.put(p, (byte) (data.get(p) + raw[pos + i * Watermarking.LIMIT + j]));
+				}
+			pos += blockSize;
+		}
+	}
+
+	/**
+	 * Applies the differences of a frame record that fall inside a region
+	 * to a source frame region.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param record Frame record, already decompressed.
+	 * @param buffer Source frame region data, modified in place.
+	 * @param width Y component plane width.
+	 * @param uvWidth U and V component planes width.
+	 * @param region Region of Y component plane.
+	 * @param shift Chroma subsampling, as a power of 2.
+	 * @throws IOException If the record is not well formed.
+	 */
+	private static void apply(long frame, FrameRecord record, FrameBuffer buffer, int width, int uvWidth, Rectangle region, int shift)
+		throws IOException {
+		byte[] raw = record.getData();
+		int blockSize = Watermarking.LIMIT * Watermarking.LIMIT;
+		int pos = 0;
+		while (record.isBlock(frame, pos)) {
+			int plane = raw[pos];
+			int index = ((raw[pos+1] & 255) << 24) | ((raw[pos+2] & 255) << 16) |
+				    ((raw[pos+3] & 255) <<  8) |  (raw[pos+4] & 255);
+			int s       = (plane == FrameBuffer.PLANE_Y) ? 0 : shift;
+			int stride  = (plane == FrameBuffer.PLANE_Y) ? width : uvWidth;
+			int wblocks = stride / Watermarking.LIMIT;
+			if ((index < 0) || (wblocks == 0)) {
+				throw new IOException("Corrupt delta record of frame " + frame);
+			}
+			int bx = (index % wblocks) * Watermarking.LIMIT, by = (index / wblocks) * Watermarking.LIMIT;
+			int rx = region.x >> s, ry = region.y >> s, rw = region.width >> s, rh = region.height >> s;
+			int x0 = Math.max(bx, rx), x1 = Math.min(bx + Watermarking.LIMIT, rx + rw);
+			int y0 = Math.max(by, ry), y1 = Math.min(by + Watermarking.LIMIT, ry + rh);
+			ByteBuffer data = buffer.getPlane(plane);
+			for (int i = y0; i < y1; i++)
+				for (int j = x0; j < x1; j++) {
+					int p = (i - ry) * rw + (j - rx);
+					data.put(p, (byte) (data.get(p) + raw[pos + 5 + (i - by) * Watermarking.LIMIT + (j - bx)]));
+				}
+			pos += 5 + blockSize;
+		}
+	}
+
+	/**
+	 * Indexes frame records written since last indexed, skipping a last
+	 * record not completely written yet.
+	 *
+	 * @throws IOException
+	 */
+	private void index() throws IOException {
+		long length = _file.size();
+		while (_indexEnd + 8 <= length) {
+			_recordHeader.clear();
+			if (!_file.read(_indexEnd, _recordHeader)) {
+				break;
+			}
+			long next = _indexEnd + 8 + _recordHeader.getInt(4);
+			if (next > length) {
+				break;
+			}
+			if (_frames == _offsets.length) {
+				long[] offsets = new long[2 * _offsets.length];
+				System.arraycopy(_offsets, 0, offsets, 0, _frames);
+				_offsets = offsets;
+			}
+			_offsets[_frames++] = _indexEnd;
+			_indexEnd = next;
+		}
+	}
+
+	/**
+	 * Returns the position of the record of a frame in the delta file.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @return Record position, or -1 if the frame was not found in the
+	 *         delta file.
+	 * @throws IOException
+	 */
+	private synchronized long getOffset(long frame) throws IOException {
+		if (frame >= _frames) { // may have been written since last indexed
+			index();
+		}
+		if ((frame < 0) || (frame >= _frames)) {
+			return -1;
+		}
+		return _offsets[(int) frame];
+	}
+
+	/**
+	 * Takes decompression state from the pool, creating it if none is
+	 * free.
+	 *
+	 * @return Frame record decompression state.
+	 */
+	private FrameRecord acquire() {
+		FrameRecord record = _records.poll();
+		return (record != null) ? record : new FrameRecord(_file);
+	}
+
+	/**
+	 * Gives decompression state back to the pool (or releases it, if the
+	 * delta file was closed meanwhile).
+	 *
+	 * @param record Frame record decompression state.
+	 */
+	private void release(FrameRecord record) {
+		_records.offer(record);
+		if (_closed && _records.remove(record)) {
+			record.end();
+		}
+	}
+
+	// ----- ----- ----- FRAME RECORDS ----- ----- -----
+
+	private static class FrameRecord {
+		public FrameRecord(SharedFile file) {
+			_file = file;
+		}
+		public byte[] getData() {
+			return _raw;
+		}
+		/**
+		 * Reads and decompresses the record of a frame.
+		 */
+		public void inflate(long frame, long offset) throws IOException {
+			_header.clear();
+			if (!_file.read(offset, _header)) {
+				throw new IOException("Corrupt delta record of frame " + frame);
+			}
+			int rawLength = _header.getInt(0);
+			int length    = _header.getInt(4);
+			if ((rawLength <= 0) || (length < 0)) {
+				throw new IOException("Corrupt delta record of frame " + frame);
+			}
+			if (_compressed.capacity() < length) {
+				_compressed = ByteBuffer.allocate(length);
+			}
+			if (_raw.length < rawLength) {
+				_raw = new byte[rawLength];
+			}
+			_compressed.clear();
+			_compressed.limit(length);
+			if (!_file.read(offset + 8, _compressed)) {
+				throw new IOException("Corrupt delta record of frame " + frame);
+			}
+			_inflater.reset();
+			_inflater.setInput(_compressed.array(), 0, length);
+			int n = 0;
+			try {
+				while ((n < rawLength) && !_inflater.finished()) {
+					int inflated = _inflater.inflate(_raw, n, rawLength - n);
+					if ((inflated == 0) && (_inflater.needsInput() || _inflater.needsDictionary())) { // truncated or corrupt
+						throw new IOException("Corrupt delta record of frame " + frame);
+					}
+					n += inflated;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(e.getMessage());
+			}
+			_length = n; // a record ending early is caught while applying it
+		}
+		/**
+		 * Whether a whole fragment (and not the end of the list) starts at
+		 * a given position of the record, which must be well formed up to
+		 * the end of that fragment.
+		 */
+		public boolean isBlock(long frame, int pos) throws IOException {
+			if (pos >= _length) {
+				throw new IOException("Corrupt delta record of frame " + frame);
+			}
+			if (_raw[pos] == -1) {
+				return false;
+			}
+			if ((_raw[pos] < FrameBuffer.PLANE_Y) || (_raw[pos] > FrameBuffer.PLANE_V) ||
+			    (pos + 5 + Watermarking.LIMIT * Watermarking.LIMIT > _length)) {
+				throw new IOException("Corrupt delta record of frame " + frame);
+			}
+			return true;
+		}
+		public void end() {
+			_inflater.end();
+		}
+		private SharedFile _file;
+		private ByteBuffer _header = ByteBuffer.allocate(8);
+		private ByteBuffer _compressed = ByteBuffer.allocate(0);
+		private byte[] _raw = new byte[0];
+		private int _length = 0;
+		private Inflater _inflater = new Inflater();
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Delta file, read at explicit positions.
+	 */
+	private SharedFile _file = null;
+	/**
+	 * Position of each frame record in the delta file.
+	 */
+	private long[] _offsets = new long[256];
+	/**
+	 * Number of frame records in the delta file.
+	 */
+	private int _frames = 0;
+	/**
+	 * Position following the last frame record indexed.
+	 */
+	private long _indexEnd = 0;
+	/**
+	 * Auxiliary buffer for the lengths at the beginning of each frame
+	 * record, while indexing.
+	 */
+	private ByteBuffer _recordHeader = ByteBuffer.allocate(8);
+	/**
+	 * Frame record decompression state not in use.
+	 */
+	private ConcurrentLinkedQueue<FrameRecord> _records = new ConcurrentLinkedQueue<FrameRecord>();
+	/**
+	 * Whether the delta file was closed.
+	 */
+	private volatile boolean _closed = false;
+
+}
@@ -0,0 +1,166 @@
+package jwmtool.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.zip.Deflater;
+
+/**
+ * A DeltaWriter produces a compact watermarked videostream file, which
+ * instead of a full copy of the source videostream holds a reference to it
+ * and, for each frame, the differences introduced by the watermarking
+ * process in every modified
+ * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+ * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} fragment. Frames are
+ * rebuilt from the source videostream by a
+ * {@link jwmtool.lib.DeltaReader DeltaReader}. <br/>
+ *
+ * File layout is: a text header made of
+ * {@link jwmtool.lib.DeltaWriter#MAGIC MAGIC}, source file absolute path,
+ * source file length, source file last modification time and source
+ * stream header (one per line); then one record per frame, made of its
+ * uncompressed and compressed lengths (<code>int</code>) and the
+ * compressed (deflated) fragment list. Each fragment in the list is
+ * stored as plane (<code>byte</code>), fragment index within the plane
+ * (<code>int</code>) and the difference of each of its values
+ * (<code>byte</code>); the list ends with a plane value of -1.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class DeltaWriter {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * First line of every delta file.
+	 */
+	public static final String MAGIC = "JWMDELTA1";
+	/**
+	 * Expected extension for delta files.
+	 */
+	public static final String EXTENSION = ".jwmd";
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Whether a file name designates a delta file or not.
+	 *
+	 * @param filename File name.
+	 * @return Whether <code>filename</code> has the delta file extension.
+	 */
+	public static boolean isDeltaFile(String filename) {
+		return filename.toLowerCase().endsWith(EXTENSION);
+	}
+
+	/**
+	 * Creates a delta file and writes its header.
+	 *
+	 * @param filename Name of the delta file to be produced.
+	 * @param sourceFilename Name of the source videostream file.
+	 * @param streamHeader Source videostream header.
+	 * @throws IOException
+	 */
+	public DeltaWriter(String filename, String sourceFilename, String streamHeader) throws IOException {
+		File source = new File(sourceFilename);
+		_output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+		_output.writeBytes(MAGIC + "\n");
+		_output.write((source.getAbsolutePath() + "\n").getBytes("UTF-8"));
+		_output.writeBytes(source.length() + "\n");
+		_output.writeBytes(source.lastModified() + "\n");
+		_output.writeBytes(streamHeader + "\n");
+		_frame = new DataOutputStream(_raw);
+	}
+
+	/**
+	 * Adds a watermarked fragment to current frame record. Fragments with
+	 * no differences at all are skipped.
+	 *
+	 * @param plane Plane the fragment belongs to
+	 *              ({@link jwmtool.lib.FrameBuffer#PLANE_Y PLANE_Y},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_U PLANE_U} or
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_V PLANE_V}).
+	 * @param index Fragment index within the plane, in row order.
+	 * @param delta Difference between each watermarked value and its
+	 *              source value.
+	 * @throws IOException
+	 */
+	public void addBlock(int plane, int index, byte[] delta) throws IOException {
+		for (int i = 0; i < delta.length; i++) {
+			if (delta[i] != 0) {
+				_frame.writeByte(plane);
+				_frame.writeInt(index);
+				_frame.write(delta);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Closes current frame record, compressing it and writing it to the
+	 * delta file, so that it can be read while next frames are still
+	 * being written.
+	 *
+	 * @throws IOException
+	 */
+	public void endFrame() throws IOException {
+		_frame.writeByte(-1);
+		int length = _raw.size();
+		_deflater.reset();
+		_deflater.setInput(_raw.toByteArray());
+		_deflater.finish();
+		_compressed.reset();
+		while (!_deflater.finished()) {
+			int n = _deflater.deflate(_chunk);
+			_compressed.write(_chunk, 0, n);
+		}
+		_output.writeInt(length);
+		_output.writeInt(_compressed.size());
+		_compressed.writeTo(_output);
+		_output.flush();
+		_raw.reset();
+	}
+
+	/**
+	 * Closes the delta file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		_deflater.end();
+		_output.close();
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Delta file.
+	 */
+	private DataOutputStream _output = null;
+	/**
+	 * Current frame record (uncompressed).
+	 */
+	private ByteArrayOutputStream _raw = new ByteArrayOutputStream();
+	/**
+	 * Writer for current frame record fragments.
+	 */
+	private DataOutputStream _frame = null;
+	/**
+	 * Current frame record (compressed).
+	 */
+	private ByteArrayOutputStream _compressed = new ByteArrayOutputStream();
+	/**
+	 * Auxiliary buffer for compression.
+	 */
+	private byte[] _chunk = new byte[1 << 16];
+	/**
+	 * Frame record compressor.
+	 */
+	private Deflater _deflater = new Deflater(Deflater.BEST_SPEED);
+
+}
@@ -0,0 +1,210 @@
+package jwmtool.lib;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * An EncodedFrameCache keeps encoded frame images (e.g. JPEG or PNG files,
+ * as served to viewers), by key, so that each image is decoded and encoded
+ * once, however many viewers ask for it. The cache has a memory budget:
+ * when it is exceeded, least recently used images are evicted first. <br/>
+ *
+ * Images are encoded on a given pool of threads, and the cache keeps
+ * pending encodings too: an image being encoded for a viewer is shared by
+ * any other viewer asking for it meanwhile, instead of being encoded again.
+ * Images likely to be asked for soon can be
+ * {@link #prefetch prefetched}, which does not count as a look up.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class EncodedFrameCache {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates an empty EncodedFrameCache.
+	 *
+	 * @param budget Memory budget, in bytes.
+	 * @param encoders Pool of threads images are encoded on.
+	 */
+	public EncodedFrameCache(long budget, ExecutorService encoders) {
+		_budget   = budget;
+		_encoders = encoders;
+		_images   = new LinkedHashMap<String, EncodingTask>(16, 0.75f, true); // access order, eldest is least recently used
+	}
+
+	/**
+	 * Looks an image up in the cache, and starts encoding it if it is not
+	 * there (nor being encoded).
+	 *
+	 * @param key Image key.
+	 * @param encoder Task encoding the image, if needed (its result is not
+	 *                kept if it is <code>null</code>, or it fails).
+	 * @return Cached image, or pending encoding.
+	 */
+	public synchronized Future<byte[]> get(String key, Callable<byte[]> encoder) {
+		EncodingTask image = _images.get(key);
+		if (image != null) {
+			_hits++;
+			return image;
+		}
+		_misses++;
+		return encode(key, encoder);
+	}
+
+	/**
+	 * Starts encoding an image likely to be asked for soon (e.g. one of
+	 * the next frames of a stream), unless it is in the cache (or being
+	 * encoded) already. Prefetches count neither as hits nor as misses,
+	 * and do not make cached images more recently used.
+	 *
+	 * @param key Image key.
+	 * @param encoder Task encoding the image, if needed.
+	 */
+	public synchronized void prefetch(String key, Callable<byte[]> encoder) {
+		if (!_images.containsKey(key)) {
+			encode(key, encoder);
+		}
+	}
+
+	/**
+	 * Removes every image from the cache (pending encodings are finished,
+	 * but not kept).
+	 */
+	public synchronized void clear() {
+		_images.clear();
+		_size = 0;
+	}
+
+	/**
+	 * Returns memory taken by cached images.
+	 *
+	 * @return Memory, in bytes.
+	 */
+	public synchronized long getSize() {
+		return _size;
+	}
+
+	/**
+	 * Returns the number of successful look ups so far.
+	 *
+	 * @return Cache hits.
+	 */
+	public synchronized long getHits() {
+		return _hits;
+	}
+
+	/**
+	 * Returns the number of failed look ups (i.e. of images encoded when
+	 * asked for, not prefetched) so far.
+	 *
+	 * @return Cache misses.
+	 */
+	public synchronized long getMisses() {
+		return _misses;
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Starts encoding an image, keeping its pending encoding in the cache.
+	 *
+	 * @param key Image key.
+	 * @param encoder Task encoding the image.
+	 * @return Pending encoding.
+	 */
+	private EncodingTask encode(String key, Callable<byte[]> encoder) {
+		EncodingTask image = new EncodingTask(key, encoder);
+		_images.put(key, image);
+		_encoders.execute(image);
+		return image;
+	}
+
+	/**
+	 * Accounts for an image which has just been encoded, evicting least
+	 * recently used images if needed to stay within the memory budget.
+	 * Failed encodings are forgotten, so that they are tried again.
+	 *
+	 * @param image Finished encoding.
+	 */
+	private synchronized void encoded(EncodingTask image) {
+		if (_images.get(image._key) != image) { // cleared meanwhile
+			return;
+		}
+		byte[] data = image.getData();
+		if (data == null) {
+			_images.remove(image._key);
+			return;
+		}
+		image._size = data.length;
+		_size += image._size;
+
+		Iterator<Map.Entry<String, EncodingTask>> entries = _images.entrySet().iterator();
+		while ((_size > _budget) && entries.hasNext()) {
+			EncodingTask entry = entries.next().getValue();
+			if (entry.isDone()) { // pending encodings take no memory yet
+				_size -= entry._size;
+				entries.remove();
+			}
+		}
+	}
+
+	// ----- ----- ----- ENCODING TASKS ----- ----- -----
+
+	private class EncodingTask extends FutureTask<byte[]> {
+		public EncodingTask(String key, Callable<byte[]> encoder) {
+			super(encoder);
+			_key = key;
+		}
+		public byte[] getData() {
+			try {
+				return get(); // never waits, once done
+			} catch (InterruptedException e) {
+				return null;
+			} catch (ExecutionException e) { // failed encoding
+				return null;
+			}
+		}
+		protected void done() {
+			encoded(this);
+		}
+		private String _key;
+		private long _size = 0;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Cached images (and pending encodings), by key, in access order.
+	 */
+	private LinkedHashMap<String, EncodingTask> _images = null;
+	/**
+	 * Pool of threads images are encoded on.
+	 */
+	private ExecutorService _encoders = null;
+	/**
+	 * Memory budget, in bytes.
+	 */
+	private long _budget = 0;
+	/**
+	 * Memory taken by cached images, in bytes.
+	 */
+	private long _size = 0;
+	/**
+	 * Number of successful look ups.
+	 */
+	private long _hits = 0;
+	/**
+	 * Number of failed look ups.
+	 */
+	private long _misses = 0;
+
+}
@@ -0,0 +1,228 @@
+package jwmtool.lib;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A FrameBuffer holds the raw data of one YUV frame, one buffer per plane.
+ * FrameBuffers used for reading, watermarking and writing are off-heap
+ * (direct) buffers, which are not created directly, but obtained from (and
+ * given back to) a {@link jwmtool.lib.FrameBufferPool FrameBufferPool},
+ * as are those of frames read for playback while the pool of the engine
+ * reading them is not exhausted (they go back to it once dropped, see
+ * {@link jwmtool.lib.JWMFrame#release JWMFrame.release()}); other frames
+ * (e.g. read one at a time for export) are held in heap buffers.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class FrameBuffer {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * Y (luminance) component plane identifier.
+	 */
+	public static final int PLANE_Y = 0;
+	/**
+	 * U (blue chrominance) component plane identifier.
+	 */
+	public static final int PLANE_U = 1;
+	/**
+	 * V (red chrominance) component plane identifier.
+	 */
+	public static final int PLANE_V = 2;
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a FrameBuffer able to hold a frame with planes of the given
+	 * sizes.
+	 *
+	 * @param ySize Length (in bytes) of Y component plane.
+	 * @param uvSize Length (in bytes) of each of U and V component planes.
+	 */
+	FrameBuffer(int ySize, int uvSize) {
+		this(ySize, uvSize, true);
+	}
+
+	/**
+	 * Creates a FrameBuffer able to hold a frame with planes of the given
+	 * sizes, either off-heap or in heap.
+	 *
+	 * @param ySize Length (in bytes) of Y component plane.
+	 * @param uvSize Length (in bytes) of each of U and V component planes.
+	 * @param direct Whether planes are off-heap (direct) buffers or not.
+	 */
+	FrameBuffer(int ySize, int uvSize, boolean direct) {
+		_yPlane = direct ? ByteBuffer.allocateDirect(ySize)  : ByteBuffer.allocate(ySize);
+		_uPlane = direct ? ByteBuffer.allocateDirect(uvSize) : ByteBuffer.allocate(uvSize);
+		_vPlane = direct ? ByteBuffer.allocateDirect(uvSize) : ByteBuffer.allocate(uvSize);
+	}
+
+	/**
+	 * Access method to Y (luminance) component plane.
+	 *
+	 * @return Y component plane buffer.
+	 */
+	public ByteBuffer getY() {
+		return _yPlane;
+	}
+
+	/**
+	 * Access method to U (blue chrominance) component plane.
+	 *
+	 * @return U component plane buffer.
+	 */
+	public ByteBuffer getU() {
+		return _uPlane;
+	}
+
+	/**
+	 * Access method to V (red chrominance) component plane.
+	 *
+	 * @return V component plane buffer.
+	 */
+	public ByteBuffer getV() {
+		return _vPlane;
+	}
+
+	/**
+	 * Access method to any component plane.
+	 *
+	 * @param plane Plane identifier
+	 *              ({@link jwmtool.lib.FrameBuffer#PLANE_Y PLANE_Y},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_U PLANE_U} or
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_V PLANE_V}).
+	 * @return Component plane buffer.
+	 */
+	public ByteBuffer getPlane(int plane) {
+		switch (plane) {
+			case PLANE_Y: return _yPlane;
+			case PLANE_U: return _uPlane;
+			default:      return _vPlane;
+		}
+	}
+
+	/**
+	 * Whether component planes are off-heap (direct) buffers or not.
+	 *
+	 * @return Whether this FrameBuffer is off-heap.
+	 */
+	public boolean isDirect() {
+		return _yPlane.isDirect();
+	}
+
+	/**
+	 * Creates a heap copy of this FrameBuffer.
+	 *
+	 * @return A new heap FrameBuffer, with the same contents.
+	 */
+	FrameBuffer copyToHeap() {
+		FrameBuffer copy = new FrameBuffer(_yPlane.capacity(), _uPlane.capacity(), false);
+		copy.copy(this);
+		return copy;
+	}
+
+	/**
+	 * Fills this FrameBuffer with frame data read from
+	 * <code>channel</code> current position: first Y component plane,
+	 * then U and V component planes.
+	 *
+	 * @param channel Channel to read frame data from.
+	 * @return Whether a whole frame could be read or not (i.e. end of
+	 *         stream was reached).
+	 * @throws IOException
+	 */
+	public boolean read(ReadableByteChannel channel) throws IOException {
+		_yPlane.clear();
+		_uPlane.clear();
+		_vPlane.clear();
+		return fill(channel, _yPlane) && fill(channel, _uPlane) && fill(channel, _vPlane);
+	}
+
+	/**
+	 * Writes frame data in this FrameBuffer to <code>channel</code>
+	 * current position: first Y component plane, then U and V component
+	 * planes.
+	 *
+	 * @param channel Channel to write frame data to.
+	 * @throws IOException
+	 */
+	public void write(WritableByteChannel channel) throws IOException {
+		drain(channel, _yPlane);
+		drain(channel, _uPlane);
+		drain(channel, _vPlane);
+	}
+
+	/**
+	 * Copies the contents of another frame buffer (of the same size) into
+	 * this one.
+	 *
+	 * @param source Frame buffer to be copied.
+	 */
+	public void copy(FrameBuffer source) {
+		for (int plane = PLANE_Y; plane <= PLANE_V; plane++) {
+			ByteBuffer data = getPlane(plane);
+			data.clear();
+			data.put(source.getPlane(plane).duplicate().rewind());
+			data.flip();
+		}
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Fills a buffer (from its position up to its limit) with data read
+	 * from <code>channel</code>, and flips it.
+	 *
+	 * @param channel Channel to read data from.
+	 * @param plane Buffer to be filled.
+	 * @return Whether the buffer could be completely filled or not.
+	 * @throws IOException
+	 */
+	static boolean fill(ReadableByteChannel channel, ByteBuffer plane) throws IOException {
+		while (plane.hasRemaining()) {
+			if (channel.read(plane) == -1) {
+				return false;
+			}
+		}
+		plane.flip();
+		return true;
+	}
+
+	/**
+	 * Writes a buffer contents (from its beginning up to its limit) to
+	 * <code>channel</code>.
+	 *
+	 * @param channel Channel to write data to.
+	 * @param plane Buffer to be written.
+	 * @throws IOException
+	 */
+	static void drain(WritableByteChannel channel, ByteBuffer plane) throws IOException {
+		plane.rewind();
+		while (plane.hasRemaining()) {
+			channel.write(plane);
+		}
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Y (luminance) component plane.
+	 */
+	private ByteBuffer _yPlane = null;
+	/**
+	 * U (blue chrominance) component plane.
+	 */
+	private ByteBuffer _uPlane = null;
+	/**
+	 * V (red chrominance) component plane.
+	 */
+	private ByteBuffer _vPlane = null;
+
+}
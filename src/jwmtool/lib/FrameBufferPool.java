@@ -0,0 +1,131 @@
+package jwmtool.lib;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A FrameBufferPool hands out a fixed number of
+ * {@link jwmtool.lib.FrameBuffer FrameBuffers}, all of them suitable for
+ * frames of the same dimensions. Buffers are created on demand, but never
+ * more than the pool capacity: when every buffer is in use,
+ * {@link jwmtool.lib.FrameBufferPool#acquire acquire()} waits until one is
+ * {@link jwmtool.lib.FrameBufferPool#release released} (and
+ * {@link jwmtool.lib.FrameBufferPool#tryAcquire tryAcquire()} returns none).
+ * Thus, the memory
+ * needed to process a videostream does not depend on its length.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class FrameBufferPool {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a FrameBufferPool.
+	 *
+	 * @param capacity Maximum number of buffers in the pool.
+	 * @param ySize Length (in bytes) of Y component plane.
+	 * @param uvSize Length (in bytes) of each of U and V component planes.
+	 */
+	public FrameBufferPool(int capacity, int ySize, int uvSize) {
+		_capacity = capacity;
+		_ySize    = ySize;
+		_uvSize   = uvSize;
+		_free     = new ArrayBlockingQueue<FrameBuffer>(capacity);
+	}
+
+	/**
+	 * Takes a buffer from the pool, waiting for one to be released if
+	 * needed.
+	 *
+	 * @return A {@link jwmtool.lib.FrameBuffer FrameBuffer}, which must be
+	 *         {@link jwmtool.lib.FrameBufferPool#release released} after
+	 *         use.
+	 * @throws InterruptedException
+	 */
+	public FrameBuffer acquire() throws InterruptedException {
+		FrameBuffer buffer = tryAcquire();
+		return (buffer != null) ? buffer : _free.take();
+	}
+
+	/**
+	 * Takes a buffer from the pool without waiting, if any is free (or
+	 * can still be created).
+	 *
+	 * @return A {@link jwmtool.lib.FrameBuffer FrameBuffer}, which must be
+	 *         {@link jwmtool.lib.FrameBufferPool#release released} after
+	 *         use, or <code>null</code> if every buffer is in use.
+	 */
+	public FrameBuffer tryAcquire() {
+		FrameBuffer buffer = _free.poll();
+		if (buffer != null) {
+			return buffer;
+		}
+		synchronized (this) {
+			if (_created < _capacity) {
+				_created++;
+				return new FrameBuffer(_ySize, _uvSize);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gives a buffer back to the pool. Heap buffers (e.g. taken instead of
+	 * pooled ones while the pool was exhausted) are ignored.
+	 *
+	 * @param buffer A {@link jwmtool.lib.FrameBuffer FrameBuffer} previously
+	 *               {@link jwmtool.lib.FrameBufferPool#acquire acquired}
+	 *               from this pool.
+	 */
+	public void release(FrameBuffer buffer) {
+		if ((buffer != null) && buffer.isDirect()) {
+			_free.offer(buffer);
+		}
+	}
+
+	/**
+	 * Returns pool capacity.
+	 *
+	 * @return Maximum number of buffers in the pool.
+	 */
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * Returns the amount of off-heap memory the pool will use when all its
+	 * buffers have been created.
+	 *
+	 * @return Memory footprint, in bytes.
+	 */
+	public long getFootprint() {
+		return (long) _capacity * (_ySize + 2L * _uvSize);
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Maximum number of buffers in the pool.
+	 */
+	private int _capacity = 0;
+	/**
+	 * Number of buffers created so far.
+	 */
+	private int _created  = 0;
+	/**
+	 * Length of Y component plane of pooled buffers.
+	 */
+	private int _ySize    = 0;
+	/**
+	 * Length of U and V component planes of pooled buffers.
+	 */
+	private int _uvSize   = 0;
+	/**
+	 * Buffers ready to be acquired.
+	 */
+	private BlockingQueue<FrameBuffer> _free = null;
+
+}
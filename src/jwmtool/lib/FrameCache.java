@@ -0,0 +1,188 @@
+package jwmtool.lib;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A FrameCache keeps recently displayed {@link jwmtool.lib.JWMFrame JWMFrames}
+ * by frame number, so that going back and forth over the same frames does
+ * not read nor convert them again. The cache has a memory budget: when it
+ * is exceeded, least recently used frames are evicted first. <br/>
+ *
+ * A range of frames (e.g. a playback loop) can be pinned: pinned frames are
+ * never evicted, so that once they have been decoded, reviewing them again
+ * does not touch the videostreams at all. <br/>
+ *
+ * Frames evicted, replaced or cleared from the cache are
+ * {@link jwmtool.lib.JWMFrame#release released}, so that their raw data
+ * goes back to the pool it was taken from.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class FrameCache {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates an empty FrameCache.
+	 *
+	 * @param budget Memory budget, in bytes.
+	 */
+	public FrameCache(long budget) {
+		_budget = budget;
+		_frames = new LinkedHashMap<Long, JWMFrame>(16, 0.75f, true); // access order, eldest is least recently used
+	}
+
+	/**
+	 * Looks a frame up in the cache.
+	 *
+	 * @param index Frame number.
+	 * @return Cached frame, or <code>null</code> if it is not in the cache.
+	 */
+	public synchronized JWMFrame get(long index) {
+		JWMFrame frame = _frames.get(Long.valueOf(index));
+		if (frame != null) {
+			_hits++;
+		}
+		else {
+			_misses++;
+		}
+		return frame;
+	}
+
+	/**
+	 * Adds a frame to the cache, evicting least recently used frames (but
+	 * pinned ones, and the one just added) if needed to stay within the
+	 * memory budget.
+	 *
+	 * @param index Frame number.
+	 * @param frame Frame to be cached.
+	 */
+	public synchronized void put(long index, JWMFrame frame) {
+		JWMFrame old = _frames.put(Long.valueOf(index), frame);
+		if (old != null) {
+			_size -= getSize(old);
+			if (old != frame) {
+				old.release();
+			}
+		}
+		_size += getSize(frame);
+
+		Iterator<Map.Entry<Long, JWMFrame>> entries = _frames.entrySet().iterator();
+		while ((_size > _budget) && entries.hasNext()) {
+			Map.Entry<Long, JWMFrame> entry = entries.next();
+			long key = entry.getKey().longValue();
+			if (!isPinned(key) && (key != index)) { // the frame just added is about to be displayed
+				_size -= getSize(entry.getValue());
+				entries.remove();
+				entry.getValue().release();
+			}
+		}
+	}
+
+	/**
+	 * Pins a range of frames, so that they are never evicted. Any
+	 * previously pinned range is unpinned.
+	 *
+	 * @param first First frame of the range.
+	 * @param last Last frame of the range.
+	 */
+	public synchronized void pin(long first, long last) {
+		_pinFirst = first;
+		_pinLast  = last;
+	}
+
+	/**
+	 * Unpins pinned range, if any.
+	 */
+	public synchronized void unpin() {
+		_pinFirst = -1;
+		_pinLast  = -2;
+	}
+
+	/**
+	 * Whether a frame is within pinned range or not.
+	 *
+	 * @param index Frame number.
+	 * @return Whether frame <code>index</code> is pinned.
+	 */
+	public synchronized boolean isPinned(long index) {
+		return (index >= _pinFirst) && (index <= _pinLast);
+	}
+
+	/**
+	 * Removes every frame from the cache.
+	 */
+	public synchronized void clear() {
+		for (JWMFrame frame : _frames.values()) {
+			frame.release();
+		}
+		_frames.clear();
+		_size = 0;
+	}
+
+	/**
+	 * Returns the number of successful look ups so far.
+	 *
+	 * @return Cache hits.
+	 */
+	public synchronized long getHits() {
+		return _hits;
+	}
+
+	/**
+	 * Returns the number of failed look ups so far.
+	 *
+	 * @return Cache misses.
+	 */
+	public synchronized long getMisses() {
+		return _misses;
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Estimates memory taken by a frame.
+	 *
+	 * @param frame Frame to be measured.
+	 * @return Frame memory, in bytes.
+	 */
+	private static long getSize(JWMFrame frame) {
+		return frame.getMemory();
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Cached frames, by frame number, in access order.
+	 */
+	private LinkedHashMap<Long, JWMFrame> _frames = null;
+	/**
+	 * Memory budget, in bytes.
+	 */
+	private long _budget = 0;
+	/**
+	 * Memory taken by cached frames, in bytes.
+	 */
+	private long _size = 0;
+	/**
+	 * First frame of pinned range.
+	 */
+	private long _pinFirst = -1;
+	/**
+	 * Last frame of pinned range.
+	 */
+	private long _pinLast  = -2;
+	/**
+	 * Number of successful look ups.
+	 */
+	private long _hits = 0;
+	/**
+	 * Number of failed look ups.
+	 */
+	private long _misses = 0;
+
+}
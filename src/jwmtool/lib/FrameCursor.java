@@ -0,0 +1,107 @@
+package jwmtool.lib;
+
+import java.io.IOException;
+
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * A FrameCursor is a position in both videostreams read by a
+ * {@link jwmtool.lib.WatermarkingEngine WatermarkingEngine}, for
+ * sequential (playback) access. It holds nothing but the number of the
+ * frame to be read next, so each viewer of the same videostreams takes its
+ * own cursor (see {@link jwmtool.lib.WatermarkingEngine#newCursor newCursor()}),
+ * and moves it independently from the others.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class FrameCursor {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a cursor positioned at the first frame.
+	 *
+	 * @param engine Engine reading both videostreams.
+	 */
+	FrameCursor(WatermarkingEngine engine) {
+		_engine = engine;
+	}
+
+	/**
+	 * Reads the frame at current position of both videostreams, and moves
+	 * to the next one (if it could be read).
+	 *
+	 * @return A {@link jwmtool.lib.JWMFrame JWMFrame} with the frame of
+	 *         the original videostream and its watermarked counterpart
+	 *         (with no data for those missing, i.e. at the end of the
+	 *         videostreams).
+	 * @throws IOException
+	 * @throws WatermarkingException If frame planes are too large.
+	 */
+	public JWMFrame next() throws IOException, WatermarkingException {
+		long frame = _position;
+		JWMFrame pair = _engine.readFrame(frame);
+		if (!pair.isEmpty()) {
+			_position = frame + 1;
+		}
+		return pair;
+	}
+
+	/**
+	 * Sets current position at a given frame.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 */
+	public void seek(long frame) {
+		_position = Math.max(0, frame);
+	}
+
+	/**
+	 * Sets current position back to the first frame.
+	 */
+	public void rewind() {
+		_position = 0;
+	}
+
+	/**
+	 * Sets current position <code>nframes</code> back (not beyond the
+	 * first frame).
+	 *
+	 * @param nframes Number of frames to go back.
+	 */
+	public void rewind(int nframes) {
+		_position = Math.max(0, _position - nframes);
+	}
+
+	/**
+	 * Returns current position.
+	 *
+	 * @return Number of the frame to be read next (0 for the first frame).
+	 */
+	public long getPosition() {
+		return _position;
+	}
+
+	/**
+	 * Returns the engine the cursor reads from.
+	 *
+	 * @return Engine reading both videostreams.
+	 */
+	public WatermarkingEngine getEngine() {
+		return _engine;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Engine reading both videostreams.
+	 */
+	private final WatermarkingEngine _engine;
+	/**
+	 * Number of the frame to be read next.
+	 */
+	private volatile long _position = 0;
+
+}
@@ -0,0 +1,326 @@
+package jwmtool.lib;
+
+import java.awt.image.RenderedImage;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * A FrameExporter writes frames of a source videostream and its
+ * watermarked version as PNG images (lossless stills), e.g. to be attached
+ * to reports: every frame of a range, or every Nth one. Source frames are
+ * written as <code>source_NNNNNN.png</code> and watermarked frames as
+ * <code>watermarked_NNNNNN.png</code>, NNNNNN being the frame number. <br/>
+ *
+ * Each frame is read at its position in the files, converted to RGB and
+ * encoded on a worker thread, several frames at a time, so that long
+ * ranges are exported using every processor. Only a few frames per worker
+ * are pending at any time, so memory use does not grow with the range.
+ * Progress can be followed (and export cancelled) from another thread.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class FrameExporter {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * Prefix of source frame images.
+	 */
+	public static final String SOURCE_PREFIX = "source_";
+	/**
+	 * Prefix of watermarked frame images.
+	 */
+	public static final String WMARKED_PREFIX = "watermarked_";
+	/**
+	 * Number of frames being exported per worker thread at most.
+	 */
+	public static final int FRAMES_PER_WORKER = 2;
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Opens a source videostream file and its watermarked version.
+	 *
+	 * @param filename Name of the source videostream file.
+	 * @param outputFilename Name of the watermarked videostream (or delta)
+	 *                       file.
+	 * @throws WatermarkingException If any of the files can not be read.
+	 */
+	public FrameExporter(String filename, String outputFilename) throws WatermarkingException {
+		this(WatermarkingEngine.open(filename, outputFilename));
+		_ownEngine = true;
+	}
+
+	/**
+	 * Creates a FrameExporter reading from an engine already open (e.g.
+	 * the one playback reads from), which is shared, not copied (nor
+	 * closed by {@link #close close()}).
+	 *
+	 * @param engine Engine reading both videostreams.
+	 */
+	public FrameExporter(WatermarkingEngine engine) {
+		_engine = engine;
+	}
+
+	/**
+	 * Sets which videostreams frames are exported from (both, by
+	 * default).
+	 *
+	 * @param source Whether source frames are exported.
+	 * @param wmarked Whether watermarked frames are exported.
+	 */
+	public void setStreams(boolean source, boolean wmarked) {
+		_source  = source;
+		_wmarked = wmarked;
+	}
+
+	/**
+	 * Sets the number of worker threads exporting frames.
+	 *
+	 * @param threads Number of threads (at least 1).
+	 */
+	public void setThreads(int threads) {
+		_threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Returns the number of frames in the source videostream.
+	 *
+	 * @return Number of frames.
+	 */
+	public long getFrameCount() {
+		return _engine.getFrameCount();
+	}
+
+	/**
+	 * Exports every Nth frame of a range, up to the end of the shortest
+	 * videostream.
+	 *
+	 * @param first First frame (0 for the first frame of the
+	 *              videostreams).
+	 * @param last Last frame (beyond the end of the videostreams to
+	 *             export up to their end).
+	 * @param step Number of frames from each exported frame to the next
+	 *             one (1 to export every frame).
+	 * @param directory Directory images are written to (created if it
+	 *                  does not exist).
+	 * @return Number of frames exported.
+	 * @throws IOException If any image can not be written.
+	 */
+	public long export(long first, long last, long step, String directory) throws IOException {
+		File folder = new File(directory);
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException(directory);
+		}
+		first = Math.max(0, first);
+		last  = Math.min(last, getFrameCount() - 1);
+		step  = Math.max(1, step);
+		synchronized (this) {
+			_exported  = 0;
+			_total     = (last >= first) ? (last - first) / step + 1 : 0;
+			_cancelled = false;
+		}
+		ExecutorService workers = Executors.newFixedThreadPool(_threads, new WorkerFactory());
+		try {
+			ArrayDeque<Future<Boolean>> pending = new ArrayDeque<Future<Boolean>>();
+			long next = first;
+			while (true) {
+				while ((next <= last) && !isCancelled() && (pending.size() < _threads * FRAMES_PER_WORKER)) {
+					pending.add(workers.submit(new FrameWriter(next, folder)));
+					next += step;
+				}
+				if (pending.isEmpty()) {
+					break;
+				}
+				if (!pending.remove().get().booleanValue()) { // end of the shortest videostream
+					cancel();
+				}
+			}
+			return getExportedFrames();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e.toString());
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().getMessage());
+		} finally {
+			workers.shutdown(); // images being written are finished
+		}
+	}
+
+	/**
+	 * Stops exporting frames: frames already being exported are finished,
+	 * and no more are started.
+	 */
+	public synchronized void cancel() {
+		_cancelled = true;
+	}
+
+	/**
+	 * Closes both videostream files, if they were opened by this exporter.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (_ownEngine) {
+			_engine.close();
+		}
+	}
+
+	/**
+	 * Whether export was cancelled (or reached the end of the
+	 * videostreams) or not.
+	 *
+	 * @return Whether no more frames are started.
+	 */
+	public synchronized boolean isCancelled() {
+		return _cancelled;
+	}
+
+	/**
+	 * Returns the number of frames exported so far (by the last export,
+	 * if it has finished).
+	 *
+	 * @return Number of frames exported.
+	 */
+	public synchronized long getExportedFrames() {
+		return _exported;
+	}
+
+	/**
+	 * Returns the number of frames to be exported by the last export.
+	 *
+	 * @return Number of frames in the range (fewer are exported if the
+	 *         videostreams end before).
+	 */
+	public synchronized long getTotalFrames() {
+		return _total;
+	}
+
+	/**
+	 * Returns the name of the image a frame is exported to.
+	 *
+	 * @param directory Directory images are written to.
+	 * @param prefix Image prefix ({@link #SOURCE_PREFIX SOURCE_PREFIX} or
+	 *               {@link #WMARKED_PREFIX WMARKED_PREFIX}).
+	 * @param frame Frame number (0 for the first frame).
+	 * @return Image file.
+	 */
+	public static File getImageFile(File directory, String prefix, long frame) {
+		return new File(directory, prefix + String.format("%06d", frame) + ".png");
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Exports a frame.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param directory Directory images are written to.
+	 * @return Whether the frame could be read from both videostreams or
+	 *         not.
+	 * @throws IOException If any image can not be written.
+	 */
+	private boolean write(long frame, File directory) throws IOException {
+		JWMFrame pair = _engine.getFrame(frame, _engine.getSourceData(frame));
+		if (pair.isEmpty()) {
+			return false;
+		}
+		if (_source) {
+			write((RenderedImage) pair.getSourceFrame(), getImageFile(directory, SOURCE_PREFIX, frame));
+		}
+		if (_wmarked) {
+			write((RenderedImage) pair.getWMarkedFrame(), getImageFile(directory, WMARKED_PREFIX, frame));
+		}
+		synchronized (this) {
+			_exported++;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes an image as PNG.
+	 *
+	 * @param image Image.
+	 * @param file Image file.
+	 * @throws IOException If the image can not be written.
+	 */
+	private static void write(RenderedImage image, File file) throws IOException {
+		if (!ImageIO.write(image, "png", file)) {
+			throw new IOException(file.getPath());
+		}
+	}
+
+	// ----- ----- ----- WORKING THREADS ----- ----- -----
+
+	private class FrameWriter implements Callable<Boolean> {
+		public FrameWriter(long frame, File directory) {
+			_frame     = frame;
+			_directory = directory;
+		}
+		public Boolean call() throws IOException {
+			return Boolean.valueOf(write(_frame, _directory));
+		}
+		private long _frame;
+		private File _directory;
+	}
+
+	private static class WorkerFactory implements ThreadFactory {
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "JWMTool frame exporter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Engine reading both videostreams.
+	 */
+	private WatermarkingEngine _engine = null;
+	/**
+	 * Whether the engine was opened by this exporter (and is to be closed
+	 * by it).
+	 */
+	private boolean _ownEngine = false;
+	/**
+	 * Whether source frames are exported.
+	 */
+	private boolean _source = true;
+	/**
+	 * Whether watermarked frames are exported.
+	 */
+	private boolean _wmarked = true;
+	/**
+	 * Number of worker threads.
+	 */
+	private int _threads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Number of frames exported by the last export.
+	 */
+	private long _exported = 0;
+	/**
+	 * Number of frames to be exported by the last export.
+	 */
+	private long _total = 0;
+	/**
+	 * Whether the last export was cancelled.
+	 */
+	private boolean _cancelled = false;
+
+}
@@ -1,19 +1,45 @@
 package jwmtool.lib;
 
+import java.awt.Dimension;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * A JWMFrame represents a pair of frames, one being the
- * watermarked version of the other.
- * 
+ * watermarked version of the other. <br/>
+ *
+ * Frames obtained from the videostreams hold their raw YUV data, and are
+ * converted to RGB {@link java.awt.Image images} only the first time they
+ * are asked for (the result is kept), so that frames which are never
+ * displayed, or whose raw data is all that is needed, cost no conversion.
+ * Frames can also be asked for scaled down to a given size (e.g. to fit a
+ * window), in which case they are scaled while converting; the last few
+ * sizes asked for are kept (e.g. a window and its thumbnails). <br/>
+ *
+ * The differences between both frames can be shown as a heatmap, obtained
+ * straight from their raw data, without converting any of them. <br/>
+ *
+ * Raw data taken from a {@link jwmtool.lib.FrameBufferPool FrameBufferPool}
+ * is given back to it when the JWMFrame is {@link #release released}
+ * (e.g. evicted from a cache), after which only the images already
+ * converted are left. Such data is therefore never handed out as it is,
+ * but copied.
+ *
  * @author Laura Castro
  * @version 0.6
  */
 
 public class JWMFrame {
-	
+
 	// ----- ----- ----- METHODS -----  ----- -----
-	
+
 	/**
 	 * Creates a new JWMFrame from two images, representing
 	 * a source frame and its watermarked version.
@@ -24,28 +50,399 @@ public class JWMFrame {
 	public JWMFrame(Image sourceFrame, Image wmarkedFrame) {
 		_sourceImage  = sourceFrame;
 		_wmarkedImage = wmarkedFrame;
+		_empty        = (sourceFrame == null) || (wmarkedFrame == null);
+	}
+
+	/**
+	 * Creates a new JWMFrame from the raw data of two frames, representing
+	 * a source frame and its watermarked version, which will be converted
+	 * to images on demand.
+	 *
+	 * @param sourceData Source frame data (<code>null</code> if missing).
+	 * @param wmarkedData Watermarked frame data (<code>null</code> if
+	 *                    missing).
+	 * @param converter Converter to RGB.
+	 * @param pool Pool to convert on.
+	 */
+	public JWMFrame(FrameBuffer sourceData, FrameBuffer wmarkedData, YUVConverter converter, ForkJoinPool pool) {
+		this(sourceData, wmarkedData, converter, pool, null);
 	}
-	
+
 	/**
-	 * Access method to non-watermarked frame inside JWMFrame.
+	 * Creates a new JWMFrame from the raw data of two frames, taken from
+	 * a pool of buffers they are given back to once the JWMFrame is
+	 * released.
+	 *
+	 * @param sourceData Source frame data (<code>null</code> if missing).
+	 * @param wmarkedData Watermarked frame data (<code>null</code> if
+	 *                    missing).
+	 * @param converter Converter to RGB.
+	 * @param pool Pool to convert on.
+	 * @param buffers Pool both frame buffers were taken from
+	 *                (<code>null</code> if none).
+	 */
+	JWMFrame(FrameBuffer sourceData, FrameBuffer wmarkedData, YUVConverter converter, ForkJoinPool pool,
+		 FrameBufferPool buffers) {
+		_sourceData  = sourceData;
+		_wmarkedData = wmarkedData;
+		_converter   = converter;
+		_pool        = pool;
+		_buffers     = buffers;
+		_empty       = (sourceData == null) || (wmarkedData == null);
+	}
+
+	/**
+	 * Access method to non-watermarked frame inside JWMFrame, which is
+	 * converted to RGB if it was not yet.
 	 *
 	 * @return A non-watermarked {@link java.awt.Image image} frame.
 	 */
 	public Image getSourceFrame() {
-		return _sourceImage;
+		synchronized (_sourceLock) {
+			if ((_sourceImage == null) && (_sourceData != null)) {
+				_sourceImage = convert(_sourceData);
+			}
+			return _sourceImage;
+		}
 	}
-	
+
 	/**
-	 * Access method to watermarked frame inside JWMFrame.
+	 * Access method to watermarked frame inside JWMFrame, which is
+	 * converted to RGB if it was not yet.
 	 *
 	 * @return A watermarked {@link java.awt.Image image} frame.
 	 */
 	public Image getWMarkedFrame() {
-		return _wmarkedImage;
+		synchronized (_wmarkedLock) {
+			if ((_wmarkedImage == null) && (_wmarkedData != null)) {
+				_wmarkedImage = convert(_wmarkedData);
+			}
+			return _wmarkedImage;
+		}
+	}
+
+	/**
+	 * Access method to non-watermarked frame inside JWMFrame, scaled down
+	 * to a given size, which is converted to RGB (at that size) if it
+	 * was not yet.
+	 *
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 * @return A non-watermarked {@link java.awt.Image image} frame (full
+	 *         size if the JWMFrame was created from images, or if the
+	 *         frame is not larger than the given size).
+	 */
+	public Image getSourceFrame(int width, int height) {
+		if (!isScaled(width, height)) {
+			return getSourceFrame();
+		}
+		width  = Math.min(width,  _converter.getWidth());
+		height = Math.min(height, _converter.getHeight());
+		synchronized (_sourceLock) {
+			return getScaled(_sourceScaled, _sourceData, width, height);
+		}
+	}
+
+	/**
+	 * Access method to watermarked frame inside JWMFrame, scaled down to
+	 * a given size, which is converted to RGB (at that size) if it
+	 * was not yet.
+	 *
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 * @return A watermarked {@link java.awt.Image image} frame (full size
+	 *         if the JWMFrame was created from images, or if the frame is
+	 *         not larger than the given size).
+	 */
+	public Image getWMarkedFrame(int width, int height) {
+		if (!isScaled(width, height)) {
+			return getWMarkedFrame();
+		}
+		width  = Math.min(width,  _converter.getWidth());
+		height = Math.min(height, _converter.getHeight());
+		synchronized (_wmarkedLock) {
+			return getScaled(_wmarkedScaled, _wmarkedData, width, height);
+		}
+	}
+
+	/**
+	 * Access method to raw data of non-watermarked frame inside JWMFrame
+	 * (a copy of it, if it was taken from a pool of buffers).
+	 *
+	 * @return Non-watermarked frame data, or <code>null</code> if the
+	 *         JWMFrame was created from images or released.
+	 */
+	public FrameBuffer getSourceData() {
+		synchronized (_sourceLock) {
+			return handOut(_sourceData);
+		}
+	}
+
+	/**
+	 * Access method to raw data of watermarked frame inside JWMFrame
+	 * (a copy of it, if it was taken from a pool of buffers).
+	 *
+	 * @return Watermarked frame data, or <code>null</code> if the
+	 *         JWMFrame was created from images or released.
+	 */
+	public FrameBuffer getWMarkedData() {
+		synchronized (_wmarkedLock) {
+			return handOut(_wmarkedData);
+		}
+	}
+
+	/**
+	 * Whether any of the frames is missing (e.g. the end of the
+	 * videostreams was reached), without converting them. Released
+	 * JWMFrames are not empty because of that.
+	 *
+	 * @return Whether the JWMFrame is not complete.
+	 */
+	public boolean isEmpty() {
+		return _empty;
+	}
+
+	/**
+	 * Whether the JWMFrame was {@link #release released} or not.
+	 *
+	 * @return Whether raw data of both frames was given back to its pool.
+	 */
+	public boolean isReleased() {
+		return _released;
+	}
+
+	/**
+	 * Converts both frames to RGB, if they were not yet (the watermarked
+	 * one concurrently with the source one, if there is more than one
+	 * processor).
+	 */
+	public void convert() {
+		convert(Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Converts both frames to RGB, scaled down to a given size, if
+	 * they were not yet (the watermarked one concurrently with the source
+	 * one, if there is more than one processor).
+	 *
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 */
+	public void convert(final int width, final int height) {
+		ForkJoinTask<?> wmarked = null;
+		if ((_pool != null) && (_pool.getParallelism() > 1)) {
+			wmarked = _pool.submit(new Runnable() {
+				public void run() {
+					getWMarkedFrame(width, height);
+				}
+			});
+		}
+		getSourceFrame(width, height);
+		if (wmarked != null) {
+			wmarked.join();
+		}
+		else {
+			getWMarkedFrame(width, height);
+		}
+	}
+
+	/**
+	 * Converts the differences between both frames into a false colour
+	 * heatmap (see
+	 * {@link jwmtool.lib.YUVConverter#convertDifference YUVConverter.convertDifference()}),
+	 * scaled down to a given size, into a given image if it has that size
+	 * (e.g. the one returned for the previous frame), so that images are
+	 * not allocated for every frame. Neither frame is converted to RGB,
+	 * and the heatmap is not kept.
+	 *
+	 * @param plane Plane whose differences are shown
+	 *              ({@link jwmtool.lib.FrameBuffer#PLANE_Y PLANE_Y},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_U PLANE_U},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_V PLANE_V} or
+	 *              {@link jwmtool.lib.YUVConverter#ALL_PLANES YUVConverter.ALL_PLANES}).
+	 * @param amplification Factor differences are multiplied by.
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 * @param image Image to be reused (may be <code>null</code>).
+	 * @return Heatmap image (<code>image</code> itself, if it could be
+	 *         reused), or <code>null</code> if the JWMFrame was created
+	 *         from images or is empty.
+	 */
+	public BufferedImage getDifference(int plane, int amplification, int width, int height, BufferedImage image) {
+		synchronized (_sourceLock) {
+			synchronized (_wmarkedLock) { // not released meanwhile
+				if ((_sourceData == null) || (_wmarkedData == null)) {
+					return null;
+				}
+				width  = Math.max(1, Math.min(width,  _converter.getWidth()));
+				height = Math.max(1, Math.min(height, _converter.getHeight()));
+				if ((image == null) || (image.getWidth() != width) || (image.getHeight() != height)) {
+					image = _converter.createImage(width, height);
+				}
+				_converter.convertDifference(_sourceData, _wmarkedData, plane, amplification, image, _pool);
+				return image;
+			}
+		}
+	}
+
+	/**
+	 * Gives raw data of both frames back to the pool it was taken from,
+	 * if any, once the JWMFrame is no longer needed (e.g. evicted from a
+	 * cache, or dropped before being displayed). Images converted so far
+	 * are kept, but no more can be converted. Conversions in progress are
+	 * finished first.
+	 */
+	public void release() {
+		if (_buffers == null) {
+			return;
+		}
+		synchronized (_sourceLock) {
+			_buffers.release(_sourceData);
+			_sourceData = null;
+		}
+		synchronized (_wmarkedLock) {
+			_buffers.release(_wmarkedData);
+			_wmarkedData = null;
+		}
+		_released = true;
+	}
+
+	/**
+	 * Estimates memory taken by the JWMFrame (raw data, if any, plus 32
+	 * bits per pixel of each image converted so far).
+	 *
+	 * @return Memory, in bytes.
+	 */
+	public long getMemory() {
+		long memory = 0;
+		synchronized (_sourceLock) {
+			memory += getMemory(_sourceData) + getMemory(_sourceImage) + getMemory(_sourceScaled);
+		}
+		synchronized (_wmarkedLock) {
+			memory += getMemory(_wmarkedData) + getMemory(_wmarkedImage) + getMemory(_wmarkedScaled);
+		}
+		return memory;
 	}
-	
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Converts a frame to RGB.
+	 *
+	 * @param data Frame data.
+	 * @return An RGB {@link java.awt.Image image} frame.
+	 */
+	private Image convert(FrameBuffer data) {
+		BufferedImage image = _converter.createImage();
+		_converter.convert(data.getY(), data.getU(), data.getV(), image, _pool);
+		return image;
+	}
+
+	/**
+	 * Converts a frame to RGB, scaling it down to a given size.
+	 *
+	 * @param data Frame data.
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 * @return An RGB {@link java.awt.Image image} frame.
+	 */
+	private Image convert(FrameBuffer data, int width, int height) {
+		BufferedImage image = _converter.createImage(width, height);
+		_converter.convert(data.getY(), data.getU(), data.getV(), image, _pool);
+		return image;
+	}
+
+	/**
+	 * Hands raw frame data out, copying it if it was taken from a pool of
+	 * buffers (so that it is not given back, and reused, while in use).
+	 *
+	 * @param data Frame data (may be <code>null</code>).
+	 * @return <code>data</code>, or a copy of it.
+	 */
+	private FrameBuffer handOut(FrameBuffer data) {
+		return ((data != null) && (_buffers != null)) ? data.copyToHeap() : data;
+	}
+
+	/**
+	 * Returns a frame scaled down to a given size, converting it to RGB
+	 * (at that size) if it was not yet.
+	 *
+	 * @param scaled Images of the frame already scaled down, by size.
+	 * @param data Frame data (<code>null</code> once released).
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 * @return An RGB {@link java.awt.Image image} frame, or
+	 *         <code>null</code> if it was not converted before being
+	 *         released.
+	 */
+	private Image getScaled(Map<Dimension, Image> scaled, FrameBuffer data, int width, int height) {
+		Dimension size = new Dimension(width, height);
+		Image image = scaled.get(size);
+		if ((image == null) && (data != null)) { // not once released
+			image = convert(data, width, height);
+			scaled.put(size, image);
+			Iterator<Dimension> sizes = scaled.keySet().iterator();
+			while (scaled.size() > SCALED_IMAGES) {
+				sizes.next();
+				sizes.remove();
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Whether frames have to be scaled down to a given size or not.
+	 *
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 * @return Whether frames are raw, and larger than the given size.
+	 */
+	private boolean isScaled(int width, int height) {
+		return (_converter != null) && ((width < _converter.getWidth()) || (height < _converter.getHeight()));
+	}
+
+	/**
+	 * Returns memory taken by raw frame data.
+	 *
+	 * @param data Frame data.
+	 * @return Memory, in bytes.
+	 */
+	private static long getMemory(FrameBuffer data) {
+		return (data == null) ? 0 : (long) data.getY().capacity() + data.getU().capacity() + data.getV().capacity();
+	}
+
+	/**
+	 * Returns memory taken by an image (32 bits per pixel).
+	 *
+	 * @param image Image.
+	 * @return Memory, in bytes.
+	 */
+	private static long getMemory(Image image) {
+		return (image == null) ? 0 : 4L * image.getWidth(null) * image.getHeight(null);
+	}
+
+	/**
+	 * Returns memory taken by a set of images (32 bits per pixel).
+	 *
+	 * @param images Images.
+	 * @return Memory, in bytes.
+	 */
+	private static long getMemory(Map<Dimension, Image> images) {
+		long memory = 0;
+		for (Image image : images.values()) {
+			memory += getMemory(image);
+		}
+		return memory;
+	}
+
 	// ----- ----- ----- ATTRIBUTES -----  ----- -----
-	
+
+	/**
+	 * Number of sizes each frame is kept scaled down at (least recently
+	 * used ones are dropped).
+	 */
+	private static final int SCALED_IMAGES = 4;
+
 	/**
 	 * Original (non-watermarked) {@link java.awt.Image image} frame.
 	 */
@@ -54,5 +451,52 @@ public class JWMFrame {
 	 * Modified (watermarked) {@link java.awt.Image image} frame.
 	 */
 	private Image _wmarkedImage = null;
-	
-}
\ No newline at end of file
+	/**
+	 * Original (non-watermarked) {@link java.awt.Image image} frame,
+	 * scaled down, by size.
+	 */
+	private final Map<Dimension, Image> _sourceScaled  = new LinkedHashMap<Dimension, Image>(16, 0.75f, true); // access order, eldest is least recently used
+	/**
+	 * Modified (watermarked) {@link java.awt.Image image} frame, scaled
+	 * down, by size.
+	 */
+	private final Map<Dimension, Image> _wmarkedScaled = new LinkedHashMap<Dimension, Image>(16, 0.75f, true);
+	/**
+	 * Original (non-watermarked) raw frame data.
+	 */
+	private FrameBuffer _sourceData  = null;
+	/**
+	 * Modified (watermarked) raw frame data.
+	 */
+	private FrameBuffer _wmarkedData = null;
+	/**
+	 * Converter to RGB.
+	 */
+	private YUVConverter _converter = null;
+	/**
+	 * Pool to convert on.
+	 */
+	private ForkJoinPool _pool = null;
+	/**
+	 * Pool raw frame data is given back to once released
+	 * (<code>null</code> if none).
+	 */
+	private FrameBufferPool _buffers = null;
+	/**
+	 * Whether any of the frames is missing.
+	 */
+	private boolean _empty = false;
+	/**
+	 * Whether raw frame data was given back to its pool.
+	 */
+	private volatile boolean _released = false;
+	/**
+	 * Lock guarding conversion of original frame.
+	 */
+	private final Object _sourceLock  = new Object();
+	/**
+	 * Lock guarding conversion of modified frame.
+	 */
+	private final Object _wmarkedLock = new Object();
+
+}
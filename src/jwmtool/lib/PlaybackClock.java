@@ -0,0 +1,151 @@
+package jwmtool.lib;
+
+/**
+ * A PlaybackClock tells which frame of a videostream is due at any moment
+ * during playback, given the videostream frame rate and a playback speed.
+ * It relies on a monotonic time source ({@link java.lang.System#nanoTime
+ * System.nanoTime}), so that playback neither drifts nor is disturbed by
+ * wall clock adjustments: if displaying falls behind, due frames move on
+ * anyway, and the frames in between are to be dropped.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class PlaybackClock {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * Slowest playback speed.
+	 */
+	public static final double MIN_SPEED = 0.25;
+	/**
+	 * Fastest playback speed.
+	 */
+	public static final double MAX_SPEED = 8;
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a PlaybackClock at normal speed.
+	 *
+	 * @param frameRate Videostream frame rate (frames per second).
+	 */
+	public PlaybackClock(double frameRate) {
+		_frameRate = frameRate;
+	}
+
+	/**
+	 * (Re)starts the clock, so that a given frame is due right now.
+	 *
+	 * @param frame Frame number.
+	 */
+	public synchronized void start(long frame) {
+		_anchorFrame = frame;
+		_anchorTime  = System.nanoTime();
+	}
+
+	/**
+	 * Returns the frame due right now.
+	 *
+	 * @return Frame number.
+	 */
+	public synchronized long getFrame() {
+		return (long) Math.floor(getPosition(System.nanoTime()));
+	}
+
+	/**
+	 * Waits until a frame is due (returns at once if it already is).
+	 *
+	 * @param frame Frame number.
+	 * @throws InterruptedException
+	 */
+	public void waitFor(long frame) throws InterruptedException {
+		long delay;
+		synchronized (this) {
+			delay = _anchorTime + (long) ((frame - _anchorFrame) * 1e9 / getRate()) - System.nanoTime();
+		}
+		if (delay > 0) {
+			Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+		}
+	}
+
+	/**
+	 * Returns playback speed.
+	 *
+	 * @return Playback speed (1 is normal speed).
+	 */
+	public synchronized double getSpeed() {
+		return _speed;
+	}
+
+	/**
+	 * Changes playback speed, from current position on.
+	 *
+	 * @param speed Playback speed (1 is normal speed), from
+	 *              {@link jwmtool.lib.PlaybackClock#MIN_SPEED MIN_SPEED} to
+	 *              {@link jwmtool.lib.PlaybackClock#MAX_SPEED MAX_SPEED}.
+	 */
+	public synchronized void setSpeed(double speed) {
+		long now = System.nanoTime();
+		_anchorFrame = getPosition(now);
+		_anchorTime  = now;
+		_speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+	}
+
+	/**
+	 * Returns how many frames playback advances between two displayed
+	 * frames at current speed, so that frames are never displayed faster
+	 * than the videostream frame rate: beyond normal speed, frames in
+	 * between are skipped.
+	 *
+	 * @return Frame step (1 up to normal speed).
+	 */
+	public synchronized int getStride() {
+		return (int) Math.ceil(Math.max(1, _speed));
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Returns (fractional) playback position at a given time.
+	 *
+	 * @param time Time, as given by {@link java.lang.System#nanoTime
+	 *             System.nanoTime}.
+	 * @return Frame number, with fraction.
+	 */
+	private double getPosition(long time) {
+		return _anchorFrame + (time - _anchorTime) * getRate() / 1e9;
+	}
+
+	/**
+	 * Returns playback rate.
+	 *
+	 * @return Frames per second, at current speed.
+	 */
+	private double getRate() {
+		return _frameRate * _speed;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Videostream frame rate (frames per second).
+	 */
+	private double _frameRate = Watermarking.DEFAULT_FRAME_RATE;
+	/**
+	 * Playback speed (1 is normal speed).
+	 */
+	private double _speed = 1;
+	/**
+	 * Playback position at anchor time.
+	 */
+	private double _anchorFrame = 0;
+	/**
+	 * Anchor time, as given by {@link java.lang.System#nanoTime
+	 * System.nanoTime}.
+	 */
+	private long _anchorTime = System.nanoTime();
+
+}
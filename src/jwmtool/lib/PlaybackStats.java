@@ -0,0 +1,376 @@
+package jwmtool.lib;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A PlaybackStats collects lightweight counters from the playback
+ * pipeline, so that it can be told whether reading, converting or painting
+ * frames is to blame when playback can not keep up: how long each stage
+ * takes for each frame, which frames are displayed and dropped, how often
+ * frames are found in the {@link jwmtool.lib.FrameCache FrameCache}, and
+ * how full the {@link jwmtool.lib.ReadAheadDecoder ReadAheadDecoder} ring
+ * is. <br/>
+ *
+ * Every event is recorded, with its time, in a fixed size log which
+ * wraps around (so recording creates no objects), from which rolling
+ * figures are computed on demand, and which can be
+ * {@link #dump(String) dumped} to a file for offline analysis. Events can
+ * be recorded from any thread.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class PlaybackStats {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * Stage reading frames from the videostreams.
+	 */
+	public static final int STAGE_READ = 0;
+	/**
+	 * Stage converting frames to RGB.
+	 */
+	public static final int STAGE_CONVERT = 1;
+	/**
+	 * Stage painting frames on screen.
+	 */
+	public static final int STAGE_PAINT = 2;
+	/**
+	 * Number of most recent times of each stage percentiles are computed
+	 * from.
+	 */
+	public static final int SAMPLES = 120;
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates an empty PlaybackStats.
+	 */
+	public PlaybackStats() {
+		reset();
+	}
+
+	/**
+	 * Discards every event recorded so far.
+	 */
+	public synchronized void reset() {
+		_start   = System.nanoTime();
+		_events  = 0;
+		_shown   = 0;
+		_dropped = 0;
+		_hits    = 0;
+		_misses  = 0;
+	}
+
+	/**
+	 * Records how long a stage took for a frame.
+	 *
+	 * @param stage Stage ({@link #STAGE_READ STAGE_READ},
+	 *              {@link #STAGE_CONVERT STAGE_CONVERT} or
+	 *              {@link #STAGE_PAINT STAGE_PAINT}).
+	 * @param nanos Duration, in nanoseconds.
+	 */
+	public synchronized void addTime(int stage, long nanos) {
+		record(stage, nanos);
+	}
+
+	/**
+	 * Records a frame being displayed.
+	 *
+	 * @param fill Number of frames ready in the read-ahead ring.
+	 * @param capacity Read-ahead ring capacity.
+	 */
+	public synchronized void frameShown(int fill, int capacity) {
+		_shown++;
+		_capacity = capacity;
+		record(EVENT_SHOWN, fill);
+	}
+
+	/**
+	 * Records frames being dropped, since playback fell behind.
+	 *
+	 * @param count Number of frames dropped.
+	 */
+	public synchronized void framesDropped(long count) {
+		_dropped += count;
+		record(EVENT_DROPPED, count);
+	}
+
+	/**
+	 * Records a frame cache look up.
+	 *
+	 * @param hit Whether the frame was found in the cache or not.
+	 */
+	public synchronized void cacheLookup(boolean hit) {
+		if (hit) {
+			_hits++;
+		}
+		else {
+			_misses++;
+		}
+	}
+
+	/**
+	 * Sets the frame rate frames are due to be displayed at.
+	 *
+	 * @param frameRate Frames per second.
+	 */
+	public synchronized void setTargetFrameRate(double frameRate) {
+		_targetRate = frameRate;
+	}
+
+	/**
+	 * Returns the frame rate frames are due to be displayed at.
+	 *
+	 * @return Frames per second.
+	 */
+	public synchronized double getTargetFrameRate() {
+		return _targetRate;
+	}
+
+	/**
+	 * Returns the frame rate frames were displayed at during the last
+	 * second.
+	 *
+	 * @return Frames per second (0 if less than two frames were displayed).
+	 */
+	public synchronized double getFrameRate() {
+		long now = System.nanoTime();
+		long first = 0, last = 0;
+		int count = 0;
+		for (long i = _events - 1; (i >= 0) && (i >= _events - LOG_SIZE); i--) {
+			int pos = (int) (i % LOG_SIZE);
+			if (now - _times[pos] > RATE_WINDOW) {
+				break;
+			}
+			if (_kinds[pos] == EVENT_SHOWN) {
+				if (count == 0) {
+					last = _times[pos];
+				}
+				first = _times[pos];
+				count++;
+			}
+		}
+		return ((count < 2) || (last == first)) ? 0 : (count - 1) * 1e9 / (last - first);
+	}
+
+	/**
+	 * Returns a percentile of the most recent times of a stage.
+	 *
+	 * @param stage Stage ({@link #STAGE_READ STAGE_READ},
+	 *              {@link #STAGE_CONVERT STAGE_CONVERT} or
+	 *              {@link #STAGE_PAINT STAGE_PAINT}).
+	 * @param percentile Percentile (from 0 to 100).
+	 * @return Time, in milliseconds (0 if none was recorded).
+	 */
+	public synchronized double getPercentile(int stage, double percentile) {
+		long[] samples = new long[SAMPLES];
+		int count = 0;
+		for (long i = _events - 1; (i >= 0) && (i >= _events - LOG_SIZE) && (count < SAMPLES); i--) {
+			int pos = (int) (i % LOG_SIZE);
+			if (_kinds[pos] == stage) {
+				samples[count++] = _values[pos];
+			}
+		}
+		if (count == 0) {
+			return 0;
+		}
+		Arrays.sort(samples, 0, count);
+		int rank = (int) Math.ceil(percentile / 100 * count) - 1; // nearest rank
+		return samples[Math.max(0, Math.min(count - 1, rank))] / 1e6;
+	}
+
+	/**
+	 * Returns the number of frames displayed so far.
+	 *
+	 * @return Displayed frames.
+	 */
+	public synchronized long getShownFrames() {
+		return _shown;
+	}
+
+	/**
+	 * Returns the number of frames dropped so far.
+	 *
+	 * @return Dropped frames.
+	 */
+	public synchronized long getDroppedFrames() {
+		return _dropped;
+	}
+
+	/**
+	 * Returns the fraction of frame cache look ups which found the frame
+	 * so far.
+	 *
+	 * @return Cache hit rate (from 0 to 1; 0 if there were no look ups).
+	 */
+	public synchronized double getCacheHitRate() {
+		return (_hits + _misses == 0) ? 0 : (double) _hits / (_hits + _misses);
+	}
+
+	/**
+	 * Returns the number of frames which were ready in the read-ahead ring
+	 * when the last frame was displayed.
+	 *
+	 * @return Ring fill level.
+	 */
+	public synchronized int getBufferFill() {
+		for (long i = _events - 1; (i >= 0) && (i >= _events - LOG_SIZE); i--) {
+			int pos = (int) (i % LOG_SIZE);
+			if (_kinds[pos] == EVENT_SHOWN) {
+				return (int) _values[pos];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns read-ahead ring capacity.
+	 *
+	 * @return Maximum number of frames decoded ahead.
+	 */
+	public synchronized int getBufferCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * Writes a summary and every event in the log to a file, as comma
+	 * separated values: time (in milliseconds since the statistics were
+	 * reset), event and value (duration in milliseconds, read-ahead ring
+	 * fill level or number of frames dropped).
+	 *
+	 * @param filename Name of the file to be written.
+	 * @throws IOException
+	 */
+	public void dump(String filename) throws IOException {
+		Writer output = new BufferedWriter(new FileWriter(filename));
+		try {
+			dump(output);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Writes a summary and every event in the log (see
+	 * {@link #dump(String) dump()}).
+	 *
+	 * @param output Where to write to.
+	 * @throws IOException
+	 */
+	public synchronized void dump(Writer output) throws IOException {
+		output.write(String.format(Locale.US, "# frame rate: %.2f fps (target %.2f fps)\n", getFrameRate(), _targetRate));
+		output.write("# shown frames: " + _shown + ", dropped frames: " + _dropped + "\n");
+		output.write("# cache hits: " + _hits + ", cache misses: " + _misses + "\n");
+		output.write("# read-ahead capacity: " + _capacity + "\n");
+		for (int stage = STAGE_READ; stage <= STAGE_PAINT; stage++) {
+			output.write(String.format(Locale.US, "# %s p50/p95/p99: %.3f/%.3f/%.3f ms\n", EVENT_NAMES[stage],
+						   getPercentile(stage, 50), getPercentile(stage, 95), getPercentile(stage, 99)));
+		}
+		output.write("time_ms,event,value\n");
+		for (long i = Math.max(0, _events - LOG_SIZE); i < _events; i++) {
+			int pos = (int) (i % LOG_SIZE);
+			boolean duration = _kinds[pos] <= STAGE_PAINT;
+			output.write(String.format(Locale.US, "%.3f,%s,", (_times[pos] - _start) / 1e6, EVENT_NAMES[_kinds[pos]]));
+			output.write(duration ? String.format(Locale.US, "%.3f\n", _values[pos] / 1e6) : _values[pos] + "\n");
+		}
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Adds an event to the log, overwriting the oldest one if full.
+	 *
+	 * @param kind Event kind (a stage, {@link #EVENT_SHOWN EVENT_SHOWN} or
+	 *             {@link #EVENT_DROPPED EVENT_DROPPED}).
+	 * @param value Event value.
+	 */
+	private void record(int kind, long value) {
+		int pos = (int) (_events % LOG_SIZE);
+		_times[pos]  = System.nanoTime();
+		_kinds[pos]  = kind;
+		_values[pos] = value;
+		_events++;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Event of a frame being displayed (its value is the read-ahead ring
+	 * fill level).
+	 */
+	private static final int EVENT_SHOWN = 3;
+	/**
+	 * Event of frames being dropped (its value is the number of frames).
+	 */
+	private static final int EVENT_DROPPED = 4;
+	/**
+	 * Names of stages and events, as dumped.
+	 */
+	private static final String[] EVENT_NAMES = { "read", "convert", "paint", "shown", "dropped" };
+	/**
+	 * Number of events kept in the log.
+	 */
+	private static final int LOG_SIZE = 8192;
+	/**
+	 * Time (in nanoseconds) displayed frame rate is computed over.
+	 */
+	private static final long RATE_WINDOW = 1000000000L;
+
+	/**
+	 * Time of each event in the log, as given by
+	 * {@link java.lang.System#nanoTime System.nanoTime}.
+	 */
+	private long[] _times = new long[LOG_SIZE];
+	/**
+	 * Kind of each event in the log.
+	 */
+	private int[] _kinds = new int[LOG_SIZE];
+	/**
+	 * Value of each event in the log.
+	 */
+	private long[] _values = new long[LOG_SIZE];
+	/**
+	 * Number of events recorded (the log keeps the last
+	 * {@link #LOG_SIZE LOG_SIZE} ones).
+	 */
+	private long _events = 0;
+	/**
+	 * Time statistics were reset, as given by
+	 * {@link java.lang.System#nanoTime System.nanoTime}.
+	 */
+	private long _start = 0;
+	/**
+	 * Number of frames displayed.
+	 */
+	private long _shown = 0;
+	/**
+	 * Number of frames dropped.
+	 */
+	private long _dropped = 0;
+	/**
+	 * Number of frame cache look ups which found the frame.
+	 */
+	private long _hits = 0;
+	/**
+	 * Number of frame cache look ups which did not find the frame.
+	 */
+	private long _misses = 0;
+	/**
+	 * Read-ahead ring capacity.
+	 */
+	private int _capacity = 0;
+	/**
+	 * Frame rate frames are due to be displayed at.
+	 */
+	private double _targetRate = 0;
+
+}
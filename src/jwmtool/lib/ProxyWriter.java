@@ -0,0 +1,314 @@
+package jwmtool.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A ProxyWriter produces a proxy of a videostream: a YUV4MPEG2 file with
+ * the same frames, scaled down by a given factor in both directions (each
+ * proxy sample being the average of the samples in its box), which is
+ * much faster to read and convert than the videostream itself. Frames are
+ * given to the ProxyWriter as they are watermarked, either whole or
+ * strip by strip, so that proxies are produced in the same pass. <br/>
+ *
+ * Proxy stream header is that of the videostream, with scaled down
+ * dimensions, an explicit colour space tag and an
+ * {@link jwmtool.lib.ProxyWriter#SOURCE_TAG XJWMSOURCE} tag recording
+ * length and last modification time of the source videostream file, so
+ * that a proxy can be reused as long as its source has not changed. The
+ * proxy is written under a temporary name, and only renamed once complete.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class ProxyWriter {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * Stream header tag identifying the source videostream file of a proxy.
+	 */
+	public static final String SOURCE_TAG = "XJWMSOURCE=";
+	/**
+	 * Suffix added to the name of a proxy while it is being written.
+	 */
+	public static final String PARTIAL_SUFFIX = ".part";
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Returns the name of the proxy of a videostream file.
+	 *
+	 * @param filename Name of the videostream file.
+	 * @param scale Scale factor of the proxy.
+	 * @return Name of the proxy file.
+	 */
+	public static String getFilename(String filename, int scale) {
+		return filename + ".proxy" + scale + ".y4m";
+	}
+
+	/**
+	 * Whether a proxy exists and was produced from the current contents of
+	 * a source videostream file or not.
+	 *
+	 * @param proxyFilename Name of the proxy file.
+	 * @param sourceFilename Name of the source videostream file.
+	 * @return Whether the proxy can be used.
+	 */
+	public static boolean isValid(String proxyFilename, String sourceFilename) {
+		File proxy = new File(proxyFilename);
+		if (!proxy.isFile()) {
+			return false;
+		}
+		try {
+			RandomAccessFile file = new RandomAccessFile(proxy, "r");
+			try {
+				String header = file.readLine();
+				return (header != null) && header.endsWith(" " + getSourceTag(sourceFilename));
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Whether frames are large enough to have a proxy at a given scale or
+	 * not.
+	 *
+	 * @param uvWidth U and V component planes width.
+	 * @param uvHeight U and V component planes height.
+	 * @param scale Scale factor.
+	 * @return Whether proxy frames would not be empty.
+	 */
+	public static boolean isScalable(int uvWidth, int uvHeight, int scale) {
+		return (scale > 1) && (uvWidth >= scale) && (uvHeight >= scale);
+	}
+
+	/**
+	 * Creates a proxy file and writes its stream header.
+	 *
+	 * @param filename Name of the proxy file to be produced.
+	 * @param sourceFilename Name of the source videostream file.
+	 * @param streamHeader Videostream header.
+	 * @param yuvFormat YUV format.
+	 * @param uvWidth U and V component planes width.
+	 * @param uvHeight U and V component planes height.
+	 * @param shift Chroma subsampling, as a power of 2 (the same in both
+	 *              directions).
+	 * @param scale Scale factor.
+	 * @throws IOException
+	 */
+	public ProxyWriter(String filename, String sourceFilename, String streamHeader, int yuvFormat,
+			   int uvWidth, int uvHeight, int shift, int scale) throws IOException {
+		_filename   = filename;
+		_scale      = scale;
+		_uvWidth    = uvWidth / scale;
+		_uvHeight   = uvHeight / scale;
+		_width      = _uvWidth << shift;
+		_height     = _uvHeight << shift;
+		_ySums      = new int[_width * _height];
+		_uSums      = new int[_uvWidth * _uvHeight];
+		_vSums      = new int[_uvWidth * _uvHeight];
+		_row        = new byte[Math.max(_width, 1)];
+
+		StringBuilder header = new StringBuilder();
+		String[] info = streamHeader.split(" ");
+		header.append(info[0]);
+		for (int i = 1; i < info.length; i++) {
+			if (info[i].startsWith("W")) {
+				header.append(" W").append(_width);
+			}
+			else if (info[i].startsWith("H")) {
+				header.append(" H").append(_height);
+			}
+			else if (!info[i].startsWith("C") && !info[i].startsWith(SOURCE_TAG)) { // colour space tag is set below
+				header.append(' ').append(info[i]);
+			}
+		}
+		header.append(' ').append(Watermarking.getColourSpaceTag(yuvFormat));
+		header.append(' ').append(getSourceTag(sourceFilename)).append('\n');
+
+		_output = new BufferedOutputStream(new FileOutputStream(_filename + PARTIAL_SUFFIX), 1 << 16);
+		_output.write(header.toString().getBytes("US-ASCII"));
+	}
+
+	/**
+	 * Adds some rows of a plane of current frame to the proxy.
+	 *
+	 * @param plane Plane identifier.
+	 * @param data Plane rows, from its beginning.
+	 * @param planeWidth Plane width (and length of each row in
+	 *                   <code>data</code>).
+	 * @param firstRow Row of the first row in <code>data</code> within
+	 *                 the whole plane.
+	 * @param rows Number of rows in <code>data</code>.
+	 */
+	public void addRows(int plane, ByteBuffer data, int planeWidth, int firstRow, int rows) {
+		int[] sums  = (plane == FrameBuffer.PLANE_Y) ? _ySums  : ((plane == FrameBuffer.PLANE_U) ? _uSums : _vSums);
+		int width   = (plane == FrameBuffer.PLANE_Y) ? _width  : _uvWidth;
+		int height  = (plane == FrameBuffer.PLANE_Y) ? _height : _uvHeight;
+		for (int i = 0; i < rows; i++) {
+			int row = (firstRow + i) / _scale;
+			if (row >= height) {
+				break;
+			}
+			int pos = i * planeWidth;
+			for (int j = row * width, end = j + width; j < end; j++) {
+				int sum = 0;
+				for (int k = 0; k < _scale; k++, pos++) {
+					sum += data.get(pos) & 255;
+				}
+				sums[j] += sum;
+			}
+		}
+	}
+
+	/**
+	 * Adds a whole frame to the proxy (see
+	 * {@link #addRows addRows()}).
+	 *
+	 * @param frame Frame data.
+	 * @param width Y component plane width.
+	 * @param height Y component plane height.
+	 * @param uvWidth U and V component planes width.
+	 * @param uvHeight U and V component planes height.
+	 */
+	public void addFrame(FrameBuffer frame, int width, int height, int uvWidth, int uvHeight) {
+		addRows(FrameBuffer.PLANE_Y, frame.getY(), width, 0, height);
+		addRows(FrameBuffer.PLANE_U, frame.getU(), uvWidth, 0, uvHeight);
+		addRows(FrameBuffer.PLANE_V, frame.getV(), uvWidth, 0, uvHeight);
+	}
+
+	/**
+	 * Writes the proxy of current frame, once all its rows were added.
+	 *
+	 * @throws IOException
+	 */
+	public void endFrame() throws IOException {
+		_output.write((Watermarking.FRAME_HEADER + "\n").getBytes("US-ASCII"));
+		writePlane(_ySums, _width);
+		writePlane(_uSums, _uvWidth);
+		writePlane(_vSums, _uvWidth);
+	}
+
+	/**
+	 * Closes the proxy file, once complete, giving it its final name.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		_output.close();
+		File proxy = new File(_filename);
+		proxy.delete();
+		if (!new File(_filename + PARTIAL_SUFFIX).renameTo(proxy)) {
+			throw new IOException(_filename);
+		}
+		_finished = true;
+	}
+
+	/**
+	 * Closes the proxy file, discarding it if it was not complete.
+	 */
+	public void close() {
+		if (!_finished) {
+			try {
+				_output.close();
+			} catch (IOException e) {}
+			new File(_filename + PARTIAL_SUFFIX).delete();
+		}
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Returns the tag identifying the current contents of a source
+	 * videostream file.
+	 *
+	 * @param sourceFilename Name of the source videostream file.
+	 * @return Stream header tag.
+	 */
+	private static String getSourceTag(String sourceFilename) {
+		File source = new File(sourceFilename);
+		return SOURCE_TAG + source.length() + ":" + source.lastModified();
+	}
+
+	/**
+	 * Writes a proxy plane (the average of the samples in each box), and
+	 * clears its sums for next frame.
+	 *
+	 * @param sums Sums of the samples in each box.
+	 * @param width Proxy plane width.
+	 * @throws IOException
+	 */
+	private void writePlane(int[] sums, int width) throws IOException {
+		int samples = _scale * _scale;
+		for (int pos = 0; pos < sums.length; pos += width) {
+			for (int j = 0; j < width; j++) {
+				_row[j] = (byte) ((sums[pos + j] + samples / 2) / samples);
+				sums[pos + j] = 0;
+			}
+			_output.write(_row, 0, width);
+		}
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Proxy file name.
+	 */
+	private String _filename = null;
+	/**
+	 * Proxy file.
+	 */
+	private OutputStream _output = null;
+	/**
+	 * Whether the proxy file is complete or not.
+	 */
+	private boolean _finished = false;
+	/**
+	 * Scale factor.
+	 */
+	private int _scale = 1;
+	/**
+	 * Proxy Y component plane width.
+	 */
+	private int _width = 0;
+	/**
+	 * Proxy Y component plane height.
+	 */
+	private int _height = 0;
+	/**
+	 * Proxy U and V component planes width.
+	 */
+	private int _uvWidth = 0;
+	/**
+	 * Proxy U and V component planes height.
+	 */
+	private int _uvHeight = 0;
+	/**
+	 * Sums of Y component samples in each box of current frame.
+	 */
+	private int[] _ySums = null;
+	/**
+	 * Sums of U component samples in each box of current frame.
+	 */
+	private int[] _uSums = null;
+	/**
+	 * Sums of V component samples in each box of current frame.
+	 */
+	private int[] _vSums = null;
+	/**
+	 * Auxiliary buffer for proxy rows.
+	 */
+	private byte[] _row = null;
+
+}
@@ -0,0 +1,285 @@
+package jwmtool.lib;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ReadAheadDecoder runs ahead of playback, obtaining
+ * {@link jwmtool.lib.JWMFrame JWMFrames} from a
+ * {@link jwmtool.lib.Watermarking Watermarking} object in its own thread
+ * and keeping them in a bounded ring, from which playback takes them. This
+ * way, a slow read or conversion of a single frame does not stall playback,
+ * as long as frames are obtained, on average, faster than they are
+ * displayed. <br/>
+ *
+ * While the decoder is running, it is the only one accessing the
+ * {@link jwmtool.lib.Watermarking Watermarking} object. Once
+ * {@link jwmtool.lib.ReadAheadDecoder#stop stopped}, the videostreams are
+ * positioned at the first frame which was not taken from the ring yet.
+ * The decoding thread is not interrupted, but told to stop after current
+ * frame. Frames discarded on stop are
+ * {@link jwmtool.lib.JWMFrame#release released}. <br/>
+ *
+ * For fast playback, the decoder can be started with a stride, so that it
+ * only decodes every other frame (or one of every few frames), seeking past
+ * frames which will not be displayed. <br/>
+ *
+ * While the videostreams are still being watermarked, the decoder waits
+ * for each frame to be written before decoding it. <br/>
+ *
+ * Frames decoded ahead are converted to RGB ahead too, unless they are
+ * not going to be displayed as such (e.g. when just their differences are
+ * shown). How long reading and converting each frame takes can be
+ * recorded in a {@link jwmtool.lib.PlaybackStats PlaybackStats}.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class ReadAheadDecoder {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a ReadAheadDecoder.
+	 *
+	 * @param wmtool Source of the frames.
+	 * @param capacity Maximum number of frames decoded ahead.
+	 */
+	public ReadAheadDecoder(Watermarking wmtool, int capacity) {
+		_wmtool = wmtool;
+		_ring   = new ArrayBlockingQueue<JWMFrame>(capacity);
+	}
+
+	/**
+	 * Starts decoding ahead from current videostreams position, unless it
+	 * is already doing so.
+	 */
+	public void start() {
+		start(1);
+	}
+
+	/**
+	 * Starts decoding ahead from current videostreams position, one frame
+	 * every <code>stride</code> frames, unless it is already doing so.
+	 *
+	 * @param stride Distance between decoded frames (1 to decode every
+	 *               frame).
+	 */
+	public synchronized void start(int stride) {
+		if (_thread == null) {
+			_stride = stride;
+			_nextFrame = _wmtool.getPosition();
+			_running = true;
+			_thread = new DecodingThread();
+			_thread.start();
+		}
+	}
+
+	/**
+	 * Takes next frame from the ring, waiting for it to be decoded if
+	 * needed.
+	 *
+	 * @return Next frame; when the end of the videostreams is reached, a
+	 *         {@link jwmtool.lib.JWMFrame JWMFrame} with no images.
+	 * @throws InterruptedException
+	 */
+	public JWMFrame take() throws InterruptedException {
+		JWMFrame frame = _ring.take();
+		if (frame != END_OF_STREAM) {
+			_nextFrame += _stride;
+		}
+		return frame;
+	}
+
+	/**
+	 * Stops decoding ahead, discarding (and releasing) frames in the ring,
+	 * and positions videostreams at the first frame not taken yet.
+	 */
+	public synchronized void stop() {
+		if (_thread != null) {
+			_running = false;
+			try {
+				_thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			_thread = null;
+			JWMFrame frame = _ring.poll();
+			while (frame != null) {
+				frame.release();
+				frame = _ring.poll();
+			}
+			_wmtool.seek(_nextFrame);
+		}
+	}
+
+	/**
+	 * Whether the decoder has been started (and not stopped yet) or not.
+	 *
+	 * @return Whether frames can be taken from the decoder.
+	 */
+	public synchronized boolean isRunning() {
+		return _thread != null;
+	}
+
+	/**
+	 * Returns the index of the frame to be returned by the next call to
+	 * {@link jwmtool.lib.ReadAheadDecoder#take take}.
+	 *
+	 * @return Next frame number.
+	 */
+	public long getNextFrame() {
+		return _nextFrame;
+	}
+
+	/**
+	 * Returns the distance between decoded frames.
+	 *
+	 * @return Decoding stride.
+	 */
+	public int getStride() {
+		return _stride;
+	}
+
+	/**
+	 * Returns the number of frames ready in the ring.
+	 *
+	 * @return Ring fill level.
+	 */
+	public int getFill() {
+		return _ring.size();
+	}
+
+	/**
+	 * Returns ring capacity.
+	 *
+	 * @return Maximum number of frames decoded ahead.
+	 */
+	public int getCapacity() {
+		return _ring.size() + _ring.remainingCapacity();
+	}
+
+	/**
+	 * Sets whether frames decoded ahead are converted to RGB ahead too or
+	 * not (frames already in the ring are not affected).
+	 *
+	 * @param converting Whether to convert frames.
+	 */
+	public void setConverting(boolean converting) {
+		_converting = converting;
+	}
+
+	/**
+	 * Sets where to record how long reading and converting each frame
+	 * takes.
+	 *
+	 * @param statistics Playback statistics (<code>null</code> for none).
+	 */
+	public void setStatistics(PlaybackStats statistics) {
+		_statistics = statistics;
+	}
+
+	// ----- ----- ----- DECODING THREAD ----- ----- -----
+
+	private class DecodingThread extends Thread {
+		public DecodingThread() {
+			super("JWMTool read-ahead decoder");
+			setDaemon(true);
+		}
+		public void run() {
+			try {
+				JWMFrame frame = next();
+				while ((frame != null) && !frame.isEmpty() && put(frame)) {
+					if (_stride > 1) { // skip frames which will not be displayed
+						_wmtool.seek(_wmtool.getPosition() + _stride - 1);
+					}
+					frame = next();
+				}
+				if (frame != null) { // not put in the ring
+					frame.release();
+				}
+				put(END_OF_STREAM);
+			} catch (InterruptedException e) { }
+		}
+		private JWMFrame next() throws InterruptedException {
+			long position = _wmtool.getPosition();
+			while (!_wmtool.waitForFrame(position, POLL_INTERVAL)) { // not watermarked yet
+				if (!_running) {
+					return null;
+				}
+			}
+			long start = System.nanoTime();
+			JWMFrame frame = _wmtool.getNextImage();
+			PlaybackStats statistics = _statistics;
+			if ((statistics != null) && (frame != null) && !frame.isEmpty()) {
+				statistics.addTime(PlaybackStats.STAGE_READ, System.nanoTime() - start);
+			}
+			return frame;
+		}
+		private boolean put(JWMFrame frame) throws InterruptedException {
+			if (_converting) {
+				long start = System.nanoTime();
+				frame.convert(_wmtool.getDisplayWidth(), _wmtool.getDisplayHeight()); // frames decoded ahead are to be displayed, so they are converted ahead too
+				PlaybackStats statistics = _statistics;
+				if ((statistics != null) && !frame.isEmpty()) {
+					statistics.addTime(PlaybackStats.STAGE_CONVERT, System.nanoTime() - start);
+				}
+			}
+			while (_running) {
+				if (_ring.offer(frame, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Frame placed in the ring after the last one.
+	 */
+	private static final JWMFrame END_OF_STREAM = new JWMFrame(null, null);
+	/**
+	 * Time (in milliseconds) between checks for a stop request while the
+	 * ring is full, or while waiting for frames to be watermarked.
+	 */
+	private static final long POLL_INTERVAL = 50;
+
+	/**
+	 * Source of the frames.
+	 */
+	private Watermarking _wmtool = null;
+	/**
+	 * Ring of decoded frames.
+	 */
+	private BlockingQueue<JWMFrame> _ring = null;
+	/**
+	 * Decoding thread (<code>null</code> if stopped).
+	 */
+	private Thread _thread = null;
+	/**
+	 * Index of the next frame to be taken from the ring.
+	 */
+	private volatile long _nextFrame = 0;
+	/**
+	 * Distance between decoded frames.
+	 */
+	private volatile int _stride = 1;
+	/**
+	 * Whether decoding thread has to keep on decoding or not.
+	 */
+	private volatile boolean _running = false;
+	/**
+	 * Whether frames decoded ahead are converted to RGB ahead too or not.
+	 */
+	private volatile boolean _converting = true;
+	/**
+	 * Where to record how long reading and converting each frame takes
+	 * (<code>null</code> for nowhere).
+	 */
+	private volatile PlaybackStats _statistics = null;
+
+}
@@ -0,0 +1,146 @@
+package jwmtool.lib;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A SharedFile is a file opened for reading which any number of threads
+ * read at explicit positions, with no locks. Interrupting a thread while
+ * it reads a file channel closes the channel for every thread; a
+ * SharedFile hides that: reads are not interrupted (the interrupt status
+ * of the reading thread is kept, so that it is noticed afterwards), and a
+ * channel closed by an interrupt is opened again for every thread reading
+ * from it. Only {@link #close close()} closes the file for good.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+final class SharedFile {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Opens a file for reading.
+	 *
+	 * @param filename File name.
+	 * @throws IOException If the file can not be opened.
+	 */
+	SharedFile(String filename) throws IOException {
+		_filename = filename;
+		_channel  = new RandomAccessFile(filename, "r").getChannel();
+	}
+
+	/**
+	 * Fills a buffer (from its position up to its limit) with data read
+	 * from a given position of the file.
+	 *
+	 * @param position Position of the data in the file.
+	 * @param data Buffer to be filled.
+	 * @return Whether the buffer could be completely filled or not (i.e.
+	 *         end of file was reached).
+	 * @throws IOException
+	 */
+	boolean read(long position, ByteBuffer data) throws IOException {
+		int start = data.position();
+		boolean interrupted = Thread.interrupted(); // an interrupted thread would close the channel
+		try {
+			while (true) {
+				FileChannel channel = _channel;
+				try {
+					data.position(start);
+					long offset = position;
+					while (data.hasRemaining()) {
+						int n = channel.read(data, offset);
+						if (n == -1) {
+							return false;
+						}
+						offset += n;
+					}
+					return true;
+				} catch (ClosedChannelException e) { // interrupted here or in another thread, or closed
+					interrupted |= Thread.interrupted();
+					reopen(channel);
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns the current length of the file.
+	 *
+	 * @return File length, in bytes.
+	 * @throws IOException
+	 */
+	long size() throws IOException {
+		boolean interrupted = Thread.interrupted();
+		try {
+			while (true) {
+				FileChannel channel = _channel;
+				try {
+					return channel.size();
+				} catch (ClosedChannelException e) {
+					interrupted |= Thread.interrupted();
+					reopen(channel);
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Closes the file. Threads reading from it fail afterwards.
+	 *
+	 * @throws IOException
+	 */
+	synchronized void close() throws IOException {
+		_closed = true;
+		_channel.close();
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Opens the file again after its channel was closed by an interrupted
+	 * thread, unless another thread did it already.
+	 *
+	 * @param closed Channel found closed.
+	 * @throws IOException If the file was closed for good, or it can not
+	 *                     be opened again.
+	 */
+	private synchronized void reopen(FileChannel closed) throws IOException {
+		if (_closed) {
+			throw new ClosedChannelException();
+		}
+		if (_channel == closed) {
+			_channel = new RandomAccessFile(_filename, "r").getChannel();
+		}
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * File name.
+	 */
+	private final String _filename;
+	/**
+	 * Channel the file is currently read through.
+	 */
+	private volatile FileChannel _channel;
+	/**
+	 * Whether the file was closed for good.
+	 */
+	private boolean _closed = false;
+
+}
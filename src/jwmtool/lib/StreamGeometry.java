@@ -0,0 +1,417 @@
+package jwmtool.lib;
+
+import java.awt.Rectangle;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * A StreamGeometry describes the layout of a YUV4MPEG2 videostream: frame
+ * dimensions and rate, YUV format (hence chroma planes dimensions), and
+ * where each frame lies in the file. It is obtained once, from the stream
+ * header (and, for files with no colour space tag, from the file length),
+ * and never changes, so it can be shared by any number of threads.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public final class StreamGeometry {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates the geometry of a videostream, whose frame dimensions are
+	 * assumed to be multiples of chroma subsampling (streams whose are
+	 * not are rejected when their geometry is obtained from their
+	 * headers).
+	 *
+	 * @param header Stream header (without line terminator).
+	 * @param yuvFormat YUV format.
+	 * @param frameHeaderLength Length of frame headers (including line
+	 *                          terminator).
+	 */
+	public StreamGeometry(String header, int yuvFormat, long frameHeaderLength) {
+		int width = 0, height = 0;
+		double frameRate = Watermarking.DEFAULT_FRAME_RATE;
+		String[] info = header.split(" ");
+		for (int i = 1; i < info.length; i++) {
+			if (info[i].startsWith("W")) {
+				width  = Integer.parseInt(info[i].substring(1)); // obtain width  dimension from header
+			}
+			else if (info[i].startsWith("H")) {
+				height = Integer.parseInt(info[i].substring(1)); // obtain height dimension from header
+			}
+			else if (info[i].startsWith("F")) {
+				int colon = info[i].indexOf(':');                  // frame rate is a ratio, e.g. F30000:1001
+				if (colon != -1) {
+					double num = Double.parseDouble(info[i].substring(1, colon));
+					double den = Double.parseDouble(info[i].substring(colon + 1));
+					if ((num > 0) && (den > 0)) {
+						frameRate = num / den;
+					}
+				}
+			}
+		}
+		_streamHeader = header;
+		_width        = width;
+		_height       = height;
+		_frameRate    = frameRate;
+		_YUVFormat    = yuvFormat;
+		_shift        = (yuvFormat == Watermarking.YUV_FORMAT_422) ? 1 : ((yuvFormat == Watermarking.YUV_FORMAT_420) ? 2 : 0);
+		_uvWidth      = width  >> _shift;
+		_uvHeight     = height >> _shift;
+		_ySize        = (long) width * height;
+		_uvSize       = (long) _uvWidth * _uvHeight;
+		_streamHeaderLength = header.length() + 1;
+		_frameLength  = _ySize + 2 * _uvSize + frameHeaderLength;
+	}
+
+	/**
+	 * Obtains the geometry of a videostream from its stream header, which
+	 * is assumed to have an explicit colour space tag (so that the stream
+	 * length need not be known, as with pipes).
+	 *
+	 * @param header Stream header (without line terminator).
+	 * @return Videostream geometry.
+	 * @throws WatermarkingException If the colour space is not supported,
+	 *                               or frame dimensions do not match it.
+	 */
+	public static StreamGeometry fromHeader(String header) throws WatermarkingException {
+		return checkSubsampling(new StreamGeometry(header, formatFromHeader(header), Watermarking.FRAME_HEADER.length() + 1));
+	}
+
+	/**
+	 * Obtains the geometry of a videostream file from its stream header
+	 * and first frame header, guessing its YUV format from its length.
+	 *
+	 * @param filename Name of the videostream file.
+	 * @return Videostream geometry.
+	 * @throws IOException
+	 * @throws WatermarkingException If the YUV format is unknown, or frame
+	 *                               dimensions do not match it.
+	 */
+	public static StreamGeometry fromFile(String filename) throws IOException, WatermarkingException {
+		RandomAccessFile input = new RandomAccessFile(filename, "r");
+		String header, frameHeader;
+		long fileLength;
+		try {
+			fileLength  = input.length();
+			header      = input.readLine(); // read stream header
+			frameHeader = input.readLine(); // read first frame header (all frame headers are the same)
+		} finally {
+			input.close();
+		}
+		if ((header == null) || (frameHeader == null)) {
+			throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
+		}
+
+		// Guess which YUV format we are dealing with
+		// First, we have to substract header size (header.length() + 1)
+		// Then, we divide fileLength by estimated frame size + (frame header size) to find a 0 remainder
+		// (all this arithmetic is done on long values, so that streams beyond 2 GB are handled)
+
+		long ySize = new StreamGeometry(header, Watermarking.YUV_FORMAT_444, 0).getYSize();
+		long frameHeaderLength = frameHeader.length() + 1;
+		fileLength -= header.length() + 1;
+		if ((fileLength % (ySize + (ySize / 2) + frameHeaderLength)) == 0) {        // YUV 4:2:2
+			return checkSubsampling(new StreamGeometry(header, Watermarking.YUV_FORMAT_422, frameHeaderLength));
+		}
+		else if ((fileLength % (ySize + (ySize / 8) + frameHeaderLength)) == 0) {   // YUV 4:2:0
+			return checkSubsampling(new StreamGeometry(header, Watermarking.YUV_FORMAT_420, frameHeaderLength));
+		}
+		else if ((fileLength % (ySize * 3 + frameHeaderLength)) == 0) {            // YUV 4:4:4
+			return checkSubsampling(new StreamGeometry(header, Watermarking.YUV_FORMAT_444, frameHeaderLength));
+		}
+		throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
+	}
+
+	/**
+	 * Returns stream header.
+	 *
+	 * @return Stream header (without line terminator).
+	 */
+	public String getStreamHeader() {
+		return _streamHeader;
+	}
+
+	/**
+	 * Returns frame width.
+	 *
+	 * @return Width, in pixels.
+	 */
+	public int getWidth() {
+		return _width;
+	}
+
+	/**
+	 * Returns frame height.
+	 *
+	 * @return Height, in pixels.
+	 */
+	public int getHeight() {
+		return _height;
+	}
+
+	/**
+	 * Returns frame rate.
+	 *
+	 * @return Frames per second (from the stream header, or
+	 *         {@link jwmtool.lib.Watermarking#DEFAULT_FRAME_RATE DEFAULT_FRAME_RATE}
+	 *         if missing).
+	 */
+	public double getFrameRate() {
+		return _frameRate;
+	}
+
+	/**
+	 * Returns YUV format.
+	 *
+	 * @return YUV format.
+	 */
+	public int getYUVFormat() {
+		return _YUVFormat;
+	}
+
+	/**
+	 * Returns chroma subsampling.
+	 *
+	 * @return Chroma subsampling, as a power of 2 (the same in both
+	 *         directions).
+	 */
+	public int getChromaShift() {
+		return _shift;
+	}
+
+	/**
+	 * Returns U and V component planes width.
+	 *
+	 * @return Width, in samples.
+	 */
+	public int getUVWidth() {
+		return _uvWidth;
+	}
+
+	/**
+	 * Returns U and V component planes height.
+	 *
+	 * @return Height, in samples.
+	 */
+	public int getUVHeight() {
+		return _uvHeight;
+	}
+
+	/**
+	 * Returns Y component plane size.
+	 *
+	 * @return Size, in bytes.
+	 */
+	public long getYSize() {
+		return _ySize;
+	}
+
+	/**
+	 * Returns U (or V) component plane size.
+	 *
+	 * @return Size, in bytes.
+	 */
+	public long getUVSize() {
+		return _uvSize;
+	}
+
+	/**
+	 * Returns the length of each frame in the file.
+	 *
+	 * @return Length (frame header included), in bytes.
+	 */
+	public long getFrameLength() {
+		return _frameLength;
+	}
+
+	/**
+	 * Returns the length of the stream header in the file.
+	 *
+	 * @return Length (line terminator included), in bytes.
+	 */
+	public long getStreamHeaderLength() {
+		return _streamHeaderLength;
+	}
+
+	/**
+	 * Returns the position of the data (after frame header) of a given
+	 * frame in the file.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @return Position, in bytes.
+	 */
+	public long getFrameOffset(long frame) {
+		return _streamHeaderLength + frame * _frameLength + (_frameLength - _ySize - 2 * _uvSize);
+	}
+
+	/**
+	 * Returns the number of complete frames in a file of a given length.
+	 *
+	 * @param fileLength File length, in bytes.
+	 * @return Number of frames.
+	 */
+	public long getFrameCount(long fileLength) {
+		return (_frameLength > 0) ? Math.max(0, (fileLength - _streamHeaderLength) / _frameLength) : 0;
+	}
+
+	/**
+	 * Creates a frame buffer able to hold a whole frame.
+	 *
+	 * @return Empty frame buffer.
+	 * @throws WatermarkingException If a plane is too large to be held in
+	 *                               a single buffer.
+	 */
+	public FrameBuffer createFrameBuffer() throws WatermarkingException {
+		return new FrameBuffer(planeLength(_ySize), planeLength(_uvSize), false);
+	}
+
+	/**
+	 * Checks that a plane of <code>size</code> bytes can be held in a
+	 * single buffer.
+	 *
+	 * @param size Plane size, in bytes.
+	 * @return Plane size, as a valid buffer length.
+	 * @throws WatermarkingException If the plane is too large to be held
+	 *                               in a single buffer.
+	 */
+	public static int planeLength(long size) throws WatermarkingException {
+		if (size > Watermarking.MAX_PLANE_LENGTH) {
+			throw new WatermarkingException("exceptions.watermarking.frame_too_large");
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Moves a region inside the part of the frame covered by chroma
+	 * samples, and aligns it to chroma subsampling.
+	 *
+	 * @param region Region, in pixels.
+	 * @return Aligned region (at least one chroma sample large).
+	 */
+	public Rectangle alignRegion(Rectangle region) {
+		int mask   = (1 << _shift) - 1;
+		int width  = Math.max(mask + 1, Math.min(_uvWidth  << _shift, (region.width  + mask) & ~mask));
+		int height = Math.max(mask + 1, Math.min(_uvHeight << _shift, (region.height + mask) & ~mask));
+		int x = Math.max(0, Math.min((_uvWidth  << _shift) - width,  region.x)) & ~mask;
+		int y = Math.max(0, Math.min((_uvHeight << _shift) - height, region.y)) & ~mask;
+		return new Rectangle(x, y, width, height);
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Obtains YUV format from the colour space tag (<code>C</code>) of a
+	 * stream header. Formats are named after this tool conventions:
+	 * chroma planes subsampled by 2 in both directions (8 bit
+	 * <code>C420</code>, <code>C420jpeg</code>, <code>C420paldv</code> or
+	 * <code>C420mpeg2</code> tags, which are also the default) are
+	 * {@link jwmtool.lib.Watermarking#YUV_FORMAT_422 YUV_FORMAT_422}, and
+	 * chroma planes subsampled by 4 in both directions (<code>C410</code>)
+	 * are {@link jwmtool.lib.Watermarking#YUV_FORMAT_420 YUV_FORMAT_420}
+	 * (<code>C410</code> is not a standard YUV4MPEG2 tag, but the one this
+	 * tool writes for such streams). Any other tag (high bit depth samples, such as <code>C420p10</code>,
+	 * included) is rejected.
+	 *
+	 * @param header Stream header.
+	 * @return YUV format.
+	 * @throws WatermarkingException If the colour space is not supported.
+	 */
+	private static int formatFromHeader(String header) throws WatermarkingException {
+		String[] info = header.split(" ");
+		for (int i = 1; i < info.length; i++) {
+			if (info[i].startsWith("C")) {
+				if (info[i].equals("C420")      || info[i].equals("C420jpeg") ||
+				    info[i].equals("C420paldv") || info[i].equals("C420mpeg2")) {
+					return Watermarking.YUV_FORMAT_422;
+				}
+				else if (info[i].equals("C410")) {
+					return Watermarking.YUV_FORMAT_420;
+				}
+				else if (info[i].equals("C444")) {
+					return Watermarking.YUV_FORMAT_444;
+				}
+				else {
+					throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
+				}
+			}
+		}
+		return Watermarking.YUV_FORMAT_422;
+	}
+
+	/**
+	 * Checks that frame dimensions are multiples of chroma subsampling,
+	 * so that chroma planes cover whole frames (streams whose chroma
+	 * planes are rounded up, e.g. odd sized 4:2:0 frames, are not
+	 * supported).
+	 *
+	 * @param geometry Videostream geometry.
+	 * @return <code>geometry</code>.
+	 * @throws WatermarkingException If frame dimensions are not multiples
+	 *                               of chroma subsampling.
+	 */
+	private static StreamGeometry checkSubsampling(StreamGeometry geometry) throws WatermarkingException {
+		int mask = (1 << geometry._shift) - 1;
+		if (((geometry._width & mask) != 0) || ((geometry._height & mask) != 0)) {
+			throw new WatermarkingException("exceptions.watermarking.odd_frame_size");
+		}
+		return geometry;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Stream header.
+	 */
+	private final String _streamHeader;
+	/**
+	 * Frame width, in pixels.
+	 */
+	private final int _width;
+	/**
+	 * Frame height, in pixels.
+	 */
+	private final int _height;
+	/**
+	 * Frame rate, in frames per second.
+	 */
+	private final double _frameRate;
+	/**
+	 * YUV format.
+	 */
+	private final int _YUVFormat;
+	/**
+	 * Chroma subsampling, as a power of 2.
+	 */
+	private final int _shift;
+	/**
+	 * U and V component planes width.
+	 */
+	private final int _uvWidth;
+	/**
+	 * U and V component planes height.
+	 */
+	private final int _uvHeight;
+	/**
+	 * Y component plane size, in bytes.
+	 */
+	private final long _ySize;
+	/**
+	 * U (or V) component plane size, in bytes.
+	 */
+	private final long _uvSize;
+	/**
+	 * Length of the stream header (line terminator included), in bytes.
+	 */
+	private final long _streamHeaderLength;
+	/**
+	 * Length of each frame (frame header included), in bytes.
+	 */
+	private final long _frameLength;
+
+}
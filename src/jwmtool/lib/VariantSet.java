@@ -0,0 +1,232 @@
+package jwmtool.lib;
+
+import java.awt.Image;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * A VariantSet gives synchronized access to several watermarked versions
+ * (variants) of the same source videostream, e.g. produced with different
+ * watermarking settings. Frames are obtained by number, all of them at
+ * their position in the files, so that variants can never drift apart.
+ * <br/>
+ *
+ * Each source frame is read and converted to RGB once, and shared by all
+ * variants; each variant is read (or rebuilt from the source frame, for
+ * delta files) and converted on a worker thread of its own, so that
+ * variants are decoded concurrently.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class VariantSet {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Opens a source videostream file and its variants.
+	 *
+	 * @param filename Name of the source videostream file.
+	 * @param variantFilenames Names of the watermarked videostream (or
+	 *                         delta) files.
+	 * @throws WatermarkingException If any of the files can not be read.
+	 */
+	public VariantSet(String filename, String[] variantFilenames) throws WatermarkingException {
+		_variants = new WatermarkingEngine[variantFilenames.length];
+		_workers  = new ExecutorService[variantFilenames.length];
+		for (int i = 0; i < variantFilenames.length; i++) {
+			try { // source geometry is obtained once, and shared by every variant
+				_variants[i] = (i == 0) ? WatermarkingEngine.open(filename, variantFilenames[i])
+							: new WatermarkingEngine(filename, variantFilenames[i], _variants[0].getGeometry(),
+										 _variants[0].getColorMatrix());
+			} catch (IOException e) {
+				closeEngines();
+				throw new WatermarkingException("exceptions.watermarking.unreadable_file");
+			} catch (WatermarkingException e) {
+				closeEngines();
+				throw e;
+			}
+			_workers[i] = Executors.newSingleThreadExecutor(new WorkerFactory("JWMTool variant decoder " + (i + 1)));
+		}
+		_sourceWorker = Executors.newSingleThreadExecutor(new WorkerFactory("JWMTool source decoder"));
+	}
+
+	/**
+	 * Returns the number of variants.
+	 *
+	 * @return Number of watermarked videostreams.
+	 */
+	public int getVariantCount() {
+		return _variants.length;
+	}
+
+	/**
+	 * Returns frame width.
+	 *
+	 * @return Width, in pixels.
+	 */
+	public int getWidth() {
+		return _variants[0].getGeometry().getWidth();
+	}
+
+	/**
+	 * Returns frame height.
+	 *
+	 * @return Height, in pixels.
+	 */
+	public int getHeight() {
+		return _variants[0].getGeometry().getHeight();
+	}
+
+	/**
+	 * Returns frame rate.
+	 *
+	 * @return Frames per second.
+	 */
+	public double getFrameRate() {
+		return _variants[0].getGeometry().getFrameRate();
+	}
+
+	/**
+	 * Returns the number of frames in the source videostream.
+	 *
+	 * @return Number of frames.
+	 */
+	public long getFrameCount() {
+		return _variants[0].getFrameCount();
+	}
+
+	/**
+	 * Starts obtaining a given frame of the source videostream and of
+	 * every variant, converted to RGB and scaled down to a given size.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 * @return Pending result: one {@link jwmtool.lib.JWMFrame JWMFrame}
+	 *         per variant, all of them sharing the same source image (with
+	 *         no images if the frame could not be read from any file).
+	 */
+	public Future<JWMFrame[]> fetch(long frame, int width, int height) {
+		return _sourceWorker.submit(new FrameFetcher(frame, width, height));
+	}
+
+	/**
+	 * Stops the worker threads, and closes every file. Frames can not be
+	 * obtained any more.
+	 */
+	public void close() {
+		_sourceWorker.shutdownNow();
+		for (int i = 0; i < _workers.length; i++) {
+			_workers[i].shutdownNow();
+		}
+		closeEngines();
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Closes the engines opened so far.
+	 */
+	private void closeEngines() {
+		for (int i = 0; i < _variants.length; i++) {
+			if (_variants[i] != null) {
+				try {
+					_variants[i].close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	// ----- ----- ----- DECODING TASKS ----- ----- -----
+
+	private class FrameFetcher implements Callable<JWMFrame[]> {
+		public FrameFetcher(long frame, int width, int height) {
+			_frame  = frame;
+			_width  = width;
+			_height = height;
+		}
+		public JWMFrame[] call() throws InterruptedException, ExecutionException {
+			// source frame is read once, and each variant decoded on its own worker
+			FrameBuffer source = _variants[0].getSourceData(_frame);
+			List<Future<JWMFrame>> decoded = new ArrayList<Future<JWMFrame>>(_variants.length);
+			for (int i = 0; i < _variants.length; i++) {
+				decoded.add(_workers[i].submit(new VariantDecoder(i, _frame, source, _width, _height)));
+			}
+			// source is converted once, while other variants are still being decoded
+			JWMFrame first = decoded.get(0).get();
+			Image sourceImage = first.isEmpty() ? null : first.getSourceFrame(_width, _height);
+			JWMFrame[] frames = new JWMFrame[_variants.length];
+			for (int i = 0; i < _variants.length; i++) {
+				JWMFrame variant = (i == 0) ? first : decoded.get(i).get();
+				frames[i] = variant.isEmpty() ? new JWMFrame((Image) null, (Image) null)
+							      : new JWMFrame(sourceImage, variant.getWMarkedFrame(_width, _height));
+			}
+			return frames;
+		}
+		private long _frame;
+		private int _width, _height;
+	}
+
+	private class VariantDecoder implements Callable<JWMFrame> {
+		public VariantDecoder(int variant, long frame, FrameBuffer source, int width, int height) {
+			_variant = variant;
+			_frame   = frame;
+			_source  = source;
+			_width   = width;
+			_height  = height;
+		}
+		public JWMFrame call() {
+			JWMFrame frame = _variants[_variant].getFrame(_frame, _source);
+			if (!frame.isEmpty()) {
+				frame.getWMarkedFrame(_width, _height);
+			}
+			return frame;
+		}
+		private int _variant;
+		private long _frame;
+		private FrameBuffer _source;
+		private int _width, _height;
+	}
+
+	private static class WorkerFactory implements ThreadFactory {
+		public WorkerFactory(String name) {
+			_name = name;
+		}
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, _name);
+			thread.setDaemon(true);
+			return thread;
+		}
+		private String _name;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Engines reading the source videostream and each variant (the source
+	 * videostream is read through the first one).
+	 */
+	private WatermarkingEngine[] _variants = null;
+	/**
+	 * Worker thread reading source frames and collecting variants.
+	 */
+	private ExecutorService _sourceWorker = null;
+	/**
+	 * Worker threads decoding each variant.
+	 */
+	private ExecutorService[] _workers = null;
+
+}
@@ -3,16 +3,24 @@ package jwmtool.lib;
 import ac.essex.statistics.functions.GraphableFunction;
 
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
-import jwmtool.util.FloatDCT;
 import jwmtool.util.exceptions.WatermarkingException;
-import jwmtool.util.functions.*;
 
 /**
  * Watermarking class is a stateful element which encapsulates access and
@@ -22,7 +30,14 @@ import jwmtool.util.functions.*;
  *
  * In JWMTool, this is used as a tool both to generate a watermarked version
  * of a given source videostream, and then to syncronize the playback of this
- * source videostream and its generated watermarked version.
+ * source videostream and its generated watermarked version. <br/>
+ *
+ * Frames are read through a {@link jwmtool.lib.WatermarkingEngine WatermarkingEngine},
+ * which holds no position and can be shared with other threads (see
+ * {@link jwmtool.lib.Watermarking#getEngine getEngine()}), and playback
+ * position is kept by a {@link jwmtool.lib.FrameCursor FrameCursor} of
+ * its own. Frames are watermarked in a
+ * {@link jwmtool.lib.WatermarkingWorkspace WatermarkingWorkspace}.
  * 
  * @author Laura Castro
  * @version 0.6
@@ -92,6 +107,47 @@ public class Watermarking {
 	 */
 	public static final int LIMIT = 8;
 	
+	/**
+	 * Largest plane (in bytes) that can be held in a single buffer. Frames
+	 * are buffered plane by plane, so this limits each plane rather than
+	 * the whole frame.
+	 */
+	public static final int MAX_PLANE_LENGTH = Integer.MAX_VALUE - 8;
+	
+	/**
+	 * Number of {@link jwmtool.lib.FrameBuffer frame buffers} in the
+	 * {@link jwmtool.lib.FrameBufferPool pool} used for reading,
+	 * watermarking and writing. This bounds the (off-heap) memory used,
+	 * whatever the videostream length.
+	 */
+	public static final int FRAME_POOL_CAPACITY = 2;
+	
+	/**
+	 * Size (in bytes) of the buffers placed on non-file input and output
+	 * streams.
+	 */
+	public static final int STREAM_BUFFER_SIZE = 1 << 20;
+	
+	/**
+	 * Frame header tag in YUV4MPEG2 videostreams.
+	 */
+	public static final String FRAME_HEADER = "FRAME";
+	/**
+	 * Frame rate (frames per second) assumed for videostreams whose header
+	 * does not state it.
+	 */
+	public static final double DEFAULT_FRAME_RATE = 25;
+	/**
+	 * Proxy scale factor meaning that it is chosen from frame width (see
+	 * {@link jwmtool.lib.Watermarking#setProxyScale setProxyScale()}).
+	 */
+	public static final int PROXY_SCALE_AUTO = -1;
+	/**
+	 * Minimum frame width for proxies to be produced when their scale
+	 * factor is chosen from frame width.
+	 */
+	public static final int PROXY_MIN_WIDTH = 1920;
+	
 	// ----- ----- ----- METHODS -----  ----- -----
 	
 	/**
@@ -106,11 +162,6 @@ public class Watermarking {
 	public Watermarking(String filename, String outputFilename) {
 		_filename       = filename;
 		_outputFilename = outputFilename;
-		_quantizationMatrix = new float[LIMIT][LIMIT];
-		for (int i = 0; i < LIMIT; i++)
-			for (int j = 0; j < LIMIT; j++)
-				_quantizationMatrix[i][j] = 1f;
-		FloatDCT.scaleQuantizationTable(_quantizationMatrix);
 	}
 	
 	/**
@@ -123,16 +174,22 @@ public class Watermarking {
 	*/
 	public JWMFrame getFirstImage() {
 		try {
-			_scFile = new RandomAccessFile(_filename, "r");
-			_wmFile = new RandomAccessFile(_outputFilename, "r");
-			
-			_scFile.readLine(); // discard stream header
-			_wmFile.readLine(); // discard stream header
-			
-			return getNextImage();
+			if (_closed) {
+				return null;
+			}
+			if (_engine == null) { // files are opened once, the first time
+				if (_geometry == null) {
+					_geometry = StreamGeometry.fromFile(_filename);
+				}
+				_engine = new WatermarkingEngine(_filename, _outputFilename, _geometry, _colorMatrix);
+			}
+			_cursor = _engine.newCursor();
+			return _cursor.next();
 			
 		} catch (IOException e) {
 			return null;
+		} catch (WatermarkingException e) {
+			return null;
 		}
 	}
 	
@@ -146,40 +203,12 @@ public class Watermarking {
 	 */
 	public JWMFrame getNextImage() {
 		try {
-			if ((_scFile == null) && (_wmFile == null)) { // we didn't even open the files yet
+			FrameCursor _current = _cursor;
+			if (_current == null) { // we didn't even open the files yet
 				return getFirstImage();
 			}
-			else {
-				_scFile.readLine(); // discard frame header
-				_wmFile.readLine(); // discard frame header
-				
-				_yRead = _scFile.read(_yBuffer); // read as much data as Y buffer size
-				_uRead = _scFile.read(_uBuffer); // read as much data as U buffer size
-				_vRead = _scFile.read(_vBuffer); // read as much data as V buffer size
-				
-				// check we read enough data in each buffer
-				if ((_yRead == -1) || (_uRead == -1) || (_vRead == -1)) {
-					_scFrame = null;
-				}
-				else {
-					// if we did read enough data, make frame out of it
-					_scFrame = getRGBImage(_yBuffer, _uBuffer, _vBuffer);
-				}
-				
-				// repeat process for watermarked counterpart
-				_yRead = _wmFile.read(_yBuffer);
-				_uRead = _wmFile.read(_uBuffer);
-				_vRead = _wmFile.read(_vBuffer);
-				if ((_yRead == -1) || (_uRead == -1) || (_vRead == -1)) {
-					_wmFrame = null;
-				}
-				else {
-					_wmFrame = getRGBImage(_yBuffer, _uBuffer, _vBuffer);
-				}
-				
-				// build and return JWMFrame
-				return new JWMFrame(_scFrame, _wmFrame);
-			}
+			return _current.next();
+			
 		} catch (IOException e) {
 			return null;
 		} catch (WatermarkingException e) {
@@ -201,19 +230,103 @@ public class Watermarking {
 		return getNextImage();
 	}
 	
+	/**
+	 * Creates a {@link jwmtool.lib.JWMFrame JWMFrame} that will contain
+	 * just a region of a given frame of the source videostream and of the
+	 * corresponding frame of the watermarked generated videostream. Only
+	 * the region rows of each plane are read (at their position in the
+	 * files, which is computed from the frame number, so current position
+	 * is not changed), so that the cost of obtaining it depends on the
+	 * region size rather than on the frame size. <br/>
+	 *
+	 * The region is moved inside the frame if needed, and aligned to
+	 * chroma subsampling. If watermarking is in progress, the frame is
+	 * waited for until written.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param region Region, in pixels.
+	 * @return A {@link jwmtool.lib.JWMFrame JWMFrame} with the region of
+	 *         the frame of the original videostream and its watermarked
+	 *         counterpart (with no images if the frame could not be
+	 *         read).
+	 * @throws InterruptedException
+	 */
+	public JWMFrame getRegion(long frame, Rectangle region) throws InterruptedException {
+		waitForFrame(frame, 0); // while watermarking, frames not written yet are waited for
+		WatermarkingEngine _current = _engine;
+		if (_current == null) { // files are opened when reading first frame
+			return new JWMFrame((Image) null, (Image) null);
+		}
+		return readRegion(_current, frame, region);
+	}
+	
+	/**
+	 * Creates a {@link jwmtool.lib.JWMFrame JWMFrame} that will contain a
+	 * given frame of the source videostream and the corresponding frame of
+	 * the watermarked generated videostream, read at their position in the
+	 * files (so current position is not changed).
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @return A {@link jwmtool.lib.JWMFrame JWMFrame} with the frame of
+	 *         the original videostream and its watermarked counterpart
+	 *         (with no images if the frame could not be read).
+	 * @throws InterruptedException
+	 */
+	public JWMFrame getFrame(long frame) throws InterruptedException {
+		return getRegion(frame, new Rectangle(0, 0, getWidth(), getHeight()));
+	}
+	
+	/**
+	 * Creates a small image of a given frame of the source videostream,
+	 * reading and converting just one row of each plane per image row
+	 * (which is scaled down as it is read), so that its cost depends on
+	 * the image size rather than on the frame size. Frame data is read at
+	 * its position in the file, so current position is not changed.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param width Image width, in pixels (not greater than frame width).
+	 * @param height Image height, in pixels (not greater than frame
+	 *               height).
+	 * @return A thumbnail {@link java.awt.Image image} of the frame, or
+	 *         <code>null</code> if the frame could not be read.
+	 */
+	public Image getThumbnail(long frame, int width, int height) {
+		try {
+			WatermarkingEngine _current = _engine;
+			if (_current == null) { // files are opened when reading first frame
+				return null;
+			}
+			width  = Math.max(1, Math.min(getWidth(),  width));
+			height = Math.max(1, Math.min(getHeight(), height));
+			FrameBuffer _thumbnail = _current.getThumbnailData(frame, width, height);
+			if (_thumbnail == null) {
+				return null;
+			}
+			
+			YUVConverter _thumbnailConverter = _lastThumbnailConverter; // converter is kept while thumbnail size does not change
+			if ((_thumbnailConverter == null) ||
+			    (_thumbnailConverter.getWidth() != width) || (_thumbnailConverter.getHeight() != height)) {
+				_thumbnailConverter = _current.createConverter(width, height, YUV_FORMAT_444);
+				_lastThumbnailConverter = _thumbnailConverter;
+			}
+			BufferedImage _image = _thumbnailConverter.createImage();
+			_thumbnailConverter.convert(_thumbnail.getY(), _thumbnail.getU(), _thumbnail.getV(), _image);
+			return _image;
+			
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
 	/**
 	 * Sets current position in both original and watermarked videostreams
 	 * back to initial position (beginning of files).
 	 */
 	public void rewind() {
-		try {
-			if (!((_scFile == null) && (_wmFile == null))) { // make sure we have opened the files
-				_scFile.seek(0);
-				_scFile.readLine(); // discard stream header
-				_wmFile.seek(0);
-				_wmFile.readLine(); // discard stream header
-			}
-		} catch (IOException e) {}
+		FrameCursor _current = _cursor;
+		if (_current != null) { // make sure we have opened the files
+			_current.rewind();
+		}
 	}
 	
 	/**
@@ -223,19 +336,332 @@ public class Watermarking {
 	 * @param nframes Number of frames to go back in streams.
 	 */
 	public void rewind(int nframes) {
+		FrameCursor _current = _cursor;
+		if (_current != null) { // make sure we have opened the files
+			_current.rewind(nframes);
+		}
+	}
+	
+	/**
+	 * Sets current position in both original and watermarked videostreams
+	 * at the beginning of a given frame.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 */
+	public void seek(long frame) {
+		FrameCursor _current = _cursor;
+		if (_current != null) { // make sure we have opened the files
+			_current.seek(frame);
+		}
+	}
+	
+	/**
+	 * Returns current position in both original and watermarked
+	 * videostreams.
+	 *
+	 * @return Number of the frame to be read next (0 for the first frame).
+	 */
+	public long getPosition() {
+		FrameCursor _current = _cursor;
+		return (_current != null) ? _current.getPosition() : 0;
+	}
+	
+	/**
+	 * Returns the number of frames in the source videostream.
+	 *
+	 * @return Number of frames (0 if files were not opened yet).
+	 */
+	public long getFrameCount() {
+		WatermarkingEngine _current = _engine;
+		return (_current != null) ? _current.getFrameCount() : 0;
+	}
+	
+	/**
+	 * Returns the engine both videostreams are read through, which can be
+	 * shared with other threads (e.g. exporters), since it holds no
+	 * position.
+	 *
+	 * @return Engine reading both videostreams, or <code>null</code> if
+	 *         files were not opened yet.
+	 */
+	public WatermarkingEngine getEngine() {
+		return _engine;
+	}
+	
+	/**
+	 * Stops watermarking (if in progress) once the frame being written is
+	 * done, leaving the watermarked videostream incomplete. Watermarking
+	 * can not be started again afterwards.
+	 */
+	public void cancel() {
+		_cancelled = true;
+	}
+	
+	/**
+	 * Closes both videostream files, if they were opened. Frames can not
+	 * be read any more, neither through this object nor through its
+	 * engine, and watermarking is {@link #cancel cancelled}.
+	 */
+	public void close() {
+		_cancelled = true;
+		_closed = true;
+		WatermarkingEngine _current = _engine;
+		_engine = null;
+		_cursor = null;
+		if (_current != null) {
+			try {
+				_current.close();
+			} catch (IOException e) {}
+		}
+	}
+	
+	/**
+	 * Returns the number of frames completely written to the watermarked
+	 * videostream file so far by
+	 * {@link jwmtool.lib.Watermarking#watermark watermark()}, which may be
+	 * running in another thread. Those frames can be read while the rest
+	 * are still being watermarked.
+	 *
+	 * @return Number of frames watermarked so far (by the last
+	 *         watermarking process, if it has finished).
+	 */
+	public synchronized long getWatermarkedFrames() {
+		return _watermarkedFrames;
+	}
+	
+	/**
+	 * Whether {@link jwmtool.lib.Watermarking#watermark watermark()} is
+	 * running (in another thread) or not.
+	 *
+	 * @return Whether watermarking is in progress.
+	 */
+	public synchronized boolean isWatermarking() {
+		return _watermarking;
+	}
+	
+	/**
+	 * Waits for a given frame to be written to the watermarked
+	 * videostream file, if watermarking is in progress.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param timeout Maximum time to wait, in milliseconds (0 to wait as
+	 *                long as needed).
+	 * @return Whether the frame can be read (or watermarking is not in
+	 *         progress) or not (the time elapsed).
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean waitForFrame(long frame, long timeout) throws InterruptedException {
+		long _deadline = System.currentTimeMillis() + timeout;
+		while (_watermarking && (frame >= _watermarkedFrames)) {
+			long _remaining = _deadline - System.currentTimeMillis();
+			if ((timeout > 0) && (_remaining <= 0)) {
+				return false;
+			}
+			wait((timeout > 0) ? _remaining : 0);
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns videostreams frame width.
+	 *
+	 * @return Frame width, in pixels.
+	 */
+	public int getWidth() {
+		StreamGeometry _current = _geometry;
+		return (_current != null) ? _current.getWidth() : 0;
+	}
+	
+	/**
+	 * Returns videostreams frame height.
+	 *
+	 * @return Frame height, in pixels.
+	 */
+	public int getHeight() {
+		StreamGeometry _current = _geometry;
+		return (_current != null) ? _current.getHeight() : 0;
+	}
+	
+	/**
+	 * Returns videostreams YUV format.
+	 *
+	 * @return YUV format
+	 *         ({@link jwmtool.lib.Watermarking#YUV_FORMAT_422 YUV_FORMAT_422},
+	 *         {@link jwmtool.lib.Watermarking#YUV_FORMAT_420 YUV_FORMAT_420} or
+	 *         {@link jwmtool.lib.Watermarking#YUV_FORMAT_444 YUV_FORMAT_444}).
+	 */
+	public int getYUVFormat() {
+		StreamGeometry _current = _geometry;
+		return (_current != null) ? _current.getYUVFormat() : YUV_FORMAT_UNKNOWN;
+	}
+	
+	/**
+	 * Returns source videostream header, as read.
+	 *
+	 * @return Stream header (without line end).
+	 */
+	public String getStreamHeader() {
+		StreamGeometry _current = _geometry;
+		return (_current != null) ? _current.getStreamHeader() : null;
+	}
+	
+	/**
+	 * Returns the colour space tag stating a YUV format in a stream
+	 * header. Streams whose chroma planes are subsampled by 4 in both
+	 * directions ({@link jwmtool.lib.Watermarking#YUV_FORMAT_420 YUV_FORMAT_420})
+	 * have no standard YUV4MPEG2 tag, so they are tagged <code>C410</code>,
+	 * which this tool reads back but other tools do not.
+	 *
+	 * @param yuvFormat YUV format.
+	 * @return Colour space tag (<code>C</code>).
+	 */
+	public static String getColourSpaceTag(int yuvFormat) {
+		switch (yuvFormat) {
+			case YUV_FORMAT_422: return "C420jpeg";
+			case YUV_FORMAT_420: return "C410";
+			default:             return "C444";
+		}
+	}
+	
+	/**
+	 * Returns videostreams frame rate, as stated by the frame rate tag
+	 * (<code>F</code>) of the stream header.
+	 *
+	 * @return Frames per second.
+	 */
+	public double getFrameRate() {
+		StreamGeometry _current = _geometry;
+		return (_current != null) ? _current.getFrameRate() : DEFAULT_FRAME_RATE;
+	}
+	
+	/**
+	 * Sets the size frames are to be displayed at, so that
+	 * {@link jwmtool.lib.JWMFrame JWMFrames} are scaled down to it while
+	 * converting them to RGB.
+	 *
+	 * @param width Display width, in pixels (0 for frame width).
+	 * @param height Display height, in pixels (0 for frame height).
+	 */
+	public void setDisplaySize(int width, int height) {
+		_displayWidth  = width;
+		_displayHeight = height;
+	}
+	
+	/**
+	 * Returns the width frames are to be displayed at.
+	 *
+	 * @return Display width, in pixels.
+	 */
+	public int getDisplayWidth() {
+		return (_displayWidth > 0) ? Math.min(_displayWidth, getWidth()) : getWidth();
+	}
+	
+	/**
+	 * Returns the height frames are to be displayed at.
+	 *
+	 * @return Display height, in pixels.
+	 */
+	public int getDisplayHeight() {
+		return (_displayHeight > 0) ? Math.min(_displayHeight, getHeight()) : getHeight();
+	}
+	
+	/**
+	 * Sets the colour matrix frames are converted to RGB with.
+	 *
+	 * @param matrix Colour matrix
+	 *               ({@link jwmtool.lib.YUVConverter#MATRIX_BT601 MATRIX_BT601},
+	 *               the default, or
+	 *               {@link jwmtool.lib.YUVConverter#MATRIX_BT709 MATRIX_BT709}).
+	 */
+	public void setColorMatrix(int matrix) {
+		_colorMatrix = matrix;
+		if (_engine != null) { // same files, read from current position on
+			_engine = _engine.withColorMatrix(matrix);
+			FrameCursor _newCursor = _engine.newCursor();
+			_newCursor.seek(getPosition());
+			_cursor = _newCursor;
+		}
+		_lastRegionConverter    = null;
+		_lastThumbnailConverter = null;
+	}
+	
+	/**
+	 * Selects whether {@link jwmtool.lib.Watermarking#watermark watermark()}
+	 * processes whole frames or strips of
+	 * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} rows. In strip mode,
+	 * each plane is read, watermarked and written one strip at a time, so
+	 * memory use depends on frame width only, not on frame height.
+	 *
+	 * @param stripMode Whether strip mode is to be used or not.
+	 */
+	public void setStripMode(boolean stripMode) {
+		_stripMode = stripMode;
+	}
+	
+	/**
+	 * Selects whether {@link jwmtool.lib.Watermarking#watermark watermark()}
+	 * also produces {@link jwmtool.lib.ProxyWriter proxies} (scaled down
+	 * copies, much faster to play back) of both source and watermarked
+	 * videostream files, in the same pass. The source proxy is reused, and
+	 * not produced again, as long as the source file does not change.
+	 * Proxies are not produced when watermarking streams.
+	 *
+	 * @param scale Scale factor (e.g. 4 or 8), 0 for no proxies, or
+	 *              {@link jwmtool.lib.Watermarking#PROXY_SCALE_AUTO PROXY_SCALE_AUTO}
+	 *              for 8 for frames 4K wide or wider, 4 for frames at
+	 *              least {@link jwmtool.lib.Watermarking#PROXY_MIN_WIDTH PROXY_MIN_WIDTH}
+	 *              wide, and no proxies for smaller ones.
+	 */
+	public void setProxyScale(int scale) {
+		_proxyScale = scale;
+	}
+	
+	/**
+	 * Opens the proxies of both source and watermarked videostream files,
+	 * produced by {@link jwmtool.lib.Watermarking#watermark watermark()},
+	 * if they are up to date.
+	 *
+	 * @return A Watermarking object reading from the proxies, or
+	 *         <code>null</code> if there are none.
+	 */
+	public Watermarking openProxy() {
+		int _scale = getProxyScale();
+		String _scProxyFilename = ProxyWriter.getFilename(_filename, _scale);
+		String _wmProxyFilename = ProxyWriter.getFilename(_outputFilename, _scale);
+		if ((_scale == 0) ||
+		    !ProxyWriter.isValid(_scProxyFilename, _filename) || !ProxyWriter.isValid(_wmProxyFilename, _filename)) {
+			return null;
+		}
 		try {
-			if (!((_scFile == null) && (_wmFile == null))) { // make sure we have opened the files
-				long actualPosition = _scFile.getFilePointer(); // same for both, we don't need to check on _wmFile
-				_scFile.seek(actualPosition - nframes * _frameLength);
-				_wmFile.seek(actualPosition - nframes * _frameLength);
+			Watermarking _proxy = new Watermarking(_scProxyFilename, _wmProxyFilename);
+			_proxy.setColorMatrix(_colorMatrix);
+			_proxy.openStreams();
+			JWMFrame _first = _proxy.getFirstImage();
+			if (_first == null) {
+				return null;
 			}
-		} catch (IOException e) {}
+			_first.release(); // just checked, not displayed
+			return _proxy;
+		} catch (IOException e) {
+			return null;
+		} catch (WatermarkingException e) {
+			return null;
+		}
 	}
 	
 	/**
 	 * Produces watermarked videostream file applying provided watermarking
 	 * settings. Generated videostream is saved to disk as 
-	 * {@link jwmtool.lib.Watermarking#_outputFilename outputFilename}.
+	 * {@link jwmtool.lib.Watermarking#_outputFilename outputFilename}. If
+	 * its name ends with {@link jwmtool.lib.DeltaWriter#EXTENSION .jwmd},
+	 * a compact {@link jwmtool.lib.DeltaWriter delta file} is written
+	 * instead of a full videostream. Proxies are produced as well, if
+	 * {@link jwmtool.lib.Watermarking#setProxyScale requested}. <br/>
+	 *
+	 * Frames already watermarked can be read by other threads while this
+	 * one goes on (see
+	 * {@link jwmtool.lib.Watermarking#getWatermarkedFrames getWatermarkedFrames()}),
+	 * and stop it (see {@link jwmtool.lib.Watermarking#cancel cancel()}).
 	 *
 	 * @param rangeInit First coefficient to watermark in each
 	 *                  {@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
@@ -257,427 +683,394 @@ public class Watermarking {
 	 * @param lowLimit Lower value for an incremental modification.
 	 * @param upperLimit Upper value for an incremental modification.
 	 * @param modificationValue Value of modification to be performed when
-	 *                          selected
-	 *                          {@link jwmtool.lib.Watermarking#_modificationStep modificationStep}
-	 *                          is uniform.
+	 *                          selected <code>modificationStep</code> is
+	 *                          uniform.
 	 * @param modificationFunction Function to obtain values when selected
-	 *                          {@link jwmtool.lib.Watermarking#_modificationStep modificationStep}
-	 *                          is random.
+	 *                          <code>modificationStep</code> is random.
 	 * @param modifyY Whether Y component (luminance) is to be modified or
 	 *                not.
 	 * @param modifyU Whether U component (blue chrominance) is to be
 	 *                modified or not.
 	 * @param modifyV Whether V component (red chrominance) is to be
 	 *                modified or not.
+	 * @throws WatermarkingException If the videostreams can not be read
+	 *                               or written.
 	 */
 	public void watermark(int rangeInit, int rangeEnd,   int modificationType, int modificationStep,
 			      int lowLimit,  int upperLimit, int modificationValue, GraphableFunction modificationFunction,
 			      boolean modifyY, boolean modifyU, boolean modifyV) throws WatermarkingException {
+		setWatermarking(true);
 		try {
-			RandomAccessFile  _input = new RandomAccessFile(_filename, "r");
-			RandomAccessFile _output = new RandomAccessFile(_outputFilename, "rw");
+			WatermarkingParameters _parameters = new WatermarkingParameters(rangeInit, rangeEnd, modificationType, modificationStep,
+											lowLimit, upperLimit, modificationValue, modificationFunction,
+											modifyY, modifyU, modifyV);
+			_geometry = StreamGeometry.fromFile(_filename);
+			StreamGeometry _format = _geometry;
 			
-			_rangeInit = rangeInit;
-			_rangeEnd  = rangeEnd;
-			_modificationType = modificationType;
-			_modificationStep = modificationStep;
-			_lowLimit   = lowLimit;
-			_upperLimit = upperLimit;
-			_modificationValue    = modificationValue;
-			_modificationFunction = modificationFunction;
-			
-			long _fileLength = _input.length();
-			String _header = _input.readLine(); // read stream header
-			_output.writeBytes(_header + "\n"); // write same stream header to output file
-			
-			String[] info = _header.split(" ");
-			_width  = (new Integer(info[1].substring(1))).intValue(); // obtain width  dimension from file header
-			_height = (new Integer(info[2].substring(1))).intValue(); // obtain height dimension from file header
-			
-			_ySize   = _height * _width;
-			_yBuffer = new byte[_ySize];
-			_yData   = new byte[_height][_width];
-			
-			// Guess if which YUV format we are dealing with
-			// First, we have to substract header size (_header.length() + 1)
-			// Then, we divide _fileLength by estimated frame size + (frame header size) to find a 0 remainder
-			
-			_fileLength -= _header.length() + 1;
-			_header = _input.readLine(); // read first frame header (all frame headers are the same)
-			
-			if   (( _fileLength % (_width * _height + (_width * _height / 2) + _header.length() + 1) ) == 0) {    // YUV 4:2:2
-				_frameLength = _width * _height + (_width * _height / 2) + _header.length() + 1;
-				_uvSize  = _ySize / 4;
-				_uData   = new byte[_height/2][_width/2];
-				_vData   = new byte[_height/2][_width/2];
-				_YUVFormat = YUV_FORMAT_422;
-			}
-			else if (( _fileLength % (_width * _height + (_width * _height / 8) + _header.length() + 1) ) == 0) { // YUV 4:2:0
-				_frameLength    = _width * _height + (_width * _height / 8) + _header.length() + 1;
-				_uvSize  = _ySize / 16;
-				_uData   = new byte[_height/4][_width/4];
-				_vData   = new byte[_height/4][_width/4];
-				_YUVFormat = YUV_FORMAT_420;
-			}
-			else if (( _fileLength % (_width * _height * 3 + _header.length() + 1) ) == 0) {                      // YUV 4:4:4
-				_frameLength    = _width * _height * 3 + _header.length() + 1;
-				_uvSize  = _ySize;
-				_uData   = new byte[_height][_width];
-				_vData   = new byte[_height][_width];
-				_YUVFormat = YUV_FORMAT_444;
-			}
-			else {
-				throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
-			}
-			
-			_uBuffer = new byte[_uvSize];
-			_vBuffer = new byte[_uvSize];
-			byte[] _data = new byte[_ySize + 2 * _uvSize];
-			
-			while (_header != null) { // check if we have reached EOF
-				_output.writeBytes(_header + "\n");     // read stream header
-				_input.read(_data);   // read frame data
-				_data = watermarkFrame(_data, modifyY, modifyU, modifyV); // watermark frame
-				_output.write(_data); // write watermarked frame data to output file
-				_header = _input.readLine(); // read next frame header
+			InputStream  _in  = new FileInputStream(_filename);
+			OutputStream _out = null;
+			try {
+				String _header = readLine(_in);
+				if (DeltaWriter.isDeltaFile(_outputFilename)) { // only differences are written, to a delta file
+					_deltaWriter = new DeltaWriter(_outputFilename, _filename, _header);
+				}
+				else {
+					_out = new FileOutputStream(_outputFilename);
+					writeLine(_out, _header); // write same stream header to output file
+				}
+				int _scale = getProxyScale();
+				if (ProxyWriter.isScalable(_format.getUVWidth(), _format.getUVHeight(), _scale)) { // source proxy is produced only if outdated
+					String _scProxyFilename = ProxyWriter.getFilename(_filename, _scale);
+					if (!ProxyWriter.isValid(_scProxyFilename, _filename)) {
+						_scProxy = new ProxyWriter(_scProxyFilename, _filename, _header, _format.getYUVFormat(),
+									   _format.getUVWidth(), _format.getUVHeight(), _format.getChromaShift(), _scale);
+					}
+					_wmProxy = new ProxyWriter(ProxyWriter.getFilename(_outputFilename, _scale), _filename, _header, _format.getYUVFormat(),
+								   _format.getUVWidth(), _format.getUVHeight(), _format.getChromaShift(), _scale);
+				}
+				watermarkStream(_in, _out, new WatermarkingWorkspace(_format, _parameters));
+				if ((_scProxy != null) && !_cancelled) {
+					_scProxy.finish();
+				}
+				if ((_wmProxy != null) && !_cancelled) {
+					_wmProxy.finish();
+				}
+			} finally {
+				_in.close();
+				if (_out != null) {
+					_out.close();
+				}
+				if (_deltaWriter != null) {
+					_deltaWriter.close();
+					_deltaWriter = null;
+				}
+				if (_scProxy != null) { // discarded if not complete
+					_scProxy.close();
+					_scProxy = null;
+				}
+				if (_wmProxy != null) {
+					_wmProxy.close();
+					_wmProxy = null;
+				}
 			}
-			_input.close();
-			_output.close();
-		} catch (IOException e) { }
+		} catch (IOException e) { // output is incomplete
+			throw new WatermarkingException("exceptions.watermarking.unwritable_file");
+		} finally {
+			setWatermarking(false);
+		}
 	}
 	
-	// ----- ----- ----- UTILITY STUFF ----- ----- -----
-	
 	/**
-	 * Obtains an {@link java.awt.Image image} frame (RGB format) out of the
-	 * data in three buffers representing Y, U and V components.
-	 *
-	 * @param yData Luminance component data to be merged into an RGB image.
-	 * @param uData Blue chrominance component data to be merged into an RGB
-	 *              image.
-	 * @param vData Red chrominance component data to be merged into an RGB
-	 *              image.
-	 * @return An RGB {@link java.awt.Image image} frame.
-	 */
-	private Image getRGBImage(byte[] yData, byte[] uData, byte[] vData)
-		throws WatermarkingException {
-		int[] rgbData = new int[_width * _height]; // frame dimensions are those of original video
-		int pos, spos, cy, cb, cr, r, g, b;
-		for (int i = 0; i < _height; i++) {
-			for (int j = 0; j < _width; j++) {
-				pos = _width * i + j;
-				
-				switch (_YUVFormat) {
-					case YUV_FORMAT_422: spos = (_width/2) * (i/2) + (j/2); break; // YUV 4:2:2
-				        case YUV_FORMAT_420: spos = (_width/4) * (i/4) + (j/4); break; // YUV 4:2:0
-				        case YUV_FORMAT_444: spos = pos;                        break; // YUV 4:4:4
-					default: throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
-			        }
-				
-				// transform YUV frame (YCbCr, actually) to RGB
-				cy = (yData[pos]  & 255) -  16;
-				cb = (uData[spos] & 255) - 128;
-				cr = (vData[spos] & 255) - 128;
-				
-				r = clip(0, 255, (298 * cy            + 409 * cr + 128) >> 8);
-				g = clip(0, 255, (298 * cy - 100 * cb - 208 * cr + 128) >> 8);
-				b = clip(0, 255, (298 * cy + 516 * cb            + 128) >> 8);
-				
-				rgbData[pos] = ( r << 16) | ( g << 8) | b;
-			}
+	 * Produces watermarked videostream applying provided watermarking
+	 * settings, reading the source videostream from <code>input</code> and
+	 * writing the watermarked videostream to <code>output</code>. Both are
+	 * processed sequentially, with bounded buffering and no seeks, so they
+	 * can be pipes (e.g. standard input and output). Since the source
+	 * length is unknown, YUV format is taken from the stream header colour
+	 * space tag. <code>input</code> and <code>output</code> are not closed.
+	 *
+	 * @param input Source videostream (YUV4MPEG2 format).
+	 * @param output Watermarked videostream.
+	 * @param rangeInit First coefficient to watermark in each
+	 *                  {@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+	 *                  {@link jwmtool.lib.Watermarking#LIMIT LIMIT} frame
+	 *                  fragment.
+	 * @param rangeEnd Last coefficient to watermark in each
+	 *                 {@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+	 *                 {@link jwmtool.lib.Watermarking#LIMIT LIMIT} frame
+	 *                 fragment.
+	 * @param modificationType Type of modification to be performed.
+	 * @param modificationStep Type of modification to be performed each
+	 *                         step.
+	 * @param lowLimit Lower value for an incremental modification.
+	 * @param upperLimit Upper value for an incremental modification.
+	 * @param modificationValue Value of modification to be performed when
+	 *                          selected modification step is uniform.
+	 * @param modificationFunction Function to obtain values when selected
+	 *                             modification step is random.
+	 * @param modifyY Whether Y component (luminance) is to be modified or
+	 *                not.
+	 * @param modifyU Whether U component (blue chrominance) is to be
+	 *                modified or not.
+	 * @param modifyV Whether V component (red chrominance) is to be
+	 *                modified or not.
+	 * @throws WatermarkingException
+	 * @throws IOException
+	 */
+	public void watermark(InputStream input, OutputStream output,
+			      int rangeInit, int rangeEnd,   int modificationType, int modificationStep,
+			      int lowLimit,  int upperLimit, int modificationValue, GraphableFunction modificationFunction,
+			      boolean modifyY, boolean modifyU, boolean modifyV) throws WatermarkingException, IOException {
+		WatermarkingParameters _parameters = new WatermarkingParameters(rangeInit, rangeEnd, modificationType, modificationStep,
+										lowLimit, upperLimit, modificationValue, modificationFunction,
+										modifyY, modifyU, modifyV);
+		
+		InputStream  _in  = new BufferedInputStream(input, STREAM_BUFFER_SIZE);
+		OutputStream _out = new BufferedOutputStream(output, STREAM_BUFFER_SIZE);
+		
+		String _header = readLine(_in); // read stream header
+		if (_header == null) {
+			throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
 		}
+		_geometry = StreamGeometry.fromHeader(_header);
 		
-		BufferedImage _rgbImage = new BufferedImage(_width, _height, BufferedImage.TYPE_INT_RGB);
-		_rgbImage.setRGB(0, 0, _width, _height, rgbData, 0, _width);
-		return _rgbImage;
+		writeLine(_out, _header); // write same stream header to output stream
+		watermarkStream(_in, _out, new WatermarkingWorkspace(_geometry, _parameters));
+		_out.flush();
 	}
 	
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+	
 	/**
-	 * Normalizes <code>value</code> to be between <code>infLimit</code> and
-	 * <code>supLimit</code>.
+	 * Reads a region of a given frame of both videostreams (see
+	 * {@link #getRegion getRegion()}).
 	 *
-	 * @param infLimit Lower value allowed for <code>value</code>.
-	 * @param supLimit Upper value allowed for <code>value</code>.
-	 * @param value Value to be normalized.
-	 * @return Normalized <code>value</code>: it will retain its original
-	 *         value if it was already greater or equal to
-	 *         <code>infLimit</code> and less or equal to
-	 *         <code>supLimit</code>; it will be equal to
-	 *         <code>infLimit</code> if it was lower, and it will be equal
-	 *         to <code>supLimit</code> if it was greater.
+	 * @param engine Engine reading both videostreams.
+	 * @param frame Frame number (0 for the first frame).
+	 * @param region Region, in pixels.
+	 * @return A {@link jwmtool.lib.JWMFrame JWMFrame} with the region of
+	 *         the frame of the original videostream and its watermarked
+	 *         counterpart (with no images if the frame could not be
+	 *         read).
 	 */
-	private int clip(int infLimit, int supLimit, int value) {
-		return Math.min(supLimit, Math.max(infLimit, value));
+	private JWMFrame readRegion(WatermarkingEngine engine, long frame, Rectangle region) {
+		Rectangle _region = engine.getGeometry().alignRegion(region);
+		YUVConverter _regionConverter = _lastRegionConverter; // converter is kept while region size does not change
+		if ((_regionConverter == null) ||
+		    (_regionConverter.getWidth() != _region.width) || (_regionConverter.getHeight() != _region.height)) {
+			_regionConverter = engine.createConverter(_region.width, _region.height, engine.getGeometry().getYUVFormat());
+			_lastRegionConverter = _regionConverter;
+		}
+		return engine.getRegion(frame, _region, _regionConverter);
 	}
 	
-	// ----- ----- ----- WATERMARKING STUFF ----- ----- -----
+	/**
+	 * Writes current frame to the proxies being produced, if any.
+	 *
+	 * @throws IOException
+	 */
+	private void endProxyFrame() throws IOException {
+		if (_scProxy != null) {
+			_scProxy.endFrame();
+		}
+		if (_wmProxy != null) {
+			_wmProxy.endFrame();
+		}
+	}
 	
 	/**
-	 * Generate watermarked frame from given source frame data.
-	 *
-	 * @param frameData Source data to be watermarked.
-	 * @param modifyY Whether or not the luminance component has to be
-	 *                altered.
-	 * @param modifyU Whether or not the blue chrominance component has to
-	 *                be altered.
-	 * @param modifyV Whether or not the red chrominance component has to be
-	 *                altered.
-	 * @return Byte array containing properly watermarked data.
-	 */
-	private byte[] watermarkFrame(byte[] frameData, boolean modifyY, boolean modifyU, boolean modifyV)
-		throws WatermarkingException {
-		// extract y component from frameData array into yData matrix
-		for (int i = 0; i < _height; i++)
-			for (int j = 0; j < _width; j++)
-				_yData[i][j] = frameData[_width*i+j];
-		// extract u & v components from frameData array into uData/vData matrix
-		switch (_YUVFormat) {
-		    case YUV_FORMAT_422:
-			for (int i = 0; i < _height/2; i++)
-				for (int j = 0; j < _width/2; j++)
-					_uData[i][j] = frameData[_ySize+(_width/2)*i+j];
-			for (int i = 0; i < _height/2; i++)
-				for (int j = 0; j < _width/2; j++)
-					_vData[i][j] = frameData[_ySize+_uvSize+(_width/2)*i+j];
-			break;
-		    case YUV_FORMAT_420:
-			for (int i = 0; i < _height/4; i++)
-				for (int j = 0; j < _width/4; j++)
-					_uData[i][j] = frameData[_ySize+(_width/4)*i+j];
-			for (int i = 0; i < _height/4; i++)
-				for (int j = 0; j < _width/4; j++)
-					_vData[i][j] = frameData[_ySize+_uvSize+(_width/4)*i+j];
-			break;
-		    case YUV_FORMAT_444:
-			for (int i = 0; i < _height; i++)
-				for (int j = 0; j < _width; j++)
-					_uData[i][j] = frameData[_ySize+_width*i+j];
-			for (int i = 0; i < _height; i++)
-				for (int j = 0; j < _width; j++)
-					_vData[i][j] = frameData[_ySize+_uvSize+_width*i+j];
-			break;
-		    default:
-		        throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
+	 * Marks the beginning or the end of the watermarking process, waking
+	 * up threads waiting for frames when it ends.
+	 *
+	 * @param watermarking Whether watermarking begins or ends.
+	 */
+	private synchronized void setWatermarking(boolean watermarking) {
+		if (watermarking) {
+			_watermarkedFrames = 0;
 		}
-		
-		if (modifyY) { // if luminance is to be modified, proceed
-			_yData = modifyFrame( _width/LIMIT,  _height/LIMIT, _yData);
+		_watermarking = watermarking;
+		notifyAll();
+	}
+	
+	/**
+	 * Records that one more frame has been completely written, waking up
+	 * threads waiting for it.
+	 */
+	private synchronized void frameWatermarked() {
+		_watermarkedFrames++;
+		notifyAll();
+	}
+	
+	/**
+	 * Returns the proxy scale factor for current frame size.
+	 *
+	 * @return Scale factor (0 for no proxies).
+	 */
+	private int getProxyScale() {
+		if (_proxyScale == PROXY_SCALE_AUTO) {
+			return (getWidth() >= 2 * PROXY_MIN_WIDTH) ? 8 : ((getWidth() >= PROXY_MIN_WIDTH) ? 4 : 0);
 		}
-		if (modifyU) { // if blue chrominance is to be modified, proceed
-			switch (_YUVFormat) {
-			    case YUV_FORMAT_422:
-				_uData = modifyFrame(_width/(2*LIMIT), _height/(2*LIMIT), _uData); break;
-			    case YUV_FORMAT_420:
-				_uData = modifyFrame(_width/(4*LIMIT), _height/(4*LIMIT), _uData); break;
-			    case YUV_FORMAT_444:
-				_uData = modifyFrame(_width/LIMIT, _height/LIMIT, _uData);         break;
-			    default:
-			        throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
+		return Math.max(0, _proxyScale);
+	}
+	
+	/**
+	 * Reads stream header of source videostream file, which is assumed to
+	 * have an explicit colour space tag, and opens both source and
+	 * watermarked videostream files, without watermarking.
+	 *
+	 * @throws IOException
+	 * @throws WatermarkingException If the colour space is not supported.
+	 */
+	private void openStreams() throws IOException, WatermarkingException {
+		RandomAccessFile _input = new RandomAccessFile(_filename, "r");
+		try {
+			String _header = _input.readLine();
+			if (_header == null) {
+				throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
 			}
+			_geometry = StreamGeometry.fromHeader(_header);
+		} finally {
+			_input.close();
 		}
-		if (modifyV) { // if red chrominance is to be modified, proceed
-			switch (_YUVFormat) {
-			    case YUV_FORMAT_422:
-				_vData = modifyFrame(_width/(2*LIMIT), _height/(2*LIMIT), _vData); break;
-			    case YUV_FORMAT_420:
-				_vData = modifyFrame(_width/(4*LIMIT), _height/(4*LIMIT), _vData); break;
-			    case YUV_FORMAT_444:
-				_vData = modifyFrame(_width/LIMIT, _height/LIMIT, _vData);         break;
-			    default:
-			    	throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
-			}
+	}
+	
+	/**
+	 * Reads a header line from <code>input</code>.
+	 *
+	 * @param input Stream to read from.
+	 * @return Header line (without line terminator), or <code>null</code>
+	 *         if end of stream was reached.
+	 * @throws IOException
+	 */
+	private static String readLine(InputStream input) throws IOException {
+		int c = input.read();
+		if (c == -1) {
+			return null;
 		}
-		
-		// merge modified y component into new watermarked data array
-		for (int i = 0; i < _height; i++)
-			for (int j = 0; j < _width; j++)
-				frameData[_width*i+j] = _yData[i][j];
-		// merge modified u & v components into watermarked data array
-		switch (_YUVFormat) {
-		    case YUV_FORMAT_422:
-			for (int i = 0; i < _height/2; i++)
-				for (int j = 0; j < _width/2; j++)
-					frameData[_ySize+(_width/2)*i+j] = _uData[i][j];
-			for (int i = 0; i < _height/2; i++)
-				for (int j = 0; j < _width/2; j++)
-					frameData[_ySize+_uvSize+(_width/2)*i+j] = _vData[i][j];
-			break;
-		    case YUV_FORMAT_420:
-			for (int i = 0; i < _height/4; i++)
-				for (int j = 0; j < _width/4; j++)
-					frameData[_ySize+(_width/4)*i+j] = _uData[i][j];
-			for (int i = 0; i < _height/4; i++)
-				for (int j = 0; j < _width/4; j++)
-					frameData[_ySize+_uvSize+(_width/4)*i+j] = _vData[i][j];
-			break;
-		    case YUV_FORMAT_444:
-			for (int i = 0; i < _height; i++)
-				for (int j = 0; j < _width; j++)
-					frameData[_ySize+_width*i+j] = _uData[i][j];
-			for (int i = 0; i < _height; i++)
-				for (int j = 0; j < _width; j++)
-					frameData[_ySize+_uvSize+_width*i+j] = _vData[i][j];
-			break;
-		    default:
-		        throw new WatermarkingException("exceptions.watermarking.unknown_yuv_format");
+		StringBuilder line = new StringBuilder();
+		while ((c != -1) && (c != '\n')) {
+			line.append((char) c);
+			c = input.read();
 		}
-		
-		return frameData;
-	}
-	
-	/**
-	 * Watermark frame, in as many steps as <code>wblocks</code> x
-	 * <code>hblocks</code>.
-	 *
-	 * @param wblocks Result of splitting frame
-	 *                {@link jwmtool.lib.Watermarking#_width width} /
-	 *                {@link jwmtool.lib.Watermarking#LIMIT LIMIT}, which is
-	 *                the number of blocks of
-	 *                {@link jwmtool.lib.Watermarking#LIMIT LIMIT} width in
-	 *                the frame.
-	 * @param hblocks Result of splitting frame
-	 *                {@link jwmtool.lib.Watermarking#_height height} /
-	 *                {@link jwmtool.lib.Watermarking#LIMIT LIMIT}, which is
-	 *                the number of blocks of
-	 *                {@link jwmtool.lib.Watermarking#LIMIT LIMIT} height in
-	 *                the frame.
-	 * @param frameData Original frame data matrix.
-	 * @return Watermarked frame data matrix.
-	 */
-	private byte[][] modifyFrame(int wblocks, int hblocks, byte[][] frameData) throws WatermarkingException {
- 		float[][] itable = new float[LIMIT][LIMIT];
-		float[][] otable = new float[LIMIT][LIMIT];
-		int i = 0, j = 0, x = 0, n = 1, inc = 0;
-		
-		for (int hb = 0 ; hb < hblocks ; hb++)
-			for (int wb = 0 ; wb < wblocks ; wb++) {
-				for (i = 0 ; i < LIMIT ; i++)  // read data in 8x8 steps
-					for (j = 0; j < LIMIT ; j++)
-						itable[i][j] = (new Byte(frameData[hb*LIMIT+i][wb*LIMIT+j])).floatValue();
-				
-				i = 0; j = 0; n = 1;
-				FloatDCT.FDCT(itable, otable); // perform DCT
-				inc = _lowLimit;
-				
-				// WATERMARK INSERTION: modify values in 8x8 array (zigzag process)
-				for (i = 1 ; i < LIMIT ; i++) {
-					if (i % 2 != 0)
-						for (x = j ; x <= i ; x++) {
-							if ((n >= _rangeInit) && (n <= _rangeEnd)) {
-								otable[x][i-x] = modifyValue(otable[x][i-x], inc);
-								inc = (inc + 1 > _upperLimit) ? _lowLimit : inc + 1;
-							}
-							n++;
-						}
-					else
-						for (x = i ; x >= j ; x--) {
-							if ((n >= _rangeInit) && (n <= _rangeEnd)) {
-								otable[x][i-x] = modifyValue(otable[x][i-x], inc);
-								inc = (inc + 1 > _upperLimit) ? _lowLimit : inc + 1;
-							}
-							n++;
-						}
-				}
-				--i;
-				for (j = 1 ; j < LIMIT ; j++) {
-					if (j % 2 != 0)
-						for (x = i ; x >= j ; x--) {
-							if ((n >= _rangeInit) && (n <= _rangeEnd)) {
-								otable[x][i-x] = modifyValue(otable[x][j-x+i], inc);
-								inc = (inc + 1 > _upperLimit) ? _lowLimit : inc + 1;
-							}
-							n++;
-						}
-					else
-						for (x = j ; x <= i ; x++) {
-							if ((n >= _rangeInit) && (n <= _rangeEnd)) {
-								otable[x][i-x] = modifyValue(otable[x][j-x+i], inc);
-								inc = (inc + 1 > _upperLimit) ? _lowLimit : inc + 1;
-							}
-							n++;
-						}
-				}
-				// WATERMARK INSERTED
-				
-				FloatDCT.IDCT(otable, _quantizationMatrix, itable); // perform inverse DCT
-				
-				for (i = 0 ; i < LIMIT ; i++)  // read 8x8 array values into watermarked frame data
-					for (j = 0; j < LIMIT ; j++)
-						frameData[hb*LIMIT+i][wb*LIMIT+j] = (new Integer(Math.round(itable[i][j]))).byteValue();
-			}
-		
-		return frameData;
+		return line.toString();
+	}
+	
+	/**
+	 * Writes a header line to <code>output</code>.
+	 *
+	 * @param output Stream to write to.
+	 * @param line Header line (without line terminator).
+	 * @throws IOException
+	 */
+	private static void writeLine(OutputStream output, String line) throws IOException {
+		output.write((line + "\n").getBytes("US-ASCII"));
 	}
 	
+	// ----- ----- ----- WATERMARKING STUFF ----- ----- -----
+	
 	/**
-	 * Modify coefficient value according to watermarking settings.
+	 * Watermarks every frame in <code>input</code>, writing them to
+	 * <code>output</code>, either one whole frame or one strip at a time
+	 * (see {@link jwmtool.lib.Watermarking#setStripMode setStripMode()}).
 	 *
-	 * @param value Coefficient value (to be modified).
-	 * @param inc Increment to be added.
-	 * @return New coefficient value (watermarked coefficient).
+	 * @param input Source videostream, positioned after the stream header.
+	 * @param output Watermarked videostream, positioned after the stream
+	 *               header, or <code>null</code> if only a delta file
+	 *               is being written.
+	 * @param workspace Workspace frames are watermarked in.
 	 */
-	private float modifyValue(float value, int inc) throws WatermarkingException {
-		float ovalue = value;
+	private void watermarkStream(InputStream input, OutputStream output, WatermarkingWorkspace workspace)
+		throws IOException, WatermarkingException {
+		// frame data is kept off-heap, in one buffer per plane, so
+		// array size limits apply to planes, not frames
+		StreamGeometry _format = _geometry;
+		int _width   = _format.getWidth(),   _height   = _format.getHeight();
+		int _uvWidth = _format.getUVWidth(), _uvHeight = _format.getUVHeight();
+		_pool = new FrameBufferPool(FRAME_POOL_CAPACITY, StreamGeometry.planeLength(_format.getYSize()),
+					    StreamGeometry.planeLength(_format.getUVSize()));
 		
-		switch (_modificationType) {
-			case MODIFICATION_TYPE_ABSOLUTE:   // absolute modification
-				switch (_modificationStep) {
-					case MODIFICATION_STEP_INCREMENTAL: // if modification is incremental, just add 'inc'
-						ovalue += inc;
-						break;
-					case MODIFICATION_STEP_UNIFORM:     // if modification is uniform, use global 'modificationValue'
-						ovalue += _modificationValue;
-						break;
-					case MODIFICATION_STEP_RANDOM:      // if modification is random, use global 'modificationFunction'
-						if (_modificationFunction instanceof DiscreteFactoredGaussian) { // only modificationFunction supported at the moment!
-							DiscreteFactoredGaussian f = (DiscreteFactoredGaussian) _modificationFunction;
-							ovalue += f.getDiscreteY(nextGaussian(f.getInf(), f.getSup()));
-						}
-						break;
-					default:
-						throw new WatermarkingException("exceptions.watermarking.unknown_modification_step");
+		ReadableByteChannel _inChannel  = Channels.newChannel(input);
+		WritableByteChannel _outChannel = (output != null) ? Channels.newChannel(output) : null;
+		String _header = readLine(input); // read first frame header
+		
+		if (_stripMode) {
+			// since planes are stored one after the other, strips are
+			// read and written sequentially, and a single strip buffer
+			// is needed
+			ByteBuffer _strip = ByteBuffer.allocateDirect(LIMIT * _width);
+			while ((_header != null) && !_cancelled) { // check if we have reached EOF (or were stopped)
+				if (output != null) {
+					writeLine(output, _header);
+				}
+				if (!(watermarkPlane(_inChannel, _outChannel, _strip, FrameBuffer.PLANE_Y, _width, _height, workspace)
+				      && watermarkPlane(_inChannel, _outChannel, _strip, FrameBuffer.PLANE_U, _uvWidth, _uvHeight, workspace)
+				      && watermarkPlane(_inChannel, _outChannel, _strip, FrameBuffer.PLANE_V, _uvWidth, _uvHeight, workspace))) {
+					break;
 				}
-				break;
-			case MODIFICATION_TYPE_PERCENTAGE: // percentage (relative) modification
-				switch (_modificationStep) {
-					case MODIFICATION_STEP_UNIFORM:     // if modification is uniform, use global 'modificationValue'
-						ovalue += Math.round(value * _modificationValue / 100);
-						break;
-					default:
-						throw new WatermarkingException("exceptions.watermarking.modification_not_allowed");
+				if (_deltaWriter != null) {
+					_deltaWriter.endFrame();
 				}
-				break;
-			default:
-				throw new WatermarkingException("exceptions.watermarking.unknown_modification_type");
+				endProxyFrame();
+				frameWatermarked();
+				_header = readLine(input); // read next frame header
+			}
+			return;
+		}
+		
+		FrameBuffer _buffer = null;
+		try {
+			_buffer = _pool.acquire();
+			while ((_header != null) && !_cancelled) { // check if we have reached EOF (or were stopped)
+				if (output != null) {
+					writeLine(output, _header);
+				}
+				if (!_buffer.read(_inChannel)) { // read frame data, plane by plane
+					break;
+				}
+				if (_scProxy != null) {
+					_scProxy.addFrame(_buffer, _width, _height, _uvWidth, _uvHeight);
+				}
+				workspace.watermarkFrame(_buffer, _deltaWriter); // watermark frame
+				if (_wmProxy != null) {
+					_wmProxy.addFrame(_buffer, _width, _height, _uvWidth, _uvHeight);
+				}
+				if (output != null) {
+					_buffer.write(_outChannel); // write watermarked frame data
+				}
+				if (_deltaWriter != null) {
+					_deltaWriter.endFrame();
+				}
+				endProxyFrame();
+				frameWatermarked();
+				_header = readLine(input); // read next frame header
+			}
+		} catch (InterruptedException e) {
+		} finally {
+			_pool.release(_buffer);
 		}
-		return ovalue;
 	}
 	
 	/**
-	 * Obtain a random value according to a gaussian function.
+	 * Copies one plane from <code>input</code> to <code>output</code>,
+	 * strip by strip, watermarking it on the way if requested.
 	 *
-	 * @param inf Lower limit for generated gaussian random number.
-	 * @param sup Upper limit for generated gaussian random number.
-	 * @return Random gaussian function value.
+	 * @param input Source videostream, positioned at plane beginning.
+	 * @param output Watermarked videostream (<code>null</code> if only a
+	 *               delta file is being written).
+	 * @param strip Strip buffer, able to hold
+	 *              {@link jwmtool.lib.Watermarking#LIMIT LIMIT} rows.
+	 * @param plane Plane identifier.
+	 * @param planeWidth Plane width.
+	 * @param planeHeight Plane height.
+	 * @param workspace Workspace strips are watermarked in.
+	 * @return Whether the whole plane could be read or not.
 	 */
-	private double nextGaussian(int inf, int sup) {
-		double n = 0.0;
-		do {
-			n = _randomGenerator.nextGaussian();
-		} while ((n < inf) || (n > sup));
-		return n;
+	private boolean watermarkPlane(ReadableByteChannel input, WritableByteChannel output, ByteBuffer strip,
+				       int plane, int planeWidth, int planeHeight, WatermarkingWorkspace workspace)
+		throws IOException, WatermarkingException {
+		for (int row = 0; row < planeHeight; row += LIMIT) {
+			int rows = Math.min(LIMIT, planeHeight - row); // last strip may be incomplete
+			strip.clear();
+			strip.limit(rows * planeWidth);
+			if (!FrameBuffer.fill(input, strip)) {
+				return false;
+			}
+			if (_scProxy != null) {
+				_scProxy.addRows(plane, strip, planeWidth, row, rows);
+			}
+			workspace.watermarkStrip(plane, strip, planeWidth, row, rows, _deltaWriter); // incomplete strips are left untouched
+			if (_wmProxy != null) {
+				_wmProxy.addRows(plane, strip, planeWidth, row, rows);
+			}
+			if (output != null) {
+				FrameBuffer.drain(output, strip);
+			}
+		}
+		return true;
 	}
 	
 	// ----- ----- ----- ATTRIBUTES -----  ----- -----
 	
-	/**
-	 * The source {@link java.io.RandomAccessFile file}.
-	 */
-	private RandomAccessFile _scFile = null;
-	/**
-	 * The generated watermarked {@link java.io.RandomAccessFile file}.
-	 */
-	private RandomAccessFile _wmFile = null;
 	/**
 	 * The name of the source file.
 	 */
@@ -687,133 +1080,79 @@ public class Watermarking {
 	 */
 	private String _outputFilename = null;
 	/**
-	 * Height dimension of input and output videostream files.
+	 * Geometry of input and output videostreams (<code>null</code> until
+	 * known).
 	 */
-	private int _height = 0;
+	private volatile StreamGeometry _geometry = null;
 	/**
-	 * Width dimension of input and output videostream files.
+	 * Engine both videostreams are read through (<code>null</code> until
+	 * files are opened).
 	 */
-	private int _width = 0;
+	private volatile WatermarkingEngine _engine = null;
 	/**
-	 * Number of bytes needed to store each frame in the videostream
-	 * (includes frame header size).
+	 * Current position in both videostreams.
 	 */
-	private int _frameLength = 0;
+	private volatile FrameCursor _cursor = null;
 	/**
-	 * Video stream YUV format.
+	 * Whether files were closed for good.
 	 */
-	private int _YUVFormat = YUV_FORMAT_UNKNOWN;
+	private volatile boolean _closed = false;
 	/**
-	 * Length of Y (luminance) component stream data. Its value is equal to
-	 * the product of height and width video dimensions.
+	 * Whether watermarking was stopped for good.
 	 */
-	private int _ySize = 0;
+	private volatile boolean _cancelled = false;
 	/**
-	 * Length of U (blue chrominance) and V (red chrominance) components
-	 * stream data. Its value will be a quarter of
-	 * {@link jwmtool.lib.Watermarking#_ySize _ySize} attribute.
+	 * Width frames are to be displayed at (0 for frame width).
 	 */
-	private int _uvSize = 0;
+	private volatile int _displayWidth = 0;
 	/**
-	 * Buffer of length {@link jwmtool.lib.Watermarking#_ySize _ySize} to
-	 * store Y component data.
+	 * Height frames are to be displayed at (0 for frame height).
 	 */
-	private byte[] _yBuffer = null;
+	private volatile int _displayHeight = 0;
 	/**
-	 * Buffer of length {@link jwmtool.lib.Watermarking#_uvSize _uvSize} to
-	 * store U component data.
+	 * Colour matrix frames are converted to RGB with.
 	 */
-	private byte[] _uBuffer = null;
+	private int _colorMatrix = YUVConverter.MATRIX_BT601;
 	/**
-	 * Buffer of length {@link jwmtool.lib.Watermarking#_uvSize _uvSize} to
-	 * store V component data.
+	 * Converter to RGB last used for frame regions.
 	 */
-	private byte[] _vBuffer = null;
+	private volatile YUVConverter _lastRegionConverter = null;
 	/**
-	 * Matrix of {@link jwmtool.lib.Watermarking#_height _height} x
-	 * {@link jwmtool.lib.Watermarking#_width _width} dimensions to store
-	 * Y component data.
+	 * Converter to RGB last used for thumbnails.
 	 */
-	private byte[][] _yData = null;
+	private volatile YUVConverter _lastThumbnailConverter = null;
 	/**
-	 * Matrix of {@link jwmtool.lib.Watermarking#_height _height} x
-	 * {@link jwmtool.lib.Watermarking#_width _width} / 2 dimensions to
-	 * store U component data.
+	 * Pool of off-heap {@link jwmtool.lib.FrameBuffer frame buffers} used
+	 * to read, watermark and write frame data.
 	 */
-	private byte[][] _uData = null;
+	private FrameBufferPool _pool = null;
 	/**
-	 * Matrix of {@link jwmtool.lib.Watermarking#_height _height} x
-	 * {@link jwmtool.lib.Watermarking#_width _width} / 2 dimensions to
-	 * store V component data.
+	 * Whether watermarking is performed one strip at a time or not.
 	 */
-	private byte[][] _vData = null;
+	private boolean _stripMode = false;
 	/**
-	 * Number of bytes read for component Y (luminance).
+	 * Writer of the delta file being produced, if any.
 	 */
-	private int _yRead = 0;
+	private DeltaWriter _deltaWriter = null;
 	/**
-	 * Number of bytes read for component U (blue chrominance).
+	 * Proxy scale factor (0 for no proxies).
 	 */
-	private int _uRead = 0;
+	private int _proxyScale = 0;
 	/**
-	 * Number of bytes read for component V (red chrominance).
+	 * Whether watermarking is in progress or not.
 	 */
-	private int _vRead = 0;
+	private boolean _watermarking = false;
 	/**
-	 * A singular frame of the source videostream.
+	 * Number of frames written so far by the watermarking process.
 	 */
-	private Image _scFrame = null;
+	private long _watermarkedFrames = 0;
 	/**
-	 * A particular watermarked frame.
+	 * Writer of the source videostream proxy, while being produced.
 	 */
-	private Image _wmFrame = null;
-	
-	/**
-	 * First coefficient to be altered.
-	 */
-	private	int _rangeInit = 0;
-	/**
-	 * Last coefficient to be altered.
-	 */
-	private	int _rangeEnd  = 0;
-	/**
-	 * Type of modification to be performed (absolute/percentage).
-	 */
-	private	int _modificationType = MODIFICATION_TYPE_UNKNOWN;
-	/**
-	 * Type of modification to be performed each step (incremental/uniform/random).
-	 */
-	private	int _modificationStep = MODIFICATION_STEP_UNKNOWN;
-	/**
-	 * In case of an incremental modification step, this value represents
-	 * the lower value of the modification sequence.
-	 */
-	private	int _lowLimit   = 0;
-	/**
-	 * In case of an incremental modification step, this value represents
-	 * the upper limit of the modification sequence.
-	 */
-	private	int _upperLimit = 0;
-	/**
-	 * In case of an absolute modification, value to add to each coefficient
-	 * in selected range.
-	 */
-	private	int _modificationValue = 0;
-	/**
-	 * In case of a random modification, function to select values to
-	 * apply to coefficients.
-	 */
-	private	GraphableFunction _modificationFunction = null;
-	
-	/**
-	 * Auxiliary matrix ({@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
-	 * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} dimensions).
-	 */
-	private float[][] _quantizationMatrix = null;
-	
+	private ProxyWriter _scProxy = null;
 	/**
-	 * Random numbers generator.
+	 * Writer of the watermarked videostream proxy, while being produced.
 	 */
-	private Random _randomGenerator = new Random(System.currentTimeMillis());
+	private ProxyWriter _wmProxy = null;
 	
 }
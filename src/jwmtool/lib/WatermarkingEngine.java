@@ -0,0 +1,648 @@
+package jwmtool.lib;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * A WatermarkingEngine gives access to a source videostream file and its
+ * watermarked version (full videostream or
+ * {@link jwmtool.lib.DeltaWriter delta file}), whose
+ * {@link jwmtool.lib.StreamGeometry geometry} is known. It keeps no
+ * position: every frame is read at its position in the files, so a single
+ * engine can be shared by any number of threads (playback
+ * {@link jwmtool.lib.FrameCursor cursors}, exporters, servers...), and no
+ * files are opened or headers parsed again for each of them. Files are
+ * read with no locks, and interrupting a thread while it reads does not
+ * close them for the others (see {@link jwmtool.lib.SharedFile SharedFile});
+ * watermarked frames rebuilt from a delta file are decompressed by each
+ * thread on its own too. Threads watermarking frames of the source
+ * videostream take a {@link jwmtool.lib.WatermarkingWorkspace workspace}
+ * each. <br/>
+ *
+ * Frames read for playback are held in off-heap buffers from a bounded
+ * pool of the engine, which they are given back to once
+ * {@link jwmtool.lib.JWMFrame#release released}; while all of them are
+ * in use, frames are held in heap buffers instead. <br/>
+ *
+ * Frames are converted to RGB with the engine colour matrix; an engine
+ * with another one, sharing the same files, is obtained by
+ * {@link #withColorMatrix withColorMatrix()}. <br/>
+ *
+ * Frames are decoded and converted on a pool shared by all engines (one
+ * thread per processor, which are not kept while idle), rather than on
+ * one pool per engine. <br/>
+ *
+ * The engine owns its files until {@link #close closed}, which whoever
+ * opened it must do once it is no longer read.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public final class WatermarkingEngine {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Opens a source videostream file and its watermarked version,
+	 * guessing their YUV format from the source file length.
+	 *
+	 * @param filename Name of the source videostream file.
+	 * @param outputFilename Name of the watermarked videostream (or delta)
+	 *                       file.
+	 * @return Engine reading both videostreams.
+	 * @throws WatermarkingException If any of the files can not be read,
+	 *                               or their YUV format is unknown.
+	 */
+	public static WatermarkingEngine open(String filename, String outputFilename) throws WatermarkingException {
+		try {
+			return new WatermarkingEngine(filename, outputFilename, StreamGeometry.fromFile(filename),
+						      YUVConverter.MATRIX_BT601);
+		} catch (IOException e) {
+			throw new WatermarkingException("exceptions.watermarking.unreadable_file");
+		}
+	}
+
+	/**
+	 * Opens a source videostream file and its watermarked version, whose
+	 * geometry is already known.
+	 *
+	 * @param filename Name of the source videostream file.
+	 * @param outputFilename Name of the watermarked videostream (or delta)
+	 *                       file.
+	 * @param geometry Geometry of both videostreams.
+	 * @param colorMatrix Colour matrix frames are converted to RGB with
+	 *                    ({@link jwmtool.lib.YUVConverter#MATRIX_BT601 MATRIX_BT601} or
+	 *                    {@link jwmtool.lib.YUVConverter#MATRIX_BT709 MATRIX_BT709}).
+	 * @throws IOException If any of the files can not be opened.
+	 * @throws WatermarkingException If the delta file is not valid.
+	 */
+	public WatermarkingEngine(String filename, String outputFilename, StreamGeometry geometry, int colorMatrix)
+		throws IOException, WatermarkingException {
+		_filename       = filename;
+		_outputFilename = outputFilename;
+		_geometry       = geometry;
+		_colorMatrix    = colorMatrix;
+		_converter      = new YUVConverter(geometry.getWidth(), geometry.getHeight(), geometry.getYUVFormat(), colorMatrix);
+		_framePool      = new FrameBufferPool(FRAME_POOL_CAPACITY, StreamGeometry.planeLength(geometry.getYSize()),
+						      StreamGeometry.planeLength(geometry.getUVSize()));
+		_scFile         = new SharedFile(filename);
+		try {
+			if (DeltaWriter.isDeltaFile(outputFilename)) { // watermarked frames are rebuilt from source frames
+				_wmDelta = new DeltaReader(outputFilename, filename);
+				_wmFile  = null;
+			}
+			else {
+				_wmDelta = null;
+				_wmFile  = new SharedFile(outputFilename);
+			}
+		} catch (IOException e) {
+			_scFile.close();
+			throw e;
+		} catch (WatermarkingException e) {
+			_scFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates an engine sharing the files of another one, with a different
+	 * colour matrix.
+	 *
+	 * @param engine Engine whose files are shared.
+	 * @param colorMatrix Colour matrix frames are converted to RGB with.
+	 */
+	private WatermarkingEngine(WatermarkingEngine engine, int colorMatrix) {
+		_filename       = engine._filename;
+		_outputFilename = engine._outputFilename;
+		_geometry       = engine._geometry;
+		_colorMatrix    = colorMatrix;
+		_converter      = new YUVConverter(_geometry.getWidth(), _geometry.getHeight(), _geometry.getYUVFormat(), colorMatrix);
+		_framePool      = engine._framePool;
+		_scFile         = engine._scFile;
+		_wmFile         = engine._wmFile;
+		_wmDelta        = engine._wmDelta;
+	}
+
+	/**
+	 * Returns an engine reading the same files (which are not opened
+	 * again) on the same decoding pool, converting frames to RGB with
+	 * another colour matrix. Closing any of them closes both.
+	 *
+	 * @param colorMatrix Colour matrix
+	 *                    ({@link jwmtool.lib.YUVConverter#MATRIX_BT601 MATRIX_BT601} or
+	 *                    {@link jwmtool.lib.YUVConverter#MATRIX_BT709 MATRIX_BT709}).
+	 * @return Engine with the given colour matrix (this one, if it has
+	 *         it already).
+	 */
+	public WatermarkingEngine withColorMatrix(int colorMatrix) {
+		return (colorMatrix == _colorMatrix) ? this : new WatermarkingEngine(this, colorMatrix);
+	}
+
+	/**
+	 * Returns the name of the source videostream file.
+	 *
+	 * @return Source file name.
+	 */
+	public String getFilename() {
+		return _filename;
+	}
+
+	/**
+	 * Returns the name of the watermarked videostream (or delta) file.
+	 *
+	 * @return Watermarked file name.
+	 */
+	public String getOutputFilename() {
+		return _outputFilename;
+	}
+
+	/**
+	 * Returns the geometry of both videostreams.
+	 *
+	 * @return Videostream geometry.
+	 */
+	public StreamGeometry getGeometry() {
+		return _geometry;
+	}
+
+	/**
+	 * Returns the colour matrix frames are converted to RGB with.
+	 *
+	 * @return Colour matrix.
+	 */
+	public int getColorMatrix() {
+		return _colorMatrix;
+	}
+
+	/**
+	 * Creates a converter to RGB of images of a given size (e.g. frame
+	 * regions or thumbnails) with the engine colour matrix.
+	 *
+	 * @param width Image width, in pixels.
+	 * @param height Image height, in pixels.
+	 * @param yuvFormat YUV format of image data.
+	 * @return Converter to RGB.
+	 */
+	public YUVConverter createConverter(int width, int height, int yuvFormat) {
+		return new YUVConverter(width, height, yuvFormat, _colorMatrix);
+	}
+
+	/**
+	 * Returns the pool frames are decoded and converted on (shared by all
+	 * engines).
+	 *
+	 * @return Decoding pool (one thread per processor).
+	 */
+	public ForkJoinPool getDecodingPool() {
+		return DECODING_POOL;
+	}
+
+	/**
+	 * Returns the number of frames in the source videostream.
+	 *
+	 * @return Number of frames.
+	 */
+	public long getFrameCount() {
+		try {
+			return _geometry.getFrameCount(_scFile.size());
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Creates a cursor over both videostreams, positioned at their first
+	 * frame.
+	 *
+	 * @return New cursor.
+	 */
+	public FrameCursor newCursor() {
+		return new FrameCursor(this);
+	}
+
+	/**
+	 * Creates a workspace to watermark frames of the source videostream.
+	 *
+	 * @param parameters Watermarking settings.
+	 * @return New workspace, to be used by one thread at a time.
+	 */
+	public WatermarkingWorkspace newWorkspace(WatermarkingParameters parameters) {
+		return new WatermarkingWorkspace(_geometry, parameters);
+	}
+
+	/**
+	 * Reads a given frame of both videostreams, the watermarked one
+	 * concurrently with the source one (when reading a delta file,
+	 * watermarked frame is rebuilt from source frame, which has to be read
+	 * first; on a single processor, they are just read one after the
+	 * other). Frames keep their own raw data, in buffers taken from the
+	 * engine pool if any is free (which should be given back by
+	 * {@link jwmtool.lib.JWMFrame#release releasing} the frame once it is
+	 * dropped), and are only converted to RGB when (and if) their images
+	 * are asked for.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @return A {@link jwmtool.lib.JWMFrame JWMFrame} with the frame of
+	 *         the original videostream and its watermarked counterpart
+	 *         (with no data for those which could not be read).
+	 * @throws IOException
+	 * @throws WatermarkingException If frame planes are too large.
+	 */
+	public JWMFrame readFrame(long frame) throws IOException, WatermarkingException {
+		FrameBuffer scBuffer = obtainBuffer();
+		FrameBuffer wmBuffer = obtainBuffer();
+		Rectangle whole = new Rectangle(0, 0, _geometry.getWidth(), _geometry.getHeight());
+		long offset = _geometry.getFrameOffset(frame);
+		boolean scRead = false;
+		boolean wmRead = false;
+		ForkJoinTask<Boolean> wmTask = null;
+		JWMFrame pair = null;
+		try {
+			scRead = (_wmDelta != null) && readRegion(_scFile, offset, scBuffer, whole);
+			WatermarkedFrameDecoder wmDecoder = new WatermarkedFrameDecoder(frame, scRead, scBuffer, wmBuffer);
+			if (DECODING_POOL.getParallelism() > 1) {
+				wmTask = DECODING_POOL.submit(wmDecoder);
+			}
+			if (_wmDelta == null) {
+				scRead = readRegion(_scFile, offset, scBuffer, whole);
+			}
+			if (wmTask != null) {
+				wmTask.quietlyJoin(); // not interruptible, so that its buffer is not released while being filled
+				wmRead = wmTask.isCompletedNormally() && wmTask.join().booleanValue();
+			}
+			else {
+				wmRead = wmDecoder.call().booleanValue();
+			}
+			pair = new JWMFrame(scRead ? scBuffer : null, wmRead ? wmBuffer : null, _converter, DECODING_POOL, _framePool);
+			return pair;
+
+		} finally {
+			if (wmTask != null) { // e.g. source frame could not be read
+				wmTask.quietlyJoin();
+			}
+			if ((pair == null) || !scRead) {
+				_framePool.release(scBuffer);
+			}
+			if ((pair == null) || !wmRead) {
+				_framePool.release(wmBuffer);
+			}
+		}
+	}
+
+	/**
+	 * Takes a buffer from the engine pool or, if every one is in use (e.g.
+	 * by frames which are never released), creates a heap one.
+	 *
+	 * @return Frame buffer.
+	 * @throws WatermarkingException If frame planes are too large.
+	 */
+	private FrameBuffer obtainBuffer() throws WatermarkingException {
+		FrameBuffer buffer = _framePool.tryAcquire();
+		return (buffer != null) ? buffer : _geometry.createFrameBuffer();
+	}
+
+	/**
+	 * Reads the raw data of a given frame of the source videostream.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @return Source frame data, or <code>null</code> if the frame could
+	 *         not be read.
+	 */
+	public FrameBuffer getSourceData(long frame) {
+		try {
+			FrameBuffer scBuffer = _geometry.createFrameBuffer();
+			return readRegion(_scFile, _geometry.getFrameOffset(frame), scBuffer,
+					  new Rectangle(0, 0, _geometry.getWidth(), _geometry.getHeight())) ? scBuffer : null;
+		} catch (IOException e) {
+			return null;
+		} catch (WatermarkingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a {@link jwmtool.lib.JWMFrame JWMFrame} that will contain a
+	 * given frame of the source videostream, already read (e.g. by another
+	 * engine, with the same source videostream and a different watermarked
+	 * one), and the corresponding frame of the watermarked videostream.
+	 * This way, a source frame can be read once and shared by several
+	 * watermarked versions of it.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param sourceData Source frame data (<code>null</code> if missing).
+	 * @return A {@link jwmtool.lib.JWMFrame JWMFrame} with the frame of
+	 *         the original videostream and its watermarked counterpart
+	 *         (with no images if any of them is missing).
+	 */
+	public JWMFrame getFrame(long frame, FrameBuffer sourceData) {
+		if (sourceData == null) {
+			return new JWMFrame((Image) null, (Image) null);
+		}
+		FrameBuffer wmData = getWMarkedData(frame, sourceData);
+		if (wmData == null) {
+			return new JWMFrame((Image) null, (Image) null);
+		}
+		return new JWMFrame(sourceData, wmData, _converter, DECODING_POOL);
+	}
+
+	/**
+	 * Reads the raw data of a given frame of the watermarked videostream,
+	 * which is rebuilt from the source frame when reading a delta file
+	 * (see {@link #isDelta isDelta()}).
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param sourceData Source frame data, already read (only needed when
+	 *                   reading a delta file).
+	 * @return Watermarked frame data, or <code>null</code> if the frame
+	 *         could not be read (or rebuilt).
+	 */
+	public FrameBuffer getWMarkedData(long frame, FrameBuffer sourceData) {
+		try {
+			FrameBuffer wmBuffer = _geometry.createFrameBuffer();
+			boolean wmRead;
+			if (_wmDelta != null) { // watermarked frame is rebuilt from source frame
+				if (sourceData == null) {
+					return null;
+				}
+				wmBuffer.copy(sourceData);
+				wmRead = _wmDelta.apply(frame, wmBuffer, _geometry.getWidth(), _geometry.getUVWidth());
+			}
+			else {
+				wmRead = readRegion(_wmFile, _geometry.getFrameOffset(frame), wmBuffer,
+						    new Rectangle(0, 0, _geometry.getWidth(), _geometry.getHeight()));
+			}
+			return wmRead ? wmBuffer : null;
+		} catch (IOException e) {
+			return null;
+		} catch (WatermarkingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Whether the watermarked videostream is rebuilt from the source one
+	 * (i.e. read from a delta file) or not.
+	 *
+	 * @return Whether reading a watermarked frame needs the source frame.
+	 */
+	public boolean isDelta() {
+		return _wmDelta != null;
+	}
+
+	/**
+	 * Creates a {@link jwmtool.lib.JWMFrame JWMFrame} that will contain
+	 * just a region of a given frame of both videostreams. Only the region
+	 * rows of each plane are read, so that the cost of obtaining it
+	 * depends on the region size rather than on the frame size.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param region Region, in pixels, as aligned by
+	 *               {@link jwmtool.lib.StreamGeometry#alignRegion alignRegion()}.
+	 * @param converter Converter to RGB of images of the region size.
+	 * @return A {@link jwmtool.lib.JWMFrame JWMFrame} with the region of
+	 *         the frame of the original videostream and its watermarked
+	 *         counterpart (with no images if the frame could not be
+	 *         read).
+	 */
+	public JWMFrame getRegion(long frame, Rectangle region, YUVConverter converter) {
+		try {
+			int shift = _geometry.getChromaShift();
+			int uvLength = (region.width >> shift) * (region.height >> shift);
+			long offset = _geometry.getFrameOffset(frame);
+
+			FrameBuffer scBuffer = new FrameBuffer(region.width * region.height, uvLength, false);
+			FrameBuffer wmBuffer = new FrameBuffer(region.width * region.height, uvLength, false);
+			boolean scRead = readRegion(_scFile, offset, scBuffer, region);
+			boolean wmRead;
+			if (_wmDelta != null) { // watermarked region is rebuilt from source region
+				wmBuffer.copy(scBuffer);
+				wmRead = scRead && _wmDelta.apply(frame, wmBuffer, _geometry.getWidth(), _geometry.getUVWidth(), region, shift);
+			}
+			else {
+				wmRead = readRegion(_wmFile, offset, wmBuffer, region);
+			}
+			return new JWMFrame(scRead ? scBuffer : null, wmRead ? wmBuffer : null, converter, DECODING_POOL);
+
+		} catch (IOException e) {
+			return new JWMFrame((Image) null, (Image) null);
+		}
+	}
+
+	/**
+	 * Reads a small version of a given frame of the source videostream,
+	 * reading just one row of each plane per image row (which is scaled
+	 * down as it is read), so that its cost depends on the image size
+	 * rather than on the frame size.
+	 *
+	 * @param frame Frame number (0 for the first frame).
+	 * @param width Image width, in pixels (not greater than frame width).
+	 * @param height Image height, in pixels (not greater than frame
+	 *               height).
+	 * @return Image data, with full chroma
+	 *         ({@link jwmtool.lib.Watermarking#YUV_FORMAT_444 YUV_FORMAT_444})
+	 *         whatever the frame format, or <code>null</code> if the frame
+	 *         could not be read.
+	 * @throws IOException
+	 */
+	public FrameBuffer getThumbnailData(long frame, int width, int height) throws IOException {
+		int frameWidth = _geometry.getWidth(), frameHeight = _geometry.getHeight();
+		int uvWidth = _geometry.getUVWidth(), uvHeight = _geometry.getUVHeight();
+		int shift = _geometry.getChromaShift();
+		long offset = _geometry.getFrameOffset(frame);
+		ByteBuffer row   = ByteBuffer.allocate(frameWidth);
+		ByteBuffer uvRow = ByteBuffer.allocate(uvWidth);
+
+		FrameBuffer thumbnail = new FrameBuffer(width * height, width * height, false);
+		for (int i = 0; i < height; i++) {
+			int y   = (int) ((2L * i + 1) * frameHeight / (2 * height)); // middle row of those the image row stands for
+			int uvY = Math.min(uvHeight - 1, y >> shift);
+			row.clear();
+			if (!_scFile.read(offset + (long) y * frameWidth, row)) {
+				return null;
+			}
+			scaleRow(row, frameWidth, thumbnail.getY(), width);
+			for (int plane = FrameBuffer.PLANE_U; plane <= FrameBuffer.PLANE_V; plane++) {
+				uvRow.clear();
+				if (!_scFile.read(offset + _geometry.getYSize() + (plane - 1) * _geometry.getUVSize() + (long) uvY * uvWidth, uvRow)) {
+					return null;
+				}
+				scaleRow(uvRow, uvWidth, thumbnail.getPlane(plane), width);
+			}
+		}
+		thumbnail.getY().flip();
+		thumbnail.getU().flip();
+		thumbnail.getV().flip();
+		return thumbnail;
+	}
+
+	/**
+	 * Closes both videostream files (the decoding pool, shared by all
+	 * engines, is left running). Engines sharing them (see {@link #withColorMatrix withColorMatrix()})
+	 * can not read them either afterwards.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			_scFile.close();
+			if (_wmFile != null) {
+				_wmFile.close();
+			}
+		} finally {
+			if (_wmDelta != null) {
+				_wmDelta.close();
+			}
+		}
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Reads a region of a frame, row by row, into a frame buffer holding
+	 * just the region.
+	 *
+	 * @param file File to read frame data from.
+	 * @param offset Position of the frame data (after frame header) in
+	 *               <code>file</code>.
+	 * @param buffer Frame buffer to be filled.
+	 * @param region Region, aligned to chroma subsampling.
+	 * @return Whether the whole region could be read or not (i.e. end of
+	 *         stream was reached).
+	 * @throws IOException
+	 */
+	private boolean readRegion(SharedFile file, long offset, FrameBuffer buffer, Rectangle region)
+		throws IOException {
+		int shift = _geometry.getChromaShift();
+		for (int plane = FrameBuffer.PLANE_Y; plane <= FrameBuffer.PLANE_V; plane++) {
+			int s = (plane == FrameBuffer.PLANE_Y) ? 0 : shift;
+			long planeOffset = offset + ((plane == FrameBuffer.PLANE_Y) ? 0 : _geometry.getYSize() + (plane - 1) * _geometry.getUVSize());
+			int planeWidth   = (plane == FrameBuffer.PLANE_Y) ? _geometry.getWidth() : _geometry.getUVWidth();
+			int x = region.x >> s, y = region.y >> s, width = region.width >> s, height = region.height >> s;
+			ByteBuffer data = buffer.getPlane(plane);
+			data.clear();
+			if (width == planeWidth) { // whole rows, read at once
+				if (!file.read(planeOffset + (long) y * planeWidth, data)) {
+					return false;
+				}
+			}
+			for (int i = 0; (i < height) && (width != planeWidth); i++) {
+				data.limit((i + 1) * width);
+				if (!file.read(planeOffset + (long) (y + i) * planeWidth + x, data)) {
+					return false;
+				}
+			}
+			data.flip();
+		}
+		return true;
+	}
+
+	/**
+	 * Scales a row of samples to a given length, averaging the samples in
+	 * each box (or repeating them, if there are fewer samples than
+	 * required, as with subsampled chroma).
+	 *
+	 * @param row Row of samples.
+	 * @param length Number of samples in <code>row</code>.
+	 * @param output Buffer to write scaled samples into, at its position.
+	 * @param outLength Number of scaled samples.
+	 */
+	private static void scaleRow(ByteBuffer row, int length, ByteBuffer output, int outLength) {
+		for (int i = 0; i < outLength; i++) {
+			int first = (int) ((long) i * length / outLength);
+			int end   = Math.max(first + 1, (int) ((long) (i + 1) * length / outLength));
+			int sum = 0;
+			for (int j = first; j < end; j++) {
+				sum += row.get(j) & 255;
+			}
+			output.put((byte) ((sum + (end - first) / 2) / (end - first)));
+		}
+	}
+
+	// ----- ----- ----- DECODING TASK ----- ----- -----
+
+	private class WatermarkedFrameDecoder implements Callable<Boolean> {
+		public WatermarkedFrameDecoder(long frame, boolean sourceRead, FrameBuffer sourceBuffer, FrameBuffer buffer) {
+			_frame = frame;
+			_sourceRead = sourceRead;
+			_sourceBuffer = sourceBuffer;
+			_buffer = buffer;
+		}
+		public Boolean call() throws IOException {
+			if (_wmDelta != null) {
+				if (!_sourceRead) {
+					return Boolean.FALSE;
+				}
+				_buffer.copy(_sourceBuffer);
+				return Boolean.valueOf(_wmDelta.apply(_frame, _buffer, _geometry.getWidth(), _geometry.getUVWidth()));
+			}
+			return Boolean.valueOf(readRegion(_wmFile, _geometry.getFrameOffset(_frame), _buffer,
+							  new Rectangle(0, 0, _geometry.getWidth(), _geometry.getHeight())));
+		}
+		private long _frame;
+		private boolean _sourceRead;
+		private FrameBuffer _sourceBuffer, _buffer;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Number of off-heap buffers in the pool frames read for playback are
+	 * held in (two per frame).
+	 */
+	private static final int FRAME_POOL_CAPACITY = 16;
+	/**
+	 * Pool frames of all engines are decoded on.
+	 */
+	private static final ForkJoinPool DECODING_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The name of the source file.
+	 */
+	private final String _filename;
+	/**
+	 * The name of the watermarked (or delta) file.
+	 */
+	private final String _outputFilename;
+	/**
+	 * Geometry of both videostreams.
+	 */
+	private final StreamGeometry _geometry;
+	/**
+	 * Colour matrix frames are converted to RGB with.
+	 */
+	private final int _colorMatrix;
+	/**
+	 * Converter of frames to RGB.
+	 */
+	private final YUVConverter _converter;
+	/**
+	 * Pool of off-heap buffers frames read for playback are held in.
+	 */
+	private final FrameBufferPool _framePool;
+	/**
+	 * The source file, only read at explicit positions.
+	 */
+	private final SharedFile _scFile;
+	/**
+	 * The watermarked file, only read at explicit positions
+	 * (<code>null</code> if a delta file is read instead).
+	 */
+	private final SharedFile _wmFile;
+	/**
+	 * Reader of the delta file the watermarked videostream is rebuilt
+	 * from, if any.
+	 */
+	private final DeltaReader _wmDelta;
+
+}
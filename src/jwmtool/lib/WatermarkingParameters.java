@@ -0,0 +1,209 @@
+package jwmtool.lib;
+
+import ac.essex.statistics.functions.GraphableFunction;
+
+/**
+ * WatermarkingParameters hold the settings of a watermarking job: which
+ * coefficients of each {@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+ * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} frame fragment are altered,
+ * how, and in which components. They never change, so they can be shared
+ * by any number of {@link jwmtool.lib.WatermarkingWorkspace workspaces}.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public final class WatermarkingParameters {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates watermarking settings.
+	 *
+	 * @param rangeInit First coefficient to watermark in each
+	 *                  {@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+	 *                  {@link jwmtool.lib.Watermarking#LIMIT LIMIT} frame
+	 *                  fragment.
+	 * @param rangeEnd Last coefficient to watermark in each
+	 *                 {@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+	 *                 {@link jwmtool.lib.Watermarking#LIMIT LIMIT} frame
+	 *                 fragment.
+	 * @param modificationType Type of modification
+	 *                         ({@link jwmtool.lib.Watermarking#MODIFICATION_TYPE_ABSOLUTE MODIFICATION_TYPE_ABSOLUTE},
+	 *                         {@link jwmtool.lib.Watermarking#MODIFICATION_TYPE_PERCENTAGE MODIFICATION_TYPE_PERCENTAGE})
+	 *                         to be performed.
+	 * @param modificationStep Type of modification
+	 *                         ({@link jwmtool.lib.Watermarking#MODIFICATION_STEP_INCREMENTAL MODIFICATION_STEP_INCREMENTAL},
+	 *                         {@link jwmtool.lib.Watermarking#MODIFICATION_STEP_RANDOM MODIFICATION_STEP_RANDOM}, or
+	 *                         {@link jwmtool.lib.Watermarking#MODIFICATION_STEP_UNIFORM MODIFICATION_STEP_UNIFORM})
+	 *                         to be performed each step.
+	 * @param lowLimit Lower value for an incremental modification.
+	 * @param upperLimit Upper value for an incremental modification.
+	 * @param modificationValue Value of modification to be performed when
+	 *                          selected modification step is uniform.
+	 * @param modificationFunction Function to obtain values when selected
+	 *                             modification step is random.
+	 * @param modifyY Whether Y component (luminance) is to be modified or
+	 *                not.
+	 * @param modifyU Whether U component (blue chrominance) is to be
+	 *                modified or not.
+	 * @param modifyV Whether V component (red chrominance) is to be
+	 *                modified or not.
+	 */
+	public WatermarkingParameters(int rangeInit, int rangeEnd,   int modificationType, int modificationStep,
+				      int lowLimit,  int upperLimit, int modificationValue, GraphableFunction modificationFunction,
+				      boolean modifyY, boolean modifyU, boolean modifyV) {
+		_rangeInit = rangeInit;
+		_rangeEnd  = rangeEnd;
+		_modificationType = modificationType;
+		_modificationStep = modificationStep;
+		_lowLimit   = lowLimit;
+		_upperLimit = upperLimit;
+		_modificationValue    = modificationValue;
+		_modificationFunction = modificationFunction;
+		_modifyY = modifyY;
+		_modifyU = modifyU;
+		_modifyV = modifyV;
+	}
+
+	/**
+	 * Returns first coefficient to be altered.
+	 *
+	 * @return Coefficient number (in zigzag order).
+	 */
+	public int getRangeInit() {
+		return _rangeInit;
+	}
+
+	/**
+	 * Returns last coefficient to be altered.
+	 *
+	 * @return Coefficient number (in zigzag order).
+	 */
+	public int getRangeEnd() {
+		return _rangeEnd;
+	}
+
+	/**
+	 * Returns type of modification.
+	 *
+	 * @return Type of modification (absolute/percentage).
+	 */
+	public int getModificationType() {
+		return _modificationType;
+	}
+
+	/**
+	 * Returns type of modification performed each step.
+	 *
+	 * @return Type of modification step (incremental/uniform/random).
+	 */
+	public int getModificationStep() {
+		return _modificationStep;
+	}
+
+	/**
+	 * Returns lower value of an incremental modification sequence.
+	 *
+	 * @return Lower value.
+	 */
+	public int getLowLimit() {
+		return _lowLimit;
+	}
+
+	/**
+	 * Returns upper value of an incremental modification sequence.
+	 *
+	 * @return Upper value.
+	 */
+	public int getUpperLimit() {
+		return _upperLimit;
+	}
+
+	/**
+	 * Returns value of a uniform modification.
+	 *
+	 * @return Modification value.
+	 */
+	public int getModificationValue() {
+		return _modificationValue;
+	}
+
+	/**
+	 * Returns function values of a random modification are obtained from.
+	 *
+	 * @return Modification function.
+	 */
+	public GraphableFunction getModificationFunction() {
+		return _modificationFunction;
+	}
+
+	/**
+	 * Whether a given component is to be modified or not.
+	 *
+	 * @param plane Plane identifier
+	 *              ({@link jwmtool.lib.FrameBuffer#PLANE_Y PLANE_Y},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_U PLANE_U} or
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_V PLANE_V}).
+	 * @return Whether the component is to be modified.
+	 */
+	public boolean isModified(int plane) {
+		switch (plane) {
+			case FrameBuffer.PLANE_Y: return _modifyY;
+			case FrameBuffer.PLANE_U: return _modifyU;
+			default:                  return _modifyV;
+		}
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * First coefficient to be altered.
+	 */
+	private final int _rangeInit;
+	/**
+	 * Last coefficient to be altered.
+	 */
+	private final int _rangeEnd;
+	/**
+	 * Type of modification to be performed (absolute/percentage).
+	 */
+	private final int _modificationType;
+	/**
+	 * Type of modification to be performed each step (incremental/uniform/random).
+	 */
+	private final int _modificationStep;
+	/**
+	 * In case of an incremental modification step, this value represents
+	 * the lower value of the modification sequence.
+	 */
+	private final int _lowLimit;
+	/**
+	 * In case of an incremental modification step, this value represents
+	 * the upper limit of the modification sequence.
+	 */
+	private final int _upperLimit;
+	/**
+	 * In case of an absolute modification, value to add to each coefficient
+	 * in selected range.
+	 */
+	private final int _modificationValue;
+	/**
+	 * In case of a random modification, function to select values to
+	 * apply to coefficients.
+	 */
+	private final GraphableFunction _modificationFunction;
+	/**
+	 * Whether Y component (luminance) is to be modified or not.
+	 */
+	private final boolean _modifyY;
+	/**
+	 * Whether U component (blue chrominance) is to be modified or not.
+	 */
+	private final boolean _modifyU;
+	/**
+	 * Whether V component (red chrominance) is to be modified or not.
+	 */
+	private final boolean _modifyV;
+
+}
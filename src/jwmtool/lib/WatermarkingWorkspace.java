@@ -0,0 +1,299 @@
+package jwmtool.lib;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.Random;
+
+import jwmtool.util.FloatDCT;
+import jwmtool.util.exceptions.WatermarkingException;
+import jwmtool.util.functions.*;
+
+/**
+ * A WatermarkingWorkspace watermarks frame data, in place, according to
+ * given {@link jwmtool.lib.WatermarkingParameters settings}. It holds the
+ * scratch matrices each {@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+ * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} fragment is transformed in,
+ * and its own random numbers generator, so it must be used by one thread
+ * at a time: several threads watermarking frames of the same videostream
+ * just take one workspace each (see
+ * {@link jwmtool.lib.WatermarkingEngine#newWorkspace newWorkspace()}).
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class WatermarkingWorkspace {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a workspace to watermark frames of a videostream.
+	 *
+	 * @param geometry Videostream geometry.
+	 * @param parameters Watermarking settings.
+	 */
+	public WatermarkingWorkspace(StreamGeometry geometry, WatermarkingParameters parameters) {
+		_geometry   = geometry;
+		_parameters = parameters;
+	}
+
+	/**
+	 * Returns watermarking settings.
+	 *
+	 * @return Watermarking settings.
+	 */
+	public WatermarkingParameters getParameters() {
+		return _parameters;
+	}
+
+	/**
+	 * Generate watermarked frame from given source frame data. Planes are
+	 * modified in place.
+	 *
+	 * @param frame Source data to be watermarked.
+	 * @param deltaWriter Writer of the delta file being produced
+	 *                    (<code>null</code> if none), which the
+	 *                    differences introduced are added to.
+	 * @throws WatermarkingException If watermarking settings are not
+	 *                               valid.
+	 * @throws IOException
+	 */
+	public void watermarkFrame(FrameBuffer frame, DeltaWriter deltaWriter) throws WatermarkingException, IOException {
+		int width    = _geometry.getWidth(),   height   = _geometry.getHeight();
+		int uvWidth  = _geometry.getUVWidth(), uvHeight = _geometry.getUVHeight();
+		if (_parameters.isModified(FrameBuffer.PLANE_Y)) { // if luminance is to be modified, proceed
+			modifyFrame(FrameBuffer.PLANE_Y, width/Watermarking.LIMIT, height/Watermarking.LIMIT, 0, frame.getY(), width, deltaWriter);
+		}
+		if (_parameters.isModified(FrameBuffer.PLANE_U)) { // if blue chrominance is to be modified, proceed
+			modifyFrame(FrameBuffer.PLANE_U, uvWidth/Watermarking.LIMIT, uvHeight/Watermarking.LIMIT, 0, frame.getU(), uvWidth, deltaWriter);
+		}
+		if (_parameters.isModified(FrameBuffer.PLANE_V)) { // if red chrominance is to be modified, proceed
+			modifyFrame(FrameBuffer.PLANE_V, uvWidth/Watermarking.LIMIT, uvHeight/Watermarking.LIMIT, 0, frame.getV(), uvWidth, deltaWriter);
+		}
+	}
+
+	/**
+	 * Generate watermarked strip of
+	 * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} rows of a plane, in
+	 * place. Incomplete strips (at the bottom of the plane) and planes not
+	 * to be modified are left untouched.
+	 *
+	 * @param plane Plane identifier.
+	 * @param strip Strip data, watermarked in place.
+	 * @param planeWidth Plane width.
+	 * @param row First row of the strip within the plane.
+	 * @param rows Number of rows in the strip.
+	 * @param deltaWriter Writer of the delta file being produced
+	 *                    (<code>null</code> if none).
+	 * @throws WatermarkingException If watermarking settings are not
+	 *                               valid.
+	 * @throws IOException
+	 */
+	public void watermarkStrip(int plane, ByteBuffer strip, int planeWidth, int row, int rows, DeltaWriter deltaWriter)
+		throws WatermarkingException, IOException {
+		if (_parameters.isModified(plane) && (rows == Watermarking.LIMIT)) {
+			modifyFrame(plane, planeWidth/Watermarking.LIMIT, 1, row/Watermarking.LIMIT, strip, planeWidth, deltaWriter);
+		}
+	}
+
+	// ----- ----- ----- WATERMARKING STUFF ----- ----- -----
+
+	/**
+	 * Watermark frame, in as many steps as <code>wblocks</code> x
+	 * <code>hblocks</code>. If a delta file is being written, the
+	 * differences introduced in each fragment are added to it.
+	 *
+	 * @param plane Plane identifier.
+	 * @param wblocks Number of blocks of
+	 *                {@link jwmtool.lib.Watermarking#LIMIT LIMIT} width in
+	 *                the frame.
+	 * @param hblocks Number of blocks of
+	 *                {@link jwmtool.lib.Watermarking#LIMIT LIMIT} height in
+	 *                the frame.
+	 * @param firstBlockRow Row (in blocks) of <code>frameData</code> first
+	 *                      row within the whole plane.
+	 * @param frameData Frame plane data, watermarked in place.
+	 * @param stride Number of bytes in each row of <code>frameData</code>.
+	 * @param deltaWriter Writer of the delta file being produced
+	 *                    (<code>null</code> if none).
+	 */
+	private void modifyFrame(int plane, int wblocks, int hblocks, int firstBlockRow, ByteBuffer frameData, int stride,
+				 DeltaWriter deltaWriter) throws WatermarkingException, IOException {
+		float[][] itable = _itable;
+		float[][] otable = _otable;
+		int rangeInit  = _parameters.getRangeInit(), rangeEnd   = _parameters.getRangeEnd();
+		int lowLimit   = _parameters.getLowLimit(),  upperLimit = _parameters.getUpperLimit();
+		int i = 0, j = 0, x = 0, n = 1, inc = 0;
+
+		for (int hb = 0 ; hb < hblocks ; hb++)
+			for (int wb = 0 ; wb < wblocks ; wb++) {
+				int base = hb * Watermarking.LIMIT * stride + wb * Watermarking.LIMIT; // position of block top-left corner
+				for (i = 0 ; i < Watermarking.LIMIT ; i++)  // read data in 8x8 steps
+					for (j = 0; j < Watermarking.LIMIT ; j++)
+						itable[i][j] = frameData.get(base + i * stride + j);
+
+				i = 0; j = 0; n = 1;
+				FloatDCT.FDCT(itable, otable); // perform DCT
+				inc = lowLimit;
+
+				// WATERMARK INSERTION: modify values in 8x8 array (zigzag process)
+				for (i = 1 ; i < Watermarking.LIMIT ; i++) {
+					if (i % 2 != 0)
+						for (x = j ; x <= i ; x++) {
+							if ((n >= rangeInit) && (n <= rangeEnd)) {
+								otable[x][i-x] = modifyValue(otable[x][i-x], inc);
+								inc = (inc + 1 > upperLimit) ? lowLimit : inc + 1;
+							}
+							n++;
+						}
+					else
+						for (x = i ; x >= j ; x--) {
+							if ((n >= rangeInit) && (n <= rangeEnd)) {
+								otable[x][i-x] = modifyValue(otable[x][i-x], inc);
+								inc = (inc + 1 > upperLimit) ? lowLimit : inc + 1;
+							}
+							n++;
+						}
+				}
+				--i;
+				for (j = 1 ; j < Watermarking.LIMIT ; j++) {
+					if (j % 2 != 0)
+						for (x = i ; x >= j ; x--) {
+							if ((n >= rangeInit) && (n <= rangeEnd)) {
+								otable[x][i-x] = modifyValue(otable[x][j-x+i], inc);
+								inc = (inc + 1 > upperLimit) ? lowLimit : inc + 1;
+							}
+							n++;
+						}
+					else
+						for (x = j ; x <= i ; x++) {
+							if ((n >= rangeInit) && (n <= rangeEnd)) {
+								otable[x][i-x] = modifyValue(otable[x][j-x+i], inc);
+								inc = (inc + 1 > upperLimit) ? lowLimit : inc + 1;
+							}
+							n++;
+						}
+				}
+				// WATERMARK INSERTED
+
+				FloatDCT.IDCT(otable, QUANTIZATION_MATRIX, itable); // perform inverse DCT
+
+				for (i = 0 ; i < Watermarking.LIMIT ; i++)  // read 8x8 array values into watermarked frame data
+					for (j = 0; j < Watermarking.LIMIT ; j++) {
+						byte value = (byte) Math.round(itable[i][j]);
+						_delta[i*Watermarking.LIMIT+j] = (byte) (value - frameData.get(base + i * stride + j));
+						frameData.put(base + i * stride + j, value);
+					}
+
+				if (deltaWriter != null) { // record differences
+					deltaWriter.addBlock(plane, (firstBlockRow + hb) * wblocks + wb, _delta);
+				}
+			}
+	}
+
+	/**
+	 * Modify coefficient value according to watermarking settings.
+	 *
+	 * @param value Coefficient value (to be modified).
+	 * @param inc Increment to be added.
+	 * @return New coefficient value (watermarked coefficient).
+	 */
+	private float modifyValue(float value, int inc) throws WatermarkingException {
+		float ovalue = value;
+
+		switch (_parameters.getModificationType()) {
+			case Watermarking.MODIFICATION_TYPE_ABSOLUTE:   // absolute modification
+				switch (_parameters.getModificationStep()) {
+					case Watermarking.MODIFICATION_STEP_INCREMENTAL: // if modification is incremental, just add 'inc'
+						ovalue += inc;
+						break;
+					case Watermarking.MODIFICATION_STEP_UNIFORM:     // if modification is uniform, use 'modificationValue'
+						ovalue += _parameters.getModificationValue();
+						break;
+					case Watermarking.MODIFICATION_STEP_RANDOM:      // if modification is random, use 'modificationFunction'
+						if (_parameters.getModificationFunction() instanceof DiscreteFactoredGaussian) { // only modificationFunction supported at the moment!
+							DiscreteFactoredGaussian f = (DiscreteFactoredGaussian) _parameters.getModificationFunction();
+							ovalue += f.getDiscreteY(nextGaussian(f.getInf(), f.getSup()));
+						}
+						break;
+					default:
+						throw new WatermarkingException("exceptions.watermarking.unknown_modification_step");
+				}
+				break;
+			case Watermarking.MODIFICATION_TYPE_PERCENTAGE: // percentage (relative) modification
+				switch (_parameters.getModificationStep()) {
+					case Watermarking.MODIFICATION_STEP_UNIFORM:     // if modification is uniform, use 'modificationValue'
+						ovalue += Math.round(value * _parameters.getModificationValue() / 100);
+						break;
+					default:
+						throw new WatermarkingException("exceptions.watermarking.modification_not_allowed");
+				}
+				break;
+			default:
+				throw new WatermarkingException("exceptions.watermarking.unknown_modification_type");
+		}
+		return ovalue;
+	}
+
+	/**
+	 * Obtain a random value according to a gaussian function.
+	 *
+	 * @param inf Lower limit for generated gaussian random number.
+	 * @param sup Upper limit for generated gaussian random number.
+	 * @return Random gaussian function value.
+	 */
+	private double nextGaussian(int inf, int sup) {
+		double n = 0.0;
+		do {
+			n = _randomGenerator.nextGaussian();
+		} while ((n < inf) || (n > sup));
+		return n;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Auxiliary matrix ({@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+	 * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} dimensions), only read
+	 * once scaled, so it is shared by every workspace.
+	 */
+	private static final float[][] QUANTIZATION_MATRIX = new float[Watermarking.LIMIT][Watermarking.LIMIT];
+	static {
+		for (int i = 0; i < Watermarking.LIMIT; i++)
+			for (int j = 0; j < Watermarking.LIMIT; j++)
+				QUANTIZATION_MATRIX[i][j] = 1f;
+		FloatDCT.scaleQuantizationTable(QUANTIZATION_MATRIX);
+	}
+
+	/**
+	 * Videostream geometry.
+	 */
+	private final StreamGeometry _geometry;
+	/**
+	 * Watermarking settings.
+	 */
+	private final WatermarkingParameters _parameters;
+	/**
+	 * Auxiliary matrix ({@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+	 * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} dimensions) to hold
+	 * each fragment data while it is being watermarked.
+	 */
+	private float[][] _itable = new float[Watermarking.LIMIT][Watermarking.LIMIT];
+	/**
+	 * Auxiliary matrix ({@link jwmtool.lib.Watermarking#LIMIT LIMIT} x
+	 * {@link jwmtool.lib.Watermarking#LIMIT LIMIT} dimensions) to hold
+	 * each fragment DCT coefficients while they are being watermarked.
+	 */
+	private float[][] _otable = new float[Watermarking.LIMIT][Watermarking.LIMIT];
+	/**
+	 * Auxiliary array to hold the differences introduced in each fragment.
+	 */
+	private byte[] _delta = new byte[Watermarking.LIMIT * Watermarking.LIMIT];
+	/**
+	 * Random numbers generator.
+	 */
+	private Random _randomGenerator = new Random(System.currentTimeMillis());
+
+}
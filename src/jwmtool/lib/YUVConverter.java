@@ -0,0 +1,712 @@
+package jwmtool.lib;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.nio.ByteBuffer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A YUVConverter turns YUV (YCbCr, actually) frames into RGB pixels,
+ * writing them directly into an <code>int</code> array, such as the
+ * {@link java.awt.image.DataBufferInt DataBufferInt} of an
+ * {@link java.awt.image.BufferedImage#TYPE_INT_RGB RGB image}, which
+ * callers can reuse from frame to frame. <br/>
+ *
+ * Contributions of every Y, Cb and Cr value to each RGB component (8.8
+ * fixed point) and clamping to 0-255 are looked up in tables computed
+ * once, and there is a conversion loop for each chroma subsampling, so
+ * that no per pixel multiplication nor format dispatch is needed. Large
+ * frames can be converted in bands of rows, concurrently, on a
+ * {@link java.util.concurrent.ForkJoinPool ForkJoinPool}. <br/>
+ *
+ * Frames can also be scaled down while converting, to any size (e.g. to
+ * fit a window): each RGB pixel is converted from the average of the Y,
+ * Cb and Cr values in its box of source pixels, so that conversion cost
+ * depends on the target size rather than on the frame size. <br/>
+ *
+ * Instead of a frame, the differences between two frames (e.g. source and
+ * watermarked) can be converted, into a false colour heatmap of their
+ * absolute values, straight from the YUV planes of both frames.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class YUVConverter {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * ITU-R BT.601 (standard definition) colour matrix.
+	 */
+	public static final int MATRIX_BT601 = 0;
+	/**
+	 * ITU-R BT.709 (high definition) colour matrix.
+	 */
+	public static final int MATRIX_BT709 = 1;
+
+	/**
+	 * Fewest rows converted as a band on their own when converting
+	 * concurrently.
+	 */
+	public static final int MIN_BAND_ROWS = 32;
+
+	/**
+	 * Differences of every plane (the largest of them at each pixel) are
+	 * converted into a heatmap.
+	 */
+	public static final int ALL_PLANES = 3;
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a YUVConverter.
+	 *
+	 * @param width Frame width, in pixels.
+	 * @param height Frame height, in pixels.
+	 * @param yuvFormat YUV format
+	 *                  ({@link jwmtool.lib.Watermarking#YUV_FORMAT_422 YUV_FORMAT_422},
+	 *                  {@link jwmtool.lib.Watermarking#YUV_FORMAT_420 YUV_FORMAT_420} or
+	 *                  {@link jwmtool.lib.Watermarking#YUV_FORMAT_444 YUV_FORMAT_444}).
+	 * @param matrix Colour matrix
+	 *               ({@link jwmtool.lib.YUVConverter#MATRIX_BT601 MATRIX_BT601} or
+	 *               {@link jwmtool.lib.YUVConverter#MATRIX_BT709 MATRIX_BT709}).
+	 */
+	public YUVConverter(int width, int height, int yuvFormat, int matrix) {
+		_width     = width;
+		_height    = height;
+		_yuvFormat = yuvFormat;
+
+		int[] c = (matrix == MATRIX_BT709) ? BT709 : BT601;
+		for (int i = 0; i < 256; i++) {
+			_yTable[i]  = c[0] * (i -  16) + 128; // rounding included
+			_crR[i]     = c[1] * (i - 128);
+			_cbG[i]     = c[2] * (i - 128);
+			_crG[i]     = c[3] * (i - 128);
+			_cbB[i]     = c[4] * (i - 128);
+		}
+		for (int i = 0; i < CLAMP_SIZE; i++) {
+			_clamp[i] = Math.min(255, Math.max(0, i - CLAMP_OFFSET));
+		}
+	}
+
+	/**
+	 * Returns frame width.
+	 *
+	 * @return Frame width, in pixels.
+	 */
+	public int getWidth() {
+		return _width;
+	}
+
+	/**
+	 * Returns frame height.
+	 *
+	 * @return Frame height, in pixels.
+	 */
+	public int getHeight() {
+		return _height;
+	}
+
+	/**
+	 * Creates an RGB image the size of the frames, to convert frames into.
+	 *
+	 * @return New RGB image.
+	 */
+	public BufferedImage createImage() {
+		return new BufferedImage(_width, _height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * Creates an RGB image of a given size, to convert (scaled down) frames
+	 * into. The size is limited to that of the frames.
+	 *
+	 * @param width Image width, in pixels.
+	 * @param height Image height, in pixels.
+	 * @return New RGB image.
+	 */
+	public BufferedImage createImage(int width, int height) {
+		return new BufferedImage(Math.max(1, Math.min(_width, width)), Math.max(1, Math.min(_height, height)),
+					 BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * Converts a frame into an RGB image created by
+	 * {@link jwmtool.lib.YUVConverter#createImage createImage}, scaling it
+	 * down to the image size if needed.
+	 *
+	 * @param yData Luminance component data.
+	 * @param uData Blue chrominance component data.
+	 * @param vData Red chrominance component data.
+	 * @param image Image to write RGB pixels into.
+	 */
+	public void convert(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, BufferedImage image) {
+		convert(yData, uData, vData, image, null);
+	}
+
+	/**
+	 * Converts a frame into an RGB image created by
+	 * {@link jwmtool.lib.YUVConverter#createImage createImage}, scaling it
+	 * down to the image size if needed, and splitting it in bands of rows
+	 * which are converted concurrently.
+	 *
+	 * @param yData Luminance component data.
+	 * @param uData Blue chrominance component data.
+	 * @param vData Red chrominance component data.
+	 * @param image Image to write RGB pixels into.
+	 * @param pool Pool to convert bands on (if called from one of its
+	 *             threads, the calling thread takes part in conversion),
+	 *             or <code>null</code> to convert in calling thread.
+	 */
+	public void convert(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, BufferedImage image, ForkJoinPool pool) {
+		int[] rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		int outWidth  = image.getWidth();
+		int outHeight = image.getHeight();
+		if ((pool == null) || (pool.getParallelism() == 1)) { // nothing to gain from bands
+			convertRows(yData, uData, vData, rgb, outWidth, outHeight, 0, outHeight);
+			return;
+		}
+		int bandRows = Math.max(MIN_BAND_ROWS, outHeight / (2 * pool.getParallelism()));
+		BandConversion task = new BandConversion(yData, uData, vData, rgb, outWidth, outHeight, 0, outHeight, bandRows);
+		if (ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		}
+		else {
+			pool.invoke(task);
+		}
+	}
+
+	/**
+	 * Converts a frame into RGB pixels.
+	 *
+	 * @param yData Luminance component data.
+	 * @param uData Blue chrominance component data.
+	 * @param vData Red chrominance component data.
+	 * @param rgb Array to write RGB pixels (<code>0xRRGGBB</code>) into,
+	 *            in row order.
+	 */
+	public void convert(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, int[] rgb) {
+		convert(yData, uData, vData, rgb, 0, _height);
+	}
+
+	/**
+	 * Converts a band of rows of a frame into RGB pixels. Different bands
+	 * of the same frame can be converted concurrently.
+	 *
+	 * @param yData Luminance component data.
+	 * @param uData Blue chrominance component data.
+	 * @param vData Red chrominance component data.
+	 * @param rgb Array to write RGB pixels (<code>0xRRGGBB</code>) into,
+	 *            in row order.
+	 * @param firstRow First row of the band.
+	 * @param endRow Row following the last one of the band.
+	 */
+	public void convert(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, int[] rgb, int firstRow, int endRow) {
+		switch (_yuvFormat) {
+			case Watermarking.YUV_FORMAT_444: convert(yData, uData, vData, rgb, firstRow, endRow, _width, 0); break;
+			case Watermarking.YUV_FORMAT_422: convert(yData, uData, vData, rgb, firstRow, endRow, _width / 2, 1); break;
+			case Watermarking.YUV_FORMAT_420: convert(yData, uData, vData, rgb, firstRow, endRow, _width / 4, 2); break;
+			default: throw new IllegalStateException("Unknown YUV format " + _yuvFormat);
+		}
+	}
+
+	/**
+	 * Converts the differences between two frames into a false colour
+	 * heatmap, in an RGB image created by
+	 * {@link jwmtool.lib.YUVConverter#createImage createImage}, splitting
+	 * it in bands of rows which are converted concurrently. Each heatmap
+	 * pixel shows the largest absolute difference in its box of frame
+	 * pixels (so that scaling down does not hide isolated differences),
+	 * multiplied by an amplification factor; chrominance differences are
+	 * shown at every pixel their samples stand for.
+	 *
+	 * @param frame A frame.
+	 * @param other Another frame (e.g. the watermarked version of
+	 *              <code>frame</code>).
+	 * @param plane Plane whose differences are converted
+	 *              ({@link jwmtool.lib.FrameBuffer#PLANE_Y PLANE_Y},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_U PLANE_U},
+	 *              {@link jwmtool.lib.FrameBuffer#PLANE_V PLANE_V} or
+	 *              {@link jwmtool.lib.YUVConverter#ALL_PLANES ALL_PLANES}).
+	 * @param amplification Factor differences are multiplied by.
+	 * @param image Image to write RGB pixels into.
+	 * @param pool Pool to convert bands on (if called from one of its
+	 *             threads, the calling thread takes part in conversion),
+	 *             or <code>null</code> to convert in calling thread.
+	 */
+	public void convertDifference(FrameBuffer frame, FrameBuffer other, int plane, int amplification,
+				      BufferedImage image, ForkJoinPool pool) {
+		int[] rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		int outWidth  = image.getWidth();
+		int outHeight = image.getHeight();
+		if ((pool == null) || (pool.getParallelism() == 1)) { // nothing to gain from bands
+			convertDifferenceRows(frame, other, plane, amplification, rgb, outWidth, outHeight, 0, outHeight);
+			return;
+		}
+		int bandRows = Math.max(MIN_BAND_ROWS, outHeight / (2 * pool.getParallelism()));
+		BandDifference task = new BandDifference(frame, other, plane, amplification, rgb, outWidth, outHeight, 0, outHeight, bandRows);
+		if (ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		}
+		else {
+			pool.invoke(task);
+		}
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Returns the heatmap colour of an (amplified) difference (see
+	 * {@link #convertDifference convertDifference()}).
+	 *
+	 * @param difference Difference, from 0 to 255.
+	 * @return Colour (<code>0xRRGGBB</code>).
+	 */
+	static int getHeatmapColour(int difference) {
+		return HEATMAP[difference];
+	}
+
+	/**
+	 * Converts a band of rows of the differences between two frames into a
+	 * heatmap (see {@link #convertDifference convertDifference()}).
+	 *
+	 * @param frame A frame.
+	 * @param other Another frame.
+	 * @param plane Plane whose differences are converted.
+	 * @param amplification Factor differences are multiplied by.
+	 * @param rgb Array to write RGB pixels into.
+	 * @param outWidth Target width.
+	 * @param outHeight Target height.
+	 * @param firstRow First (target) row of the band.
+	 * @param endRow (Target) row following the last one of the band.
+	 */
+	private void convertDifferenceRows(FrameBuffer frame, FrameBuffer other, int plane, int amplification, int[] rgb,
+					   int outWidth, int outHeight, int firstRow, int endRow) {
+		int shift    = getChromaShift();
+		int uvStride = _width >> shift;
+		if ((outWidth == _width) && (outHeight == _height)) {
+			convertDifference(frame, other, plane, amplification, rgb, firstRow, endRow, uvStride, shift);
+			return;
+		}
+		int[] columns = getBoxes(true, outWidth);
+		int[] rows    = getBoxes(false, outHeight);
+		boolean luma = (plane == FrameBuffer.PLANE_Y) || (plane == ALL_PLANES);
+		boolean blue = (plane == FrameBuffer.PLANE_U) || (plane == ALL_PLANES);
+		boolean red  = (plane == FrameBuffer.PLANE_V) || (plane == ALL_PLANES);
+		ByteBuffer y0Data = frame.getY(), u0Data = frame.getU(), v0Data = frame.getV();
+		ByteBuffer y1Data = other.getY(), u1Data = other.getU(), v1Data = other.getV();
+		int pos = firstRow * outWidth;
+		for (int oi = firstRow; oi < endRow; oi++) {
+			int y0 = rows[oi], y1 = rows[oi + 1];
+			int cy0 = y0 >> shift, cy1 = ((y1 - 1) >> shift) + 1;
+			for (int oj = 0; oj < outWidth; oj++, pos++) {
+				int x0 = columns[oj], x1 = columns[oj + 1];
+				int cx0 = x0 >> shift, cx1 = ((x1 - 1) >> shift) + 1;
+				int difference = 0;
+				if (luma) {
+					difference = getMaxDifference(y0Data, y1Data, _width, x0, x1, y0, y1, difference);
+				}
+				if (blue) {
+					difference = getMaxDifference(u0Data, u1Data, uvStride, cx0, cx1, cy0, cy1, difference);
+				}
+				if (red) {
+					difference = getMaxDifference(v0Data, v1Data, uvStride, cx0, cx1, cy0, cy1, difference);
+				}
+				rgb[pos] = HEATMAP[Math.min(255, difference * amplification)];
+			}
+		}
+	}
+
+	/**
+	 * Converts a band of rows of the differences between two frames into a
+	 * heatmap, at frame size.
+	 *
+	 * @param frame A frame.
+	 * @param other Another frame.
+	 * @param plane Plane whose differences are converted.
+	 * @param amplification Factor differences are multiplied by.
+	 * @param rgb Array to write RGB pixels into.
+	 * @param firstRow First row of the band.
+	 * @param endRow Row following the last one of the band.
+	 * @param uvStride Chrominance planes row length.
+	 * @param shift Chroma subsampling, as a power of 2 (the same in both
+	 *              directions).
+	 */
+	private void convertDifference(FrameBuffer frame, FrameBuffer other, int plane, int amplification, int[] rgb,
+				       int firstRow, int endRow, int uvStride, int shift) {
+		int[] heatmap = HEATMAP;
+		boolean luma = (plane == FrameBuffer.PLANE_Y) || (plane == ALL_PLANES);
+		boolean blue = (plane == FrameBuffer.PLANE_U) || (plane == ALL_PLANES);
+		boolean red  = (plane == FrameBuffer.PLANE_V) || (plane == ALL_PLANES);
+		ByteBuffer y0Data = frame.getY(), u0Data = frame.getU(), v0Data = frame.getV();
+		ByteBuffer y1Data = other.getY(), u1Data = other.getU(), v1Data = other.getV();
+		int pos = firstRow * _width;
+		for (int i = firstRow; i < endRow; i++) {
+			int srow = uvStride * (i >> shift);
+			for (int j = 0; j < _width; j++, pos++) {
+				int spos = srow + (j >> shift);
+				int difference = 0;
+				if (luma) {
+					difference = Math.abs((y0Data.get(pos) & 255) - (y1Data.get(pos) & 255));
+				}
+				if (blue) {
+					difference = Math.max(difference, Math.abs((u0Data.get(spos) & 255) - (u1Data.get(spos) & 255)));
+				}
+				if (red) {
+					difference = Math.max(difference, Math.abs((v0Data.get(spos) & 255) - (v1Data.get(spos) & 255)));
+				}
+				rgb[pos] = heatmap[Math.min(255, difference * amplification)];
+			}
+		}
+	}
+
+	/**
+	 * Returns the largest absolute difference between two planes within a
+	 * box, if larger than a given one.
+	 *
+	 * @param data A plane.
+	 * @param other Another plane.
+	 * @param stride Planes row length.
+	 * @param x0 First column of the box.
+	 * @param x1 Column following the last one of the box.
+	 * @param y0 First row of the box.
+	 * @param y1 Row following the last one of the box.
+	 * @param max Largest difference found so far.
+	 * @return Largest difference.
+	 */
+	private static int getMaxDifference(ByteBuffer data, ByteBuffer other, int stride,
+					    int x0, int x1, int y0, int y1, int max) {
+		for (int i = y0; i < y1; i++) {
+			for (int p = i * stride + x0, end = i * stride + x1; p < end; p++) {
+				int difference = (data.get(p) & 255) - (other.get(p) & 255);
+				if (difference < 0) {
+					difference = -difference;
+				}
+				if (difference > max) {
+					max = difference;
+				}
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns chroma subsampling.
+	 *
+	 * @return Chroma subsampling, as a power of 2 (the same in both
+	 *         directions).
+	 */
+	private int getChromaShift() {
+		switch (_yuvFormat) {
+			case Watermarking.YUV_FORMAT_444: return 0;
+			case Watermarking.YUV_FORMAT_422: return 1;
+			case Watermarking.YUV_FORMAT_420: return 2;
+			default: throw new IllegalStateException("Unknown YUV format " + _yuvFormat);
+		}
+	}
+
+	/**
+	 * Creates the heatmap palette: black for no difference, then blue,
+	 * cyan, green, yellow and red as differences grow, and white for the
+	 * largest ones.
+	 *
+	 * @return Heatmap colour (<code>0xRRGGBB</code>) of every (amplified)
+	 *         difference from 0 to 255.
+	 */
+	private static int[] createHeatmap() {
+		int[] stops   = {        0,   48,       96,      144,      192,      240,      255 };
+		int[] colours = { 0x000000, 0x0000ff, 0x00ffff, 0x00ff00, 0xffff00, 0xff0000, 0xffffff };
+		int[] heatmap = new int[256];
+		for (int k = 0; k + 1 < stops.length; k++) {
+			for (int i = stops[k]; i <= stops[k + 1]; i++) {
+				int weight = ((i - stops[k]) << 8) / (stops[k + 1] - stops[k]);
+				int colour = 0;
+				for (int bits = 0; bits <= 16; bits += 8) {
+					int from = (colours[k] >> bits) & 255, to = (colours[k + 1] >> bits) & 255;
+					colour |= ((from * (256 - weight) + to * weight) >> 8) << bits;
+				}
+				heatmap[i] = colour;
+			}
+		}
+		return heatmap;
+	}
+
+	/**
+	 * Converts a band of rows of a frame into RGB pixels, scaling it down
+	 * to a given size if needed.
+	 *
+	 * @param yData Luminance component data.
+	 * @param uData Blue chrominance component data.
+	 * @param vData Red chrominance component data.
+	 * @param rgb Array to write RGB pixels into.
+	 * @param outWidth Target width.
+	 * @param outHeight Target height.
+	 * @param firstRow First (target) row of the band.
+	 * @param endRow (Target) row following the last one of the band.
+	 */
+	private void convertRows(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, int[] rgb,
+				 int outWidth, int outHeight, int firstRow, int endRow) {
+		if ((outWidth == _width) && (outHeight == _height)) {
+			convert(yData, uData, vData, rgb, firstRow, endRow);
+			return;
+		}
+		int[] columns = getBoxes(true, outWidth);
+		int[] rows    = getBoxes(false, outHeight);
+		switch (_yuvFormat) {
+			case Watermarking.YUV_FORMAT_444: convertBoxes(yData, uData, vData, rgb, outWidth, columns, rows, firstRow, endRow, _width, 0); break;
+			case Watermarking.YUV_FORMAT_422: convertBoxes(yData, uData, vData, rgb, outWidth, columns, rows, firstRow, endRow, _width / 2, 1); break;
+			case Watermarking.YUV_FORMAT_420: convertBoxes(yData, uData, vData, rgb, outWidth, columns, rows, firstRow, endRow, _width / 4, 2); break;
+			default: throw new IllegalStateException("Unknown YUV format " + _yuvFormat);
+		}
+	}
+
+	/**
+	 * Converts a band of rows of a frame into RGB pixels, scaled down, for
+	 * a given chroma subsampling. Each target pixel is converted from the
+	 * (rounded) average of the values in its box of source pixels.
+	 *
+	 * @param yData Luminance component data.
+	 * @param uData Blue chrominance component data.
+	 * @param vData Red chrominance component data.
+	 * @param rgb Array to write RGB pixels into.
+	 * @param outWidth Target width.
+	 * @param columns Source column boundaries of target pixels.
+	 * @param rows Source row boundaries of target pixels.
+	 * @param firstRow First (target) row of the band.
+	 * @param endRow (Target) row following the last one of the band.
+	 * @param uvStride Chrominance planes row length.
+	 * @param shift Chroma subsampling, as a power of 2 (the same in both
+	 *              directions).
+	 */
+	private void convertBoxes(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, int[] rgb, int outWidth,
+				  int[] columns, int[] rows, int firstRow, int endRow, int uvStride, int shift) {
+		int[] yTable = _yTable, crR = _crR, cbG = _cbG, crG = _crG, cbB = _cbB, clamp = _clamp;
+		int pos = firstRow * outWidth;
+		for (int oi = firstRow; oi < endRow; oi++) {
+			int y0 = rows[oi], y1 = rows[oi + 1];
+			int cy0 = y0 >> shift, cy1 = ((y1 - 1) >> shift) + 1;
+			for (int oj = 0; oj < outWidth; oj++, pos++) {
+				int x0 = columns[oj], x1 = columns[oj + 1];
+				int cx0 = x0 >> shift, cx1 = ((x1 - 1) >> shift) + 1;
+				int sy = 0;
+				for (int i = y0; i < y1; i++) {
+					for (int p = i * _width + x0, end = i * _width + x1; p < end; p++) {
+						sy += yData.get(p) & 255;
+					}
+				}
+				int sb = 0, sr = 0;
+				for (int i = cy0; i < cy1; i++) {
+					for (int p = i * uvStride + cx0, end = i * uvStride + cx1; p < end; p++) {
+						sb += uData.get(p) & 255;
+						sr += vData.get(p) & 255;
+					}
+				}
+				int n  = (y1 - y0) * (x1 - x0);
+				int cn = (cy1 - cy0) * (cx1 - cx0);
+				int y  = yTable[(sy + (n >> 1)) / n];
+				int cb = (sb + (cn >> 1)) / cn;
+				int cr = (sr + (cn >> 1)) / cn;
+				rgb[pos] = (clamp[((y + crR[cr]) >> 8) + CLAMP_OFFSET] << 16) |
+					   (clamp[((y + cbG[cb] + crG[cr]) >> 8) + CLAMP_OFFSET] << 8) |
+					    clamp[((y + cbB[cb]) >> 8) + CLAMP_OFFSET];
+			}
+		}
+	}
+
+	/**
+	 * Returns the boundaries of the boxes of source pixels each target
+	 * pixel is obtained from, along one dimension.
+	 *
+	 * @param horizontal Whether boundaries are columns (or rows).
+	 * @param outLength Target length (not greater than source length).
+	 * @return Array of <code>outLength + 1</code> boundaries: box of
+	 *         target pixel <code>i</code> goes from boundary
+	 *         <code>i</code> to boundary <code>i + 1</code> (excluded).
+	 */
+	private synchronized int[] getBoxes(boolean horizontal, int outLength) {
+		int[] boxes = horizontal ? _columns : _rows; // last boundaries computed are kept
+		if ((boxes == null) || (boxes.length != outLength + 1)) {
+			int length = horizontal ? _width : _height;
+			boxes = new int[outLength + 1];
+			for (int i = 0; i <= outLength; i++) {
+				boxes[i] = (int) ((long) i * length / outLength);
+			}
+			if (horizontal) {
+				_columns = boxes;
+			}
+			else {
+				_rows = boxes;
+			}
+		}
+		return boxes;
+	}
+
+	/**
+	 * Converts a band of rows of a frame into RGB pixels, for a given
+	 * chroma subsampling.
+	 *
+	 * @param yData Luminance component data.
+	 * @param uData Blue chrominance component data.
+	 * @param vData Red chrominance component data.
+	 * @param rgb Array to write RGB pixels into.
+	 * @param firstRow First row of the band.
+	 * @param endRow Row following the last one of the band.
+	 * @param uvStride Chrominance planes row length.
+	 * @param shift Chroma subsampling, as a power of 2 (the same in both
+	 *              directions).
+	 */
+	private void convert(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, int[] rgb,
+			     int firstRow, int endRow, int uvStride, int shift) {
+		int[] yTable = _yTable, crR = _crR, cbG = _cbG, crG = _crG, cbB = _cbB, clamp = _clamp;
+		int pos = firstRow * _width;
+		for (int i = firstRow; i < endRow; i++) {
+			int srow = uvStride * (i >> shift);
+			for (int j = 0; j < _width; j++, pos++) {
+				int spos = srow + (j >> shift);
+				int y  = yTable[yData.get(pos) & 255];
+				int cb = uData.get(spos) & 255;
+				int cr = vData.get(spos) & 255;
+				rgb[pos] = (clamp[((y + crR[cr]) >> 8) + CLAMP_OFFSET] << 16) |
+					   (clamp[((y + cbG[cb] + crG[cr]) >> 8) + CLAMP_OFFSET] << 8) |
+					    clamp[((y + cbB[cb]) >> 8) + CLAMP_OFFSET];
+			}
+		}
+	}
+
+	// ----- ----- ----- CONVERSION TASKS ----- ----- -----
+
+	private class BandConversion extends RecursiveAction {
+		public BandConversion(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, int[] rgb,
+				      int outWidth, int outHeight, int firstRow, int endRow, int bandRows) {
+			_y = yData;
+			_u = uData;
+			_v = vData;
+			_rgb = rgb;
+			_outWidth = outWidth;
+			_outHeight = outHeight;
+			_firstRow = firstRow;
+			_endRow = endRow;
+			_bandRows = bandRows;
+		}
+		protected void compute() {
+			if (_endRow - _firstRow <= _bandRows) {
+				convertRows(_y, _u, _v, _rgb, _outWidth, _outHeight, _firstRow, _endRow);
+			}
+			else { // split in two halves
+				int middle = (_firstRow + _endRow) >>> 1;
+				invokeAll(new BandConversion(_y, _u, _v, _rgb, _outWidth, _outHeight, _firstRow, middle, _bandRows),
+					  new BandConversion(_y, _u, _v, _rgb, _outWidth, _outHeight, middle, _endRow, _bandRows));
+			}
+		}
+		private ByteBuffer _y, _u, _v;
+		private int[] _rgb;
+		private int _outWidth, _outHeight, _firstRow, _endRow, _bandRows;
+	}
+
+	private class BandDifference extends RecursiveAction {
+		public BandDifference(FrameBuffer frame, FrameBuffer other, int plane, int amplification, int[] rgb,
+				      int outWidth, int outHeight, int firstRow, int endRow, int bandRows) {
+			_frame = frame;
+			_other = other;
+			_plane = plane;
+			_amplification = amplification;
+			_rgb = rgb;
+			_outWidth = outWidth;
+			_outHeight = outHeight;
+			_firstRow = firstRow;
+			_endRow = endRow;
+			_bandRows = bandRows;
+		}
+		protected void compute() {
+			if (_endRow - _firstRow <= _bandRows) {
+				convertDifferenceRows(_frame, _other, _plane, _amplification, _rgb, _outWidth, _outHeight, _firstRow, _endRow);
+			}
+			else { // split in two halves
+				int middle = (_firstRow + _endRow) >>> 1;
+				invokeAll(new BandDifference(_frame, _other, _plane, _amplification, _rgb, _outWidth, _outHeight, _firstRow, middle, _bandRows),
+					  new BandDifference(_frame, _other, _plane, _amplification, _rgb, _outWidth, _outHeight, middle, _endRow, _bandRows));
+			}
+		}
+		private FrameBuffer _frame, _other;
+		private int _plane, _amplification;
+		private int[] _rgb;
+		private int _outWidth, _outHeight, _firstRow, _endRow, _bandRows;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * BT.601 coefficients (8.8 fixed point): Y, Cr to R, Cb to G, Cr to G
+	 * and Cb to B.
+	 */
+	private static final int[] BT601 = { 298, 409, -100, -208, 516 };
+	/**
+	 * BT.709 coefficients (8.8 fixed point): Y, Cr to R, Cb to G, Cr to G
+	 * and Cb to B.
+	 */
+	private static final int[] BT709 = { 298, 459,  -55, -136, 541 };
+	/**
+	 * Offset of value 0 in clamping table (every sum of contributions,
+	 * once shifted, is greater than <code>-CLAMP_OFFSET</code>).
+	 */
+	private static final int CLAMP_OFFSET = 512;
+	/**
+	 * Clamping table size (every sum of contributions, once shifted, is
+	 * lower than <code>CLAMP_SIZE - CLAMP_OFFSET</code>).
+	 */
+	private static final int CLAMP_SIZE = 1024 + 512;
+	/**
+	 * Heatmap colour of every (amplified) difference.
+	 */
+	private static final int[] HEATMAP = createHeatmap();
+
+	/**
+	 * Frame width, in pixels.
+	 */
+	private int _width = 0;
+	/**
+	 * Frame height, in pixels.
+	 */
+	private int _height = 0;
+	/**
+	 * YUV format.
+	 */
+	private int _yuvFormat = Watermarking.YUV_FORMAT_422;
+	/**
+	 * Luminance contribution to every RGB component.
+	 */
+	private int[] _yTable = new int[256];
+	/**
+	 * Red chrominance contribution to red component.
+	 */
+	private int[] _crR = new int[256];
+	/**
+	 * Blue chrominance contribution to green component.
+	 */
+	private int[] _cbG = new int[256];
+	/**
+	 * Red chrominance contribution to green component.
+	 */
+	private int[] _crG = new int[256];
+	/**
+	 * Blue chrominance contribution to blue component.
+	 */
+	private int[] _cbB = new int[256];
+	/**
+	 * Clamping table.
+	 */
+	private int[] _clamp = new int[CLAMP_SIZE];
+	/**
+	 * Last column boundaries computed for scaled conversion.
+	 */
+	private int[] _columns = null;
+	/**
+	 * Last row boundaries computed for scaled conversion.
+	 */
+	private int[] _rows = null;
+
+}
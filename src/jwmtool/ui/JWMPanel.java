@@ -5,25 +5,53 @@ import ac.essex.statistics.functions.GraphableFunction;
 import java.awt.Color;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
-import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.GridLayout;
+import java.awt.Image;
 import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
+import java.awt.image.BufferedImage;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import java.io.File;
+import java.io.IOException;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
-import javax.swing.JLabel;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
 import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.LineBorder;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
+import jwmtool.lib.FrameBuffer;
+import jwmtool.lib.FrameCache;
+import jwmtool.lib.FrameExporter;
 import jwmtool.lib.JWMFrame;
+import jwmtool.lib.PlaybackClock;
+import jwmtool.lib.PlaybackStats;
+import jwmtool.lib.ReadAheadDecoder;
 import jwmtool.lib.Watermarking;
+import jwmtool.lib.WatermarkingEngine;
+import jwmtool.lib.YUVConverter;
 
 import jwmtool.util.I18N;
 import jwmtool.util.exceptions.IllegalStateChangeException;
@@ -71,10 +99,85 @@ public class JWMPanel extends JPanel {
 	 */
 	public static final int ST_SPEED_PLAYING =  4;
 	
+	/**
+	 * Maximum number of frames decoded ahead of playback.
+	 */
+	public static final int READ_AHEAD_FRAMES = 16;
+	/**
+	 * Maximum memory (in bytes) to be taken by frames decoded ahead of
+	 * playback.
+	 */
+	public static final long READ_AHEAD_MEMORY = 256L << 20;
+	/**
+	 * Maximum memory (in bytes) to be taken by already displayed frames
+	 * kept for going back and forth over them (frames within a loop range
+	 * are kept even beyond this limit).
+	 */
+	public static final long FRAME_CACHE_MEMORY = 512L << 20;
+	/**
+	 * Maximum zoom factor frames can be magnified by to inspect them
+	 * pixel by pixel.
+	 */
+	public static final int MAX_ZOOM = 4;
+	/**
+	 * Time (in milliseconds) between checks for the first frame to be
+	 * watermarked.
+	 */
+	public static final long WATERMARKING_POLL_INTERVAL = 50;
+	/**
+	 * Flicker mode: source and watermarked videos are shown side by side.
+	 */
+	public static final int FLICKER_OFF    = 0;
+	/**
+	 * Flicker mode: source and watermarked videos are shown in a single
+	 * view, alternately, every
+	 * {@link jwmtool.ui.JWMPanel#FLICKER_INTERVAL FLICKER_INTERVAL}
+	 * milliseconds.
+	 */
+	public static final int FLICKER_TIMED  = 1;
+	/**
+	 * Flicker mode: source and watermarked videos are shown in a single
+	 * view, switching from one to the other on a key press.
+	 */
+	public static final int FLICKER_MANUAL = 2;
+	/**
+	 * Time (in milliseconds) each video is shown for in timed flicker mode.
+	 */
+	public static final int FLICKER_INTERVAL = 250;
+	/**
+	 * Time (in milliseconds) between refreshes of the playback statistics
+	 * overlay.
+	 */
+	public static final int STATISTICS_INTERVAL = 500;
+	/**
+	 * Time (in milliseconds) between refreshes of frame export progress.
+	 */
+	public static final int EXPORT_INTERVAL = 250;
+	/**
+	 * Difference view off: videos are shown (otherwise, the plane whose
+	 * differences are shown:
+	 * {@link jwmtool.lib.FrameBuffer#PLANE_Y FrameBuffer.PLANE_Y},
+	 * {@link jwmtool.lib.FrameBuffer#PLANE_U FrameBuffer.PLANE_U},
+	 * {@link jwmtool.lib.FrameBuffer#PLANE_V FrameBuffer.PLANE_V} or
+	 * {@link jwmtool.lib.YUVConverter#ALL_PLANES YUVConverter.ALL_PLANES}).
+	 */
+	public static final int DIFFERENCE_OFF = -1;
+	/**
+	 * Initial amplification of the differences shown.
+	 */
+	public static final int DEFAULT_AMPLIFICATION = 4;
+	/**
+	 * Largest amplification of the differences shown.
+	 */
+	public static final int MAX_AMPLIFICATION = 64;
+	
 	// ----- ----- ----- METHODS ----- ----- -----
 	
 	/**
-	 * Creates and displays synchronized playback panel.
+	 * Creates and displays synchronized playback panel. Watermarking goes
+	 * on in the background once the first frame is watermarked, so that
+	 * playback can start straight away (and only waits for frames not
+	 * watermarked yet if it catches up with it).
 	 *
 	 * @param filename Source file name.
 	 * @param outputFilename Output file name.
@@ -110,43 +213,113 @@ public class JWMPanel extends JPanel {
 			boolean blindProcess) throws WatermarkingException {
 		super();
 		_blindProcess = blindProcess;
+		_filename = filename;
+		_outputFilename = outputFilename;
 		
 		_wmtool = new Watermarking(filename, outputFilename);
 		
-		// INVOKE WATERMARK PROCESS
-		_wmtool.watermark(rangeInit, rangeEnd, modificationType, modificationStep,
-				  lowLimit, upperLimit, modificationValue, modificationFunction,
-				  modifyY, modifyU, modifyV);
+		// INVOKE WATERMARK PROCESS, in the background
+		_wmtool.setProxyScale(Watermarking.PROXY_SCALE_AUTO);
+		_watermarker = new JWMWatermarker(rangeInit, rangeEnd, modificationType, modificationStep,
+						  lowLimit, upperLimit, modificationValue, modificationFunction,
+						  modifyY, modifyU, modifyV);
+		_watermarker.start();
+		_watermarker.waitForFirstFrame();
 		JWMFrame _frame = _wmtool.getFirstImage();
+		_decoder = new ReadAheadDecoder(_wmtool, getReadAheadCapacity());
+		_decoder.setStatistics(_statistics);
+		_cache = new FrameCache(FRAME_CACHE_MEMORY);
+		_cache.put(0, _frame);
+		_currentFrame = 0;
+		_clock = new PlaybackClock(_wmtool.getFrameRate());
 		
 		// UI creation
 		Random _randomGenerator = new Random(System.currentTimeMillis());
 		_order = _randomGenerator.nextBoolean();
+		_leftVideo  = new VideoView(_wmtool.getWidth(), _wmtool.getHeight());
+		_rightVideo = new VideoView(_wmtool.getWidth(), _wmtool.getHeight());
 		if (!blindProcess) { // if the procces is not blind, original video is on the left and watermarked video on the right, labelled
-			_leftVideo = new JLabel(new ImageIcon(_frame.getSourceFrame()));
-			_rightVideo = new JLabel(new ImageIcon(_frame.getWMarkedFrame()));
-			_leftVideo.setBorder(new TitledBorder(new LineBorder(Color.BLUE, 1, true), I18N.getInstance().getString("label.video.original")));
-			_rightVideo.setBorder(new TitledBorder(new LineBorder(Color.RED, 1, true), I18N.getInstance().getString("label.video.watermarked"), TitledBorder.RIGHT, TitledBorder.TOP));
+			_leftBorder  = new TitledBorder(new LineBorder(Color.BLUE, 1, true), I18N.getInstance().getString("label.video.original"));
+			_rightBorder = new TitledBorder(new LineBorder(Color.RED, 1, true), I18N.getInstance().getString("label.video.watermarked"), TitledBorder.RIGHT, TitledBorder.TOP);
 		}
 		else { // if the procces has to be blind, randomly place videos and do not label them
-			if (_order) {
-				_leftVideo = new JLabel(new ImageIcon(_frame.getSourceFrame()));
-				_rightVideo = new JLabel(new ImageIcon(_frame.getWMarkedFrame()));
+			_leftBorder  = new TitledBorder(new LineBorder(Color.BLACK, 1, true), I18N.getInstance().getString("label.video.oneblind"));
+			_rightBorder = new TitledBorder(new LineBorder(Color.BLACK, 1, true), I18N.getInstance().getString("label.video.anotherblind"), TitledBorder.RIGHT, TitledBorder.TOP);
+		}
+		_leftVideo.setBorder(_leftBorder);
+		_rightVideo.setBorder(_rightBorder);
+		_leftVideo.setStatistics(_statistics);
+		_rightVideo.setStatistics(_statistics);
+		_differenceView = new VideoView(_wmtool.getWidth(), _wmtool.getHeight());
+		_differenceBorder = new TitledBorder(new LineBorder(Color.GRAY, 1, true), "");
+		_differenceView.setBorder(_differenceBorder);
+		_differenceView.setStatistics(_statistics);
+		showFrame(_frame);
+		ComponentAdapter _resizer = new ComponentAdapter() {
+			public void componentResized(ComponentEvent e) {
+				resizeFrames();
 			}
-			else {
-				_leftVideo = new JLabel(new ImageIcon(_frame.getWMarkedFrame()));
-				_rightVideo = new JLabel(new ImageIcon(_frame.getSourceFrame()));
+		};
+		_leftVideo.addComponentListener(_resizer);
+		_differenceView.addComponentListener(_resizer);
+		MouseAdapter _panner = new MouseAdapter() { // dragging either video pans both of them
+			public void mousePressed(MouseEvent e) {
+				_dragX = e.getX();
+				_dragY = e.getY();
 			}
-			_leftVideo.setBorder(new TitledBorder(new LineBorder(Color.BLACK, 1, true), I18N.getInstance().getString("label.video.oneblind")));
-			_rightVideo.setBorder(new TitledBorder(new LineBorder(Color.BLACK, 1, true), I18N.getInstance().getString("label.video.anotherblind"), TitledBorder.RIGHT, TitledBorder.TOP));
-		}
+			public void mouseDragged(MouseEvent e) {
+				pan(e.getX(), e.getY());
+			}
+		};
+		_leftVideo.addMouseListener(_panner);
+		_leftVideo.addMouseMotionListener(_panner);
+		_rightVideo.addMouseListener(_panner);
+		_rightVideo.addMouseMotionListener(_panner);
+		_differenceView.addMouseListener(_panner);
+		_differenceView.addMouseMotionListener(_panner);
 		
-		JPanel _display = new JPanel(new FlowLayout());
+		_display = new JPanel(new GridLayout(1, 2));
 		_display.add(_leftVideo);
 		_display.add(_rightVideo);
+		_flickerTimer = new Timer(FLICKER_INTERVAL, new ToggleAction());
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_T, 0), "toggle");
+		getActionMap().put("toggle", new ToggleAction());
+		_statisticsTimer = new Timer(STATISTICS_INTERVAL, new StatisticsAction());
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_O, 0), "overlay");
+		getActionMap().put("overlay", new OverlayAction());
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_D, 0), "dump");
+		getActionMap().put("dump", new DumpAction());
+		if (!_blindProcess) { // exported images tell which video is watermarked
+			getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_E, 0), "export");
+			getActionMap().put("export", new ExportAction());
+		}
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_PLUS, 0), "amplify");
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_ADD, 0), "amplify");
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, 0), "amplify");
+		getActionMap().put("amplify", new AmplifyAction(true));
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, 0), "attenuate");
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_SUBTRACT, 0), "attenuate");
+		getActionMap().put("attenuate", new AmplifyAction(false));
+		updateDifferenceTitle();
+		
+		_thumbnails = new ThumbnailStrip(_wmtool);
+		_seekSlider = new JSlider(0, (int) Math.min(Integer.MAX_VALUE, _thumbnails.getFrameCount() - 1), 0);
+		_seekSlider.setToolTipText(I18N.getInstance().getString("label.seek.description"));
+		_seekSlider.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				seek();
+			}
+		});
+		JPanel _seekPanel = new JPanel(new BorderLayout());
+		_seekPanel.add(_thumbnails, BorderLayout.CENTER);
+		_seekPanel.add(_seekSlider, BorderLayout.SOUTH);
+		JPanel _bottom = new JPanel(new BorderLayout());
+		_bottom.add(_seekPanel, BorderLayout.NORTH);
+		_bottom.add(createControlPanel(), BorderLayout.SOUTH);
 		setLayout(new BorderLayout());
 		add(_display, BorderLayout.CENTER);
-		add(createControlPanel(), BorderLayout.SOUTH);
+		add(_bottom, BorderLayout.SOUTH);
+		_thumbnails.start();
 		
 		// Set initial state
 		try {
@@ -156,6 +329,18 @@ public class JWMPanel extends JPanel {
 		}
 	}
 	
+	/**
+	 * Computes how many frames can be decoded ahead of playback, so that
+	 * decoded frames do not take more than
+	 * {@link jwmtool.ui.JWMPanel#READ_AHEAD_MEMORY READ_AHEAD_MEMORY} bytes.
+	 *
+	 * @return Read-ahead ring capacity.
+	 */
+	private int getReadAheadCapacity() {
+		long frameMemory = 2L * 4 * _wmtool.getWidth() * _wmtool.getHeight(); // two RGB images per frame
+		return (int) Math.max(2, Math.min(READ_AHEAD_FRAMES, READ_AHEAD_MEMORY / Math.max(1, frameMemory)));
+	}
+	
 	/**
 	 * Returns current panel state code.
 	 *
@@ -165,6 +350,32 @@ public class JWMPanel extends JPanel {
 		return _state;
 	}
 	
+	/**
+	 * Stops playback and every background activity of the panel (leaving
+	 * the watermarked videostream incomplete if it was still being
+	 * written), and closes the videostream files it reads from (and their
+	 * proxies). To be invoked once the panel is no longer displayed.
+	 */
+	public void dispose() {
+		_disposed = true;
+		_wmtool.cancel(); // the output file is not written any more
+		try {
+			_watermarker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		stopWorker();
+		_decoder.stop();
+		_thumbnails.stop();
+		_flickerTimer.stop();
+		_statisticsTimer.stop();
+		Watermarking _currentProxy = _proxy;
+		if (_currentProxy != null) {
+			_currentProxy.close();
+		}
+		_wmtool.close();
+	}
+	
 	/**
 	 * Changes panel state. Not every state change is allowed; in case a
 	 * forbidden transition is invoked, the method will throw an exception.
@@ -242,7 +453,6 @@ public class JWMPanel extends JPanel {
 		_slowAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.slow.description"));
 		_slowButton.setAction(_slowAction);
 		_slowButton.setPreferredSize(new Dimension(125, 22));
-		_slowButton.setEnabled(false);
 		
 		// Pause button
 		PauseAction _pauseAction = new PauseAction();
@@ -278,7 +488,44 @@ public class JWMPanel extends JPanel {
 		_speedAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.speed.description"));
 		_speedButton.setAction(_speedAction);
 		_speedButton.setPreferredSize(new Dimension(125, 22));
-		_speedButton.setEnabled(false);
+		
+		// Loop in/out buttons
+		LoopInAction _loopInAction = new LoopInAction();
+		_loopInAction.putValue(Action.NAME, I18N.getInstance().getString("label.loopin"));
+		_loopInAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.loopin.description"));
+		JButton _loopInButton = new JButton();
+		_loopInButton.setAction(_loopInAction);
+		_loopInButton.setPreferredSize(new Dimension(125, 22));
+		LoopOutAction _loopOutAction = new LoopOutAction();
+		_loopOutAction.putValue(Action.NAME, I18N.getInstance().getString("label.loopout"));
+		_loopOutAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.loopout.description"));
+		JButton _loopOutButton = new JButton();
+		_loopOutButton.setAction(_loopOutAction);
+		_loopOutButton.setPreferredSize(new Dimension(125, 22));
+		
+		// Zoom button
+		ZoomAction _zoomAction = new ZoomAction();
+		_zoomAction.putValue(Action.NAME, I18N.getInstance().getString("label.zoom"));
+		_zoomAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.zoom.description"));
+		JButton _zoomButton = new JButton();
+		_zoomButton.setAction(_zoomAction);
+		_zoomButton.setPreferredSize(new Dimension(125, 22));
+		
+		// Flicker button
+		FlickerAction _flickerAction = new FlickerAction();
+		_flickerAction.putValue(Action.NAME, I18N.getInstance().getString("label.flicker"));
+		_flickerAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.flicker.description"));
+		JButton _flickerButton = new JButton();
+		_flickerButton.setAction(_flickerAction);
+		_flickerButton.setPreferredSize(new Dimension(125, 22));
+		
+		// Difference button
+		DifferenceAction _differenceAction = new DifferenceAction();
+		_differenceAction.putValue(Action.NAME, I18N.getInstance().getString("label.difference"));
+		_differenceAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.difference.description"));
+		JButton _differenceButton = new JButton();
+		_differenceButton.setAction(_differenceAction);
+		_differenceButton.setPreferredSize(new Dimension(125, 22));
 		
 		// Set layout
 		_constraints = new GridBagConstraints();
@@ -306,6 +553,31 @@ public class JWMPanel extends JPanel {
 		_constraints.gridy = 0;
 		_constraints.insets = new Insets(10, 5, 10, 5);
 		_controlPanel.add(_speedButton, _constraints);
+		_constraints = new GridBagConstraints();
+		_constraints.gridx = 5;
+		_constraints.gridy = 0;
+		_constraints.insets = new Insets(10, 5, 10, 5);
+		_controlPanel.add(_loopInButton, _constraints);
+		_constraints = new GridBagConstraints();
+		_constraints.gridx = 6;
+		_constraints.gridy = 0;
+		_constraints.insets = new Insets(10, 5, 10, 5);
+		_controlPanel.add(_loopOutButton, _constraints);
+		_constraints = new GridBagConstraints();
+		_constraints.gridx = 7;
+		_constraints.gridy = 0;
+		_constraints.insets = new Insets(10, 5, 10, 5);
+		_controlPanel.add(_zoomButton, _constraints);
+		_constraints = new GridBagConstraints();
+		_constraints.gridx = 8;
+		_constraints.gridy = 0;
+		_constraints.insets = new Insets(10, 5, 10, 5);
+		_controlPanel.add(_flickerButton, _constraints);
+		_constraints = new GridBagConstraints();
+		_constraints.gridx = 9;
+		_constraints.gridy = 0;
+		_constraints.insets = new Insets(10, 5, 10, 5);
+		_controlPanel.add(_differenceButton, _constraints);
 		
 		return _controlPanel;
 	}
@@ -314,17 +586,54 @@ public class JWMPanel extends JPanel {
 	// This class needs to be redesigned and reimplemented to follow State design pattern
 	
 	/**
-	 * Speeds up playback.
+	 * Speeds up playback (twice as fast, up to
+	 * {@link jwmtool.lib.PlaybackClock#MAX_SPEED PlaybackClock.MAX_SPEED}).
+	 *
+	 * @throws IllegalStateChangeException
+	 */
+	private void speedUp() throws IllegalStateChangeException {
+		setSpeed(_clock.getSpeed() * 2);
+	}
+	
+	/**
+	 * Changes playback speed, and panel state accordingly.
+	 *
+	 * @param speed Playback speed (1 is normal speed).
+	 * @throws IllegalStateChangeException
+	 */
+	private void setSpeed(double speed) throws IllegalStateChangeException {
+		_clock.setSpeed(speed);
+		if (_clock.getSpeed() > 1) {
+			setPlayerState(ST_SPEED_PLAYING);
+		}
+		else if (_clock.getSpeed() < 1) {
+			setPlayerState(ST_SLOW_PLAYING);
+		}
+		else {
+			setPlayerState(ST_PLAYING);
+		}
+	}
+	
+	/**
+	 * Whether panel is playing (at any speed) or not.
+	 *
+	 * @return Whether frames are being played.
 	 */
-	private void speedUp() {}
+	private boolean isPlaying() {
+		int _current = getPlayerState();
+		return (_current == ST_PLAYING) || (_current == ST_SLOW_PLAYING) || (_current == ST_SPEED_PLAYING);
+	}
 	
 	/**
 	 * Stops playback.
 	 */
 	private void stop() {
-		_worker.interrupt();
-		_worker = null;
+		stopWorker();
+		_decoder.stop();
 		_wmtool.rewind();
+		setCurrentFrame(-1);
+		clearLoop();
+		_statistics.reset();
 	}
 	
 	/**
@@ -332,9 +641,14 @@ public class JWMPanel extends JPanel {
 	 */
 	private void setSuspended(boolean suspend) {
 		if (suspend) {
-			_worker.interrupt();
+			stopWorker();
+			if ((_proxy != null) && (_currentFrame >= 0)) { // back to full resolution
+				showFrame(_currentFrame);
+			}
 		}
 		else {
+			_clock.setSpeed(1);
+			_decoder.start();
 			_worker = new JWMWorker();
 			_worker.start();
 		}
@@ -345,9 +659,27 @@ public class JWMPanel extends JPanel {
 	 */
 	private void start() {
 		if ((_worker == null) || (!_worker.isAlive())) {
+			_clock.setSpeed(1);
+			_decoder.start();
 			_worker = new JWMWorker();
+			_worker.start();
+		}
+	}
+	
+	/**
+	 * Stops playback thread, waiting for it to finish. Frames already
+	 * decoded ahead are kept, so that playback can be resumed.
+	 */
+	private void stopWorker() {
+		if (_worker != null) {
+			_worker.interrupt();
+			try {
+				_worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			_worker = null;
 		}
-		_worker.start();
 	}
 	
 	/**
@@ -355,36 +687,522 @@ public class JWMPanel extends JPanel {
 	 * videostreams.
 	 */
 	private void readData() {
-		JWMFrame _frame = _wmtool.getNextImage();
-		if ((!_blindProcess) || (_order)) {
-			_leftVideo.setIcon(new ImageIcon(_frame.getSourceFrame()));
-			_rightVideo.setIcon(new ImageIcon(_frame.getWMarkedFrame()));
+		showFrame(_currentFrame + 1);
+	}
+	
+	/**
+	 * Show previous frame from both original and watermarked videostreams.
+	 */
+	private void readPreviousData() {
+		showFrame(Math.max(0, _currentFrame - 1));
+	}
+	
+	/**
+	 * Show a given frame from both original and watermarked videostreams,
+	 * while paused. While watermarking, frames not watermarked yet are not
+	 * waited for, but the last one watermarked is shown instead.
+	 *
+	 * @param index Frame number.
+	 */
+	private void showFrame(long index) {
+		if (_wmtool.isWatermarking()) {
+			index = Math.max(0, Math.min(index, _wmtool.getWatermarkedFrames() - 1));
+		}
+		try {
+			JWMFrame _frame = getFrame(index, 1);
+			if (!_frame.isEmpty()) {
+				showFrame(_frame);
+				setCurrentFrame(index);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Sets the number of the frame currently displayed, and moves the seek
+	 * bar to it (on the event dispatch thread, once for consecutive
+	 * frames displayed before it gets moved).
+	 *
+	 * @param index Frame number (-1 if none).
+	 */
+	private void setCurrentFrame(long index) {
+		_currentFrame = index;
+		if (!_sliderPending.getAndSet(true)) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					_sliderPending.set(false);
+					if (!_seekSlider.getValueIsAdjusting()) { // not while being dragged
+						_sliderUpdating = true;
+						_seekSlider.setValue((int) Math.max(0, Math.min(Integer.MAX_VALUE, _currentFrame)));
+						_sliderUpdating = false;
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Follows the seek bar: while it is dragged, shows the frame it points
+	 * to from the proxies, or else the closest thumbnail already generated
+	 * (unless playing or zoomed in); once released, shows the frame it
+	 * points to, or makes playback go on from it.
+	 */
+	private void seek() {
+		if (_sliderUpdating) { // moved along with playback, not by the user
+			return;
+		}
+		long _index = _seekSlider.getValue();
+		if (_seekSlider.getValueIsAdjusting()) {
+			if ((!isPlaying()) && (_zoom == 0) && (_proxy != null)) {
+				try {
+					JWMFrame _frame = _proxy.getFrame(_index);
+					if (!_frame.isEmpty()) {
+						showPreview(_frame);
+						return;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			Image _thumbnail = _thumbnails.getThumbnail(_index);
+			if ((!isPlaying()) && (_zoom == 0) && (_difference == DIFFERENCE_OFF) && (_thumbnail != null)) { // differences can not be shown from thumbnails
+				_leftVideo.setPreview(_thumbnail);
+				_rightVideo.setPreview(_thumbnail);
+			}
+		}
+		else if (isPlaying()) {
+			_seekFrame.set(_index);
 		}
 		else {
-			_leftVideo.setIcon(new ImageIcon(_frame.getWMarkedFrame()));
-			_rightVideo.setIcon(new ImageIcon(_frame.getSourceFrame()));
+			showFrame(_index);
 		}
 	}
 	
 	/**
-	 * Show previous frame from both original and watermarked videostreams.
+	 * Chooses the size frames are displayed at from that of the video
+	 * components, so that frames are scaled down while converting them
+	 * (which makes displaying a frame cost as much as the display size
+	 * takes, rather than the frame size), and shows current frame again
+	 * at that size while not playing.
 	 */
-	private void readPreviousData() {
-		JWMFrame _frame = _wmtool.getPreviousImage();
-		if ((!_blindProcess) || (_order)) {
-			_leftVideo.setIcon(new ImageIcon(_frame.getSourceFrame()));
-			_rightVideo.setIcon(new ImageIcon(_frame.getWMarkedFrame()));
+	private void resizeFrames() {
+		Dimension _size = getMainView().getDisplaySize();
+		if ((_size.width != _wmtool.getDisplayWidth()) || (_size.height != _wmtool.getDisplayHeight()) || (_zoom > 0)) {
+			_wmtool.setDisplaySize(_size.width, _size.height);
+			if ((!isPlaying()) && (_currentFrame >= 0)) {
+				showFrame(_currentFrame);
+			}
+		}
+	}
+	
+	/**
+	 * Changes zoom factor of both videos, keeping the centre of the
+	 * visible region, and shows current frame again while not playing.
+	 *
+	 * @param zoom Zoom factor (0 to fit frames to the window).
+	 */
+	private void setZoom(int zoom) {
+		Rectangle _viewport = getViewport();
+		int _centerX = (_zoom > 0) ? _viewport.x + _viewport.width  / 2 : _wmtool.getWidth()  / 2;
+		int _centerY = (_zoom > 0) ? _viewport.y + _viewport.height / 2 : _wmtool.getHeight() / 2;
+		_zoom = zoom;
+		_leftVideo.setZoom(zoom);
+		_rightVideo.setZoom(zoom);
+		_differenceView.setZoom(zoom);
+		Dimension _visible = getMainView().getVisibleSize();
+		_viewX = _centerX - _visible.width  / 2;
+		_viewY = _centerY - _visible.height / 2;
+		if ((!isPlaying()) && (_currentFrame >= 0)) {
+			showFrame(_currentFrame);
+		}
+	}
+	
+	/**
+	 * Moves the visible region of both videos after the mouse was dragged
+	 * to a given position, and shows current frame again while not
+	 * playing.
+	 *
+	 * @param x Mouse horizontal position.
+	 * @param y Mouse vertical position.
+	 */
+	private void pan(int x, int y) {
+		int _zoomFactor = _zoom;
+		if (_zoomFactor <= 0) {
+			return;
+		}
+		int _dx = (_dragX - x) / _zoomFactor; // whole frame pixels only, the rest is kept for next drag
+		int _dy = (_dragY - y) / _zoomFactor;
+		if ((_dx != 0) || (_dy != 0)) {
+			_dragX -= _dx * _zoomFactor;
+			_dragY -= _dy * _zoomFactor;
+			Rectangle _viewport = getViewport();
+			_viewX = Math.max(0, Math.min(_wmtool.getWidth()  - _viewport.width,  _viewport.x + _dx));
+			_viewY = Math.max(0, Math.min(_wmtool.getHeight() - _viewport.height, _viewport.y + _dy));
+			if ((!isPlaying()) && (_currentFrame >= 0)) {
+				showFrame(_currentFrame);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the view frames are displayed at the size of: the difference
+	 * view, if shown, or else the left video.
+	 *
+	 * @return Main view.
+	 */
+	private VideoView getMainView() {
+		return (_difference != DIFFERENCE_OFF) ? _differenceView : _leftVideo;
+	}
+	
+	/**
+	 * Returns the region of the frames visible in both videos, kept inside
+	 * the frames.
+	 *
+	 * @return Visible region, in (frame) pixels.
+	 */
+	private Rectangle getViewport() {
+		Dimension _visible = getMainView().getVisibleSize();
+		int _x = Math.max(0, Math.min(_wmtool.getWidth()  - _visible.width,  _viewX));
+		int _y = Math.max(0, Math.min(_wmtool.getHeight() - _visible.height, _viewY));
+		return new Rectangle(_x, _y, _visible.width, _visible.height);
+	}
+	
+	/**
+	 * Displays a frame. May be called from any thread, since video
+	 * components repaint themselves on the event dispatch thread.
+	 *
+	 * @param frame Frame to be displayed.
+	 */
+	private void showFrame(JWMFrame frame) {
+		int _width  = (_zoom > 0) ? Integer.MAX_VALUE : _wmtool.getDisplayWidth(); // zoomed in regions are never scaled down
+		int _height = (_zoom > 0) ? Integer.MAX_VALUE : _wmtool.getDisplayHeight();
+		if (_difference != DIFFERENCE_OFF) {
+			showDifference(frame, _width, _height, false);
+		}
+		else if (_flicker != FLICKER_OFF) { // both frames are kept by the single view, which just switches between them
+			if ((!_blindProcess) || (_order)) {
+				_leftVideo.setImages(frame.getSourceFrame(_width, _height), frame.getWMarkedFrame(_width, _height));
+			}
+			else {
+				_leftVideo.setImages(frame.getWMarkedFrame(_width, _height), frame.getSourceFrame(_width, _height));
+			}
+		}
+		else if ((!_blindProcess) || (_order)) {
+			_leftVideo.setImage(frame.getSourceFrame(_width, _height));
+			_rightVideo.setImage(frame.getWMarkedFrame(_width, _height));
+		}
+		else {
+			_leftVideo.setImage(frame.getWMarkedFrame(_width, _height));
+			_rightVideo.setImage(frame.getSourceFrame(_width, _height));
+		}
+	}
+	
+	/**
+	 * Changes flicker mode. When on, both videos are shown alternately in
+	 * the left view, which holds both frames of each pair, so that
+	 * switching between them involves no decoding.
+	 *
+	 * @param flicker Flicker mode
+	 *                ({@link jwmtool.ui.JWMPanel#FLICKER_OFF FLICKER_OFF},
+	 *                {@link jwmtool.ui.JWMPanel#FLICKER_TIMED FLICKER_TIMED} or
+	 *                {@link jwmtool.ui.JWMPanel#FLICKER_MANUAL FLICKER_MANUAL}).
+	 */
+	private void setFlicker(int flicker) {
+		int _previous = _flicker;
+		_flicker = flicker;
+		if (flicker == FLICKER_TIMED) {
+			_flickerTimer.start();
+		}
+		else {
+			_flickerTimer.stop();
+		}
+		if ((_previous == FLICKER_OFF) != (flicker == FLICKER_OFF)) { // one view or two
+			_leftVideo.setAlternate(false);
+			_leftVideo.setBorder(_leftBorder);
+			layoutDisplay();
+		}
+	}
+	
+	/**
+	 * Changes difference view. When on, a single view shows a heatmap of
+	 * the absolute differences between both videos, obtained straight from
+	 * their raw data: frames are not converted to RGB at all meanwhile,
+	 * and flicker mode is turned off.
+	 *
+	 * @param difference Plane whose differences are shown, or
+	 *                   {@link jwmtool.ui.JWMPanel#DIFFERENCE_OFF DIFFERENCE_OFF}.
+	 */
+	private void setDifference(int difference) {
+		int _previous = _difference;
+		if (difference != DIFFERENCE_OFF) {
+			setFlicker(FLICKER_OFF);
+		}
+		_difference = difference;
+		_decoder.setConverting(difference == DIFFERENCE_OFF);
+		updateDifferenceTitle();
+		if ((_previous == DIFFERENCE_OFF) != (difference == DIFFERENCE_OFF)) {
+			layoutDisplay();
+		}
+		else if ((!isPlaying()) && (_currentFrame >= 0)) {
+			showFrame(_currentFrame);
+		}
+	}
+	
+	/**
+	 * Changes the amplification of the differences shown.
+	 *
+	 * @param amplification Factor differences are multiplied by, from 1
+	 *                      to {@link jwmtool.ui.JWMPanel#MAX_AMPLIFICATION MAX_AMPLIFICATION}.
+	 */
+	private void setAmplification(int amplification) {
+		_amplification = Math.max(1, Math.min(MAX_AMPLIFICATION, amplification));
+		updateDifferenceTitle();
+		if ((_difference != DIFFERENCE_OFF) && (!isPlaying()) && (_currentFrame >= 0)) {
+			showFrame(_currentFrame);
+		}
+	}
+	
+	/**
+	 * Sets the title of the difference view after the plane and
+	 * amplification of the differences shown.
+	 */
+	private void updateDifferenceTitle() {
+		String _plane;
+		switch (_difference) {
+			case FrameBuffer.PLANE_Y: _plane = "Y";  break;
+			case FrameBuffer.PLANE_U: _plane = "Cb"; break;
+			case FrameBuffer.PLANE_V: _plane = "Cr"; break;
+			default: _plane = I18N.getInstance().getString("label.difference.all");
+		}
+		_differenceBorder.setTitle(I18N.getInstance().getString("label.difference.title") + " (" + _plane + ") x" + _amplification);
+		_differenceView.repaint();
+	}
+	
+	/**
+	 * Places the views to be shown: the difference view, a single video
+	 * (in flicker mode), or both videos side by side; and shows current
+	 * frame again while not playing.
+	 */
+	private void layoutDisplay() {
+		_display.removeAll();
+		if (_difference != DIFFERENCE_OFF) {
+			_display.setLayout(new GridLayout(1, 1));
+			_display.add(_differenceView);
 		}
 		else {
-			_leftVideo.setIcon(new ImageIcon(_frame.getWMarkedFrame()));
-			_rightVideo.setIcon(new ImageIcon(_frame.getSourceFrame()));
+			_display.setLayout(new GridLayout(1, (_flicker == FLICKER_OFF) ? 2 : 1));
+			_display.add(_leftVideo);
+			if (_flicker == FLICKER_OFF) {
+				_display.add(_rightVideo);
+			}
+		}
+		_display.revalidate();
+		_display.repaint();
+		if ((!isPlaying()) && (_currentFrame >= 0)) {
+			showFrame(_currentFrame);
 		}
 	}
 	
 	/**
-	 * Slows playback down.
+	 * Displays the differences between both frames of a pair, as a
+	 * heatmap computed into the same image frame after frame.
+	 *
+	 * @param frame Frame to be displayed.
+	 * @param width Width, in pixels, to scale the heatmap down to.
+	 * @param height Height, in pixels, to scale the heatmap down to.
+	 * @param preview Whether the frame is from the proxies (and is to be
+	 *                stretched to fit) or not.
 	 */
-	private void slowDown() {}
+	private void showDifference(JWMFrame frame, int width, int height, boolean preview) {
+		int _plane = _difference;
+		if (_plane == DIFFERENCE_OFF) {
+			return;
+		}
+		long _start = System.nanoTime();
+		BufferedImage _image = frame.getDifference(_plane, _amplification, width, height, _differenceImage);
+		if (_image != null) {
+			_differenceImage = _image;
+			_statistics.addTime(PlaybackStats.STAGE_CONVERT, System.nanoTime() - _start);
+			if (preview) {
+				_differenceView.setPreview(_image);
+			}
+			else {
+				_differenceView.setImage(_image);
+			}
+		}
+	}
+	
+	/**
+	 * Switches the single view, in flicker mode, from one video to the
+	 * other, showing the title of the one it switches to.
+	 */
+	private void toggleFlicker() {
+		if (_flicker != FLICKER_OFF) {
+			_leftVideo.setAlternate(!_leftVideo.isAlternate());
+			_leftVideo.setBorder(_leftVideo.isAlternate() ? _rightBorder : _leftBorder);
+		}
+	}
+	
+	/**
+	 * Displays a frame from the proxies, stretched to fit the video
+	 * components.
+	 *
+	 * @param frame Proxy frame to be displayed.
+	 */
+	private void showPreview(JWMFrame frame) {
+		if (_difference != DIFFERENCE_OFF) {
+			showDifference(frame, Integer.MAX_VALUE, Integer.MAX_VALUE, true);
+		}
+		else if (_flicker != FLICKER_OFF) {
+			if ((!_blindProcess) || (_order)) {
+				_leftVideo.setPreviews(frame.getSourceFrame(), frame.getWMarkedFrame());
+			}
+			else {
+				_leftVideo.setPreviews(frame.getWMarkedFrame(), frame.getSourceFrame());
+			}
+		}
+		else if ((!_blindProcess) || (_order)) {
+			_leftVideo.setPreview(frame.getSourceFrame());
+			_rightVideo.setPreview(frame.getWMarkedFrame());
+		}
+		else {
+			_leftVideo.setPreview(frame.getWMarkedFrame());
+			_rightVideo.setPreview(frame.getSourceFrame());
+		}
+	}
+	
+	/**
+	 * Obtains a frame: just the visible region of it if zoomed in (which
+	 * is read directly from the videostreams), or else the whole frame,
+	 * through {@link #fetchFrame fetchFrame()}.
+	 *
+	 * @param index Frame number.
+	 * @param stride Distance between frames to be obtained next.
+	 * @return Frame; a {@link jwmtool.lib.JWMFrame JWMFrame} with no
+	 *         images if <code>index</code> is beyond the end of the
+	 *         videostreams.
+	 * @throws InterruptedException
+	 */
+	private JWMFrame getFrame(long index, int stride) throws InterruptedException {
+		if (_zoom > 0) {
+			return _wmtool.getRegion(index, getViewport());
+		}
+		return fetchFrame(index, stride);
+	}
+	
+	/**
+	 * Obtains a frame, from the frame cache if it was recently displayed,
+	 * or else from the read-ahead decoder. Frames already decoded ahead of
+	 * the requested one are dropped (and released); if it was not decoded ahead, the
+	 * decoder is repositioned, so that frames in between are not decoded
+	 * at all.
+	 *
+	 * @param index Frame number.
+	 * @param stride Distance between frames to be obtained next.
+	 * @return Frame; a {@link jwmtool.lib.JWMFrame JWMFrame} with no
+	 *         images if <code>index</code> is beyond the end of the
+	 *         videostreams.
+	 * @throws InterruptedException
+	 */
+	private JWMFrame fetchFrame(long index, int stride) throws InterruptedException {
+		JWMFrame _frame = _cache.get(index);
+		_statistics.cacheLookup(_frame != null);
+		if (_frame == null) {
+			while ((_decoder.isRunning()) && (_decoder.getStride() == stride) &&
+			       (_decoder.getNextFrame() < index) && (_decoder.getFill() > 0)) {
+				_decoder.take().release();
+			}
+			if ((!_decoder.isRunning()) || (_decoder.getStride() != stride) || (_decoder.getNextFrame() != index)) {
+				_decoder.stop();
+				_wmtool.seek(index);
+				_decoder.start(stride);
+			}
+			_frame = _decoder.take();
+			if (!_frame.isEmpty()) {
+				_cache.put(index, _frame);
+			}
+		}
+		return _frame;
+	}
+	
+	/**
+	 * Returns the number of the frame to be played after current one,
+	 * going back to the start of the loop range once its end is reached.
+	 *
+	 * @return Next frame number.
+	 */
+	private long getNextFrame() {
+		long _next = _currentFrame + 1;
+		if ((_loopEnd >= 0) && (_next > _loopEnd)) {
+			_next = _loopStart;
+		}
+		return _next;
+	}
+	
+	/**
+	 * Removes loop range, if any.
+	 */
+	private void clearLoop() {
+		_loopStart = -1;
+		_loopEnd   = -1;
+		_cache.unpin();
+	}
+	
+	/**
+	 * Slows playback down (half as fast, down to
+	 * {@link jwmtool.lib.PlaybackClock#MIN_SPEED PlaybackClock.MIN_SPEED}).
+	 *
+	 * @throws IllegalStateChangeException
+	 */
+	private void slowDown() throws IllegalStateChangeException {
+		setSpeed(_clock.getSpeed() / 2);
+	}
+	
+	/**
+	 * Shows or hides playback statistics, overlaid on the left video (and
+	 * on the difference view).
+	 *
+	 * @param show Whether to show them or not.
+	 */
+	private void showStatistics(boolean show) {
+		String[] _overlay = show ? getStatistics() : null;
+		if (show) {
+			_statisticsTimer.start();
+		}
+		else {
+			_statisticsTimer.stop();
+		}
+		_leftVideo.setOverlay(_overlay);
+		_differenceView.setOverlay(_overlay);
+	}
+	
+	/**
+	 * Describes current playback statistics: displayed against target
+	 * frame rate, median, 95th and 99th percentile of the time taken by
+	 * each stage, dropped frames, frame cache hit rate and read-ahead
+	 * ring fill level.
+	 *
+	 * @return Lines of text.
+	 */
+	private String[] getStatistics() {
+		I18N _i18n = I18N.getInstance();
+		String[] _stages = { _i18n.getString("label.stats.read"), _i18n.getString("label.stats.convert"), _i18n.getString("label.stats.paint") };
+		String[] _lines = new String[_stages.length + 4];
+		_lines[0] = String.format("%-18s %.1f / %.1f", _i18n.getString("label.stats.framerate"),
+					  _statistics.getFrameRate(), _statistics.getTargetFrameRate());
+		for (int i = 0; i < _stages.length; i++) {
+			int _stage = PlaybackStats.STAGE_READ + i;
+			_lines[i + 1] = String.format("%-18s %6.1f %6.1f %6.1f ms", _stages[i], _statistics.getPercentile(_stage, 50),
+						      _statistics.getPercentile(_stage, 95), _statistics.getPercentile(_stage, 99));
+		}
+		_lines[_stages.length + 1] = String.format("%-18s %d / %d %s", _i18n.getString("label.stats.dropped"),
+							   _statistics.getDroppedFrames(), _statistics.getShownFrames(), _i18n.getString("label.stats.shown"));
+		_lines[_stages.length + 2] = String.format("%-18s %.0f%%", _i18n.getString("label.stats.cache"), _statistics.getCacheHitRate() * 100);
+		_lines[_stages.length + 3] = String.format("%-18s %d / %d", _i18n.getString("label.stats.buffer"),
+							   _statistics.getBufferFill(), _statistics.getBufferCapacity());
+		return _lines;
+	}
 	
 	// ----- ----- ----- ACTIONS ----- ----- -----
 	
@@ -392,17 +1210,14 @@ public class JWMPanel extends JPanel {
 		public void actionPerformed(ActionEvent event) {
 			try {
 				switch (getPlayerState()) {
-					case ST_PLAYING:       // if PLAYING, slow down playback
-						setPlayerState(ST_SLOW_PLAYING);
+					case ST_PLAYING:
+					case ST_SLOW_PLAYING:
+					case ST_SPEED_PLAYING: // if (SLOW/SPEED)PLAYING, slow playback down
 						slowDown();
 						break;
 					case ST_PAUSED:        // if PAUSED, show previous frame
 						readPreviousData();
 						break;
-					case ST_SPEED_PLAYING: // if SPEED_PLAYING, slow down to a normal playback rate
-						setPlayerState(ST_PLAYING);
-						slowDown();
-						break;
 					default:               // or else, do nothing
 				}
 			} catch (IllegalStateChangeException e) {
@@ -421,17 +1236,11 @@ public class JWMPanel extends JPanel {
 						break;
 					case ST_PAUSED:        // if PAUSED, resume playback
 						setPlayerState(ST_PLAYING);
-						_slowButton.setEnabled(false);
-						_speedButton.setEnabled(false);
 						setSuspended(false);
 						break;
-					case ST_SPEED_PLAYING: // if SPEED_PLAYING, slow down to a normal playback rate
-						setPlayerState(ST_PLAYING);
-						slowDown();
-						break;
-					case ST_SLOW_PLAYING:  // if SLOW_PLAYING, speed up to a normal playback rate
-						setPlayerState(ST_PLAYING);
-						speedUp();
+					case ST_SPEED_PLAYING: // if (SLOW/SPEED)PLAYING, back to a normal playback rate
+					case ST_SLOW_PLAYING:
+						setSpeed(1);
 						break;
 					default:              // or else, do nothing
 				}
@@ -449,14 +1258,10 @@ public class JWMPanel extends JPanel {
 					case ST_SLOW_PLAYING:
 					case ST_SPEED_PLAYING: // if (SLOW/SPEED)PLAYING, pause playback
 						setPlayerState(ST_PAUSED);
-						_slowButton.setEnabled(true);
-						_speedButton.setEnabled(true);
 						setSuspended(true);
 						break;
 					case ST_PAUSED:        // if PAUSED, resume playback
 						setPlayerState(ST_PLAYING);
-						_slowButton.setEnabled(false);
-						_speedButton.setEnabled(false);
 						setSuspended(false);
 						break;
 					default:               // or else, do nothing
@@ -494,17 +1299,14 @@ public class JWMPanel extends JPanel {
 						setPlayerState(ST_PAUSED);
 						readData();
 						break;
-					case ST_PLAYING:      // if PLAYING, speed up playback
-						setPlayerState(ST_SPEED_PLAYING);
+					case ST_PLAYING:
+					case ST_SLOW_PLAYING:
+					case ST_SPEED_PLAYING: // if (SLOW/SPEED)PLAYING, speed playback up
 						speedUp();
 						break;
 					case ST_PAUSED:       // if PAUSED, show next frame
 						readData();
 						break;
-					case ST_SLOW_PLAYING: // if SLOW PLAYING, speed up to a normal playback rate
-						setPlayerState(ST_PLAYING);
-						speedUp();
-						break;
 					default:              // or else, do nothing
 				}
 			} catch (IllegalStateChangeException e) {
@@ -513,38 +1315,302 @@ public class JWMPanel extends JPanel {
 		}
 	}
 	
+	private class LoopInAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// current frame becomes loop start; loop is not active until its end is set
+			clearLoop();
+			_loopStart = Math.max(0, _currentFrame);
+		}
+	}
+	
+	private class LoopOutAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// current frame becomes loop end, and loop frames are kept in the cache
+			if ((_loopStart >= 0) && (_currentFrame >= _loopStart)) {
+				_loopEnd = _currentFrame;
+				_cache.pin(_loopStart, _loopEnd);
+			}
+		}
+	}
+	
+	private class ZoomAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// zoom cycles through fit, 1:1, 2:1 and 4:1 (MAX_ZOOM)
+			setZoom((_zoom == 0) ? 1 : ((_zoom < MAX_ZOOM) ? _zoom * 2 : 0));
+		}
+	}
+	
+	private class FlickerAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// flicker cycles through side by side, timed and on key press
+			setDifference(DIFFERENCE_OFF);
+			setFlicker((_flicker + 1) % (FLICKER_MANUAL + 1));
+		}
+	}
+	
+	private class ToggleAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			toggleFlicker();
+		}
+	}
+	
+	private class DifferenceAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// difference view cycles through Y, Cb, Cr and all planes, and back to both videos
+			setDifference((_difference == YUVConverter.ALL_PLANES) ? DIFFERENCE_OFF : _difference + 1);
+		}
+	}
+	
+	private class AmplifyAction extends AbstractAction {
+		public AmplifyAction(boolean amplify) {
+			_amplify = amplify;
+		}
+		public void actionPerformed(ActionEvent event) {
+			setAmplification(_amplify ? _amplification * 2 : _amplification / 2);
+		}
+		private boolean _amplify;
+	}
+	
+	private class OverlayAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			showStatistics(!_statisticsTimer.isRunning());
+		}
+	}
+	
+	private class StatisticsAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			showStatistics(true);
+		}
+	}
+	
+	private class DumpAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// statistics go on being collected while choosing the file
+			JFileChooser _chooser = new JFileChooser();
+			_chooser.setDialogTitle(I18N.getInstance().getString("label.stats.dump"));
+			_chooser.setSelectedFile(new File("jwmtool-playback.csv"));
+			if (_chooser.showSaveDialog(MainWindow.getInstance()) != JFileChooser.APPROVE_OPTION) {
+				return;
+			}
+			try {
+				_statistics.dump(_chooser.getSelectedFile().getAbsolutePath());
+			} catch (IOException e) {
+				JDialog dialog = new ErrorDialog(MainWindow.getInstance(), I18N.getInstance().getString("exceptions.statistics.unwritable_file"));
+				dialog.setModal(true);
+				dialog.setVisible(true);
+			}
+		}
+	}
+	
+	private class ExportAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// loop range is exported if set, or else the frame being displayed
+			long _first = (_loopEnd >= 0) ? _loopStart : Math.max(0, _currentFrame);
+			long _last  = (_loopEnd >= 0) ? _loopEnd   : Math.max(0, _currentFrame);
+			if (_wmtool.isWatermarking()) { // frames not yet watermarked can not be exported
+				_last = Math.min(_last, _wmtool.getWatermarkedFrames() - 1);
+			}
+			JFileChooser _chooser = new JFileChooser();
+			_chooser.setDialogTitle(I18N.getInstance().getString("label.export"));
+			_chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+			if (_chooser.showSaveDialog(MainWindow.getInstance()) != JFileChooser.APPROVE_OPTION) {
+				return;
+			}
+			new JWMExporter(_chooser.getSelectedFile().getAbsolutePath(), _first, _last).start();
+		}
+	}
+	
 	// ----- ----- ----- WORKING THREAD ----- ----- -----
 	
 	private class JWMWorker extends Thread {
 		public void run() {
 			try {   // Playback process means showing one frame
 				// after the other until EOF for both original
-				// and generated watermarked videostreams
-				JWMFrame _frame = _wmtool.getNextImage();
-				while ( ( getPlayerState() == ST_PLAYING     ) &&
-					( (_frame.getSourceFrame())  != null ) &&
-					( (_frame.getWMarkedFrame()) != null ) &&
-			        	( !isInterrupted()                   ) ) {
-						if ((!_blindProcess) || (_order)) {
-							_leftVideo.setIcon(new ImageIcon(_frame.getSourceFrame()));
-							_rightVideo.setIcon(new ImageIcon(_frame.getWMarkedFrame()));
-						}
-						else {
-							_leftVideo.setIcon(new ImageIcon(_frame.getWMarkedFrame()));
-							_rightVideo.setIcon(new ImageIcon(_frame.getSourceFrame()));
+				// and generated watermarked videostreams, each
+				// one when it is due according to the playback
+				// clock; frames are taken from the frame cache or
+				// the read-ahead decoder (or, when playing fast,
+				// from the proxies), and dropped if playback falls
+				// behind; every step is recorded in the playback
+				// statistics
+				long _index = getNextFrame();
+				_clock.start(_index);
+				JWMFrame _frame = null;
+				while ( isPlaying() && !isInterrupted() ) {
+					long _seek = _seekFrame.getAndSet(-1);
+					if (_seek >= 0) { // seek bar was moved
+						_index = _seek;
+						_clock.start(_index);
+					}
+					int _stride = _clock.getStride();
+					_statistics.setTargetFrameRate(_wmtool.getFrameRate() * _clock.getSpeed() / _stride);
+					long _due = _clock.getFrame();
+					if (_due > _index) { // behind schedule, skip to the frame due now
+						long _dropped = (_due - _index + _stride - 1) / _stride;
+						_index += _dropped * _stride;
+						_statistics.framesDropped(_dropped);
+					}
+					if ((_loopEnd >= 0) && (_index > _loopEnd)) { // back to loop start
+						_index = _loopStart;
+						_clock.start(_index);
+					}
+					boolean _fast = (_proxy != null) && (_clock.getSpeed() > 1) && (_zoom == 0);
+					boolean _direct = _fast || (_zoom > 0); // not from the read-ahead decoder, which records its own times
+					long _start = System.nanoTime();
+					_frame = _fast ? _proxy.getFrame(_index) : getFrame(_index, _stride);
+					if (_frame.isEmpty()) {
+						break;
+					}
+					if (_direct) {
+						_statistics.addTime(PlaybackStats.STAGE_READ, System.nanoTime() - _start);
+						if (_difference == DIFFERENCE_OFF) { // differences are not converted until shown
+							_start = System.nanoTime();
+							_frame.convert();
+							_statistics.addTime(PlaybackStats.STAGE_CONVERT, System.nanoTime() - _start);
 						}
-					_frame = _wmtool.getNextImage();
+					}
+					_clock.waitFor(_index);
+					if (_fast) {
+						showPreview(_frame);
+					}
+					else {
+						showFrame(_frame);
+					}
+					setCurrentFrame(_index);
+					_statistics.frameShown(_decoder.getFill(), _decoder.getCapacity());
+					_index += _stride;
 				}
-				if ((_frame.getSourceFrame() == null) || (_frame.getWMarkedFrame() == null)) {
+				if ((_frame != null) && _frame.isEmpty()) {
+					_decoder.stop();
 					_wmtool.rewind();
+					setCurrentFrame(-1);
 					setPlayerState(ST_READY);
 				}
+			} catch (InterruptedException e) {
 			} catch (IllegalStateChangeException e) {
 				e.printStackTrace();
 			}
 		}
 	}
 	
+	private class JWMWatermarker extends Thread {
+		public JWMWatermarker(int rangeInit, int rangeEnd,
+				      int modificationType, int modificationStep,
+				      int lowLimit, int upperLimit,
+				      int modificationValue, GraphableFunction modificationFunction,
+				      boolean modifyY, boolean modifyU, boolean modifyV) {
+			super("JWMTool watermarker");
+			_rangeInit = rangeInit;
+			_rangeEnd = rangeEnd;
+			_modificationType = modificationType;
+			_modificationStep = modificationStep;
+			_lowLimit = lowLimit;
+			_upperLimit = upperLimit;
+			_modificationValue = modificationValue;
+			_modificationFunction = modificationFunction;
+			_modifyY = modifyY;
+			_modifyU = modifyU;
+			_modifyV = modifyV;
+		}
+		public void waitForFirstFrame() throws WatermarkingException {
+			try {
+				while (isAlive() && (_wmtool.getWatermarkedFrames() == 0)) {
+					join(WATERMARKING_POLL_INTERVAL);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if ((_error != null) && (_wmtool.getWatermarkedFrames() == 0)) { // failed before any frame
+				throw _error;
+			}
+		}
+		public void run() {
+			try {
+				_wmtool.watermark(_rangeInit, _rangeEnd, _modificationType, _modificationStep,
+						  _lowLimit, _upperLimit, _modificationValue, _modificationFunction,
+						  _modifyY, _modifyU, _modifyV);
+				_proxy = _wmtool.openProxy(); // proxies are complete by now
+				if (_disposed && (_proxy != null)) { // panel was disposed meanwhile
+					_proxy.close();
+				}
+			} catch (final WatermarkingException e) {
+				_error = e;
+				if (_wmtool.getWatermarkedFrames() > 0) { // playback panel is already shown
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							JDialog dialog = new ErrorDialog(MainWindow.getInstance(), e.getMessage());
+							dialog.setModal(true);
+							dialog.setVisible(true);
+						}
+					});
+				}
+			}
+		}
+		private int _rangeInit, _rangeEnd, _modificationType, _modificationStep;
+		private int _lowLimit, _upperLimit, _modificationValue;
+		private GraphableFunction _modificationFunction;
+		private boolean _modifyY, _modifyU, _modifyV;
+		private volatile WatermarkingException _error = null;
+	}
+	
+	private class JWMExporter extends Thread {
+		public JWMExporter(String directory, long first, long last) {
+			super("JWMTool exporter");
+			_directory = directory;
+			_first = first;
+			_last  = last;
+		}
+		public void run() {
+			final WaitingDialog _waitingDialog = new WaitingDialog(MainWindow.getInstance(), I18N.getInstance().getString("label.exporting"));
+			Timer _progressTimer = null;
+			FrameExporter _opened = null;
+			String _error = null;
+			try {
+				WatermarkingEngine _engine = _wmtool.getEngine(); // files already open for playback are shared
+				final FrameExporter _exporter = (_engine != null) ? new FrameExporter(_engine)
+										  : new FrameExporter(_filename, _outputFilename);
+				_opened = _exporter;
+				_waitingDialog.setIndeterminate(false);
+				_waitingDialog.setMaximum((int) Math.min(Integer.MAX_VALUE, _last - _first + 1));
+				_progressTimer = new Timer(EXPORT_INTERVAL, new AbstractAction() {
+					public void actionPerformed(ActionEvent event) {
+						_waitingDialog.setValue((int) Math.min(Integer.MAX_VALUE, _exporter.getExportedFrames()));
+					}
+				});
+				_progressTimer.start();
+				_waitingDialog.setCancelAction(new AbstractAction() {
+					public void actionPerformed(ActionEvent event) {
+						setEnabled(false);
+						_exporter.cancel(); // frames already exported are kept
+					}
+				});
+				_waitingDialog.setVisible(true);
+				_exporter.export(_first, _last, 1, _directory);
+			} catch (WatermarkingException e) {
+				_error = e.getMessage();
+			} catch (IOException e) {
+				_error = I18N.getInstance().getString("exceptions.export.unwritable_file");
+			} finally {
+				if (_progressTimer != null) {
+					_progressTimer.stop();
+				}
+				if (_opened != null) {
+					try {
+						_opened.close(); // files are only closed if opened for the export
+					} catch (IOException e) {}
+				}
+				_waitingDialog.setVisible(false);
+			}
+			if (_error != null) {
+				JDialog dialog = new ErrorDialog(MainWindow.getInstance(), _error);
+				dialog.setModal(true);
+				dialog.setVisible(true);
+			}
+		}
+		private String _directory;
+		private long _first, _last;
+	}
+	
 	// ----- ----- ----- ATTRIBUTES ----- ----- -----
 	
 	/**
@@ -559,28 +1625,165 @@ public class JWMPanel extends JPanel {
 	private int _state = ST_NOT_READY;
 	
 	/**
-	 * Title of the videostream to be placed on the left side of the
-	 * playback panel. It will read something like "Original video" if the
-	 * playback process is selected to be non-blind, or else just "Video".
+	 * View of the videostream to be placed on the left side of the
+	 * playback panel. Its title will read something like "Original
+	 * video" if the playback process is selected to be non-blind, or else
+	 * just "Video".
+	 */
+	private VideoView _leftVideo  = null;
+	/**
+	 * View of the videostream to be placed on the right side of the
+	 * playback panel. Its title will read something like "Watermarked
+	 * video" if the playback process is selected to be non-blind, or else
+	 * just "Video".
 	 */
-	private JLabel _leftVideo  = null;
+	private VideoView _rightVideo = null;
 	/**
-	 * Title of the videostream to be placed on the right side of the
-	 * playback panel. It will read something like "Watermarked video" if
-	 * the playback process is selected to be non-blind, or else just
-	 * "Video".
+	 * Border (and title) of the left video.
 	 */
-	private JLabel _rightVideo = null;
+	private TitledBorder _leftBorder = null;
+	/**
+	 * Border (and title) of the right video.
+	 */
+	private TitledBorder _rightBorder = null;
+	/**
+	 * Panel holding both videos (or just the left one, in flicker mode).
+	 */
+	private JPanel _display = null;
+	/**
+	 * Flicker mode.
+	 */
+	private volatile int _flicker = FLICKER_OFF;
+	/**
+	 * Timer switching videos in timed flicker mode.
+	 */
+	private Timer _flickerTimer = null;
+	/**
+	 * View of the differences between both videostreams.
+	 */
+	private VideoView _differenceView = null;
+	/**
+	 * Border (and title) of the difference view.
+	 */
+	private TitledBorder _differenceBorder = null;
+	/**
+	 * Plane whose differences are shown (or
+	 * {@link jwmtool.ui.JWMPanel#DIFFERENCE_OFF DIFFERENCE_OFF}).
+	 */
+	private volatile int _difference = DIFFERENCE_OFF;
+	/**
+	 * Amplification of the differences shown.
+	 */
+	private volatile int _amplification = DEFAULT_AMPLIFICATION;
+	/**
+	 * Image differences are computed into, reused from frame to frame.
+	 */
+	private BufferedImage _differenceImage = null;
 	/**
 	 * Reference to the object in charge of performing the watermarking
 	 * process and generating the output watermarked videostream file.
 	 */
 	private Watermarking _wmtool = null;
+	/**
+	 * Source videostream file name.
+	 */
+	private String _filename = null;
+	/**
+	 * Watermarked videostream (or delta) file name.
+	 */
+	private String _outputFilename = null;
+	/**
+	 * Reference to the object reading from the proxies (scaled down copies)
+	 * of both videostreams, played from while seeking or playing fast
+	 * (<code>null</code> if there are none, or until watermarking is
+	 * finished).
+	 */
+	private volatile Watermarking _proxy = null;
+	/**
+	 * Whether the panel was disposed.
+	 */
+	private volatile boolean _disposed = false;
+	/**
+	 * Auxiliary thread running the watermarking process while playback
+	 * goes on.
+	 */
+	private JWMWatermarker _watermarker = null;
 	/**
 	 * Auxiliary thread to run playback operations without blocking the
 	 * rest of the UI.
 	 */
 	private	JWMWorker _worker    = null;
+	/**
+	 * Decoder running ahead of playback.
+	 */
+	private ReadAheadDecoder _decoder = null;
+	/**
+	 * Clock pacing playback.
+	 */
+	private PlaybackClock _clock = null;
+	/**
+	 * Recently displayed frames.
+	 */
+	private FrameCache _cache = null;
+	/**
+	 * Counters collected from every stage of playback.
+	 */
+	private PlaybackStats _statistics = new PlaybackStats();
+	/**
+	 * Timer refreshing the playback statistics overlay (running while it
+	 * is shown).
+	 */
+	private Timer _statisticsTimer = null;
+	/**
+	 * Number of the frame currently displayed (-1 if none since playback
+	 * was stopped).
+	 */
+	private volatile long _currentFrame = -1;
+	/**
+	 * First frame of the loop range (-1 if none).
+	 */
+	private volatile long _loopStart = -1;
+	/**
+	 * Last frame of the loop range (-1 if loop is not active).
+	 */
+	private volatile long _loopEnd   = -1;
+	/**
+	 * Frame playback has to go on from (-1 if none).
+	 */
+	private AtomicLong _seekFrame = new AtomicLong(-1);
+	/**
+	 * Seek bar.
+	 */
+	private JSlider _seekSlider = null;
+	/**
+	 * Timeline of thumbnails over the seek bar.
+	 */
+	private ThumbnailStrip _thumbnails = null;
+	/**
+	 * Whether moving the seek bar along with playback is pending or not.
+	 */
+	private AtomicBoolean _sliderPending = new AtomicBoolean(false);
+	/**
+	 * Whether the seek bar is being moved along with playback (rather
+	 * than by the user) or not.
+	 */
+	private boolean _sliderUpdating = false;
+	/**
+	 * Zoom factor of both videos (0 if frames fit the window).
+	 */
+	private volatile int _zoom = 0;
+	/**
+	 * Left edge of the region of the frames visible when zoomed in.
+	 */
+	private volatile int _viewX = 0;
+	/**
+	 * Top edge of the region of the frames visible when zoomed in.
+	 */
+	private volatile int _viewY = 0;
+	/**
+	 * Mouse position frames were last panned from.
+	 */
+	private int _dragX = 0, _dragY = 0;
 	/**
 	 * Auxiliary flag to help relocate frames when the playback is blind.
 	 */
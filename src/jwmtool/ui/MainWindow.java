@@ -9,6 +9,7 @@ import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ImageIcon;
 import javax.swing.JDialog;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
@@ -20,6 +21,7 @@ import javax.swing.border.EtchedBorder;
 import jwmtool.lib.Watermarking;
 
 import jwmtool.util.I18N;
+import jwmtool.util.YUVFileFilter;
 import jwmtool.util.exceptions.InvalidParameterException;
 import jwmtool.util.exceptions.WatermarkingException;
 
@@ -69,6 +71,12 @@ public class MainWindow extends JFrame {
 		_execAction.putValue(Action.SMALL_ICON, new ImageIcon(getClass().getResource("/jwmtool/images/16x16/execute.png")));
 		_execAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("menu.watermarking.execute.description"));
 		_execMenuItem.setAction(_execAction);
+		JMenuItem _compareMenuItem = new JMenuItem();
+		Action    _compareAction   = new CompareAction();
+		_compareAction.putValue(Action.NAME, I18N.getInstance().getString("menu.watermarking.compare"));
+		_compareAction.putValue(Action.SMALL_ICON, new ImageIcon(getClass().getResource("/jwmtool/images/16x16/execute.png")));
+		_compareAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("menu.watermarking.compare.description"));
+		_compareMenuItem.setAction(_compareAction);
 		
 		// Create help menu
 		JMenu     _helpMenu = new JMenu(I18N.getInstance().getString("menu.help"));
@@ -85,12 +93,14 @@ public class MainWindow extends JFrame {
 		_wmMenu.setMnemonic(Integer.valueOf(I18N.getInstance().getString("shortcut.menu.watermarking")).intValue());
 		_configMenuItem.setMnemonic(Integer.valueOf(I18N.getInstance().getString("shortcut.menu.watermarking.configure")).intValue());
 		_execMenuItem.setMnemonic(Integer.valueOf(I18N.getInstance().getString("shortcut.menu.watermarking.execute")).intValue());
+		_compareMenuItem.setMnemonic(Integer.valueOf(I18N.getInstance().getString("shortcut.menu.watermarking.compare")).intValue());
 		_helpMenu.setMnemonic(Integer.valueOf(I18N.getInstance().getString("shortcut.menu.help")).intValue());
 		_aboutMenuItem.setMnemonic(Integer.valueOf(I18N.getInstance().getString("shortcut.menu.help.about")).intValue());
 		
 		_appMenu.add(_exitMenuItem);
 		_wmMenu.add(_configMenuItem);
 		_wmMenu.add(_execMenuItem);
+		_wmMenu.add(_compareMenuItem);
 		_helpMenu.add(_aboutMenuItem);
 		_menuBar.add(_appMenu);
 		_menuBar.add(_wmMenu);
@@ -133,6 +143,21 @@ public class MainWindow extends JFrame {
 		return _window;
 	}
 	
+	/**
+	 * Disposes the panel currently displayed, if any, so that it stops
+	 * playing and closes its files before being replaced.
+	 */
+	private void disposeContent() {
+		if (_displayPanel != null) {
+			_displayPanel.dispose();
+			_displayPanel = null;
+		}
+		if (_variantPanel != null) {
+			_variantPanel.dispose();
+			_variantPanel = null;
+		}
+	}
+	
 	// ----- ----- ----- ACTIONS ----- ----- -----
 	
 	private class ExitAction extends AbstractAction {
@@ -204,6 +229,42 @@ public class MainWindow extends JFrame {
 		}
 	}
 	
+	private class CompareAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// choose a source videostream, then any number of watermarked versions of it
+			JFileChooser _chooser = new JFileChooser();
+			_chooser.setFileFilter(new YUVFileFilter());
+			_chooser.setDialogTitle(I18N.getInstance().getString("label.variants.source"));
+			if (_chooser.showOpenDialog(MainWindow.getInstance()) != JFileChooser.APPROVE_OPTION) {
+				return;
+			}
+			String _source = _chooser.getSelectedFile().getAbsolutePath();
+			_chooser.setDialogTitle(I18N.getInstance().getString("label.variants.variants"));
+			_chooser.setMultiSelectionEnabled(true);
+			if ((_chooser.showOpenDialog(MainWindow.getInstance()) != JFileChooser.APPROVE_OPTION) ||
+			    (_chooser.getSelectedFiles().length == 0)) {
+				return;
+			}
+			String[] _variants = new String[_chooser.getSelectedFiles().length];
+			for (int i = 0; i < _variants.length; i++) {
+				_variants[i] = _chooser.getSelectedFiles()[i].getAbsolutePath();
+			}
+			try {
+				VariantPanel _panel = new VariantPanel(_source, _variants);
+				disposeContent();
+				_variantPanel = _panel;
+				MainWindow.getInstance().getContentPane().removeAll();
+				MainWindow.getInstance().getContentPane().add(_variantPanel, BorderLayout.CENTER);
+				MainWindow.getInstance().setLocation(75, 75);
+				MainWindow.getInstance().pack();
+			} catch (WatermarkingException e) {
+				JDialog dialog = new ErrorDialog(MainWindow.getInstance(), e.getMessage());
+				dialog.setModal(true);
+				dialog.setVisible(true);
+			}
+		}
+	}
+	
 	private class AboutAction extends AbstractAction {
 		public void actionPerformed(ActionEvent event) {
 			JDialog dialog = new AboutDialog(MainWindow.getInstance());
@@ -218,12 +279,15 @@ public class MainWindow extends JFrame {
 		public void run() {
 			try {
 				_waitingDialog.setVisible(true);
-				// time-consuming operation
-				_displayPanel = new JWMPanel(_filename, _outputFilename,
-							     _rangeInit, _rangeEnd, _modificationType, _modificationStep,
-							     _lowLimit, _upperLimit, _modificationValue, _modificationFunction,
-							     _modifyY, _modifyU, _modifyV, _blindProcess);
+				// time-consuming operation (until the first frame is
+				// watermarked; the rest is watermarked in the background)
+				JWMPanel _panel = new JWMPanel(_filename, _outputFilename,
+							       _rangeInit, _rangeEnd, _modificationType, _modificationStep,
+							       _lowLimit, _upperLimit, _modificationValue, _modificationFunction,
+							       _modifyY, _modifyU, _modifyV, _blindProcess);
 				// previous operation can take quite some time
+				disposeContent();
+				_displayPanel = _panel;
 				MainWindow.getInstance().getContentPane().removeAll();
 				MainWindow.getInstance().getContentPane().add(_displayPanel, BorderLayout.CENTER);
 				MainWindow.getInstance().setLocation(75, 75);
@@ -258,6 +322,11 @@ public class MainWindow extends JFrame {
 	 * will be shown after watermarking process.
 	 */
 	private JWMPanel _displayPanel = null;
+	/**
+	 * Panel where a source videostream and several watermarked versions
+	 * of it are played in a grid.
+	 */
+	private VariantPanel _variantPanel = null;
 	
 	/**
 	 * Input (source videostream) filename.
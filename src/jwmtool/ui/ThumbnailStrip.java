@@ -0,0 +1,209 @@
+package jwmtool.ui;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Insets;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.swing.JComponent;
+
+import jwmtool.lib.Watermarking;
+
+/**
+ * Component displaying a timeline of thumbnails of a videostream, one
+ * every few frames. Thumbnails are generated in the background by a
+ * low-priority thread, coarsest first (every other thumbnail of those
+ * not generated yet, each round), so that the whole timeline is soon
+ * covered and then refined; each thumbnail is decoded at its (small)
+ * size, straight from the videostream file.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class ThumbnailStrip extends JComponent {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * Height of thumbnails, in pixels.
+	 */
+	public static final int THUMBNAIL_HEIGHT = 48;
+	/**
+	 * Maximum number of thumbnails generated (frames sampled are spread
+	 * evenly over the videostream).
+	 */
+	public static final int MAX_THUMBNAILS = 256;
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a ThumbnailStrip. Thumbnails are not generated until
+	 * {@link #start start()} is invoked.
+	 *
+	 * @param wmtool Watermarking object to read frames from.
+	 */
+	public ThumbnailStrip(Watermarking wmtool) {
+		super();
+		_wmtool      = wmtool;
+		_frameCount  = Math.max(1, wmtool.getFrameCount());
+		_step        = Math.max(1, (_frameCount + MAX_THUMBNAILS - 1) / MAX_THUMBNAILS);
+		_thumbnails  = new AtomicReferenceArray<Image>((int) ((_frameCount + _step - 1) / _step));
+		_thumbHeight = Math.min(THUMBNAIL_HEIGHT, wmtool.getHeight());
+		_thumbWidth  = Math.max(1, (int) ((long) wmtool.getWidth() * _thumbHeight / Math.max(1, wmtool.getHeight())));
+		setOpaque(true);
+	}
+
+	/**
+	 * Starts generating thumbnails in the background.
+	 */
+	public synchronized void start() {
+		if (_generator == null) {
+			_generator = new ThumbnailGenerator();
+			_generator.start();
+		}
+	}
+
+	/**
+	 * Stops generating thumbnails. The generator is told to stop after
+	 * current thumbnail, and waited for, so that it no longer reads from
+	 * the videostream file once this method returns.
+	 */
+	public synchronized void stop() {
+		if (_generator != null) {
+			_generator.finish();
+			try {
+				_generator.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			_generator = null;
+		}
+	}
+
+	/**
+	 * Returns the number of frames in the timeline.
+	 *
+	 * @return Number of frames.
+	 */
+	public long getFrameCount() {
+		return _frameCount;
+	}
+
+	/**
+	 * Returns the thumbnail generated so far closest to a given frame.
+	 *
+	 * @param frame Frame number.
+	 * @return Thumbnail, or <code>null</code> if none was generated yet.
+	 */
+	public Image getThumbnail(long frame) {
+		int length = _thumbnails.length();
+		int index  = (int) Math.max(0, Math.min(length - 1, (frame + _step / 2) / _step));
+		for (int distance = 0; distance < length; distance++) {
+			if ((index - distance >= 0) && (_thumbnails.get(index - distance) != null)) {
+				return _thumbnails.get(index - distance);
+			}
+			if ((index + distance < length) && (_thumbnails.get(index + distance) != null)) {
+				return _thumbnails.get(index + distance);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns component preferred size: as wide as its container allows,
+	 * and as high as thumbnails, plus borders.
+	 *
+	 * @return Preferred size.
+	 */
+	public Dimension getPreferredSize() {
+		Insets insets = getInsets();
+		return new Dimension(_thumbWidth + insets.left + insets.right,
+				     _thumbHeight + insets.top + insets.bottom);
+	}
+
+	/**
+	 * Paints as many thumbnails as fit the component width, each one the
+	 * closest to the frame at its place in the timeline.
+	 *
+	 * @param g Graphics context.
+	 */
+	protected void paintComponent(Graphics g) {
+		Insets insets = getInsets();
+		int width = getWidth() - insets.left - insets.right;
+		g.setColor(getBackground());
+		g.fillRect(0, 0, getWidth(), getHeight());
+		int tiles = Math.max(1, width / _thumbWidth);
+		for (int i = 0; i < tiles; i++) {
+			long frame = (long) ((i + 0.5) * _frameCount / tiles);
+			Image thumbnail = getThumbnail(frame);
+			if (thumbnail != null) {
+				g.drawImage(thumbnail, insets.left + (int) ((long) i * width / tiles), insets.top, null);
+			}
+		}
+	}
+
+	// ----- ----- ----- WORKING THREAD ----- ----- -----
+
+	private class ThumbnailGenerator extends Thread {
+		public ThumbnailGenerator() {
+			super("ThumbnailGenerator");
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+		public void finish() {
+			_finished = true;
+		}
+		public void run() {
+			// coarsest spacing first: 0, n/2, n/4, 3n/4, n/8...
+			int spacing = Integer.highestOneBit(_thumbnails.length());
+			for (; (spacing > 0) && !_finished; spacing /= 2) {
+				for (int i = 0; (i < _thumbnails.length()) && !_finished; i += spacing) {
+					if (_thumbnails.get(i) == null) {
+						Image thumbnail = _wmtool.getThumbnail(i * _step, _thumbWidth, _thumbHeight);
+						if (thumbnail == null) { // end of stream, or file closed
+							return;
+						}
+						_thumbnails.set(i, thumbnail);
+						repaint();
+					}
+				}
+			}
+		}
+		private volatile boolean _finished = false;
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Watermarking object to read frames from.
+	 */
+	private Watermarking _wmtool = null;
+	/**
+	 * Number of frames in the timeline.
+	 */
+	private long _frameCount = 0;
+	/**
+	 * Distance (in frames) between frames thumbnails are generated of.
+	 */
+	private long _step = 1;
+	/**
+	 * Thumbnails generated so far (<code>null</code> where not yet).
+	 */
+	private AtomicReferenceArray<Image> _thumbnails = null;
+	/**
+	 * Thumbnail width, in pixels.
+	 */
+	private int _thumbWidth = 0;
+	/**
+	 * Thumbnail height, in pixels.
+	 */
+	private int _thumbHeight = 0;
+	/**
+	 * Background thumbnail generator (<code>null</code> if not running).
+	 */
+	private ThumbnailGenerator _generator = null;
+
+}
@@ -0,0 +1,338 @@
+package jwmtool.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.GraphicsEnvironment;
+import java.awt.GridLayout;
+import java.awt.Insets;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+
+import java.io.File;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.ImageIcon;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.border.LineBorder;
+import javax.swing.border.TitledBorder;
+
+import jwmtool.lib.JWMFrame;
+import jwmtool.lib.PlaybackClock;
+import jwmtool.lib.VariantSet;
+
+import jwmtool.util.I18N;
+import jwmtool.util.exceptions.WatermarkingException;
+
+/**
+ * Panel playing a source videostream alongside several watermarked
+ * versions of it (variants), in a grid, in sync: every view shows the
+ * same frame number at the same time. Frames are obtained through a
+ * {@link jwmtool.lib.VariantSet VariantSet}, which reads each source
+ * frame once and decodes each variant on a worker of its own; next frame
+ * is decoded while current one is being displayed.
+ * 
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class VariantPanel extends JPanel {
+	
+	// ----- ----- ----- METHODS ----- ----- -----
+	
+	/**
+	 * Creates and displays variants playback panel, showing the first
+	 * frame.
+	 *
+	 * @param filename Source file name.
+	 * @param variantFilenames Variant (watermarked videostream or delta)
+	 *                         file names.
+	 * @throws WatermarkingException If any of the files can not be read.
+	 */
+	public VariantPanel(String filename, String[] variantFilenames) throws WatermarkingException {
+		super();
+		_variants = new VariantSet(filename, variantFilenames);
+		_clock = new PlaybackClock(_variants.getFrameRate());
+		
+		// UI creation: source first, then variants, in as square a grid as possible
+		_views = new VideoView[variantFilenames.length + 1];
+		int _columns = (int) Math.ceil(Math.sqrt(_views.length));
+		int _rows    = (_views.length + _columns - 1) / _columns;
+		Dimension _cell = new Dimension(_variants.getWidth(), _variants.getHeight());
+		if (!GraphicsEnvironment.isHeadless()) { // the whole grid fits the screen
+			Rectangle _screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+			double _scale = Math.min(1.0, Math.min((double) _screen.width / (_columns * _cell.width),
+							       (double) _screen.height * 3 / 4 / (_rows * _cell.height)));
+			_cell = new Dimension(Math.max(1, (int) (_cell.width * _scale)), Math.max(1, (int) (_cell.height * _scale)));
+		}
+		JPanel _grid = new JPanel(new GridLayout(_rows, _columns));
+		for (int i = 0; i < _views.length; i++) {
+			_views[i] = new VideoView(_variants.getWidth(), _variants.getHeight());
+			_views[i].setPreferredSize(_cell);
+			String _title = (i == 0) ? I18N.getInstance().getString("label.video.original") : new File(variantFilenames[i - 1]).getName();
+			_views[i].setBorder(new TitledBorder(new LineBorder((i == 0) ? Color.BLUE : Color.RED, 1, true), _title));
+			_grid.add(_views[i]);
+		}
+		setLayout(new BorderLayout());
+		add(_grid, BorderLayout.CENTER);
+		add(createControlPanel(), BorderLayout.SOUTH);
+		showFrame(0);
+	}
+	
+	/**
+	 * Stops playback and closes the source videostream and every variant,
+	 * stopping their worker threads. To be invoked once the panel is no
+	 * longer displayed.
+	 */
+	public void dispose() {
+		stopWorker();
+		_variants.close();
+	}
+	
+	/**
+	 * Create and arrange panel components.
+	 *
+	 * @return {@link javax.swing.JPanel Panel} and components properly
+	 *         arranged.
+	 */
+	private JPanel createControlPanel() {
+		JPanel _controlPanel = new JPanel(new GridBagLayout());
+		GridBagConstraints _constraints;
+		
+		// Pause button
+		PauseAction _pauseAction = new PauseAction();
+		_pauseAction.putValue(Action.NAME, I18N.getInstance().getString("label.pause"));
+		_pauseAction.putValue(Action.SMALL_ICON, new ImageIcon(getClass().getResource("/jwmtool/images/16x16/pause.png")));
+		_pauseAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.pause.description"));
+		JButton _pauseButton = new JButton();
+		_pauseButton.setAction(_pauseAction);
+		_pauseButton.setPreferredSize(new Dimension(125, 22));
+		
+		// Play button
+		PlayAction _playAction = new PlayAction();
+		_playAction.putValue(Action.NAME, I18N.getInstance().getString("label.play"));
+		_playAction.putValue(Action.SMALL_ICON, new ImageIcon(getClass().getResource("/jwmtool/images/16x16/play.png")));
+		_playAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.play.description"));
+		JButton _playButton = new JButton();
+		_playButton.setAction(_playAction);
+		_playButton.setPreferredSize(new Dimension(125, 22));
+		
+		// Stop button
+		StopAction _stopAction = new StopAction();
+		_stopAction.putValue(Action.NAME, I18N.getInstance().getString("label.stop"));
+		_stopAction.putValue(Action.SMALL_ICON, new ImageIcon(getClass().getResource("/jwmtool/images/16x16/stop.png")));
+		_stopAction.putValue(Action.SHORT_DESCRIPTION, I18N.getInstance().getString("label.stop.description"));
+		JButton _stopButton = new JButton();
+		_stopButton.setAction(_stopAction);
+		_stopButton.setPreferredSize(new Dimension(125, 22));
+		
+		// Set layout
+		_constraints = new GridBagConstraints();
+		_constraints.gridx = 0;
+		_constraints.gridy = 0;
+		_constraints.insets = new Insets(10, 5, 10, 5);
+		_controlPanel.add(_pauseButton, _constraints);
+		_constraints = new GridBagConstraints();
+		_constraints.gridx = 1;
+		_constraints.gridy = 0;
+		_constraints.insets = new Insets(10, 5, 10, 5);
+		_controlPanel.add(_playButton, _constraints);
+		_constraints = new GridBagConstraints();
+		_constraints.gridx = 2;
+		_constraints.gridy = 0;
+		_constraints.insets = new Insets(10, 5, 10, 5);
+		_controlPanel.add(_stopButton, _constraints);
+		
+		return _controlPanel;
+	}
+	
+	/**
+	 * Starts playback from the frame after current one, unless playing.
+	 */
+	private void start() {
+		if ((_worker == null) || (!_worker.isAlive())) {
+			_worker = new VariantWorker();
+			_worker.start();
+		}
+	}
+	
+	/**
+	 * Stops playback thread, waiting for it to finish.
+	 */
+	private void stopWorker() {
+		if (_worker != null) {
+			_worker.interrupt();
+			try {
+				_worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			_worker = null;
+		}
+	}
+	
+	/**
+	 * Shows a given frame of the source videostream and every variant,
+	 * while not playing.
+	 *
+	 * @param index Frame number.
+	 */
+	private void showFrame(long index) {
+		try {
+			JWMFrame[] _frames = _variants.fetch(index, getDisplayWidth(), getDisplayHeight()).get();
+			if (!isEmpty(_frames)) {
+				showFrames(_frames);
+				_currentFrame = index;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Displays a frame of the source videostream and every variant. May be
+	 * called from any thread.
+	 *
+	 * @param frames Frames, one per variant, sharing the same source
+	 *               image.
+	 */
+	private void showFrames(JWMFrame[] frames) {
+		_views[0].setImage(frames[0].getSourceFrame());
+		for (int i = 0; i < frames.length; i++) {
+			_views[i + 1].setImage(frames[i].getWMarkedFrame());
+		}
+	}
+	
+	/**
+	 * Returns the width frames are displayed at (all views are the same
+	 * size).
+	 *
+	 * @return Display width, in pixels.
+	 */
+	private int getDisplayWidth() {
+		return _views[0].getDisplaySize().width;
+	}
+	
+	/**
+	 * Returns the height frames are displayed at (all views are the same
+	 * size).
+	 *
+	 * @return Display height, in pixels.
+	 */
+	private int getDisplayHeight() {
+		return _views[0].getDisplaySize().height;
+	}
+	
+	/**
+	 * Whether any of the frames of the source videostream or a variant is
+	 * missing (e.g. the end of the videostreams was reached).
+	 *
+	 * @param frames Frames, one per variant.
+	 * @return Whether frames are not complete.
+	 */
+	private static boolean isEmpty(JWMFrame[] frames) {
+		for (int i = 0; i < frames.length; i++) {
+			if (frames[i].isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// ----- ----- ----- ACTIONS ----- ----- -----
+	
+	private class PlayAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			start();
+		}
+	}
+	
+	private class PauseAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// pause playback, or resume it if paused
+			if ((_worker != null) && (_worker.isAlive())) {
+				stopWorker();
+			}
+			else {
+				start();
+			}
+		}
+	}
+	
+	private class StopAction extends AbstractAction {
+		public void actionPerformed(ActionEvent event) {
+			// stop playback, back to the first frame
+			stopWorker();
+			_currentFrame = -1;
+			showFrame(0);
+		}
+	}
+	
+	// ----- ----- ----- WORKING THREAD ----- ----- -----
+	
+	private class VariantWorker extends Thread {
+		public void run() {
+			try {   // Playback process means showing one frame of
+				// every videostream after the other, each one
+				// when it is due according to the playback
+				// clock; next frames are decoded while current
+				// ones are shown, and frames are dropped if
+				// playback falls behind
+				long _index = _currentFrame + 1;
+				_clock.start(_index);
+				Future<JWMFrame[]> _next = _variants.fetch(_index, getDisplayWidth(), getDisplayHeight());
+				while (!isInterrupted()) {
+					JWMFrame[] _frames = _next.get();
+					if (isEmpty(_frames)) {
+						_currentFrame = -1; // end of videostreams, play from the beginning next time
+						break;
+					}
+					long _following = Math.max(_index + 1, _clock.getFrame() + 1);
+					_next = _variants.fetch(_following, getDisplayWidth(), getDisplayHeight());
+					_clock.waitFor(_index);
+					showFrames(_frames);
+					_currentFrame = _index;
+					_index = _following;
+				}
+			} catch (InterruptedException e) {
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	// ----- ----- ----- ATTRIBUTES ----- ----- -----
+	
+	/**
+	 * Source videostream and variants being played.
+	 */
+	private VariantSet _variants = null;
+	/**
+	 * Views of the source videostream (first) and each variant.
+	 */
+	private VideoView[] _views = null;
+	/**
+	 * Clock pacing playback.
+	 */
+	private PlaybackClock _clock = null;
+	/**
+	 * Auxiliary thread to run playback operations without blocking the
+	 * rest of the UI (<code>null</code> if not playing).
+	 */
+	private VariantWorker _worker = null;
+	/**
+	 * Number of the frame currently displayed (-1 if none since playback
+	 * was stopped).
+	 */
+	private volatile long _currentFrame = -1;
+	
+}
@@ -0,0 +1,539 @@
+package jwmtool.ui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Insets;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JComponent;
+
+import jwmtool.lib.PlaybackStats;
+
+/**
+ * Component displaying a videostream. Frames are copied into an image
+ * which is updated in place (and only allocated again when frames of a
+ * different size are set), so that showing a frame creates no objects and
+ * triggers no layout. Frames can be set from any thread: the component is
+ * repainted on the event dispatch thread, and consecutive frames set
+ * before it gets painted result in a single repaint. <br/>
+ *
+ * Frames are displayed centered, scaled down to fit the component if
+ * needed, so that they can be set already scaled down to its
+ * {@link #getDisplaySize() display size} (and are then painted as they
+ * are). When zoomed in, frames are instead regions as large as its
+ * {@link #getVisibleSize() visible size}, magnified pixel by pixel.
+ * Thumbnails can be displayed as a preview of frames, stretched to fit.
+ * <br/>
+ *
+ * A pair of frames (e.g. source and watermarked) can be set at once, and
+ * then displayed alternately: both are copied into images of their own,
+ * so that switching between them just repaints the other one (the image
+ * of the alternate frame is only allocated once a pair is first set, so
+ * views never showing pairs do not hold it). <br/>
+ *
+ * A few lines of text (e.g. playback statistics) can be overlaid on the
+ * frames, and how long painting takes can be recorded in a
+ * {@link jwmtool.lib.PlaybackStats PlaybackStats}.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class VideoView extends JComponent {
+
+	// ----- ----- ----- PUBLIC CLASS VARIABLES ----- ----- -----
+
+	/**
+	 * Fraction of the size that fits the component a 1/2 or 1/4 frame
+	 * size must reach to be displayed instead.
+	 */
+	public static final double SNAP_FRACTION = 0.9;
+	/**
+	 * Font of overlaid text.
+	 */
+	public static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+	/**
+	 * Background of overlaid text.
+	 */
+	public static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 160);
+	/**
+	 * Margin (in pixels) around overlaid text.
+	 */
+	public static final int OVERLAY_MARGIN = 4;
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Creates a VideoView.
+	 *
+	 * @param width Frame width, in pixels.
+	 * @param height Frame height, in pixels.
+	 */
+	public VideoView(int width, int height) {
+		super();
+		_width  = width;
+		_height = height;
+		allocate(width, height);
+		setOpaque(true);
+	}
+
+	/**
+	 * Displays a frame. May be called from any thread.
+	 *
+	 * @param frame Frame to be displayed.
+	 */
+	public void setImage(Image frame) {
+		setImages(frame, null, false);
+	}
+
+	/**
+	 * Displays one of a pair of frames, keeping the other one to be
+	 * {@link #setAlternate displayed instead} at once. May be called from
+	 * any thread.
+	 *
+	 * @param frame Frame to be displayed (unless the alternate frame was
+	 *              being displayed).
+	 * @param alternate Alternate frame.
+	 */
+	public void setImages(Image frame, Image alternate) {
+		setImages(frame, alternate, false);
+	}
+
+	/**
+	 * Displays a thumbnail standing for a frame, which is stretched to fit
+	 * the component. May be called from any thread.
+	 *
+	 * @param thumbnail Thumbnail to be displayed.
+	 */
+	public void setPreview(Image thumbnail) {
+		setImages(thumbnail, null, true);
+	}
+
+	/**
+	 * Displays one of a pair of thumbnails standing for a pair of frames
+	 * (see {@link #setImages setImages()}), stretched to fit the
+	 * component. May be called from any thread.
+	 *
+	 * @param thumbnail Thumbnail to be displayed.
+	 * @param alternate Alternate thumbnail.
+	 */
+	public void setPreviews(Image thumbnail, Image alternate) {
+		setImages(thumbnail, alternate, true);
+	}
+
+	/**
+	 * Selects which frame of current pair is displayed. No frame is
+	 * converted or copied: the component is just repainted.
+	 *
+	 * @param alternate Whether the alternate frame is displayed or not.
+	 */
+	public void setAlternate(boolean alternate) {
+		_alternate = alternate;
+		repaint();
+	}
+
+	/**
+	 * Whether the alternate frame of current pair is displayed or not.
+	 *
+	 * @return Whether the alternate frame is displayed.
+	 */
+	public boolean isAlternate() {
+		return _alternate;
+	}
+
+	/**
+	 * Returns the size frames are to be displayed at: that fitting the
+	 * component (keeping frames aspect ratio, and never larger than the
+	 * frames), or 1/2 or 1/4 of frame size if close enough to it, as frames
+	 * are fastest to scale down by those.
+	 *
+	 * @return Display size, in pixels.
+	 */
+	public Dimension getDisplaySize() {
+		Insets insets = getInsets();
+		int areaWidth  = getWidth()  - insets.left - insets.right;
+		int areaHeight = getHeight() - insets.top  - insets.bottom;
+		if ((areaWidth <= 0) || (areaHeight <= 0)) {
+			return new Dimension(_width, _height);
+		}
+		Dimension fit = getFitSize(_width, _height, areaWidth, areaHeight);
+		for (int factor = 1; factor <= 4; factor *= 2) {
+			int width  = Math.max(1, _width / factor);
+			int height = Math.max(1, _height / factor);
+			if ((width <= fit.width) && (height <= fit.height) && (width >= SNAP_FRACTION * fit.width)) {
+				return new Dimension(width, height);
+			}
+		}
+		return fit;
+	}
+
+	/**
+	 * Sets zoom factor frames are magnified by.
+	 *
+	 * @param zoom Zoom factor (0 to fit frames to the component).
+	 */
+	public void setZoom(int zoom) {
+		_zoom = zoom;
+		repaint();
+	}
+
+	/**
+	 * Returns zoom factor frames are magnified by.
+	 *
+	 * @return Zoom factor (0 if frames fit the component).
+	 */
+	public int getZoom() {
+		return _zoom;
+	}
+
+	/**
+	 * Returns the size of the region of the frames visible at current
+	 * zoom factor.
+	 *
+	 * @return Visible size, in (frame) pixels; frame size if frames fit
+	 *         the component.
+	 */
+	public Dimension getVisibleSize() {
+		Insets insets = getInsets();
+		int areaWidth  = getWidth()  - insets.left - insets.right;
+		int areaHeight = getHeight() - insets.top  - insets.bottom;
+		int zoom = _zoom;
+		if ((zoom <= 0) || (areaWidth <= 0) || (areaHeight <= 0)) {
+			return new Dimension(_width, _height);
+		}
+		return new Dimension(Math.min(_width,  (areaWidth  + zoom - 1) / zoom),
+				     Math.min(_height, (areaHeight + zoom - 1) / zoom));
+	}
+
+	/**
+	 * Returns component preferred size: that of the frames, plus borders,
+	 * but no larger than half the screen width (as two videostreams are
+	 * shown side by side) or three quarters of the screen height, unless
+	 * set explicitly.
+	 *
+	 * @return Preferred size.
+	 */
+	public Dimension getPreferredSize() {
+		if (isPreferredSizeSet()) {
+			return super.getPreferredSize();
+		}
+		Insets insets = getInsets();
+		Dimension size = new Dimension(_width, _height);
+		if (!GraphicsEnvironment.isHeadless()) {
+			Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+			size = getFitSize(_width, _height,
+					  Math.max(1, screen.width / 2 - insets.left - insets.right),
+					  Math.max(1, screen.height * 3 / 4 - insets.top - insets.bottom));
+		}
+		return new Dimension(size.width + insets.left + insets.right,
+				     size.height + insets.top + insets.bottom);
+	}
+
+	/**
+	 * Sets some lines of text to be overlaid on the frames.
+	 *
+	 * @param overlay Lines of text (<code>null</code> for none).
+	 */
+	public void setOverlay(String[] overlay) {
+		_overlay = overlay;
+		repaint();
+	}
+
+	/**
+	 * Sets where to record how long painting takes.
+	 *
+	 * @param statistics Playback statistics (<code>null</code> for none).
+	 */
+	public void setStatistics(PlaybackStats statistics) {
+		_statistics = statistics;
+	}
+
+	/**
+	 * Paints current frame (see {@link #paintFrame paintFrame()}), and
+	 * overlaid text, if any.
+	 *
+	 * @param g Graphics context.
+	 */
+	protected void paintComponent(Graphics g) {
+		long start = System.nanoTime();
+		Graphics frameGraphics = g.create();
+		try {
+			paintFrame(frameGraphics);
+		} finally {
+			frameGraphics.dispose();
+		}
+		PlaybackStats statistics = _statistics;
+		if (statistics != null) {
+			statistics.addTime(PlaybackStats.STAGE_PAINT, System.nanoTime() - start);
+		}
+		String[] overlay = _overlay;
+		if (overlay != null) {
+			paintOverlay(g, overlay);
+		}
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Paints current frame (or the alternate one), centered and scaled
+	 * down to fit the component if larger (or magnified by zoom factor, if
+	 * zoomed in).
+	 *
+	 * @param g Graphics context.
+	 */
+	private void paintFrame(Graphics g) {
+		_dirty.set(false);
+		Insets insets = getInsets();
+		int areaWidth  = getWidth()  - insets.left - insets.right;
+		int areaHeight = getHeight() - insets.top  - insets.bottom;
+		g.setColor(getBackground());
+		g.fillRect(0, 0, getWidth(), getHeight());
+		if ((areaWidth <= 0) || (areaHeight <= 0)) {
+			return;
+		}
+		synchronized (this) {
+			BufferedImage image = (_alternate && _paired) ? _alternateImage : _image;
+			int zoom = _zoom;
+			if (zoom > 0) {
+				int width  = image.getWidth()  * zoom;
+				int height = image.getHeight() * zoom;
+				int x = insets.left + Math.max(0, (areaWidth  - width)  / 2);
+				int y = insets.top  + Math.max(0, (areaHeight - height) / 2);
+				((Graphics2D) g).setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+				g.clipRect(insets.left, insets.top, areaWidth, areaHeight);
+				g.drawImage(image, x, y, width, height, null);
+				return;
+			}
+			Dimension size = _stretched ? getStretchedSize(image.getWidth(), image.getHeight(), areaWidth, areaHeight)
+						    : getFitSize(image.getWidth(), image.getHeight(), areaWidth, areaHeight);
+			int x = insets.left + (areaWidth  - size.width)  / 2;
+			int y = insets.top  + (areaHeight - size.height) / 2;
+			if ((size.width == image.getWidth()) && (size.height == image.getHeight())) {
+				g.drawImage(image, x, y, null);
+			}
+			else {
+				((Graphics2D) g).setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g.drawImage(image, x, y, size.width, size.height, null);
+			}
+		}
+	}
+
+	/**
+	 * Paints some lines of text on a translucent box at the top left
+	 * corner of the component.
+	 *
+	 * @param g Graphics context.
+	 * @param overlay Lines of text.
+	 */
+	private void paintOverlay(Graphics g, String[] overlay) {
+		Insets insets = getInsets();
+		g.setFont(OVERLAY_FONT);
+		FontMetrics metrics = g.getFontMetrics();
+		int width = 0;
+		for (int i = 0; i < overlay.length; i++) {
+			width = Math.max(width, metrics.stringWidth(overlay[i]));
+		}
+		int x = insets.left + OVERLAY_MARGIN;
+		int y = insets.top  + OVERLAY_MARGIN;
+		g.setColor(OVERLAY_BACKGROUND);
+		g.fillRect(x, y, width + 2 * OVERLAY_MARGIN, overlay.length * metrics.getHeight() + 2 * OVERLAY_MARGIN);
+		g.setColor(Color.WHITE);
+		for (int i = 0; i < overlay.length; i++) {
+			g.drawString(overlay[i], x + OVERLAY_MARGIN, y + OVERLAY_MARGIN + i * metrics.getHeight() + metrics.getAscent());
+		}
+	}
+
+	/**
+	 * Displays a frame, or a thumbnail standing for it, and keeps an
+	 * alternate one.
+	 *
+	 * @param frame Frame to be displayed.
+	 * @param alternate Alternate frame (<code>null</code> if none).
+	 * @param stretched Whether they are stretched to fit the component.
+	 */
+	private void setImages(Image frame, Image alternate, boolean stretched) {
+		synchronized (this) {
+			if ((frame.getWidth(null) != _image.getWidth()) || (frame.getHeight(null) != _image.getHeight())) {
+				allocate(frame.getWidth(null), frame.getHeight(null));
+			}
+			copy(frame, _pixels, _graphics);
+			if (alternate != null) {
+				if (_alternateImage == null) { // only views showing pairs of frames need it
+					allocateAlternate(_image.getWidth(), _image.getHeight());
+				}
+				copy(alternate, _alternatePixels, _alternateGraphics);
+			}
+			_paired    = (alternate != null);
+			_stretched = stretched;
+		}
+		if (!_dirty.getAndSet(true)) { // a repaint is already pending otherwise
+			repaint();
+		}
+	}
+
+	/**
+	 * Copies a frame into one of the images held.
+	 *
+	 * @param frame Frame to be copied (as large as the image).
+	 * @param pixels Pixels of the image.
+	 * @param graphics Graphics context of the image, to draw frames which
+	 *                 can not be copied directly.
+	 */
+	private static void copy(Image frame, int[] pixels, Graphics2D graphics) {
+		if ((frame instanceof BufferedImage) &&
+		    (((BufferedImage) frame).getType() == BufferedImage.TYPE_INT_RGB) &&
+		    (((BufferedImage) frame).getRaster().getDataBuffer() instanceof DataBufferInt) &&
+		    (((DataBufferInt) ((BufferedImage) frame).getRaster().getDataBuffer()).getData().length == pixels.length)) {
+			System.arraycopy(((DataBufferInt) ((BufferedImage) frame).getRaster().getDataBuffer()).getData(), 0, pixels, 0, pixels.length);
+		}
+		else {
+			graphics.drawImage(frame, 0, 0, null);
+		}
+	}
+
+	/**
+	 * Allocates the image holding current frame. The one holding the
+	 * alternate frame, if any, is released, and allocated again (at the
+	 * new size) when an alternate frame is first kept.
+	 *
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 */
+	private void allocate(int width, int height) {
+		if (_graphics != null) {
+			_graphics.dispose();
+		}
+		if (_alternateGraphics != null) {
+			_alternateGraphics.dispose();
+		}
+		_image    = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		_pixels   = ((DataBufferInt) _image.getRaster().getDataBuffer()).getData();
+		_graphics = _image.createGraphics();
+		_alternateImage    = null;
+		_alternatePixels   = null;
+		_alternateGraphics = null;
+		_paired = false;
+	}
+
+	/**
+	 * Allocates the image holding the alternate frame.
+	 *
+	 * @param width Width, in pixels.
+	 * @param height Height, in pixels.
+	 */
+	private void allocateAlternate(int width, int height) {
+		_alternateImage    = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		_alternatePixels   = ((DataBufferInt) _alternateImage.getRaster().getDataBuffer()).getData();
+		_alternateGraphics = _alternateImage.createGraphics();
+	}
+
+	/**
+	 * Returns the largest size, keeping the aspect ratio of a frame and
+	 * never larger than it, fitting a given area.
+	 *
+	 * @param width Frame width, in pixels.
+	 * @param height Frame height, in pixels.
+	 * @param areaWidth Area width, in pixels.
+	 * @param areaHeight Area height, in pixels.
+	 * @return Fitting size, in pixels.
+	 */
+	private static Dimension getFitSize(int width, int height, int areaWidth, int areaHeight) {
+		double scale = Math.min(1.0, Math.min((double) areaWidth / width, (double) areaHeight / height));
+		return new Dimension(Math.max(1, (int) (width * scale)), Math.max(1, (int) (height * scale)));
+	}
+
+	/**
+	 * Returns the largest size, keeping the aspect ratio of a frame,
+	 * fitting a given area (even if larger than the frame).
+	 *
+	 * @param width Frame width, in pixels.
+	 * @param height Frame height, in pixels.
+	 * @param areaWidth Area width, in pixels.
+	 * @param areaHeight Area height, in pixels.
+	 * @return Fitting size, in pixels.
+	 */
+	private static Dimension getStretchedSize(int width, int height, int areaWidth, int areaHeight) {
+		double scale = Math.min((double) areaWidth / width, (double) areaHeight / height);
+		return new Dimension(Math.max(1, (int) (width * scale)), Math.max(1, (int) (height * scale)));
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Frame width, in pixels.
+	 */
+	private int _width = 0;
+	/**
+	 * Frame height, in pixels.
+	 */
+	private int _height = 0;
+	/**
+	 * Zoom factor frames are magnified by (0 to fit frames to the
+	 * component).
+	 */
+	private volatile int _zoom = 0;
+	/**
+	 * Whether current frame is a thumbnail, stretched to fit the
+	 * component.
+	 */
+	private volatile boolean _stretched = false;
+	/**
+	 * Image holding current frame.
+	 */
+	private BufferedImage _image = null;
+	/**
+	 * Pixels of current frame.
+	 */
+	private int[] _pixels = null;
+	/**
+	 * Graphics context to draw frames which can not be copied directly.
+	 */
+	private Graphics2D _graphics = null;
+	/**
+	 * Image holding the alternate frame (<code>null</code> until an
+	 * alternate frame is kept).
+	 */
+	private BufferedImage _alternateImage = null;
+	/**
+	 * Pixels of the alternate frame.
+	 */
+	private int[] _alternatePixels = null;
+	/**
+	 * Graphics context to draw alternate frames which can not be copied
+	 * directly.
+	 */
+	private Graphics2D _alternateGraphics = null;
+	/**
+	 * Whether current frame has an alternate one or not.
+	 */
+	private boolean _paired = false;
+	/**
+	 * Whether the alternate frame is displayed instead of current one.
+	 */
+	private volatile boolean _alternate = false;
+	/**
+	 * Whether a repaint has been requested and not performed yet.
+	 */
+	private AtomicBoolean _dirty = new AtomicBoolean(false);
+	/**
+	 * Lines of text overlaid on the frames (<code>null</code> if none).
+	 */
+	private volatile String[] _overlay = null;
+	/**
+	 * Where to record how long painting takes (<code>null</code> for
+	 * nowhere).
+	 */
+	private volatile PlaybackStats _statistics = null;
+
+}
@@ -3,6 +3,8 @@ package jwmtool.ui;
 import java.awt.BorderLayout;
 import java.awt.Insets;
 
+import javax.swing.Action;
+import javax.swing.JButton;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -35,18 +37,32 @@ public class WaitingDialog extends JDialog {
          *              dialog.
 	 */
 	public WaitingDialog(JFrame owner) {
+		this(owner, I18N.getInstance().getString("label.watermarking"));
+	}
+	
+	/**
+	 * Creates a <code>WaitingDialog</code> for some other time-consuming
+	 * activity.
+	 *
+	 * @param owner Parent window ({@link javax.swing.JFrame frame}) for the
+	 *              dialog.
+	 * @param message Message describing the activity.
+	 */
+	public WaitingDialog(JFrame owner, String message) {
 		super(owner, I18N.getInstance().getString("label.waiting"));
 		setDefaultLookAndFeelDecorated(false);
 		
 		JPanel _waiting = new JPanel(new BorderLayout(10, 10));
 		JLabel _waitingImage     = new JLabel(UIManager.getIcon("OptionPane.informationIcon"));
-		JLabel _waitingMessage   = new JLabel(I18N.getInstance().getString("label.watermarking"));
+		JLabel _waitingMessage   = new JLabel(message);
 		_waitingBar = new JProgressBar(0, 100);
 		_waitingBar.setIndeterminate(true);
+		_waitingProgress = new JPanel(new BorderLayout(10, 10));
+		_waitingProgress.add(_waitingBar, BorderLayout.CENTER);
 		
 		_waiting.add(_waitingImage, BorderLayout.WEST);
 		_waiting.add(_waitingMessage, BorderLayout.CENTER);
-		_waiting.add(_waitingBar, BorderLayout.SOUTH);
+		_waiting.add(_waitingProgress, BorderLayout.SOUTH);
 		_waiting.setBorder(new EmptyBorder(new Insets(10, 10, 10, 10)));
 		setContentPane(_waiting);
 		setResizable(false);
@@ -84,11 +100,27 @@ public class WaitingDialog extends JDialog {
 		_waitingBar.setValue(n);
 	}
 	
+	/**
+	 * Adds a cancel button next to the progress bar, for activities which
+	 * can be stopped before they finish.
+	 *
+	 * @param cancelAction Action stopping the activity.
+	 */
+	public void setCancelAction(Action cancelAction) {
+		cancelAction.putValue(Action.NAME, I18N.getInstance().getString("label.cancel"));
+		_waitingProgress.add(new JButton(cancelAction), BorderLayout.EAST);
+		pack();
+	}
+	
 	// ----- ----- ----- ATTRIBUTES ----- ----- -----
 	
 	/**
 	 * 
 	 */
 	private JProgressBar _waitingBar = null;
+	/**
+	 * Panel holding the progress bar (and the cancel button, if any).
+	 */
+	private JPanel _waitingProgress = null;
 	
 }
@@ -82,7 +82,7 @@ public class I18N {
 		try {
 			res = _messages.getString(key);
 		} catch (MissingResourceException ex) {
-			System.out.println("[jwmtool.util.I18N] No se encuentra: " + key);
+			System.err.println("[jwmtool.util.I18N] No se encuentra: " + key);
 		}
 		return res;
 	}
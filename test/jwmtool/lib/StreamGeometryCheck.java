@@ -0,0 +1,89 @@
+package jwmtool.lib;
+
+import java.math.BigInteger;
+
+/**
+ * Checks the frame offset arithmetic of
+ * {@link jwmtool.lib.StreamGeometry StreamGeometry} for videostreams
+ * larger than 2 GB (and 4 GB), without any such file: offsets and frame
+ * counts are just computed, and compared with the same values computed
+ * with no overflow. Run by the <code>test</code> target, it exits with a
+ * non-zero status if any check fails.
+ *
+ * @author Laura Castro
+ * @version 0.6
+ */
+
+public class StreamGeometryCheck {
+
+	// ----- ----- ----- METHODS -----  ----- -----
+
+	/**
+	 * Runs all checks.
+	 *
+	 * @param args Not used.
+	 * @throws Exception If any geometry can not be obtained.
+	 */
+	public static void main(String[] args) throws Exception {
+		check("YUV4MPEG2 W1920 H1080 F25:1 Ip A1:1 C420jpeg", 1920L * 1080 * 3 / 2);
+		check("YUV4MPEG2 W1920 H1080 F25:1 Ip A1:1 C410",     1920L * 1080 * 9 / 8);
+		check("YUV4MPEG2 W3840 H2160 F25:1 Ip A1:1 C444",     3840L * 2160 * 3);
+		if (_failures > 0) {
+			System.err.println("StreamGeometry: " + _failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("StreamGeometry: all checks passed");
+	}
+
+	// ----- ----- ----- UTILITY STUFF ----- ----- -----
+
+	/**
+	 * Checks frame offsets and frame counts of a videostream, for frames
+	 * lying before and beyond 2 GB and 4 GB.
+	 *
+	 * @param header Stream header.
+	 * @param frameSize Size of frame data (without frame header), in
+	 *                  bytes.
+	 * @throws Exception If the geometry can not be obtained.
+	 */
+	private static void check(String header, long frameSize) throws Exception {
+		StreamGeometry geometry = StreamGeometry.fromHeader(header);
+		BigInteger headerLength      = BigInteger.valueOf(header.length() + 1);
+		BigInteger frameHeaderLength = BigInteger.valueOf(Watermarking.FRAME_HEADER.length() + 1);
+		BigInteger frameLength       = frameHeaderLength.add(BigInteger.valueOf(frameSize));
+		long[] frames = { 0, 1,
+				  (1L << 31) / frameLength.longValue() + 1,   // first frame past 2 GB
+				  (1L << 32) / frameLength.longValue() + 1,   // first frame past 4 GB
+				  1000000 };
+		for (int i = 0; i < frames.length; i++) {
+			BigInteger frame  = BigInteger.valueOf(frames[i]);
+			BigInteger offset = headerLength.add(frame.multiply(frameLength)).add(frameHeaderLength);
+			expect(header + ", offset of frame " + frames[i], offset.longValue(), geometry.getFrameOffset(frames[i]));
+			BigInteger length = headerLength.add(frame.add(BigInteger.ONE).multiply(frameLength));
+			expect(header + ", frames in " + length + " bytes", frames[i] + 1, geometry.getFrameCount(length.longValue()));
+		}
+	}
+
+	/**
+	 * Compares a computed value with the expected one, reporting any
+	 * mismatch.
+	 *
+	 * @param what Description of the value.
+	 * @param expected Expected value.
+	 * @param actual Computed value.
+	 */
+	private static void expect(String what, long expected, long actual) {
+		if (actual != expected) {
+			System.err.println(what + ": expected " + expected + ", got " + actual);
+			_failures++;
+		}
+	}
+
+	// ----- ----- ----- ATTRIBUTES -----  ----- -----
+
+	/**
+	 * Number of failed checks.
+	 */
+	private static int _failures = 0;
+
+}